@@ -0,0 +1,279 @@
+package edu.stanford.graphics.shapenet.jme3.asset;
+
+import com.jme3.asset.AssetEventListener;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.MaterialKey;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamTexture;
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retention policy for the cache of a DesktopAssetManager (instead of clearing the whole cache between loads).
+ * Engine assets (material definitions, shaders, fonts, and assets under the pinned folders) stay in the cache,
+ *   so they are not loaded and compiled again for every model.
+ * Other assets (models and their textures) are tracked as they are loaded, and the least recently used
+ *   are removed from the cache when there are more than maxBytes of them (trim).
+ * Assets loaded while a model is loaded (beginLoad/endLoad on the same thread) belong to the model
+ *   and can be removed with dropAssets.
+ * @author Angel Chang
+ */
+public class AssetCachePolicy implements AssetEventListener {
+  private static final Logger logger = Logger.getLogger(AssetCachePolicy.class.getName());
+
+  private static final List<String> ENGINE_EXTENSIONS = Arrays.asList(
+      "j3md", "j3m", "j3sn", "vert", "frag", "geom", "tsctrl", "tseval", "glsl", "glsllib", "fnt");
+
+  private static class Entry {
+    final String owner;
+    long bytes;
+
+    Entry(String owner, long bytes) {
+      this.owner = owner;
+      this.bytes = bytes;
+    }
+  }
+
+  private final DesktopAssetManager assetManager;
+  private final List<String> pinnedFolders = new ArrayList<String>(Arrays.asList("Common/", "Interface/", "Shaders/", "MatDefs/"));
+  // Maximum size (in bytes) of the model assets kept in the cache when it is trimmed
+  private long maxBytes = 64L*1024*1024;
+  private final LinkedHashMap<AssetKey<?>, Entry> entries = new LinkedHashMap<AssetKey<?>, Entry>(64, 0.75f, true);
+  private long bytes = 0;
+  private final ThreadLocal<String> owner = new ThreadLocal<String>();
+
+  public AssetCachePolicy(DesktopAssetManager assetManager) {
+    this.assetManager = assetManager;
+    assetManager.addAssetEventListener(this);
+  }
+
+  /**
+   * Stops tracking the assets loaded by the asset manager (the assets already in the cache stay there)
+   */
+  public synchronized void dispose() {
+    assetManager.removeAssetEventListener(this);
+    entries.clear();
+    bytes = 0;
+  }
+
+  public void setMaxBytes(long nbytes) {
+    maxBytes = nbytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Assets in the folder are kept in the cache (the folder name is relative to the asset locators)
+   */
+  public synchronized void addPinnedFolder(String folder) {
+    pinnedFolders.add(folder.endsWith("/")? folder : folder + "/");
+  }
+
+  /**
+   * Checks if the asset is an engine asset that is never removed from the cache
+   */
+  public synchronized boolean isPinned(AssetKey<?> key) {
+    if (key instanceof MaterialKey || ENGINE_EXTENSIONS.contains(key.getExtension().toLowerCase())) {
+      return true;
+    }
+    String name = key.getName();
+    for (String folder : pinnedFolders) {
+      if (name.startsWith(folder)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Assets loaded by this thread (until endLoad) belong to the given model
+   */
+  public void beginLoad(String modelId) {
+    owner.set(modelId);
+  }
+
+  public void endLoad() {
+    owner.remove();
+  }
+
+  @SuppressWarnings("rawtypes")
+  public void assetRequested(AssetKey key) {
+    synchronized (this) {
+      // Mark as recently used
+      entries.get(key);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  public void assetLoaded(AssetKey key) {
+    track(key);
+  }
+
+  private void track(AssetKey<?> key) {
+    if (key.getCacheType() == null || isPinned(key)) {
+      return;
+    }
+    long size = estimateSize(assetManager.getFromCache(key));
+    synchronized (this) {
+      Entry old = entries.put(key, new Entry(owner.get(), size));
+      bytes += size - ((old != null)? old.bytes : 0);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  public void assetDependencyNotFound(AssetKey parentKey, AssetKey dependentAssetKey) {
+  }
+
+  /**
+   * Removes the least recently used model assets from the cache until they are under the byte budget
+   */
+  public synchronized void trim() {
+    int n = 0;
+    Iterator<Map.Entry<AssetKey<?>, Entry>> iterator = entries.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<AssetKey<?>, Entry> entry = iterator.next();
+      assetManager.deleteFromCache(entry.getKey());
+      bytes -= entry.getValue().bytes;
+      iterator.remove();
+      n++;
+    }
+    if (n > 0) {
+      logger.log(Level.FINE, "Removed {0} assets from the cache, kept {1} ({2} bytes)", new Object[]{n, entries.size(), bytes});
+    }
+  }
+
+  /**
+   * Removes the assets of a model from the cache
+   * @param modelId Model (as given to beginLoad)
+   * @return Number of assets removed
+   */
+  public synchronized int dropAssets(String modelId) {
+    int n = 0;
+    Iterator<Map.Entry<AssetKey<?>, Entry>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<AssetKey<?>, Entry> entry = iterator.next();
+      if (modelId.equals(entry.getValue().owner)) {
+        assetManager.deleteFromCache(entry.getKey());
+        bytes -= entry.getValue().bytes;
+        iterator.remove();
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Removes all model assets from the cache (engine assets are kept)
+   */
+  public synchronized void clear() {
+    for (AssetKey<?> key : entries.keySet()) {
+      assetManager.deleteFromCache(key);
+    }
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Removes everything from the cache (including engine assets)
+   */
+  public synchronized void clearAll() {
+    assetManager.clearCache();
+    entries.clear();
+    bytes = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Estimates the memory used by a loaded asset (the buffers of meshes and the images of textures,
+   *   each mesh and image is counted once)
+   */
+  public static long estimateSize(Object asset) {
+    if (asset instanceof Texture) {
+      return getSize(((Texture) asset).getImage());
+    } else if (asset instanceof Spatial) {
+      final long[] size = new long[1];
+      final Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+      ((Spatial) asset).depthFirstTraversal(new SceneGraphVisitorAdapter() {
+        @Override
+        public void visit(Geometry geom) {
+          Mesh mesh = geom.getMesh();
+          if (mesh != null && seen.put(mesh, Boolean.TRUE) == null) {
+            for (VertexBuffer vb : mesh.getBufferList()) {
+              size[0] += getSize(vb.getData());
+            }
+          }
+          Material material = geom.getMaterial();
+          if (material != null) {
+            for (MatParam param : material.getParams()) {
+              if (param instanceof MatParamTexture) {
+                Texture texture = ((MatParamTexture) param).getTextureValue();
+                Image image = (texture != null)? texture.getImage() : null;
+                if (image != null && seen.put(image, Boolean.TRUE) == null) {
+                  size[0] += getSize(image);
+                }
+              }
+            }
+          }
+        }
+      });
+      return size[0];
+    } else {
+      return 0;
+    }
+  }
+
+  private static long getSize(Image image) {
+    long size = 0;
+    if (image != null) {
+      for (ByteBuffer buffer : image.getData()) {
+        size += getSize(buffer);
+      }
+    }
+    return size;
+  }
+
+  private static long getSize(Buffer buffer) {
+    if (buffer == null) {
+      return 0;
+    } else if (buffer instanceof ByteBuffer) {
+      return buffer.capacity();
+    } else if (buffer instanceof ShortBuffer) {
+      return 2L * buffer.capacity();
+    } else if (buffer instanceof DoubleBuffer || buffer instanceof LongBuffer) {
+      return 8L * buffer.capacity();
+    } else {
+      return 4L * buffer.capacity();
+    }
+  }
+}
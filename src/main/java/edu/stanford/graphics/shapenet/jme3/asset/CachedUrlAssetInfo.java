@@ -21,6 +21,10 @@ public class CachedUrlAssetInfo extends AssetInfo {
     return new CachedUrlAssetInfo(assetManager, key, url);
   }
 
+  public URL getUrl() {
+    return url;
+  }
+
   public File getFile() {
     if (cachedFile == null) {
       cachedFile = WebUtils.cachedFile(url);
@@ -0,0 +1,107 @@
+package edu.stanford.graphics.shapenet.jme3.asset;
+
+import com.jme3.texture.Image;
+import com.jme3.util.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Downscales images with a box filter (each pixel is the average of the block of pixels it covers).
+ * Only uncompressed 2D images with 8 bits per channel and no mipmaps are supported.
+ * @author Angel Chang
+ */
+public class ImageScaler {
+
+  /**
+   * Returns the number of bytes per pixel of a format that can be scaled (0 if the format is not supported)
+   */
+  public static int getBytesPerPixel(Image.Format format) {
+    switch (format) {
+      case Alpha8:
+      case Luminance8:
+        return 1;
+      case Luminance8Alpha8:
+        return 2;
+      case RGB8:
+      case BGR8:
+        return 3;
+      case RGBA8:
+      case ABGR8:
+      case ARGB8:
+      case BGRA8:
+        return 4;
+      default:
+        return 0;
+    }
+  }
+
+  public static boolean canScale(Image image) {
+    return image != null && image.getData().size() == 1 && image.getData(0) != null
+        && !image.hasMipmaps() && image.getDepth() <= 1
+        && getBytesPerPixel(image.getFormat()) > 0;
+  }
+
+  /**
+   * Downscales the image so its largest edge is at most maxSize
+   * @param image Image to downscale
+   * @param maxSize Maximum size of the largest edge (in pixels)
+   * @return Downscaled image, or the same image if it is small enough or cannot be scaled
+   */
+  public static Image downscale(Image image, int maxSize) {
+    if (maxSize <= 0 || !canScale(image)) {
+      return image;
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int maxEdge = Math.max(width, height);
+    if (maxEdge <= maxSize) {
+      return image;
+    }
+    double scale = (double) maxSize / maxEdge;
+    int newWidth = Math.max(1, (int) Math.round(width * scale));
+    int newHeight = Math.max(1, (int) Math.round(height * scale));
+    ByteBuffer data = boxFilter(image.getData(0), width, height, newWidth, newHeight, getBytesPerPixel(image.getFormat()));
+    return new Image(image.getFormat(), newWidth, newHeight, data, image.getColorSpace());
+  }
+
+  private static ByteBuffer boxFilter(ByteBuffer src, int width, int height, int newWidth, int newHeight, int bpp) {
+    ByteBuffer dst = BufferUtils.createByteBuffer(newWidth * newHeight * bpp);
+    // Range of source columns covered by each destination column
+    int[] x0 = new int[newWidth + 1];
+    for (int x = 0; x <= newWidth; x++) {
+      x0[x] = (int) ((long) x * width / newWidth);
+    }
+    long[] sums = new long[newWidth * bpp];
+    byte[] row = new byte[width * bpp];
+    ByteBuffer in = src.duplicate();
+    for (int y = 0; y < newHeight; y++) {
+      int y0 = (int) ((long) y * height / newHeight);
+      int y1 = (int) ((long) (y + 1) * height / newHeight);
+      Arrays.fill(sums, 0);
+      for (int sy = y0; sy < y1; sy++) {
+        in.position(sy * row.length);
+        in.get(row);
+        int p = 0;
+        for (int x = 0; x < newWidth; x++) {
+          int s = x * bpp;
+          for (int sx = x0[x]; sx < x0[x + 1]; sx++) {
+            for (int c = 0; c < bpp; c++) {
+              sums[s + c] += row[p++] & 0xff;
+            }
+          }
+        }
+      }
+      int rows = y1 - y0;
+      for (int x = 0; x < newWidth; x++) {
+        long n = (long) rows * (x0[x + 1] - x0[x]);
+        int s = x * bpp;
+        for (int c = 0; c < bpp; c++) {
+          dst.put((byte) ((sums[s + c] + n / 2) / n));
+        }
+      }
+    }
+    dst.flip();
+    return dst;
+  }
+}
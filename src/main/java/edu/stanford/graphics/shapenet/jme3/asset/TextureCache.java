@@ -0,0 +1,362 @@
+package edu.stanford.graphics.shapenet.jme3.asset;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.TextureKey;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import edu.stanford.graphics.shapenet.util.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide cache of decoded textures, shared by the model loaders (obj/mtl, collada, utf8)
+ *   so a texture file used by many models is only decoded once.
+ * Textures are keyed by the canonical location of the image (file path and modification time, or url) and the settings
+ *   that change the decoded image or the texture (flip, mipmaps, wrap mode).
+ * The location of a texture name is only looked up (through the locators of the asset manager) the first time,
+ *   and looked up again if the file is gone.
+ * The least recently used textures are evicted when the size of the cached images goes over the byte budget.
+ * A texture from the cache is a clone sharing the cached image, so callers can change its settings.
+ * Textures that don't have a global location (e.g. inside a kmz being loaded) are not cached.
+ * Images larger than the maximum texture size are downscaled (with a box filter) when they are decoded,
+ *   and a texture that is being decoded is shared by all the loads asking for it.
+ * Loaders can prefetch the textures they will need so they are decoded in parallel on the cpu executor (see Threads).
+ * @author Angel Chang
+ */
+public class TextureCache {
+  private static final Logger logger = Logger.getLogger(TextureCache.class.getName());
+
+  // Maximum size (in bytes) of the cached images (0 or less to disable the cache)
+  private static long maxBytes = 256L*1024*1024;
+
+  // Maximum size (in pixels) of the largest edge of a decoded image (0 or less to keep the original size)
+  private static int maxTextureSize = 0;
+
+  private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  // Textures that are being decoded
+  private static final Map<String, FutureTask<Texture>> pending = new HashMap<String, FutureTask<Texture>>();
+  private static long bytes = 0;
+  // Resolved locations of the texture names, per asset manager (see getLocation)
+  private static final Map<AssetManager, Map<String, Location>> locations = new WeakHashMap<AssetManager, Map<String, Location>>();
+  private static final int MAX_LOCATIONS = 4096;
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong evictions = new AtomicLong();
+
+  private static class Entry {
+    final Texture texture;
+    final long bytes;
+
+    Entry(Texture texture, long bytes) {
+      this.texture = texture;
+      this.bytes = bytes;
+    }
+  }
+
+  private static class Location {
+    // Canonical file (null for an url)
+    final File file;
+    final String location;
+
+    Location(File file, String location) {
+      this.file = file;
+      this.location = location;
+    }
+  }
+
+  public static void setMaxBytes(long nbytes) {
+    synchronized (cache) {
+      maxBytes = nbytes;
+      evict();
+    }
+  }
+
+  public static long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public static void setMaxTextureSize(int size) {
+    maxTextureSize = size;
+  }
+
+  public static int getMaxTextureSize() {
+    return maxTextureSize;
+  }
+
+  /**
+   * Loads a texture through the cache
+   * @param assetManager Asset manager used to locate and decode the texture
+   * @param key Texture key
+   * @param wrap Wrap mode to set on the texture (null to keep the default)
+   * @return Texture (a clone sharing the cached image)
+   */
+  public static Texture loadTexture(AssetManager assetManager, TextureKey key, Texture.WrapMode wrap) {
+    String cacheKey = (maxBytes > 0)? getCacheKey(assetManager, key, wrap) : null;
+    if (cacheKey == null) {
+      return decode(assetManager, key, wrap);
+    }
+    FutureTask<Texture> task;
+    synchronized (cache) {
+      Entry entry = cache.get(cacheKey);
+      if (entry != null) {
+        hits.incrementAndGet();
+        return entry.texture.clone();
+      }
+      task = pending.get(cacheKey);
+      if (task == null) {
+        task = createTask(assetManager, key, wrap, cacheKey);
+        pending.put(cacheKey, task);
+        misses.incrementAndGet();
+      } else {
+        // Prefetched or being decoded for another load
+        hits.incrementAndGet();
+      }
+    }
+    // Decodes the texture here if no other thread has started decoding it (otherwise waits for it)
+    task.run();
+    return getTexture(task).clone();
+  }
+
+  /**
+   * Starts decoding a texture on the cpu executor (if it is not already cached or being decoded)
+   *   so a later loadTexture with the same arguments doesn't have to wait for the whole decode.
+   * Textures that cannot be cached are not prefetched.
+   */
+  public static void prefetchTexture(AssetManager assetManager, TextureKey key, Texture.WrapMode wrap) {
+    String cacheKey = (maxBytes > 0)? getCacheKey(assetManager, key, wrap) : null;
+    if (cacheKey == null) {
+      return;
+    }
+    FutureTask<Texture> task;
+    synchronized (cache) {
+      if (cache.containsKey(cacheKey) || pending.containsKey(cacheKey)) {
+        return;
+      }
+      task = createTask(assetManager, key, wrap, cacheKey);
+      pending.put(cacheKey, task);
+    }
+    misses.incrementAndGet();
+    Threads.cpu().execute(task);
+  }
+
+  private static FutureTask<Texture> createTask(final AssetManager assetManager, final TextureKey key,
+                                                final Texture.WrapMode wrap, final String cacheKey) {
+    return new FutureTask<Texture>(new Callable<Texture>() {
+      public Texture call() {
+        Texture texture = null;
+        try {
+          texture = decode(assetManager, key, wrap);
+          return texture;
+        } finally {
+          synchronized (cache) {
+            pending.remove(cacheKey);
+            if (texture != null) {
+              long size = getSize(texture.getImage());
+              Entry old = cache.put(cacheKey, new Entry(texture, size));
+              bytes += size - ((old != null)? old.bytes : 0);
+              evict();
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private static Texture getTexture(Future<Texture> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new AssetLoadException("Interrupted while loading texture", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new AssetLoadException("Error loading texture", cause);
+      }
+    }
+  }
+
+  /**
+   * Decodes the texture (downscaling the image if it is bigger than the maximum texture size)
+   */
+  private static Texture decode(AssetManager assetManager, TextureKey key, Texture.WrapMode wrap) {
+    Texture texture = assetManager.loadTexture(key);
+    if (maxTextureSize > 0) {
+      Image image = texture.getImage();
+      Image scaled = ImageScaler.downscale(image, maxTextureSize);
+      if (scaled != image) {
+        logger.log(Level.FINE, "Downscaled texture {0} from {1}x{2} to {3}x{4}", new Object[]{
+            key.getName(), image.getWidth(), image.getHeight(), scaled.getWidth(), scaled.getHeight()});
+        texture.setImage(scaled);
+      }
+    }
+    if (wrap != null) {
+      texture.setWrap(wrap);
+    }
+    return texture;
+  }
+
+  public static Texture loadTexture(AssetManager assetManager, String name, Texture.WrapMode wrap) {
+    TextureKey key = new TextureKey(name, true);
+    key.setGenerateMips(true);
+    return loadTexture(assetManager, key, wrap);
+  }
+
+  /**
+   * Returns the key of the texture in the cache,
+   *   or null if the texture doesn't have a canonical location
+   */
+  private static String getCacheKey(AssetManager assetManager, TextureKey key, Texture.WrapMode wrap) {
+    if (key.getClass() != TextureKey.class) {
+      // Keys specific to one load (e.g. textures in a kmz)
+      return null;
+    }
+    String location = getLocation(assetManager, key);
+    if (location == null) {
+      return null;
+    }
+    return location + "|flip=" + key.isFlipY() + "|mips=" + key.isGenerateMips()
+        + "|type=" + key.getTextureTypeHint() + "|wrap=" + wrap + "|max=" + maxTextureSize;
+  }
+
+  /**
+   * Returns the canonical location of the texture (with the modification time for a file),
+   *   or null if the texture is not a file or an url.
+   * The location found by the asset manager is remembered for the texture name,
+   *   it is looked up again if the file no longer exists.
+   */
+  private static String getLocation(AssetManager assetManager, TextureKey key) {
+    Location resolved;
+    synchronized (locations) {
+      Map<String, Location> resolvedByName = locations.get(assetManager);
+      resolved = (resolvedByName != null)? resolvedByName.get(key.getName()) : null;
+    }
+    if (resolved != null && resolved.file != null) {
+      long modified = resolved.file.lastModified();
+      if (modified != 0) {
+        return resolved.location + "|mtime=" + modified;
+      }
+    } else if (resolved != null) {
+      return resolved.location;
+    }
+    resolved = locate(assetManager, key);
+    if (resolved == null) {
+      return null;
+    }
+    synchronized (locations) {
+      Map<String, Location> resolvedByName = locations.get(assetManager);
+      if (resolvedByName == null) {
+        resolvedByName = new LinkedHashMap<String, Location>(64, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+            return size() > MAX_LOCATIONS;
+          }
+        };
+        locations.put(assetManager, resolvedByName);
+      }
+      resolvedByName.put(key.getName(), resolved);
+    }
+    return (resolved.file != null)? resolved.location + "|mtime=" + resolved.file.lastModified() : resolved.location;
+  }
+
+  private static Location locate(AssetManager assetManager, TextureKey key) {
+    AssetInfo info = assetManager.locateAsset(key);
+    if (info instanceof AssetInfoFile) {
+      File file;
+      try {
+        file = ((AssetInfoFile) info).file.getCanonicalFile();
+      } catch (IOException ex) {
+        file = ((AssetInfoFile) info).file.getAbsoluteFile();
+      }
+      return new Location(file, file.getPath());
+    } else if (info instanceof CachedUrlAssetInfo) {
+      return new Location(null, ((CachedUrlAssetInfo) info).getUrl().toString());
+    } else {
+      return null;
+    }
+  }
+
+  private static long getSize(Image image) {
+    long size = 0;
+    if (image != null) {
+      for (Buffer buffer : image.getData()) {
+        if (buffer != null) {
+          size += buffer.capacity();
+        }
+      }
+    }
+    return size;
+  }
+
+  private static void evict() {
+    Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Entry> entry = iterator.next();
+      bytes -= entry.getValue().bytes;
+      iterator.remove();
+      evictions.incrementAndGet();
+      logger.log(Level.FINE, "Evicted texture {0}", entry.getKey());
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      bytes = 0;
+    }
+    synchronized (locations) {
+      locations.clear();
+    }
+  }
+
+  public static long getHits() {
+    return hits.get();
+  }
+
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  public static long getEvictions() {
+    return evictions.get();
+  }
+
+  public static long getBytes() {
+    synchronized (cache) {
+      return bytes;
+    }
+  }
+
+  public static int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public static String getStats() {
+    synchronized (cache) {
+      return "TextureCache: " + cache.size() + " textures, " + (bytes/(1024*1024)) + "/" + (maxBytes/(1024*1024)) + "MB, "
+          + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions";
+    }
+  }
+}
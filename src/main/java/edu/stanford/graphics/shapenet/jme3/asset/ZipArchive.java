@@ -0,0 +1,258 @@
+package edu.stanford.graphics.shapenet.jme3.asset;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Random access to the entries of a zip archive, either a file (opened as a ZipFile)
+ * or the bytes of an archive (only the central directory is read, entries are inflated when they are opened).
+ * For the bytes of an archive, entry names are UTF-8 if flagged so (bit 11 of the general purpose flags),
+ *   otherwise UTF-8 if they are valid UTF-8 (some tools don't set the flag) and CP437 if not.
+ * @author Angel Chang
+ */
+public abstract class ZipArchive implements Closeable {
+
+  /**
+   * Opens a zip file
+   */
+  public static ZipArchive open(File file) throws IOException {
+    return new FileZipArchive(new ZipFile(file));
+  }
+
+  /**
+   * Reads the bytes of a zip archive from the stream (without inflating any entries)
+   */
+  public static ZipArchive read(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputBytes = new ByteArrayOutputStream(65536);
+    byte[] bytes = new byte[65536];
+    int read;
+    while ((read = inputStream.read(bytes)) > 0) {
+      outputBytes.write(bytes, 0, read);
+    }
+    return new BytesZipArchive(outputBytes.toByteArray());
+  }
+
+  /**
+   * Returns the names of the entries of the archive (in order)
+   */
+  public abstract List<String> getEntryNames();
+
+  /**
+   * Checks if the archive has an entry with the given name
+   */
+  public abstract boolean hasEntry(String name);
+
+  /**
+   * Opens a stream over the uncompressed content of an entry
+   */
+  public abstract InputStream openEntry(String name) throws IOException;
+
+  /**
+   * Returns an asset info for an entry of the archive (null if there is no such entry).
+   * The entry is only read when the stream of the asset info is opened.
+   */
+  public AssetInfo getAssetInfo(AssetManager manager, AssetKey<?> key, final String name) {
+    if (!hasEntry(name)) {
+      return null;
+    }
+    return new AssetInfo(manager, key) {
+      @Override
+      public InputStream openStream() {
+        try {
+          return openEntry(name);
+        } catch (IOException ex) {
+          throw new AssetLoadException("Failed to load zip entry: " + name, ex);
+        }
+      }
+    };
+  }
+
+  private static class FileZipArchive extends ZipArchive {
+    private final ZipFile zipFile;
+
+    FileZipArchive(ZipFile zipFile) {
+      this.zipFile = zipFile;
+    }
+
+    public List<String> getEntryNames() {
+      List<String> names = new ArrayList<String>();
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+      return names;
+    }
+
+    public boolean hasEntry(String name) {
+      return zipFile.getEntry(name) != null;
+    }
+
+    public InputStream openEntry(String name) throws IOException {
+      ZipEntry entry = zipFile.getEntry(name);
+      return (entry != null) ? zipFile.getInputStream(entry) : null;
+    }
+
+    public void close() throws IOException {
+      zipFile.close();
+    }
+  }
+
+  private static class BytesZipArchive extends ZipArchive {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final Charset CP437 = Charset.isSupported("IBM437")? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    private static class Entry {
+      int method;
+      int compressedSize;
+      int headerOffset;
+    }
+
+    private final byte[] bytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    BytesZipArchive(byte[] bytes) throws IOException {
+      this.bytes = bytes;
+      readCentralDirectory();
+    }
+
+    private void readCentralDirectory() throws IOException {
+      int end = -1;
+      for (int i = bytes.length - 22; i >= Math.max(0, bytes.length - 22 - 65535); i--) {
+        if (getInt(i) == END_SIGNATURE) {
+          end = i;
+          break;
+        }
+      }
+      if (end < 0) {
+        throw new ZipException("Not a zip archive (no end of central directory)");
+      }
+      int nEntries = getShort(end + 10);
+      long offset = getInt(end + 16) & 0xffffffffL;
+      if (offset >= bytes.length) {
+        throw new ZipException("Unsupported zip archive (zip64 or invalid central directory offset)");
+      }
+      int position = (int) offset;
+      for (int i = 0; i < nEntries; i++) {
+        if (position + 46 > bytes.length || getInt(position) != CENTRAL_SIGNATURE) {
+          throw new ZipException("Invalid central directory entry");
+        }
+        Entry entry = new Entry();
+        int flags = getShort(position + 8);
+        entry.method = getShort(position + 10);
+        long compressedSize = getInt(position + 20) & 0xffffffffL;
+        int nameLength = getShort(position + 28);
+        int extraLength = getShort(position + 30);
+        int commentLength = getShort(position + 32);
+        long headerOffset = getInt(position + 42) & 0xffffffffL;
+        if (compressedSize >= bytes.length || headerOffset >= bytes.length) {
+          throw new ZipException("Unsupported zip archive (zip64 or invalid entry)");
+        }
+        int next = position + 46 + nameLength + extraLength + commentLength;
+        if (next > bytes.length) {
+          throw new ZipException("Truncated central directory entry");
+        }
+        entry.compressedSize = (int) compressedSize;
+        entry.headerOffset = (int) headerOffset;
+        String name = getName(position + 46, nameLength, (flags & UTF8_FLAG) != 0);
+        entries.put(name, entry);
+        position = next;
+      }
+    }
+
+    private String getName(int start, int length, boolean utf8) {
+      if (utf8) {
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+      }
+      try {
+        return StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)
+            .decode(ByteBuffer.wrap(bytes, start, length)).toString();
+      } catch (CharacterCodingException ex) {
+        return new String(bytes, start, length, CP437);
+      }
+    }
+
+    private int getShort(int i) {
+      return (bytes[i] & 0xff) | ((bytes[i + 1] & 0xff) << 8);
+    }
+
+    private int getInt(int i) {
+      return (bytes[i] & 0xff) | ((bytes[i + 1] & 0xff) << 8) | ((bytes[i + 2] & 0xff) << 16) | ((bytes[i + 3] & 0xff) << 24);
+    }
+
+    public List<String> getEntryNames() {
+      return new ArrayList<String>(entries.keySet());
+    }
+
+    public boolean hasEntry(String name) {
+      return entries.containsKey(name);
+    }
+
+    public InputStream openEntry(String name) throws IOException {
+      Entry entry = entries.get(name);
+      if (entry == null) {
+        return null;
+      }
+      int header = entry.headerOffset;
+      if (header + 30 > bytes.length || getInt(header) != LOCAL_SIGNATURE) {
+        throw new ZipException("Invalid local header for zip entry " + name);
+      }
+      int start = header + 30 + getShort(header + 26) + getShort(header + 28);
+      if (start + entry.compressedSize > bytes.length) {
+        throw new ZipException("Truncated zip entry " + name);
+      }
+      if (entry.method == ZipEntry.STORED) {
+        return new ByteArrayInputStream(bytes, start, entry.compressedSize);
+      } else if (entry.method == ZipEntry.DEFLATED) {
+        // The inflater may need one byte past the compressed data (there is always the central directory after it)
+        int length = Math.min(entry.compressedSize + 1, bytes.length - start);
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(new ByteArrayInputStream(bytes, start, length), inflater) {
+          private boolean closed = false;
+
+          @Override
+          public void close() throws IOException {
+            if (!closed) {
+              closed = true;
+              inflater.end();
+            }
+            super.close();
+          }
+        };
+      } else {
+        throw new ZipException("Unsupported compression method " + entry.method + " for zip entry " + name);
+      }
+    }
+
+    public void close() {
+    }
+  }
+}
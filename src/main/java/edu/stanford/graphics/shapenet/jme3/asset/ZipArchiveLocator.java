@@ -0,0 +1,32 @@
+package edu.stanford.graphics.shapenet.jme3.asset;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+
+/**
+ * Locates assets in a zip archive that is already open
+ * (entries are only inflated when the asset is loaded)
+ *
+ * @author Angel Chang
+ */
+public class ZipArchiveLocator implements AssetLocator {
+  private final ZipArchive archive;
+
+  public ZipArchiveLocator(ZipArchive archive) {
+    this.archive = archive;
+  }
+
+  public void setRootPath(String rootPath) {
+  }
+
+  @SuppressWarnings("rawtypes")
+  public AssetInfo locate(AssetManager manager, AssetKey key) {
+    String name = key.getName();
+    if (name.startsWith("/")) {
+      name = name.substring(1);
+    }
+    return archive.getAssetInfo(manager, key, name);
+  }
+}
@@ -0,0 +1,112 @@
+package edu.stanford.graphics.shapenet.jme3.loaders;
+
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Statistics (counts and bounds) of a model, accumulated without creating a scene graph.
+ * Points are added in model coordinates, bounds are kept both for the raw points
+ *   and for the points after an (optional) alignment transform.
+ * @author Angel Chang
+ */
+public class MeshStats {
+  public int nFaces = 0;
+  public int nVertices = 0;
+  public int nMaterials = 0;
+
+  // Bounds of the raw points
+  public final float[] min = newMin();
+  public final float[] max = newMax();
+  // Bounds of the aligned points
+  public final float[] alignedMin = newMin();
+  public final float[] alignedMax = newMax();
+
+  // Row major 3x3 alignment (null if the points are not aligned)
+  private final float[] alignment;
+  private int nPoints = 0;
+
+  public MeshStats() {
+    this(null);
+  }
+
+  public MeshStats(Matrix3f alignment) {
+    if (alignment != null) {
+      this.alignment = new float[9];
+      alignment.get(this.alignment, true);
+    } else {
+      this.alignment = null;
+    }
+  }
+
+  private static float[] newMin() {
+    return new float[]{ Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+  }
+
+  private static float[] newMax() {
+    return new float[]{ Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+  }
+
+  private static void include(float[] min, float[] max, float x, float y, float z) {
+    if (x < min[0]) min[0] = x;
+    if (y < min[1]) min[1] = y;
+    if (z < min[2]) min[2] = z;
+    if (x > max[0]) max[0] = x;
+    if (y > max[1]) max[1] = y;
+    if (z > max[2]) max[2] = z;
+  }
+
+  public void addPoint(float x, float y, float z) {
+    include(min, max, x, y, z);
+    if (alignment != null) {
+      float[] m = alignment;
+      include(alignedMin, alignedMax,
+          m[0]*x + m[1]*y + m[2]*z,
+          m[3]*x + m[4]*y + m[5]*z,
+          m[6]*x + m[7]*y + m[8]*z);
+    } else {
+      include(alignedMin, alignedMax, x, y, z);
+    }
+    nPoints++;
+  }
+
+  /** Adds all points in the position buffer (transformed by the matrix if not null) */
+  public void addPoints(FloatBuffer positions, Matrix4f transform) {
+    Vector3f p = new Vector3f();
+    int n = positions.limit()/3;
+    for (int i = 0; i < n; i++) {
+      p.set(positions.get(i*3), positions.get(i*3+1), positions.get(i*3+2));
+      if (transform != null) {
+        transform.mult(p, p);
+      }
+      addPoint(p.x, p.y, p.z);
+    }
+  }
+
+  /** Whether there are any points (if not, the bounds are not valid) */
+  public boolean hasPoints() {
+    return nPoints > 0;
+  }
+
+  public Vector3f getMin() {
+    return new Vector3f(min[0], min[1], min[2]);
+  }
+
+  public Vector3f getMax() {
+    return new Vector3f(max[0], max[1], max[2]);
+  }
+
+  public Vector3f getAlignedMin() {
+    return new Vector3f(alignedMin[0], alignedMin[1], alignedMin[2]);
+  }
+
+  public Vector3f getAlignedMax() {
+    return new Vector3f(alignedMax[0], alignedMax[1], alignedMax[2]);
+  }
+
+  public Vector3f getAlignedDims() {
+    return getAlignedMax().subtractLocal(getAlignedMin());
+  }
+}
@@ -0,0 +1,624 @@
+package edu.stanford.graphics.shapenet.jme3.loaders;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamTexture;
+import com.jme3.material.Material;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Texture;
+import com.jme3.util.BufferUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On disk cache of loaded models in a compiled binary format (.smesh).
+ * The file starts with a little endian header:
+ *   magic, version, length of the structure section
+ * followed by the structure section:
+ *   materials (each exported with the jme BinaryExporter so textures are referenced by asset key),
+ *   then the scene graph (nodes and geometries with names, transforms, user data,
+ *     material index, and for each vertex buffer its type, format and location in the data section)
+ * followed by the data section (little endian vertex buffer blocks, aligned to 16 bytes).
+ * Large blocks are memory mapped and used directly as vertex buffers,
+ *   small blocks are copied so we don't use up a mapping (and a page) per tiny mesh.
+ * Models that can't be restored exactly (interleaved buffers, lod levels, unsupported user data,
+ *   textures that can't be located again) are not saved.
+ * @author Angel Chang
+ */
+public class SMeshCache {
+  private static final Logger logger = Logger.getLogger(SMeshCache.class.getName());
+
+  public static final String EXTENSION = "smesh";
+  public static final int VERSION = 2;
+  private static final int MAGIC = 0x48534D53; // SMSH
+  private static final int HEADER_SIZE = 12;
+  private static final int ALIGNMENT = 16;
+  // Blocks at least this big (in bytes) are mapped instead of copied
+  private static final int MAP_THRESHOLD = 64*1024;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte NODE = 0;
+  private static final byte GEOMETRY = 1;
+
+  private static final byte BYTES = 0;
+  private static final byte SHORTS = 1;
+  private static final byte INTS = 2;
+  private static final byte FLOATS = 3;
+  private static final byte DOUBLES = 4;
+
+  private static final byte INTEGER_VALUE = 0;
+  private static final byte FLOAT_VALUE = 1;
+  private static final byte BOOLEAN_VALUE = 2;
+  private static final byte STRING_VALUE = 3;
+  private static final byte LONG_VALUE = 4;
+  private static final byte DOUBLE_VALUE = 5;
+
+  private final File dir;
+
+  public SMeshCache(File dir) {
+    this.dir = dir;
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  /** Returns the cache file for the model name and hash of the load options */
+  public File getFile(String name, String hash) {
+    String filename = name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + hash + "." + EXTENSION;
+    String subdir = (hash.length() >= 2)? hash.substring(0, 2) : "_";
+    return new File(new File(dir, subdir), filename);
+  }
+
+  /** Thrown when a model can't be stored in the cache */
+  private static class NotCacheableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    NotCacheableException(String message) {
+      super(message);
+    }
+  }
+
+  /** Growable little endian buffer for the structure section */
+  private static class StructWriter {
+    ByteBuffer bb = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+    void ensure(int n) {
+      if (bb.remaining() < n) {
+        ByteBuffer nbb = ByteBuffer.allocate(Math.max(bb.capacity()*2, bb.position() + n)).order(ByteOrder.LITTLE_ENDIAN);
+        bb.flip();
+        nbb.put(bb);
+        bb = nbb;
+      }
+    }
+    void putByte(int v) { ensure(1); bb.put((byte) v); }
+    void putInt(int v) { ensure(4); bb.putInt(v); }
+    void putLong(long v) { ensure(8); bb.putLong(v); }
+    void putFloat(float v) { ensure(4); bb.putFloat(v); }
+    void putDouble(double v) { ensure(8); bb.putDouble(v); }
+    void putBytes(byte[] bytes) {
+      putInt(bytes.length);
+      ensure(bytes.length);
+      bb.put(bytes);
+    }
+    void putString(String s) {
+      if (s == null) {
+        putInt(-1);
+      } else {
+        putBytes(s.getBytes(UTF8));
+      }
+    }
+  }
+
+  private static String getString(ByteBuffer bb) {
+    int n = bb.getInt();
+    if (n < 0) return null;
+    byte[] bytes = new byte[n];
+    bb.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static byte[] getBytes(ByteBuffer bb) {
+    byte[] bytes = new byte[bb.getInt()];
+    bb.get(bytes);
+    return bytes;
+  }
+
+  private static <E extends Enum<E>> String enumName(E e) {
+    return (e != null)? e.name() : null;
+  }
+
+  /**
+   * Saves the spatial to the cache file
+   * (assetManager should be able to locate the textures used by the spatial)
+   * @return Whether the spatial was saved
+   */
+  public boolean save(File file, Spatial spatial, AssetManager assetManager) {
+    try {
+      Writer writer = new Writer(assetManager);
+      writer.writeSpatial(spatial);
+      writer.write(file);
+      return true;
+    } catch (NotCacheableException ex) {
+      logger.log(Level.FINE, "Not caching " + spatial.getName() + ": " + ex.getMessage());
+      return false;
+    } catch (IOException ex) {
+      logger.log(Level.WARNING, "Error saving " + file, ex);
+      return false;
+    }
+  }
+
+  private static class Writer {
+    final AssetManager assetManager;
+    final StructWriter struct = new StructWriter();
+    final Map<Material,Integer> materialIndices = new IdentityHashMap<Material,Integer>();
+    final List<byte[]> materials = new ArrayList<byte[]>();
+    final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+    long dataSize = 0;
+
+    Writer(AssetManager assetManager) {
+      this.assetManager = assetManager;
+    }
+
+    int getMaterialIndex(Material material) throws IOException, NotCacheableException {
+      if (material == null) return -1;
+      Integer index = materialIndices.get(material);
+      if (index == null) {
+        if (material.getMaterialDef().getAssetName() == null) {
+          throw new NotCacheableException("Material definition " + material.getMaterialDef().getName() + " is not an asset");
+        }
+        for (MatParam param : material.getParams()) {
+          if (param instanceof MatParamTexture) {
+            Texture texture = ((MatParamTexture) param).getTextureValue();
+            if (texture != null && texture.getKey() != null && assetManager.locateAsset(texture.getKey()) == null) {
+              throw new NotCacheableException("Cannot locate texture " + texture.getKey());
+            }
+          }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryExporter().save(material, bytes);
+        index = materials.size();
+        materials.add(bytes.toByteArray());
+        materialIndices.put(material, index);
+      }
+      return index;
+    }
+
+    void writeSpatial(Spatial spatial) throws IOException, NotCacheableException {
+      if (spatial instanceof Geometry) {
+        struct.putByte(GEOMETRY);
+      } else if (spatial instanceof Node) {
+        struct.putByte(NODE);
+      } else {
+        throw new NotCacheableException("Unsupported spatial " + spatial.getClass().getName());
+      }
+      struct.putString(spatial.getName());
+      Transform t = spatial.getLocalTransform();
+      Vector3f translation = t.getTranslation();
+      Quaternion rotation = t.getRotation();
+      Vector3f scale = t.getScale();
+      struct.putFloat(translation.x);
+      struct.putFloat(translation.y);
+      struct.putFloat(translation.z);
+      struct.putFloat(rotation.getX());
+      struct.putFloat(rotation.getY());
+      struct.putFloat(rotation.getZ());
+      struct.putFloat(rotation.getW());
+      struct.putFloat(scale.x);
+      struct.putFloat(scale.y);
+      struct.putFloat(scale.z);
+      struct.putString(enumName(spatial.getLocalQueueBucket()));
+      struct.putString(enumName(spatial.getLocalCullHint()));
+      struct.putString(enumName(spatial.getLocalShadowMode()));
+      writeUserData(spatial);
+
+      if (spatial instanceof Geometry) {
+        Geometry geom = (Geometry) spatial;
+        struct.putInt(getMaterialIndex(geom.getMaterial()));
+        writeMesh(geom.getMesh());
+      } else {
+        Node node = (Node) spatial;
+        struct.putInt(node.getQuantity());
+        for (Spatial child : node.getChildren()) {
+          writeSpatial(child);
+        }
+      }
+    }
+
+    void writeUserData(Spatial spatial) throws NotCacheableException {
+      java.util.Collection<String> keys = spatial.getUserDataKeys();
+      struct.putInt(keys.size());
+      for (String key : keys) {
+        Object value = spatial.getUserData(key);
+        struct.putString(key);
+        if (value instanceof Integer) {
+          struct.putByte(INTEGER_VALUE);
+          struct.putInt((Integer) value);
+        } else if (value instanceof Float) {
+          struct.putByte(FLOAT_VALUE);
+          struct.putFloat((Float) value);
+        } else if (value instanceof Boolean) {
+          struct.putByte(BOOLEAN_VALUE);
+          struct.putByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof String) {
+          struct.putByte(STRING_VALUE);
+          struct.putString((String) value);
+        } else if (value instanceof Long) {
+          struct.putByte(LONG_VALUE);
+          struct.putLong((Long) value);
+        } else if (value instanceof Double) {
+          struct.putByte(DOUBLE_VALUE);
+          struct.putDouble((Double) value);
+        } else {
+          throw new NotCacheableException("Unsupported user data " + key + " for " + spatial.getName());
+        }
+      }
+    }
+
+    void writeMesh(Mesh mesh) throws NotCacheableException {
+      if (mesh.getNumLodLevels() > 0) {
+        throw new NotCacheableException("Mesh has lod levels");
+      }
+      struct.putString(enumName(mesh.getMode()));
+      List<VertexBuffer> buffers = new ArrayList<VertexBuffer>();
+      for (VertexBuffer vb : mesh.getBufferList()) {
+        if (vb.getBufferType() == VertexBuffer.Type.InterleavedData || vb.getStride() != 0 || vb.getOffset() != 0) {
+          throw new NotCacheableException("Mesh has interleaved data");
+        }
+        if (vb.getData() != null) {
+          buffers.add(vb);
+        }
+      }
+      struct.putInt(buffers.size());
+      for (VertexBuffer vb : buffers) {
+        ByteBuffer block = toLittleEndian(vb.getData());
+        struct.putString(enumName(vb.getBufferType()));
+        struct.putString(enumName(vb.getFormat()));
+        struct.putByte(vb.getNumComponents());
+        struct.putByte(vb.isNormalized() ? 1 : 0);
+        struct.putByte(getKind(vb.getData()));
+        struct.putLong(dataSize);
+        struct.putInt(block.remaining());
+        blocks.add(block);
+        dataSize = align(dataSize + block.remaining());
+      }
+    }
+
+    void write(File file) throws IOException {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new IOException("Cannot create directory " + parent);
+      }
+      // Materials go at the front of the structure section
+      StructWriter header = new StructWriter();
+      header.putInt(materials.size());
+      for (byte[] m : materials) {
+        header.putBytes(m);
+      }
+      header.ensure(struct.bb.position());
+      struct.bb.flip();
+      header.bb.put(struct.bb);
+      header.bb.flip();
+
+      int structSize = header.bb.remaining();
+      long dataStart = align(HEADER_SIZE + structSize);
+      ByteBuffer fileHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      fileHeader.putInt(MAGIC).putInt(VERSION).putInt(structSize);
+      fileHeader.flip();
+
+      // Write to a temporary file and move into place so readers never see a partial file
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", parent);
+      try {
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          writeFully(channel, fileHeader, 0);
+          writeFully(channel, header.bb, HEADER_SIZE);
+          long offset = dataStart;
+          for (ByteBuffer block : blocks) {
+            int n = block.remaining();
+            writeFully(channel, block, offset);
+            offset = align(offset + n);
+          }
+          raf.setLength(Math.max(offset, dataStart));
+        } finally {
+          raf.close();
+        }
+        try {
+          Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+          Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        if (tmpFile.exists()) {
+          tmpFile.delete();
+        }
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+    while (bb.hasRemaining()) {
+      position += channel.write(bb, position);
+    }
+  }
+
+  private static long align(long n) {
+    return (n + ALIGNMENT - 1) & ~((long) ALIGNMENT - 1);
+  }
+
+  private static byte getKind(Buffer data) throws NotCacheableException {
+    if (data instanceof FloatBuffer) return FLOATS;
+    if (data instanceof IntBuffer) return INTS;
+    if (data instanceof ShortBuffer) return SHORTS;
+    if (data instanceof ByteBuffer) return BYTES;
+    if (data instanceof DoubleBuffer) return DOUBLES;
+    throw new NotCacheableException("Unsupported buffer " + data.getClass().getName());
+  }
+
+  private static ByteBuffer toLittleEndian(Buffer data) throws NotCacheableException {
+    int n = data.limit();
+    ByteBuffer out;
+    switch (getKind(data)) {
+      case FLOATS: {
+        FloatBuffer src = ((FloatBuffer) data).duplicate();
+        src.rewind();
+        out = ByteBuffer.allocate(n*4).order(ByteOrder.LITTLE_ENDIAN);
+        out.asFloatBuffer().put(src);
+        break;
+      }
+      case INTS: {
+        IntBuffer src = ((IntBuffer) data).duplicate();
+        src.rewind();
+        out = ByteBuffer.allocate(n*4).order(ByteOrder.LITTLE_ENDIAN);
+        out.asIntBuffer().put(src);
+        break;
+      }
+      case SHORTS: {
+        ShortBuffer src = ((ShortBuffer) data).duplicate();
+        src.rewind();
+        out = ByteBuffer.allocate(n*2).order(ByteOrder.LITTLE_ENDIAN);
+        out.asShortBuffer().put(src);
+        break;
+      }
+      case DOUBLES: {
+        DoubleBuffer src = ((DoubleBuffer) data).duplicate();
+        src.rewind();
+        out = ByteBuffer.allocate(n*8).order(ByteOrder.LITTLE_ENDIAN);
+        out.asDoubleBuffer().put(src);
+        break;
+      }
+      default: {
+        ByteBuffer src = ((ByteBuffer) data).duplicate();
+        src.rewind();
+        out = ByteBuffer.allocate(n);
+        out.put(src);
+        out.flip();
+        return out;
+      }
+    }
+    // The typed views don't move the position of the byte buffer
+    return out;
+  }
+
+  /**
+   * Loads a spatial from the cache file
+   * @return The spatial or null if there is no (valid) cached file
+   */
+  public Spatial load(File file, AssetManager assetManager) {
+    if (!file.isFile()) return null;
+    try {
+      // Opened for writing only so blocks can be mapped copy on write (the file itself is never modified)
+      boolean writable = file.canWrite();
+      RandomAccessFile raf = new RandomAccessFile(file, writable? "rw" : "r");
+      try {
+        return new Reader(raf.getChannel(), writable, assetManager).read();
+      } finally {
+        raf.close();
+      }
+    } catch (Exception ex) {
+      logger.log(Level.WARNING, "Error loading " + file, ex);
+      return null;
+    }
+  }
+
+  private static class Reader {
+    final FileChannel channel;
+    final AssetManager assetManager;
+    final BinaryImporter importer = new BinaryImporter();
+    final boolean mapBlocks;
+    ByteBuffer mapped;
+    ByteBuffer struct;
+    long dataStart;
+    final List<Material> materials = new ArrayList<Material>();
+
+    Reader(FileChannel channel, boolean writable, AssetManager assetManager) {
+      this.channel = channel;
+      // Mapped blocks are used as is so they need to be writable and in native order
+      this.mapBlocks = writable && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+      this.assetManager = assetManager;
+      this.importer.setAssetManager(assetManager);
+    }
+
+    Spatial read() throws IOException {
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new IOException("Truncated " + EXTENSION + " file");
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+      int magic = mapped.getInt(0);
+      int version = mapped.getInt(4);
+      int structSize = mapped.getInt(8);
+      if (magic != MAGIC) {
+        throw new IOException("Not a " + EXTENSION + " file");
+      }
+      if (version != VERSION) {
+        throw new IOException("Unsupported " + EXTENSION + " version " + version);
+      }
+      dataStart = align(HEADER_SIZE + structSize);
+      mapped.position(HEADER_SIZE);
+      mapped.limit(HEADER_SIZE + structSize);
+      struct = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+      mapped.clear();
+
+      int nMaterials = struct.getInt();
+      for (int i = 0; i < nMaterials; i++) {
+        materials.add((Material) importer.load(getBytes(struct)));
+      }
+      return readSpatial();
+    }
+
+    Spatial readSpatial() throws IOException {
+      byte kind = struct.get();
+      String name = getString(struct);
+      Spatial spatial;
+      if (kind == GEOMETRY) {
+        spatial = new Geometry(name);
+      } else if (kind == NODE) {
+        spatial = new Node(name);
+      } else {
+        throw new IOException("Invalid spatial type " + kind);
+      }
+      spatial.setLocalTranslation(struct.getFloat(), struct.getFloat(), struct.getFloat());
+      spatial.setLocalRotation(new Quaternion(struct.getFloat(), struct.getFloat(), struct.getFloat(), struct.getFloat()));
+      spatial.setLocalScale(struct.getFloat(), struct.getFloat(), struct.getFloat());
+      String bucket = getString(struct);
+      String cullHint = getString(struct);
+      String shadowMode = getString(struct);
+      if (bucket != null) spatial.setQueueBucket(RenderQueue.Bucket.valueOf(bucket));
+      if (cullHint != null) spatial.setCullHint(Spatial.CullHint.valueOf(cullHint));
+      if (shadowMode != null) spatial.setShadowMode(RenderQueue.ShadowMode.valueOf(shadowMode));
+      readUserData(spatial);
+
+      if (spatial instanceof Geometry) {
+        Geometry geom = (Geometry) spatial;
+        int materialIndex = struct.getInt();
+        geom.setMesh(readMesh());
+        if (materialIndex >= 0) {
+          geom.setMaterial(materials.get(materialIndex));
+        }
+      } else {
+        Node node = (Node) spatial;
+        int nChildren = struct.getInt();
+        for (int i = 0; i < nChildren; i++) {
+          node.attachChild(readSpatial());
+        }
+      }
+      return spatial;
+    }
+
+    void readUserData(Spatial spatial) throws IOException {
+      int n = struct.getInt();
+      for (int i = 0; i < n; i++) {
+        String key = getString(struct);
+        byte type = struct.get();
+        switch (type) {
+          case INTEGER_VALUE: spatial.setUserData(key, struct.getInt()); break;
+          case FLOAT_VALUE: spatial.setUserData(key, struct.getFloat()); break;
+          case BOOLEAN_VALUE: spatial.setUserData(key, struct.get() != 0); break;
+          case STRING_VALUE: spatial.setUserData(key, getString(struct)); break;
+          case LONG_VALUE: spatial.setUserData(key, struct.getLong()); break;
+          case DOUBLE_VALUE: spatial.setUserData(key, struct.getDouble()); break;
+          default: throw new IOException("Invalid user data type " + type);
+        }
+      }
+    }
+
+    Mesh readMesh() throws IOException {
+      Mesh mesh = new Mesh();
+      mesh.setMode(Mesh.Mode.valueOf(getString(struct)));
+      int nBuffers = struct.getInt();
+      for (int i = 0; i < nBuffers; i++) {
+        VertexBuffer.Type type = VertexBuffer.Type.valueOf(getString(struct));
+        VertexBuffer.Format format = VertexBuffer.Format.valueOf(getString(struct));
+        int components = struct.get();
+        boolean normalized = struct.get() != 0;
+        byte kind = struct.get();
+        long offset = struct.getLong();
+        int nbytes = struct.getInt();
+
+        VertexBuffer vb = new VertexBuffer(type);
+        vb.setupData(VertexBuffer.Usage.Static, components, format, readBlock(kind, dataStart + offset, nbytes));
+        vb.setNormalized(normalized);
+        mesh.setBuffer(vb);
+      }
+      mesh.updateBound();
+      mesh.updateCounts();
+      return mesh;
+    }
+
+    Buffer readBlock(byte kind, long offset, int nbytes) throws IOException {
+      if (offset + nbytes > mapped.capacity()) {
+        throw new IOException("Truncated " + EXTENSION + " file");
+      }
+      if (mapBlocks && nbytes >= MAP_THRESHOLD) {
+        // Each big block gets its own (copy on write) mapping since jme may free a vertex buffer's data
+        ByteBuffer bb = channel.map(FileChannel.MapMode.PRIVATE, offset, nbytes).order(ByteOrder.LITTLE_ENDIAN);
+        switch (kind) {
+          case FLOATS: return bb.asFloatBuffer();
+          case INTS: return bb.asIntBuffer();
+          case SHORTS: return bb.asShortBuffer();
+          case DOUBLES: return bb.asDoubleBuffer();
+          default: return bb;
+        }
+      }
+      ByteBuffer src = mapped.duplicate();
+      src.position((int) offset);
+      src.limit((int) offset + nbytes);
+      src = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+      switch (kind) {
+        case FLOATS: {
+          FloatBuffer b = BufferUtils.createFloatBuffer(nbytes/4);
+          b.put(src.asFloatBuffer()).rewind();
+          return b;
+        }
+        case INTS: {
+          IntBuffer b = BufferUtils.createIntBuffer(nbytes/4);
+          b.put(src.asIntBuffer()).rewind();
+          return b;
+        }
+        case SHORTS: {
+          ShortBuffer b = BufferUtils.createShortBuffer(nbytes/2);
+          b.put(src.asShortBuffer()).rewind();
+          return b;
+        }
+        case DOUBLES: {
+          DoubleBuffer b = BufferUtils.createDoubleBuffer(nbytes/8);
+          b.put(src.asDoubleBuffer()).rewind();
+          return b;
+        }
+        case BYTES: {
+          ByteBuffer b = BufferUtils.createByteBuffer(nbytes);
+          b.put(src).rewind();
+          return b;
+        }
+        default:
+          throw new IOException("Invalid buffer type " + kind);
+      }
+    }
+  }
+}
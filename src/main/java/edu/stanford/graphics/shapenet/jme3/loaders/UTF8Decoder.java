@@ -1,5 +1,9 @@
 package edu.stanford.graphics.shapenet.jme3.loaders;
 
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.Arrays;
 
 /**
@@ -27,21 +31,178 @@ import java.util.Arrays;
  *   }
  * }
  *
+ * The geometry is decoded straight from the UTF-8 bytes (see Input) into direct buffers
+ *   that can be used by jME meshes without copying.
+ * Offsets (attribRange, indexRange, codeRange) are in UTF-16 chars (as for a javascript string).
+ *
  * @author Angel Chang
  */
 public class UTF8Decoder {
 
-  public Mesh decode(String str, MeshParams meshParams, DecodeParams decodeParams, String name, int idx) {
+  public Mesh decode(Input input, MeshParams meshParams, DecodeParams decodeParams, String name, int idx) {
     int[] indexRange = meshParams.indexRange;
     if ( indexRange != null ) {
       int meshEnd = indexRange[ 0 ] + 3 * indexRange[ 1 ];
-      if ( str.length() < meshEnd ) return null;
-      return decompressMesh( str, meshParams, decodeParams, name, idx );
+      if ( input.length() < meshEnd ) return null;
+      return decompressMesh( input, meshParams, decodeParams, name, idx );
     } else {
       int[] codeRange = meshParams.codeRange;
       int meshEnd = codeRange[ 0 ] + codeRange[ 1 ];
-      if ( str.length() < meshEnd ) return null;
-      return decompressMesh2( str, meshParams, decodeParams, name, idx );
+      if ( input.length() < meshEnd ) return null;
+      return decompressMesh2( input, meshParams, decodeParams, name, idx );
+    }
+  }
+
+  /**
+   * UTF-8 encoded geometry.
+   * Chars are decoded from the bytes on the fly, the start of every CHECKPOINT_INTERVAL chars is indexed
+   *   so that a Cursor can be positioned at any char without decoding everything before it.
+   * Code points outside the BMP count as two chars (the high surrogate then the low surrogate),
+   *   a malformed sequence (a lead byte without all its continuation bytes, or stray continuation bytes)
+   *   is decoded as one U+FFFD.
+   * An Input can be shared by several threads (each decoding with its own cursors).
+   */
+  public static class Input {
+    private static final int CHECKPOINT_BITS = 10;
+    private static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_BITS;
+
+    private final byte[] bytes;
+    private final int length;
+    // Byte position and char index of the char at or just before each multiple of CHECKPOINT_INTERVAL
+    private final int[] checkpointPositions;
+    private final int[] checkpointChars;
+
+    public Input(byte[] bytes) {
+      this.bytes = bytes;
+      // There are at most as many chars as bytes
+      int maxCheckpoints = (bytes.length >> CHECKPOINT_BITS) + 1;
+      int[] positions = new int[maxCheckpoints];
+      int[] chars = new int[maxCheckpoints];
+      int n = 0;
+      int k = 0;
+      int next = 0;
+      for (int i = 0; i < bytes.length; ) {
+        int len = sequenceLength(bytes, i);
+        int c = (len == 4)? 2 : 1;
+        while (n + c > next) {
+          positions[k] = i;
+          chars[k] = n;
+          k++;
+          next += CHECKPOINT_INTERVAL;
+        }
+        n += c;
+        i += len;
+      }
+      this.length = n;
+      int nCheckpoints = (n >> CHECKPOINT_BITS) + 1;
+      for (; k < nCheckpoints; k++) {
+        positions[k] = bytes.length;
+        chars[k] = n;
+      }
+      checkpointPositions = Arrays.copyOf(positions, nCheckpoints);
+      checkpointChars = Arrays.copyOf(chars, nCheckpoints);
+    }
+
+    /** Number of bytes of a sequence given its lead byte (0 if not a lead byte) */
+    private static int leadLength(int b0) {
+      if ((b0 & 0x80) == 0) return 1;
+      if ((b0 & 0xe0) == 0xc0) return 2;
+      if ((b0 & 0xf0) == 0xe0) return 3;
+      if ((b0 & 0xf8) == 0xf0) return 4;
+      return 0;
+    }
+
+    private static boolean isContinuation(byte[] bytes, int i) {
+      return i < bytes.length && (bytes[i] & 0xc0) == 0x80;
+    }
+
+    /**
+     * Number of bytes of the sequence starting at the position: the bytes of the char,
+     *   or for a malformed sequence the byte and the continuation bytes after it
+     */
+    static int sequenceLength(byte[] bytes, int position) {
+      int len = leadLength(bytes[position]);
+      int end = position + 1;
+      while (isContinuation(bytes, end) && (len == 0 || end < position + len)) {
+        end++;
+      }
+      return end - position;
+    }
+
+    /** Checks if the sequence (of the given length) starting at the position is a well formed char */
+    static boolean isWellFormed(byte[] bytes, int position, int len) {
+      return leadLength(bytes[position]) == len;
+    }
+
+    /** Number of chars */
+    public int length() {
+      return length;
+    }
+
+    /** Returns a cursor positioned at the char */
+    public Cursor cursor(int charIndex) {
+      Cursor cursor = new Cursor(this);
+      cursor.seek(charIndex);
+      return cursor;
+    }
+  }
+
+  /** Reads chars (as ints) sequentially from an Input */
+  public static class Cursor {
+    private final byte[] bytes;
+    private final Input input;
+    private int position;
+    // Low surrogate to return next (-1 if none)
+    private int pendingLow = -1;
+
+    private Cursor(Input input) {
+      this.input = input;
+      this.bytes = input.bytes;
+    }
+
+    public void seek(int charIndex) {
+      int k = Math.min(charIndex >> Input.CHECKPOINT_BITS, input.checkpointPositions.length - 1);
+      position = input.checkpointPositions[k];
+      pendingLow = -1;
+      skip(charIndex - input.checkpointChars[k]);
+    }
+
+    public void skip(int nChars) {
+      for (int i = 0; i < nChars; i++) {
+        next();
+      }
+    }
+
+    public int next() {
+      if (pendingLow >= 0) {
+        int c = pendingLow;
+        pendingLow = -1;
+        return c;
+      }
+      int p = position;
+      int b0 = bytes[p];
+      if (b0 >= 0) {
+        position++;
+        return b0;
+      }
+      // Same rules as the char count of the Input
+      int len = Input.sequenceLength(bytes, p);
+      position += len;
+      if (!Input.isWellFormed(bytes, p, len)) {
+        return 0xfffd;
+      }
+      switch (len) {
+        case 2:
+          return ((b0 & 0x1f) << 6) | (bytes[p+1] & 0x3f);
+        case 3:
+          return ((b0 & 0x0f) << 12) | ((bytes[p+1] & 0x3f) << 6) | (bytes[p+2] & 0x3f);
+        default: {
+          int c = ((b0 & 0x07) << 18) | ((bytes[p+1] & 0x3f) << 12) | ((bytes[p+2] & 0x3f) << 6)
+              | (bytes[p+3] & 0x3f);
+          pendingLow = Character.lowSurrogate(c);
+          return Character.highSurrogate(c);
+        }
+      }
     }
   }
 
@@ -87,24 +248,27 @@ public class UTF8Decoder {
     }
   }
 
+  /**
+   * Decoded mesh.
+   * The attributes (position x,y,z, uv, normal x,y,z) are split into direct buffers
+   */
   public static class Mesh {
     MeshParams meshParams;
     String name;
     int idx;
-    float[] attribs;
-    int[] indices;
+    FloatBuffer positions;
+    FloatBuffer normals;
+    FloatBuffer uvs;
+    IntBuffer indices;
     float[] bboxen;
 
-    // Extracted from attribs
-    float[] positions;
-    float[] normals;
-    float[] uvs;
-
-    public Mesh(MeshParams meshParams, String name, int idx, float[] attribs, int[] indices, float[] bboxen) {
+    public Mesh(MeshParams meshParams, String name, int idx, Attribs attribs, IntBuffer indices, float[] bboxen) {
       this.meshParams = meshParams;
       this.name = name;
       this.idx = idx;
-      this.attribs = attribs;
+      this.positions = attribs.positions;
+      this.normals = attribs.normals;
+      this.uvs = attribs.uvs;
       this.indices = indices;
       this.bboxen = bboxen;
     }
@@ -117,9 +281,11 @@ public class UTF8Decoder {
       Mesh mesh = (Mesh) o;
 
       if (idx != mesh.idx) return false;
-      if (!Arrays.equals(attribs, mesh.attribs)) return false;
+      if (!positions.equals(mesh.positions)) return false;
+      if (!normals.equals(mesh.normals)) return false;
+      if (!uvs.equals(mesh.uvs)) return false;
       if (!Arrays.equals(bboxen, mesh.bboxen)) return false;
-      if (!Arrays.equals(indices, mesh.indices)) return false;
+      if (!indices.equals(mesh.indices)) return false;
       if (meshParams != null ? !meshParams.equals(mesh.meshParams) : mesh.meshParams != null) return false;
       if (name != null ? !name.equals(mesh.name) : mesh.name != null) return false;
 
@@ -131,8 +297,10 @@ public class UTF8Decoder {
       int result = meshParams != null ? meshParams.hashCode() : 0;
       result = 31 * result + (name != null ? name.hashCode() : 0);
       result = 31 * result + idx;
-      result = 31 * result + (attribs != null ? Arrays.hashCode(attribs) : 0);
-      result = 31 * result + (indices != null ? Arrays.hashCode(indices) : 0);
+      result = 31 * result + positions.hashCode();
+      result = 31 * result + normals.hashCode();
+      result = 31 * result + uvs.hashCode();
+      result = 31 * result + indices.hashCode();
       result = 31 * result + (bboxen != null ? Arrays.hashCode(bboxen) : 0);
       return result;
     }
@@ -141,93 +309,66 @@ public class UTF8Decoder {
       return name;
     }
 
-    public float[] getUVs() {
-      if (uvs == null) {
-        extract();
-      }
+    public FloatBuffer getUVs() {
       return uvs;
     }
 
-    public float[] getVertices() {
-      if (positions == null) {
-        extract();
-      }
+    public FloatBuffer getVertices() {
       return positions;
     }
 
-    public float[] getNormals() {
-      if (normals == null) {
-        extract();
-      }
+    public FloatBuffer getNormals() {
       return normals;
     }
 
-    public float[] getAttribs() {
-      return attribs;
-    }
-
-    public int[] getIndices() {
+    public IntBuffer getIndices() {
       return indices;
     }
+  }
 
-    private void extract() {
-      int[] indexArray = this.indices;
-      float[] attribArray = this.attribs;
-
-      int ntris = indexArray.length / 3;
-
-      float[] positionArray = new float[3*3*ntris];
-      float[] normalArray = new float[3*3*ntris];
-      float[] uvArray = new float[2*3*ntris];
-
-      int i, j, offset;
-      float x, y, z;
-      float u, v;
-
-      int end = attribArray.length;
-      int stride = 8;
-
-      // extract positions
-      j = 0;
-      offset = 0;
-
-      for( i = offset; i < end; i += stride ) {
-        x = attribArray[ i ];
-        y = attribArray[ i + 1 ];
-        z = attribArray[ i + 2 ];
+  /**
+   * Output buffers for the decoded attributes of the vertices.
+   * Attributes 0-2 are the position, 3-4 the uv and 5-7 the normal (other attributes are dropped).
+   */
+  private static class Attribs {
+    final FloatBuffer positions;
+    final FloatBuffer normals;
+    final FloatBuffer uvs;
+
+    Attribs(int numVerts) {
+      positions = BufferUtils.createFloatBuffer(3 * numVerts);
+      uvs = BufferUtils.createFloatBuffer(2 * numVerts);
+      normals = BufferUtils.createFloatBuffer(3 * numVerts);
+    }
 
-        positionArray[ j++ ] = x;
-        positionArray[ j++ ] = y;
-        positionArray[ j++ ] = z;
+    void put(int vertex, int attrib, float value) {
+      if (attrib < 3) {
+        positions.put(3 * vertex + attrib, value);
+      } else if (attrib < 5) {
+        uvs.put(2 * vertex + attrib - 3, value);
+      } else if (attrib < 8) {
+        normals.put(3 * vertex + attrib - 5, value);
       }
+    }
 
-      // extract uvs
-      j = 0;
-      offset = 3;
-      for( i = offset; i < end; i += stride ) {
-        u = attribArray[ i ];
-        v = attribArray[ i + 1 ];
-
-        uvArray[ j++ ] = u;
-        uvArray[ j++ ] = v;
-      }
+    /** Buffer for the attribute (null if the attribute is dropped) */
+    FloatBuffer getBuffer(int attrib) {
+      if (attrib < 3) return positions;
+      else if (attrib < 5) return uvs;
+      else if (attrib < 8) return normals;
+      else return null;
+    }
 
-      // extract normals
-      j = 0;
-      offset = 5;
-      for( i = offset; i < end; i += stride ) {
-        x = attribArray[ i ];
-        y = attribArray[ i + 1 ];
-        z = attribArray[ i + 2 ];
-
-        normalArray[ j++ ] = x;
-        normalArray[ j++ ] = y;
-        normalArray[ j++ ] = z;
-      }
+    /** Number of floats per vertex in the buffer of the attribute */
+    static int getStride(int attrib) {
+      return (attrib >= 3 && attrib < 5)? 2 : 3;
+    }
 
-      this.positions = positionArray;
-      this.normals = normalArray;
-      this.uvs = uvArray;
+    /** Offset of the attribute in the buffer */
+    static int getOffset(int attrib) {
+      if (attrib < 3) return attrib;
+      else if (attrib < 5) return attrib - 3;
+      else return attrib - 5;
     }
   }
 
@@ -254,46 +395,52 @@ public class UTF8Decoder {
 // runtime for different combinations of stride, decodeOffset and
 // decodeScale?
 
-  private void decompressAttribsInner_(String str, int inputStart, int inputEnd,
-                                       float[] output, int outputStart, int stride,
+  private void decompressAttribsInner_(Cursor in, int numVerts,
+                                       Attribs output, int attrib,
       int decodeOffset, float decodeScale )
   {
+    FloatBuffer out = output.getBuffer( attrib );
+    if ( out == null ) {
+      in.skip( numVerts );
+      return;
+    }
+    int outStride = Attribs.getStride( attrib );
+    int outputStart = Attribs.getOffset( attrib );
     int prev = 0;
-    for ( int j = inputStart; j < inputEnd; j ++ ) {
-      int code = str.codePointAt(j);
+    for ( int j = 0; j < numVerts; j ++ ) {
+      int code = in.next();
       prev += ( code >> 1 ) ^ ( -( code & 1 ) );
-      output[ outputStart ] = decodeScale * ( prev + decodeOffset );
-      outputStart += stride;
+      out.put( outputStart, decodeScale * ( prev + decodeOffset ) );
+      outputStart += outStride;
      }
   }
 
-  private void decompressIndices_(String str, int inputStart, int numIndices,
-                                  int[] output, int outputStart)
+  private void decompressIndices_(Cursor in, int numIndices,
+                                  IntBuffer output)
   {
     int highest = 0;
     for ( int i = 0; i < numIndices; i ++ ) {
-      int code = str.codePointAt( inputStart ++ );
-      output[ outputStart ++ ] = highest - code;
+      int code = in.next();
+      output.put( i, highest - code );
       if ( code == 0 ) {
         highest ++;
       }
     }
   }
 
-  private float[] decompressAABBs_(String str, int inputStart, int numBBoxen,
+  private float[] decompressAABBs_(Cursor in, int numBBoxen,
                                    int[] decodeOffsets, float[] decodeScales) {
     int numFloats = 6 * numBBoxen;
-    int inputEnd = inputStart + numFloats;
     int outputStart = 0;
     float[] bboxen = new float[numFloats];  // originally float32
-    for (int i = inputStart; i < inputEnd; i += 6 ) {
-      int minX = str.codePointAt(i + 0) + decodeOffsets[0];
-      int minY = str.codePointAt(i + 1) + decodeOffsets[1];
-      int minZ = str.codePointAt(i + 2) + decodeOffsets[2];
+    for (int i = 0; i < numFloats; i += 6 ) {
+      int minX = in.next() + decodeOffsets[0];
+      int minY = in.next() + decodeOffsets[1];
+      int minZ = in.next() + decodeOffsets[2];
 
-      int radiusX = (str.codePointAt(i + 3) + 1) >> 1;
-      int radiusY = (str.codePointAt(i + 4) + 1) >> 1;
-      int radiusZ = (str.codePointAt(i + 5) + 1) >> 1;
+      int radiusX = (in.next() + 1) >> 1;
+      int radiusY = (in.next() + 1) >> 1;
+      int radiusZ = (in.next() + 1) >> 1;
 
       bboxen[ outputStart++ ] = decodeScales[0] * (minX + radiusX);
       bboxen[ outputStart++ ] = decodeScales[1] * (minY + radiusY);
@@ -307,7 +454,7 @@ public class UTF8Decoder {
     return bboxen;
   }
 
-  private Mesh decompressMesh(String str, MeshParams meshParams, DecodeParams decodeParams,
+  private Mesh decompressMesh(Input input, MeshParams meshParams, DecodeParams decodeParams,
                               String name, int idx) {
     // Extract conversion parameters from attribArrays.
     int stride = decodeParams.decodeScales.length;
@@ -318,35 +465,34 @@ public class UTF8Decoder {
     int attribStart = meshParams.attribRange[0];
     int numVerts = meshParams.attribRange[1];
 
-    // Decode attributes.
-    int inputOffset = attribStart;
-    float[] attribsOut = new float[ stride * numVerts ];  // originally float32
+    // Decode attributes (the attributes and then the indices follow each other).
+    Cursor in = input.cursor(attribStart);
+    Attribs attribsOut = new Attribs(numVerts);
 
     for (int j = 0; j < stride; j ++ ) {
-      int end = inputOffset + numVerts;
       float decodeScale = decodeScales[j];
       if ( decodeScale != 0) {
         // Assume if decodeScale is never set, simply ignore the
         // attribute.
-        this.decompressAttribsInner_( str, inputOffset, end,
-          attribsOut, j, stride,
+        this.decompressAttribsInner_( in, numVerts,
+          attribsOut, j,
           decodeOffsets[j], decodeScale );
+      } else {
+        in.skip( numVerts );
       }
-      inputOffset = end;
     }
 
-    int indexStart = meshParams.indexRange[ 0 ];
     int numIndices = 3 * meshParams.indexRange[ 1 ];
 
-    int[] indicesOut = new int[ numIndices ];   // originally uint16
-    this.decompressIndices_( str, inputOffset, numIndices, indicesOut, 0 );
+    IntBuffer indicesOut = BufferUtils.createIntBuffer( numIndices );   // originally uint16
+    this.decompressIndices_( in, numIndices, indicesOut );
 
     // Decode bboxen.
     float[] bboxen = null;
     int bboxOffset = meshParams.bboxes;
 
     if ( bboxOffset > 0) {
-      bboxen = this.decompressAABBs_( str, bboxOffset, meshParams.names.length, decodeOffsets, decodeScales );
+      bboxen = this.decompressAABBs_( input.cursor(bboxOffset), meshParams.names.length, decodeOffsets, decodeScales );
     }
 
     return new Mesh(meshParams, name, idx, attribsOut, indicesOut, bboxen);
@@ -358,17 +504,16 @@ public class UTF8Decoder {
     }
   }
 
-  private void decodeAttrib2(String str, int stride,
+  private void decodeAttrib2(Cursor[] deltas, int stride,
                              int[] decodeOffsets, float[] decodeScales,
-                             int deltaStart, int numVerts,
-                             float[] attribsOut, int[] attribsOutFixed, int[] lastAttrib, int index) {
+                             Attribs attribsOut, int[] attribsOutFixed, int[] lastAttrib, int index) {
     for ( int j = 0; j < 5; j ++ ) {
-      int code = str.codePointAt(deltaStart + numVerts * j + index);
+      int code = deltas[ j ].next();
       int delta = ( code >> 1) ^ (-(code & 1));
 
       lastAttrib[ j ] += delta;
       attribsOutFixed[ stride * index + j ] = lastAttrib[ j ];
-      attribsOut[ stride * index + j ] = decodeScales[ j ] * ( lastAttrib[ j ] + decodeOffsets[ j ] );
+      attribsOut.put( index, j, decodeScales[ j ] * ( lastAttrib[ j ] + decodeOffsets[ j ] ) );
     }
   }
 
@@ -410,7 +555,7 @@ public class UTF8Decoder {
     crosses[ 3*i2 + 2 ] += p0z;
   }
 
-  private Mesh decompressMesh2(String str, MeshParams meshParams, DecodeParams decodeParams, String name, int idx) {
+  private Mesh decompressMesh2(Input input, MeshParams meshParams, DecodeParams decodeParams, String name, int idx) {
     int MAX_BACKREF = 96;
 
     // Extract conversion parameters from attribArrays.
@@ -430,12 +575,19 @@ public class UTF8Decoder {
     int[] crosses = new int[ 3 * numVerts ]; // originally int32
     int[] lastAttrib = new int[ stride ];  // originally uint16
     int[] attribsOutFixed = new int[ stride * numVerts ];  // originally uint16
-    float[] attribsOut = new float[ stride * numVerts ];       // originally float32
+    Attribs attribsOut = new Attribs( numVerts );       // originally float32
+
+    // The delta coded attributes of the new vertices are read in order (one cursor per attribute)
+    Cursor codes = input.cursor( codeStart );
+    Cursor[] deltas = new Cursor[ 5 ];
+    for ( int j = 0; j < 5; j ++ ) {
+      deltas[ j ] = input.cursor( deltaStart + numVerts * j );
+    }
 
     int highest = 0;
     int outputStart = 0;
     for ( int i = 0; i < numIndices; i += 3 ) {
-      int code = str.codePointAt(codeStart++);
+      int code = codes.next();
       int max_backref = Math.min( i, MAX_BACKREF );
 
       if ( code < max_backref ) {
@@ -468,14 +620,14 @@ public class UTF8Decoder {
         indicesOut[ outputStart ++ ] = i0;
         indicesOut[ outputStart ++ ] = i1;
 
-        code = str.codePointAt(codeStart++);
+        code = codes.next();
 
         int index = highest - code;
         indicesOut[ outputStart ++ ] = index;
 
         if ( code == 0 ) {
           for (int j = 0; j < 5; j ++ ) {
-            int deltaCode = str.codePointAt(deltaStart + numVerts * j + highest);
+            int deltaCode = deltas[ j ].next();
             int prediction = ((deltaCode >> 1) ^ (-(deltaCode & 1))) +
               attribsOutFixed[stride*i0 + j] +
               attribsOutFixed[stride*i1 + j] -
@@ -484,7 +636,7 @@ public class UTF8Decoder {
             lastAttrib[j] = prediction;
 
             attribsOutFixed[ stride * highest + j ] = prediction;
-            attribsOut[ stride * highest + j ] = decodeScales[ j ] * ( prediction + decodeOffsets[ j ] );
+            attribsOut.put( highest, j, decodeScales[ j ] * ( prediction + decodeOffsets[ j ] ) );
           }
           highest ++;
         } else {
@@ -496,26 +648,26 @@ public class UTF8Decoder {
         int index0 = highest - ( code - max_backref );
         indicesOut[ outputStart ++ ] = index0;
         if ( code == max_backref ) {
-          this.decodeAttrib2( str, stride, decodeOffsets, decodeScales, deltaStart,
-            numVerts, attribsOut, attribsOutFixed, lastAttrib,
+          this.decodeAttrib2( deltas, stride, decodeOffsets, decodeScales,
+            attribsOut, attribsOutFixed, lastAttrib,
             highest ++ );
         } else {
           this.copyAttrib(stride, attribsOutFixed, lastAttrib, index0);
         }
-        code = str.codePointAt(codeStart++);
+        code = codes.next();
 
         int index1 = highest - code;
         indicesOut[ outputStart ++ ] = index1;
 
         if ( code == 0 ) {
-          this.decodeAttrib2( str, stride, decodeOffsets, decodeScales, deltaStart,
-          numVerts, attribsOut, attribsOutFixed, lastAttrib,
+          this.decodeAttrib2( deltas, stride, decodeOffsets, decodeScales,
+          attribsOut, attribsOutFixed, lastAttrib,
           highest ++ );
         } else {
           this.copyAttrib( stride, attribsOutFixed, lastAttrib, index1 );
         }
 
-        code = str.codePointAt(codeStart++);
+        code = codes.next();
 
         int index2 = highest - code;
         indicesOut[ outputStart ++ ] = index2;
@@ -524,8 +676,8 @@ public class UTF8Decoder {
           for ( int j = 0; j < 5; j ++ ) {
             lastAttrib[ j ] = ( attribsOutFixed[ stride * index0 + j ] + attribsOutFixed[ stride * index1 + j ] ) / 2;
           }
-          this.decodeAttrib2( str, stride, decodeOffsets, decodeScales, deltaStart,
-          numVerts, attribsOut, attribsOutFixed, lastAttrib,
+          this.decodeAttrib2( deltas, stride, decodeOffsets, decodeScales,
+          attribsOut, attribsOutFixed, lastAttrib,
           highest ++ );
         } else {
           this.copyAttrib( stride, attribsOutFixed, lastAttrib, index2 );
@@ -535,6 +687,9 @@ public class UTF8Decoder {
       }
     }
 
+    Cursor cxs = input.cursor( deltaStart + 5 * numVerts );
+    Cursor cys = input.cursor( deltaStart + 6 * numVerts );
+    Cursor czs = input.cursor( deltaStart + 7 * numVerts );
     for ( int i = 0; i < numVerts; i ++ ) {
       int nx = crosses[ 3*i ];
       int ny = crosses[ 3*i + 1 ];
@@ -542,15 +697,15 @@ public class UTF8Decoder {
 
       float norm = (float) (511.0 / Math.sqrt( nx*nx + ny*ny + nz*nz ));
 
-      int cx = str.codePointAt(deltaStart + 5 * numVerts + i);
-      int cy = str.codePointAt(deltaStart + 6 * numVerts + i);
-      int cz = str.codePointAt(deltaStart + 7 * numVerts + i);
+      int cx = cxs.next();
+      int cy = cys.next();
+      int cz = czs.next();
 
-      attribsOut[ stride*i + 5 ] = norm*nx + ((cx >> 1) ^ (-(cx & 1)));
-      attribsOut[ stride*i + 6 ] = norm*ny + ((cy >> 1) ^ (-(cy & 1)));
-      attribsOut[ stride*i + 7 ] = norm*nz + ((cz >> 1) ^ (-(cz & 1)));
+      attribsOut.put( i, 5, norm*nx + ((cx >> 1) ^ (-(cx & 1))) );
+      attribsOut.put( i, 6, norm*ny + ((cy >> 1) ^ (-(cy & 1))) );
+      attribsOut.put( i, 7, norm*nz + ((cz >> 1) ^ (-(cz & 1))) );
     }
 
-    return new Mesh( meshParams, name, idx, attribsOut, indicesOut, null );
+    return new Mesh( meshParams, name, idx, attribsOut, BufferUtils.createIntBuffer( indicesOut ), null );
   }
 }
@@ -1,35 +1,28 @@
 package edu.stanford.graphics.shapenet.jme3.plugins;
 
 import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
 import com.jme3.asset.AssetLoader;
-import com.jme3.asset.AssetManager;
-import com.jme3.asset.plugins.ZipLocator;
+import jme3dae.ColladaContext;
 import jme3dae.ColladaLoader;
 import edu.stanford.graphics.shapenet.jme3.asset.*;
-import edu.stanford.graphics.shapenet.util.IOUtils;
-import edu.stanford.graphics.shapenet.util.WebCacheUtils;
-import edu.stanford.graphics.shapenet.util.WebUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 /**
  * Load a KMZ
+ * The entries of the archive are only visible to the collada document being loaded
+ *   (through its ColladaContext), so several kmz files can be loaded at the same time.
+ * The archive is opened as a ZipFile if it is a file (or in the web cache), otherwise the bytes of the archive
+ *   are kept in memory. Only the .dae entry is read eagerly, textures are inflated when they are loaded.
  * @author Angel Chang
  */
 public class KMZLoader implements AssetLoader {
   ColladaLoader colladaLoader = new ColladaLoader();
   private static final Logger logger = Logger.getLogger(MTLLoader.class.getName());
-  private static boolean useTempFile = true;
 
   @Override
   public Object load(AssetInfo assetInfo) throws IOException {
@@ -42,104 +35,45 @@ public class KMZLoader implements AssetLoader {
         return loadFromFile(assetInfo, file);
       }
     }
-    if (useTempFile) {
-      File file = null;
-      try {
-        file = saveToFile(assetInfo);
-        Object obj = loadFromFile(assetInfo, file);
-        return obj;
-      } finally {
-        if (file != null) {
-          file.delete();
-        }
-      }
-    }
     return loadFromStream(assetInfo);
   }
 
-  public File saveToFile(AssetInfo assetInfo) throws IOException {
-    InputStream inputStream = null;
+  public Object loadFromFile(AssetInfo assetInfo, File file) throws IOException {
+    ZipArchive archive = ZipArchive.open(file);
     try {
-      File tmpFile = File.createTempFile(assetInfo.getKey().getName(), "kmz");
-      tmpFile.deleteOnExit();
-      inputStream = assetInfo.openStream();
-      WebCacheUtils.fetchAndSave(inputStream, tmpFile);
-      return tmpFile;
+      return load(assetInfo, archive);
     } finally {
-      if (inputStream != null) {
-        inputStream.close();
-      }
+      archive.close();
     }
   }
 
-  public Object loadFromFile(AssetInfo assetInfo, File file) throws IOException {
-    String filename = file.getAbsolutePath();
-    ZipEntry zipEntry = null;
-    Object obj = null;
-    AssetManager assetManager = assetInfo.getManager();
-    ZipFile zipFile = new ZipFile(file);
+  public Object loadFromStream(AssetInfo assetInfo) throws IOException {
+    InputStream inputStream = assetInfo.openStream();
+    ZipArchive archive;
     try {
-      Enumeration<? extends ZipEntry> entries = zipFile.entries();
-      while (entries.hasMoreElements()) {
-        zipEntry = entries.nextElement();
-        String name = zipEntry.getName();
-        if (name.endsWith(".dae")) {
-          // Ah, found our collada file!!!
-          AssetInfo colladaAssetInfo = new ZipEntryAssetInfo(assetInfo.getManager(),
-            new ZipAssetKey(assetInfo.getKey(), name), zipFile, zipEntry);
-          assetManager.registerLocator(filename, ZipLocator.class);
-          obj = colladaLoader.load(colladaAssetInfo);
-          assetManager.unregisterLocator(filename, ZipLocator.class);
-          break;
-        }
-      }
+      archive = ZipArchive.read(inputStream);
     } finally {
-      zipFile.close();
+      inputStream.close();
     }
-    return obj;
-  }
-
-  public Object loadFromStream(AssetInfo assetInfo) throws IOException {
-    Map<String, byte[]> byteEntries = new HashMap<String, byte[]>();
-    ZipEntry zipEntry = null;
-    Object obj = null;
-    String daeEntryName = null;
-    ZipInputStream zipInputSteam = new ZipInputStream(assetInfo.openStream());
-    byte[] bytes = new byte[65536];
     try {
-      while ((zipEntry = zipInputSteam.getNextEntry()) != null) {
-        String name = zipEntry.getName();
-        int size = (int) zipEntry.getSize();
-        if (size < 0) size = bytes.length;
-        ByteArrayOutputStream outputBytes = new ByteArrayOutputStream(size);
-        int read = 0;
-        while ((read = zipInputSteam.read(bytes)) > 0) {
-          outputBytes.write(bytes, 0, read);
-        }
-        byteEntries.put(name, outputBytes.toByteArray());
-
-        if (name.endsWith(".dae")) {
-          // Ah, found our collada file!!!
-          daeEntryName = name;
-        }
-        zipInputSteam.closeEntry();
-      }
+      return load(assetInfo, archive);
     } finally {
-      zipInputSteam.close();
+      archive.close();
     }
+  }
 
-    AssetManager assetManager = assetInfo.getManager();
-    if (daeEntryName != null) {
-      String filename = assetInfo.getKey().getName();
-      AssetInfo colladaAssetInfo = new ByteArrayAssetInfo(assetInfo.getManager(),
-          new ZipAssetKey(assetInfo.getKey(), daeEntryName), byteEntries.get(daeEntryName));
-      MemBytesLocator.register(filename, byteEntries);
-      assetManager.registerLocator(filename, MemBytesLocator.class);
-      obj = colladaLoader.load(colladaAssetInfo);
-      assetManager.unregisterLocator(filename, MemBytesLocator.class);
-      MemBytesLocator.unregister(filename);
+  private Object load(AssetInfo assetInfo, ZipArchive archive) throws IOException {
+    for (String name : archive.getEntryNames()) {
+      if (name.endsWith(".dae")) {
+        // Ah, found our collada file!!!
+        AssetKey<?> key = assetInfo.getKey();
+        AssetInfo colladaAssetInfo = archive.getAssetInfo(assetInfo.getManager(),
+            new ZipAssetKey<>(key, name), name);
+        ColladaContext context = new ColladaContext(assetInfo.getKey().getName());
+        context.setResourceLocator(new ZipArchiveLocator(archive));
+        return colladaLoader.load(colladaAssetInfo, context);
+      }
     }
-    return obj;
+    return null;
   }
 }
-
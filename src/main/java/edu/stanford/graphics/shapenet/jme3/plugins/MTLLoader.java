@@ -41,6 +41,7 @@ import com.jme3.texture.Texture.WrapMode;
 import com.jme3.texture.Texture2D;
 import com.jme3.util.PlaceholderAssets;
 import edu.stanford.graphics.shapenet.jme3.asset.EnhancedAssetKey;
+import edu.stanford.graphics.shapenet.jme3.asset.TextureCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -170,13 +171,17 @@ public class MTLLoader implements AssetLoader {
         matName = name;
     }
     
-    protected Texture tryLoadTexture(String name, boolean useDefaultTexture){
+    protected TextureKey createTextureKey(String name){
         TextureKey texKey = new TextureKey(folderName + name);
         texKey.setGenerateMips(true);
+        return texKey;
+    }
+
+    protected Texture tryLoadTexture(String name, boolean useDefaultTexture){
+        TextureKey texKey = createTextureKey(name);
         Texture texture = null;
         try {
-            texture = assetManager.loadTexture(texKey);
-            texture.setWrap(WrapMode.Repeat);
+            texture = TextureCache.loadTexture(assetManager, texKey, WrapMode.Repeat);
             logger.log(Level.INFO, "Loaded {0} for material {1}", new Object[]{texKey, key});
         } catch (AssetNotFoundException ex){
             logger.log(Level.WARNING, "Cannot locate {0} for material {1}", new Object[]{texKey, key});
@@ -205,6 +210,23 @@ public class MTLLoader implements AssetLoader {
         return texture;
     }
 
+    /**
+     * Starts decoding the texture maps of all the materials in parallel,
+     * the materials then get the decoded textures when their statements are read
+     */
+    protected void prefetchTextures(String text){
+        for (String line : text.split("\n")){
+            String[] split = line.trim().split("\\p{javaWhitespace}+");
+            if (split.length > 1){
+                String cmd = split[0].toLowerCase();
+                if (cmd.equals("map_kd") || cmd.equals("map_bump") || cmd.equals("bump")
+                        || cmd.equals("map_ks") || cmd.equals("map_d")){
+                    TextureCache.prefetchTexture(assetManager, createTextureKey(split[split.length - 1]), WrapMode.Repeat);
+                }
+            }
+        }
+    }
+
     protected boolean readLine(){
         if (!scan.hasNext()){
             return false;
@@ -316,18 +338,25 @@ public class MTLLoader implements AssetLoader {
         }
         matList = new MaterialList();
 
+        String text = "";
         InputStream in = null;
         try {
             in = info.openStream();
-            scan = new Scanner(in);
-            scan.useLocale(Locale.US);
-            
-            while (readLine());
+            Scanner textScanner = new Scanner(in).useDelimiter("\\A");
+            if (textScanner.hasNext()){
+                text = textScanner.next();
+            }
         } finally {
             if (in != null){
                 in.close();
             }
         }
+
+        prefetchTextures(text);
+        scan = new Scanner(text);
+        scan.useLocale(Locale.US);
+
+        while (readLine());
         
         if (matName != null){
             // still have a material in the vars
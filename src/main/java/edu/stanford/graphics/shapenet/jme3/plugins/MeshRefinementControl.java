@@ -0,0 +1,72 @@
+package edu.stanford.graphics.shapenet.jme3.plugins;
+
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces the (coarse) mesh of a geometry with a refined mesh that is created in the background.
+ * The mesh is swapped in on the render thread (during the update of the geometry),
+ *   after which the control removes itself.
+ * Clones of the geometry share the refined mesh.
+ * @author Angel Chang
+ */
+public class MeshRefinementControl extends AbstractControl {
+  private static final Logger logger = Logger.getLogger(MeshRefinementControl.class.getName());
+
+  private Future<Mesh> refined;
+
+  /** For serialization only */
+  public MeshRefinementControl() {
+  }
+
+  public MeshRefinementControl(Future<Mesh> refined) {
+    this.refined = refined;
+  }
+
+  /** Whether the spatial (or any of its children) still has a mesh that will be refined */
+  public static boolean isRefining(Spatial spatial) {
+    if (spatial.getControl(MeshRefinementControl.class) != null) {
+      return true;
+    }
+    if (spatial instanceof Node) {
+      for (Spatial child : ((Node) spatial).getChildren()) {
+        if (isRefining(child)) return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  protected void controlUpdate(float tpf) {
+    if (refined == null) {
+      spatial.removeControl(this);
+    } else if (refined.isDone()) {
+      try {
+        Mesh mesh = refined.get();
+        if (mesh != null && spatial instanceof Geometry) {
+          ((Geometry) spatial).setMesh(mesh);
+          spatial.updateModelBound();
+        }
+      } catch (ExecutionException ex) {
+        logger.log(Level.WARNING, "Error refining mesh of " + spatial.getName(), ex.getCause());
+      } catch (Exception ex) {
+        logger.log(Level.WARNING, "Error refining mesh of " + spatial.getName(), ex);
+      }
+      spatial.removeControl(this);
+    }
+  }
+
+  @Override
+  protected void controlRender(RenderManager rm, ViewPort vp) {
+  }
+}
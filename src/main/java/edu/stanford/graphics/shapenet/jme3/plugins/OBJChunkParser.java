@@ -0,0 +1,264 @@
+package edu.stanford.graphics.shapenet.jme3.plugins;
+
+import edu.stanford.graphics.shapenet.util.FloatArrayList;
+import edu.stanford.graphics.shapenet.util.IntArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses a chunk (a run of whole lines) of a memory mapped OBJ file.
+ * Chunks are parsed in two passes so they can be processed independently:
+ *   count() counts the vertex attributes in the chunk,
+ *   then once the attribute offsets of all preceding chunks are known,
+ *   parse() reads the attributes and resolves face indices to global (1-based) indices.
+ * Grouping statements (usemtl, mtllib, o, g) are not applied here but recorded as runs
+ *   so OBJLoader can replay them in file order when merging the chunks.
+ * @author Angel Chang
+ */
+final class OBJChunkParser {
+  private static final Logger logger = Logger.getLogger(OBJChunkParser.class.getName());
+
+  /**
+   * Faces following a grouping statement
+   * (statement is UNKNOWN for faces continuing the group from the previous chunk)
+   */
+  static final class Run {
+    final int statement;
+    final String name;
+    int faceStart;
+    int faceEnd;
+    int nFaces = 0;
+    int nTriangles = 0;
+
+    Run(int statement, String name, int faceStart) {
+      this.statement = statement;
+      this.name = name;
+      this.faceStart = faceStart;
+      this.faceEnd = faceStart;
+    }
+  }
+
+  private final ByteBuffer buffer;
+
+  // Number of attributes in this chunk (from count())
+  int nVerts = 0;
+  int nVertColors = 0;
+  int nTexCoords = 0;
+  int nNorms = 0;
+
+  // Number of attributes in the preceding chunks
+  int vertOffset = 0;
+  int vertColorOffset = 0;
+  int texCoordOffset = 0;
+  int normOffset = 0;
+
+  final FloatArrayList verts = new FloatArrayList();
+  final FloatArrayList vertColors = new FloatArrayList();
+  final FloatArrayList texCoords = new FloatArrayList();
+  final FloatArrayList norms = new FloatArrayList();
+  // Faces in the same flat layout as OBJLoader.GeomGroup
+  final IntArrayList faces = new IntArrayList();
+  final List<Run> runs = new ArrayList<Run>();
+
+  private OBJTokenizer tokenizer;
+  private final IntArrayList faceCorners = new IntArrayList(12);
+  private final float[] vertexValues = new float[6];
+
+  OBJChunkParser(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Splits the buffer into at most nChunks chunks, each ending at a line break
+   */
+  static List<OBJChunkParser> split(ByteBuffer buffer, int nChunks) {
+    List<OBJChunkParser> chunks = new ArrayList<OBJChunkParser>(nChunks);
+    int size = buffer.limit();
+    int chunkSize = Math.max(size / Math.max(nChunks, 1), 1);
+    int start = 0;
+    while (start < size) {
+      int end = (size - start > chunkSize)? start + chunkSize : size;
+      while (end < size && buffer.get(end-1) != '\n') {
+        end++;
+      }
+      ByteBuffer chunk = buffer.duplicate();
+      chunk.position(start);
+      chunk.limit(end);
+      chunks.add(new OBJChunkParser(chunk.slice()));
+      start = end;
+    }
+    return chunks;
+  }
+
+  /** First pass: counts vertex attributes (consuming statements the same way as parse) */
+  void count() throws IOException {
+    tokenizer = OBJTokenizer.create(buffer.duplicate());
+    int statement;
+    while ((statement = tokenizer.nextStatement()) != OBJTokenizer.EOF) {
+      switch (statement) {
+        case OBJTokenizer.VERTEX:
+          int n = 0;
+          while (n < vertexValues.length && tokenizer.hasMoreOnLine()) {
+            tokenizer.skipToken();
+            n++;
+          }
+          tokenizer.skipLine();
+          if (n >= 3) nVerts++;
+          if (n >= 6) nVertColors++;
+          break;
+        case OBJTokenizer.NORMAL:
+          tokenizer.skipLine();
+          nNorms++;
+          break;
+        case OBJTokenizer.TEXCOORD:
+          tokenizer.skipLine();
+          nTexCoords++;
+          break;
+        case OBJTokenizer.USEMTL:
+          tokenizer.nextToken();
+          break;
+        case OBJTokenizer.MTLLIB:
+        case OBJTokenizer.OBJECT:
+        case OBJTokenizer.GROUP:
+          tokenizer.restOfLine();
+          break;
+        default:
+          tokenizer.skipLine();
+      }
+    }
+    tokenizer = null;
+  }
+
+  /** Second pass: reads attributes and faces (requires the offsets to be set) */
+  void parse() throws IOException {
+    verts.ensureCapacity(nVerts*3);
+    vertColors.ensureCapacity(nVertColors*3);
+    texCoords.ensureCapacity(nTexCoords*2);
+    norms.ensureCapacity(nNorms*3);
+    Run run = new Run(OBJTokenizer.UNKNOWN, null, 0);
+    runs.add(run);
+
+    tokenizer = OBJTokenizer.create(buffer.duplicate());
+    int statement;
+    while ((statement = tokenizer.nextStatement()) != OBJTokenizer.EOF) {
+      switch (statement) {
+        case OBJTokenizer.COMMENT:
+        case OBJTokenizer.SMOOTH:
+          tokenizer.skipLine();
+          break;
+        case OBJTokenizer.VERTEX:
+          readVertex();
+          break;
+        case OBJTokenizer.NORMAL:
+          norms.add(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat());
+          tokenizer.skipLine();
+          break;
+        case OBJTokenizer.TEXCOORD:
+          texCoords.add(tokenizer.nextFloat(), tokenizer.nextFloat());
+          tokenizer.skipLine();
+          break;
+        case OBJTokenizer.FACE:
+          readFace(run);
+          break;
+        case OBJTokenizer.USEMTL:
+          run = new Run(statement, tokenizer.nextToken(), faces.size());
+          runs.add(run);
+          break;
+        case OBJTokenizer.MTLLIB:
+        case OBJTokenizer.OBJECT:
+        case OBJTokenizer.GROUP:
+          run = new Run(statement, tokenizer.restOfLine(), faces.size());
+          runs.add(run);
+          break;
+        default:
+          logger.log(Level.WARNING, "Unknown statement in OBJ! {0}", tokenizer.lastToken());
+          tokenizer.skipLine();
+      }
+    }
+    tokenizer = null;
+  }
+
+  private void readVertex() throws IOException {
+    int n = 0;
+    while (n < vertexValues.length && tokenizer.hasMoreOnLine()) {
+      vertexValues[n++] = tokenizer.nextFloat();
+    }
+    tokenizer.skipLine();
+    if (n >= 3) {
+      verts.add(vertexValues[0], vertexValues[1], vertexValues[2]);
+    }
+    if (n >= 6) {
+      vertColors.add(vertexValues[3], vertexValues[4], vertexValues[5]);
+    }
+  }
+
+  private void readFace(Run run) throws IOException {
+    faceCorners.clear();
+    while (tokenizer.hasMoreOnLine()) {
+      int v = tokenizer.nextInt();
+      int vt = 0;
+      int vn = 0;
+      if (tokenizer.skipIf('/')) {
+        if (!tokenizer.atTokenEnd() && !tokenizer.nextIs('/')) {
+          vt = tokenizer.nextInt();
+        }
+        if (tokenizer.skipIf('/') && !tokenizer.atTokenEnd()) {
+          vn = tokenizer.nextInt();
+        }
+      }
+      addFaceCorner(v, vt, vn);
+    }
+    tokenizer.skipLine();
+
+    int n = faceCorners.size()/3;
+    if (n > 4 || n <= 2) {
+      logger.warning("Edge or polygon detected in OBJ. Ignored.");
+      return;
+    }
+    faces.add(n);
+    faces.addAll(faceCorners);
+    run.faceEnd = faces.size();
+    run.nFaces++;
+    run.nTriangles += (n == 4)? 2 : 1;
+  }
+
+  /** Same as OBJLoader.addFaceCorner, but against the attributes read so far in the whole file */
+  private void addFaceCorner(int v, int vt, int vn) {
+    int numVerts = vertOffset + verts.size()/3;
+    int numVertColors = vertColorOffset + vertColors.size()/3;
+    int numTexCoords = texCoordOffset + texCoords.size()/2;
+    int numNorms = normOffset + norms.size()/3;
+    if (v < 0) {
+      v = numVerts + v + 1;
+    }
+    if (vt < 0) {
+      vt = numTexCoords + vt + 1;
+    }
+    if (vn < 0) {
+      vn = numNorms + vn + 1;
+    }
+
+    if (v < 1 || v > numVerts) {
+      throw new IndexOutOfBoundsException("Invalid v index reference " + v);
+    }
+    if (numVertColors > 0 && v > numVertColors) {
+      logger.warning("Invalid v color index reference " + v);
+    }
+
+    if (vt > 0 && vt > numTexCoords) {
+      logger.warning("Invalid vt index reference " + vt);
+      vt = 0;
+    }
+
+    if (vn > 0 && vn > numNorms) {
+      logger.warning("Invalid vn index reference " + vn);
+      vn = 0;
+    }
+    faceCorners.add(v, vt, vn);
+  }
+}
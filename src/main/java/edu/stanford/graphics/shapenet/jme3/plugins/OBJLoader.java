@@ -35,9 +35,6 @@ import com.jme3.asset.*;
 import com.jme3.material.Material;
 import com.jme3.material.MaterialList;
 import com.jme3.math.ColorRGBA;
-import com.jme3.math.Vector2f;
-import com.jme3.math.Vector3f;
-import com.jme3.math.Vector4f;
 import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
@@ -45,22 +42,31 @@ import com.jme3.scene.Mesh.Mode;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.VertexBuffer.Type;
-import com.jme3.scene.mesh.IndexBuffer;
-import com.jme3.scene.mesh.IndexIntBuffer;
-import com.jme3.scene.mesh.IndexShortBuffer;
 import com.jme3.util.BufferUtils;
-import com.jme3.util.IntMap;
 import edu.stanford.graphics.shapenet.jme3.asset.EnhancedAssetKey;
 import edu.stanford.graphics.shapenet.jme3.asset.EnhancedModelKey;
+import edu.stanford.graphics.shapenet.jme3.loaders.MeshStats;
+import edu.stanford.graphics.shapenet.util.FloatArrayList;
+import edu.stanford.graphics.shapenet.util.IntArrayList;
+import edu.stanford.graphics.shapenet.util.TaskExecutor;
+import edu.stanford.graphics.shapenet.util.Threads;
 import jme3dae.utilities.NormalGenerator;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 //import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -74,10 +80,11 @@ public final class OBJLoader implements AssetLoader {
 
   private static final Logger logger = Logger.getLogger(OBJLoader.class.getName());
 
-  protected final ArrayList<Vector3f> verts = new ArrayList<Vector3f>();
-  protected final ArrayList<Vector4f> vertColors = new ArrayList<Vector4f>();
-  protected final ArrayList<Vector2f> texCoords = new ArrayList<Vector2f>();
-  protected final ArrayList<Vector3f> norms = new ArrayList<Vector3f>();
+  // Vertex attributes, flattened (3 floats per position, color and normal, 2 per texture coordinate)
+  protected final FloatArrayList verts = new FloatArrayList(3*1024);
+  protected final FloatArrayList vertColors = new FloatArrayList();
+  protected final FloatArrayList texCoords = new FloatArrayList(2*1024);
+  protected final FloatArrayList norms = new FloatArrayList(3*1024);
 
   //protected final ArrayList<Face> faces = new ArrayList<Face>();
   //protected final HashMap<String, ArrayList<Face>> matFaces = new HashMap<String, ArrayList<Face>>();
@@ -88,16 +95,21 @@ public final class OBJLoader implements AssetLoader {
   protected String currentMatName;
   protected String currentObjectName;
 
-  protected final HashMap<Vertex, Integer> vertIndexMap = new HashMap<Vertex, Integer>(100);
-  protected final IntMap<Vertex> indexVertMap = new IntMap<Vertex>(100);
-  protected int curIndex    = 0;
+  // Maps (v, vt, vn) of face corners to mesh vertex indices
+  protected final VertexIndexTable vertIndexTable = new VertexIndexTable();
+  // (v, vt, vn) for each mesh vertex index
+  protected final IntArrayList indexVertCorners = new IntArrayList(3*1024);
   protected int objectIndex = 0;
   protected int geomIndex   = 0;
 
   protected Scanner scan;
+  protected OBJTokenizer tokenizer;
   protected ModelKey key;
   protected AssetManager assetManager;
   protected MaterialList matList;
+  // Names of the materials in the MTL library (only read when computing stats)
+  protected Set<String> matNames;
+  protected boolean statsOnly = false;
 
   protected String objName;
   protected Node objNode;
@@ -105,57 +117,49 @@ public final class OBJLoader implements AssetLoader {
   private static Pattern whitespacePattern = Pattern.compile("\\s+");
   private static Pattern slashPattern = Pattern.compile("/");
 
-  protected static class Vertex {
+  // Whether to parse using the byte level OBJTokenizer instead of Scanner + regex splits
+  private static boolean useTokenizer = true;
 
-    Vector3f v;
-    Vector2f vt;
-    Vector3f vn;
-    Vector4f vc;
-    int index;
+  public static void setUseTokenizer(boolean flag) {
+    useTokenizer = flag;
+  }
 
-    @Override
-    public boolean equals(Object obj) {
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      final Vertex other = (Vertex) obj;
-      if (this.v != other.v && (this.v == null || !this.v.equals(other.v))) {
-        return false;
-      }
-      if (this.vt != other.vt && (this.vt == null || !this.vt.equals(other.vt))) {
-        return false;
-      }
-      if (this.vn != other.vn && (this.vn == null || !this.vn.equals(other.vn))) {
-        return false;
-      }
-      if (this.vc != other.vc && (this.vc == null || !this.vc.equals(other.vc))) {
-        return false;
-      }
-      return true;
-    }
+  public static boolean getUseTokenizer() {
+    return useTokenizer;
+  }
 
-    @Override
-    public int hashCode() {
-      int hash = 5;
-      hash = 53 * hash + (this.v != null ? this.v.hashCode() : 0);
-      hash = 53 * hash + (this.vt != null ? this.vt.hashCode() : 0);
-      hash = 53 * hash + (this.vn != null ? this.vn.hashCode() : 0);
-      hash = 53 * hash + (this.vc != null ? this.vc.hashCode() : 0);
-      return hash;
-    }
+  // Crease angle (in degrees) used when generating normals for meshes without vn entries (0 for smooth normals)
+  private static float normalCreaseAngle = 0;
+
+  public static void setNormalCreaseAngle(float degrees) {
+    normalCreaseAngle = degrees;
+  }
+
+  public static float getNormalCreaseAngle() {
+    return normalCreaseAngle;
+  }
+
+  // Files at least this big (in bytes) are split into chunks parsed in parallel on the cpu executor (0 or less to disable)
+  private static long parallelThreshold = 16L*1024*1024;
+
+  public static void setParallelThreshold(long nbytes) {
+    parallelThreshold = nbytes;
   }
 
-  protected static class Face {
-    Vertex[] vertices;
+  public static long getParallelThreshold() {
+    return parallelThreshold;
   }
 
+  /**
+   * Faces of a group, stored flat as [n, v1, vt1, vn1, ..., vn, vtn, vnn] with n = 3 or 4
+   * Indices are 1-based and resolved (0 if not present)
+   */
   protected class GeomGroup {
     String groupName;
     String materialName;
-    ArrayList<Face> geomFaces = new ArrayList<Face>();
+    IntArrayList faces = new IntArrayList();
+    int nFaces = 0;
+    int nTriangles = 0;
   }
 
   protected class ObjectGroup {
@@ -199,73 +203,80 @@ public final class OBJLoader implements AssetLoader {
     geomMatNames.clear();
     geomGroups.clear();
 
-    vertIndexMap.clear();
-    indexVertMap.clear();
+    vertIndexTable.clear();
+    indexVertCorners.clear();
 
     currentMatName = null;
     matList = null;
-    curIndex = 0;
+    matNames = null;
     geomIndex = 0;
     scan = null;
+    tokenizer = null;
   }
 
-  protected void findVertexIndex(Vertex vert){
-    Integer index = vertIndexMap.get(vert);
-    if (index != null){
-      vert.index = index.intValue();
-    }else{
-      vert.index = curIndex++;
-      vertIndexMap.put(vert, vert.index);
-      indexVertMap.put(vert.index, vert);
-    }
+  protected int numVerts() {
+    return verts.size()/3;
   }
 
-  protected Face[] quadToTriangle(Face f){
-    assert f.vertices.length == 4;
+  protected int numVertColors() {
+    return vertColors.size()/3;
+  }
 
-    Face[] t = new Face[]{ new Face(), new Face() };
-    t[0].vertices = new Vertex[3];
-    t[1].vertices = new Vertex[3];
+  protected int numTexCoords() {
+    return texCoords.size()/2;
+  }
 
-    Vertex v0 = f.vertices[0];
-    Vertex v1 = f.vertices[1];
-    Vertex v2 = f.vertices[2];
-    Vertex v3 = f.vertices[3];
+  protected int numNorms() {
+    return norms.size()/3;
+  }
 
+  /** Returns the mesh vertex index for the face corner (v, vt, vn) */
+  protected int findVertexIndex(int v, int vt, int vn){
+    int index = vertIndexTable.getOrAdd(v, vt, vn);
+    if (index == indexVertCorners.size()/3) {
+      indexVertCorners.add(v, vt, vn);
+    }
+    return index;
+  }
+
+  private float distanceSquared(int v1, int v2) {
+    float[] p = verts.array();
+    int i1 = (v1-1)*3;
+    int i2 = (v2-1)*3;
+    float dx = p[i1] - p[i2];
+    float dy = p[i1+1] - p[i2+1];
+    float dz = p[i1+2] - p[i2+2];
+    return dx*dx + dy*dy + dz*dz;
+  }
+
+  /**
+   * Splits the quad (with mesh vertex indices i0, i1, i2, i3 and position indices v0, v1, v2, v3)
+   * into two triangles, added to the triangle indices
+   */
+  protected void quadToTriangle(int v0, int v1, int v2, int v3,
+                                int i0, int i1, int i2, int i3, IntArrayList triangles){
     // find the pair of vertices that is closest to each over
     // v0 and v2
     // OR
     // v1 and v3
-    float d1 = v0.v.distanceSquared(v2.v);
-    float d2 = v1.v.distanceSquared(v3.v);
+    float d1 = distanceSquared(v0, v2);
+    float d2 = distanceSquared(v1, v3);
     if (d1 < d2){
       // put an edge in v0, v2
-      t[0].vertices[0] = v0;
-      t[0].vertices[1] = v1;
-      t[0].vertices[2] = v3;
-
-      t[1].vertices[0] = v1;
-      t[1].vertices[1] = v2;
-      t[1].vertices[2] = v3;
+      triangles.add(i0, i1, i3);
+      triangles.add(i1, i2, i3);
     }else{
       // put an edge in v1, v3
-      t[0].vertices[0] = v0;
-      t[0].vertices[1] = v1;
-      t[0].vertices[2] = v2;
-
-      t[1].vertices[0] = v0;
-      t[1].vertices[1] = v2;
-      t[1].vertices[2] = v3;
+      triangles.add(i0, i1, i2);
+      triangles.add(i0, i2, i3);
     }
-
-    return t;
   }
 
-  private ArrayList<Vertex> vertList = new ArrayList<Vertex>();
+  // Corners (v, vt, vn) of the face being read
+  private final IntArrayList faceCorners = new IntArrayList(12);
 
   protected void readFace(){
-    Face f = new Face();
-    vertList.clear();
+    faceCorners.clear();
 
     String line = scan.nextLine().trim();
     String[] vertices = whitespacePattern.split(line);
@@ -289,59 +300,79 @@ public final class OBJLoader implements AssetLoader {
         vn = Integer.parseInt(split[2].trim());
       }
 
-      if (v < 0) {
-        v = verts.size() + v + 1;
-      }
-      if (vt < 0) {
-        vt = texCoords.size() + vt + 1;
-      }
-      if (vn < 0) {
-        vn = norms.size() + vn + 1;
-      }
+      addFaceCorner(v, vt, vn);
+    }
 
-      Vertex vx = new Vertex();
-      vx.v = verts.get(v - 1);
-      if (vertColors.size() > 0) {
-        if (v - 1 < vertColors.size()) {
-          vx.vc = vertColors.get(v - 1);
-        } else {
-          logger.warning("Invalid v color index reference for " + line);
-        }
-      }
+    addFace();
+  }
 
-      if (vt > 0) {
-        if (vt - 1 < texCoords.size()) {
-          vx.vt = texCoords.get(vt - 1);
-        } else {
-          logger.warning("Invalid vt index reference for " + line);
+  protected void readFaceTokens() throws IOException {
+    faceCorners.clear();
+    while (tokenizer.hasMoreOnLine()) {
+      int v = tokenizer.nextInt();
+      int vt = 0;
+      int vn = 0;
+      // Same as splitting on slashes: v, v/vt, v//vn, v/vt/vn (trailing slashes are ignored)
+      if (tokenizer.skipIf('/')) {
+        if (!tokenizer.atTokenEnd() && !tokenizer.nextIs('/')) {
+          vt = tokenizer.nextInt();
         }
-      }
-
-      if (vn > 0) {
-        if (vn - 1 < norms.size()) {
-          vx.vn = norms.get(vn - 1);
-        } else {
-          logger.warning("Invalid vn index reference for " + line);
+        if (tokenizer.skipIf('/') && !tokenizer.atTokenEnd()) {
+          vn = tokenizer.nextInt();
         }
       }
+      addFaceCorner(v, vt, vn);
+    }
+    tokenizer.skipLine();
+
+    addFace();
+  }
 
-      vertList.add(vx);
+  /** Resolves relative indices and drops invalid vt/vn references */
+  protected void addFaceCorner(int v, int vt, int vn) {
+    if (v < 0) {
+      v = numVerts() + v + 1;
+    }
+    if (vt < 0) {
+      vt = numTexCoords() + vt + 1;
+    }
+    if (vn < 0) {
+      vn = numNorms() + vn + 1;
     }
 
-    if (vertList.size() > 4 || vertList.size() <= 2) {
-      logger.warning("Edge or polygon detected in OBJ. Ignored.");
-      return;
+    if (v < 1 || v > numVerts()) {
+      throw new IndexOutOfBoundsException("Invalid v index reference " + v);
+    }
+    if (numVertColors() > 0 && v > numVertColors()) {
+      logger.warning("Invalid v color index reference " + v);
     }
 
-    f.vertices = new Vertex[vertList.size()];
-    for (int i = 0; i < vertList.size(); i++){
-      f.vertices[i] = vertList.get(i);
+    if (vt > 0 && vt > numTexCoords()) {
+      logger.warning("Invalid vt index reference " + vt);
+      vt = 0;
+    }
+
+    if (vn > 0 && vn > numNorms()) {
+      logger.warning("Invalid vn index reference " + vn);
+      vn = 0;
+    }
+    faceCorners.add(v, vt, vn);
+  }
+
+  protected void addFace() {
+    int n = faceCorners.size()/3;
+    if (n > 4 || n <= 2) {
+      logger.warning("Edge or polygon detected in OBJ. Ignored.");
+      return;
     }
 
     if (geomGroups.size() == 0) startNewGeomGroup(null, null);
     GeomGroup group = geomGroups.get(geomGroups.size()-1);
-    group.geomFaces.add(f);
-    if (matList != null && matList.containsKey(currentMatName)){
+    group.faces.add(n);
+    group.faces.addAll(faceCorners);
+    group.nFaces++;
+    group.nTriangles += (n == 4)? 2 : 1;
+    if (hasMaterial(currentMatName)){
       group.materialName = currentMatName;
       //matFaces.get(currentMatName).add(f);
     }else{
@@ -350,45 +381,60 @@ public final class OBJLoader implements AssetLoader {
     }
   }
 
-  protected void readVertex(List<Vector3f> verts, List<Vector4f> vertColors) {
+  protected void readVertex() {
     String line = scan.nextLine().trim();
     String[] split = whitespacePattern.split(line);
     if (split.length >= 3) {
-      Vector3f v = new Vector3f();
-      v.set(Float.parseFloat(split[0].trim()),
+      verts.add(Float.parseFloat(split[0].trim()),
           Float.parseFloat(split[1].trim()),
           Float.parseFloat(split[2].trim()));
-      verts.add(v);
     }
     if (split.length >= 6) {
-      Vector4f v = new Vector4f();
-      v.set(Float.parseFloat(split[3].trim()),
+      vertColors.add(Float.parseFloat(split[3].trim()),
           Float.parseFloat(split[4].trim()),
-          Float.parseFloat(split[5].trim()), 1.0f);
-      vertColors.add(v);
+          Float.parseFloat(split[5].trim()));
     }
   }
 
-  protected Vector3f readVector3(){
-    Vector3f v = new Vector3f();
-
+  protected void readVector3(FloatArrayList list){
     String line = scan.nextLine().trim();
     String[] split = whitespacePattern.split(line);
-    v.set(Float.parseFloat(split[0].trim()),
+    list.add(Float.parseFloat(split[0].trim()),
         Float.parseFloat(split[1].trim()),
         Float.parseFloat(split[2].trim()));
-
-    return v;
   }
 
-  protected Vector2f readVector2(){
-    Vector2f v = new Vector2f();
-
+  protected void readVector2(FloatArrayList list){
     String line = scan.nextLine().trim();
     String[] split = whitespacePattern.split(line);
-    v.setX( Float.parseFloat(split[0].trim()) );
-    v.setY( Float.parseFloat(split[1].trim()) );
-    return v;
+    list.add(Float.parseFloat(split[0].trim()),
+        Float.parseFloat(split[1].trim()));
+  }
+
+  private final float[] vertexValues = new float[6];
+
+  protected void readVertexTokens() throws IOException {
+    int n = 0;
+    while (n < vertexValues.length && tokenizer.hasMoreOnLine()) {
+      vertexValues[n++] = tokenizer.nextFloat();
+    }
+    tokenizer.skipLine();
+    if (n >= 3) {
+      verts.add(vertexValues[0], vertexValues[1], vertexValues[2]);
+    }
+    if (n >= 6) {
+      vertColors.add(vertexValues[3], vertexValues[4], vertexValues[5]);
+    }
+  }
+
+  protected void readVector3Tokens(FloatArrayList list) throws IOException {
+    list.add(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat());
+    tokenizer.skipLine();
+  }
+
+  protected void readVector2Tokens(FloatArrayList list) throws IOException {
+    list.add(tokenizer.nextFloat(), tokenizer.nextFloat());
+    tokenizer.skipLine();
   }
 
   protected void loadMtlLib(String name) throws IOException{
@@ -397,14 +443,18 @@ public final class OBJLoader implements AssetLoader {
 
     // NOTE: Cut off any relative/absolute paths
     name = new File(name).getName();
-    AssetKey mtlKey = null;
+    AssetKey<MaterialList> mtlKey = null;
     if (key instanceof EnhancedModelKey) {
-      mtlKey = new EnhancedAssetKey(key.getFolder() + name, ((EnhancedModelKey) key).getGeometryPath(), ((EnhancedModelKey) key).getMaterialsPath());
+      mtlKey = new EnhancedAssetKey<MaterialList>(key.getFolder() + name, ((EnhancedModelKey) key).getGeometryPath(), ((EnhancedModelKey) key).getMaterialsPath());
     } else {
-      mtlKey = new AssetKey(key.getFolder() + name);
+      mtlKey = new AssetKey<MaterialList>(key.getFolder() + name);
+    }
+    if (statsOnly) {
+      readMtlNames(mtlKey);
+      return;
     }
     try {
-      matList = (MaterialList) assetManager.loadAsset(mtlKey);
+      matList = assetManager.loadAsset(mtlKey);
     } catch (AssetNotFoundException ex){
       logger.log(Level.WARNING, "Cannot locate {0} for model {1}", new Object[]{name, key});
     }
@@ -417,6 +467,37 @@ public final class OBJLoader implements AssetLoader {
 //        }
   }
 
+  /** Reads just the material names from the MTL file (same names as the MTLLoader) */
+  protected void readMtlNames(AssetKey<?> mtlKey) throws IOException {
+    AssetInfo mtlInfo = assetManager.locateAsset(mtlKey);
+    if (mtlInfo == null) {
+      logger.log(Level.WARNING, "Cannot locate {0} for model {1}", new Object[]{mtlKey.getName(), key});
+      return;
+    }
+    Set<String> names = new HashSet<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(mtlInfo.openStream()));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] split = whitespacePattern.split(line.trim());
+        if (split.length > 1 && split[0].equalsIgnoreCase("newmtl")) {
+          names.add(split[1]);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    matNames = names;
+  }
+
+  protected boolean hasMaterial(String matName) {
+    if (statsOnly) {
+      return matNames != null && matNames.contains(matName);
+    } else {
+      return matList != null && matList.containsKey(matName);
+    }
+  }
+
   protected boolean nextStatement(){
     try {
       scan.skip(".*\r{0,1}\n");
@@ -431,7 +512,7 @@ public final class OBJLoader implements AssetLoader {
     GeomGroup newGroup = null;
     if (geomGroups.size() > 0) {
       GeomGroup lastGroup = geomGroups.get(geomGroups.size()-1);
-      if (lastGroup.geomFaces.size() > 0) {
+      if (lastGroup.nFaces > 0) {
         geomGroups.add(new GeomGroup());
       } else {
         // empty group already exists
@@ -440,7 +521,7 @@ public final class OBJLoader implements AssetLoader {
       geomGroups.add(new GeomGroup());
     }
     newGroup = geomGroups.get(geomGroups.size()-1);
-    assert(newGroup.geomFaces.isEmpty());
+    assert(newGroup.nFaces == 0);
     if (groupName != null) {
       newGroup.groupName = groupName;
     }
@@ -459,13 +540,13 @@ public final class OBJLoader implements AssetLoader {
       return nextStatement();
     }else if (cmd.equals("v")){
       // vertex position
-      readVertex(verts, vertColors);
+      readVertex();
     }else if (cmd.equals("vn")){
       // vertex normal
-      norms.add(readVector3());
+      readVector3(norms);
     }else if (cmd.equals("vt")){
       // texture coordinate
-      texCoords.add(readVector2());
+      readVector2(texCoords);
     }else if (cmd.equals("f")){
       // face, can be triangle, quad, or polygon (unsupported)
       readFace();
@@ -500,21 +581,185 @@ public final class OBJLoader implements AssetLoader {
     return true;
   }
 
-  protected Geometry createGeometry(ArrayList<Face> faceList, String matName) throws IOException{
-    if (faceList.isEmpty())
+  /** Same as readLine but using the tokenizer */
+  protected boolean readStatement() throws IOException{
+    int statement = tokenizer.nextStatement();
+    switch (statement) {
+      case OBJTokenizer.EOF:
+        return false;
+      case OBJTokenizer.COMMENT:
+        // skip entire comment until next line
+        tokenizer.skipLine();
+        break;
+      case OBJTokenizer.VERTEX:
+        readVertexTokens();
+        break;
+      case OBJTokenizer.NORMAL:
+        readVector3Tokens(norms);
+        break;
+      case OBJTokenizer.TEXCOORD:
+        readVector2Tokens(texCoords);
+        break;
+      case OBJTokenizer.FACE:
+        readFaceTokens();
+        break;
+      case OBJTokenizer.USEMTL:
+        currentMatName = tokenizer.nextToken();
+        geomMatNames.add(currentMatName);
+        startNewGeomGroup(null, currentMatName);
+        break;
+      case OBJTokenizer.MTLLIB:
+        loadMtlLib(tokenizer.restOfLine());
+        break;
+      case OBJTokenizer.OBJECT:
+      case OBJTokenizer.GROUP:
+        startNewGeomGroup(tokenizer.restOfLine(), currentMatName);
+        break;
+      case OBJTokenizer.SMOOTH:
+        tokenizer.skipLine();
+        break;
+      default:
+        // skip entire command until next line
+        logger.log(Level.WARNING, "Unknown statement in OBJ! {0}", tokenizer.lastToken());
+        tokenizer.skipLine();
+    }
+    return true;
+  }
+
+  /**
+   * Parses the file in chunks on the cpu executor then merges the chunks in order,
+   * applying grouping statements the same way as readStatement
+   */
+  protected void readChunks(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      List<OBJChunkParser> chunks = OBJChunkParser.split(mapped, Threads.cpu().getMaximumPoolSize()*4);
+
+      List<Callable<Void>> countTasks = new ArrayList<Callable<Void>>(chunks.size());
+      for (final OBJChunkParser chunk : chunks) {
+        countTasks.add(() -> { chunk.count(); return null; });
+      }
+      invokeAll(countTasks);
+
+      int vertOffset = 0, vertColorOffset = 0, texCoordOffset = 0, normOffset = 0;
+      List<Callable<Void>> parseTasks = new ArrayList<Callable<Void>>(chunks.size());
+      for (final OBJChunkParser chunk : chunks) {
+        chunk.vertOffset = vertOffset;
+        chunk.vertColorOffset = vertColorOffset;
+        chunk.texCoordOffset = texCoordOffset;
+        chunk.normOffset = normOffset;
+        vertOffset += chunk.nVerts;
+        vertColorOffset += chunk.nVertColors;
+        texCoordOffset += chunk.nTexCoords;
+        normOffset += chunk.nNorms;
+        parseTasks.add(() -> { chunk.parse(); return null; });
+      }
+      verts.ensureCapacity(vertOffset*3);
+      vertColors.ensureCapacity(vertColorOffset*3);
+      texCoords.ensureCapacity(texCoordOffset*2);
+      norms.ensureCapacity(normOffset*3);
+      invokeAll(parseTasks);
+
+      for (OBJChunkParser chunk : chunks) {
+        verts.addAll(chunk.verts);
+        vertColors.addAll(chunk.vertColors);
+        texCoords.addAll(chunk.texCoords);
+        norms.addAll(chunk.norms);
+        for (OBJChunkParser.Run run : chunk.runs) {
+          switch (run.statement) {
+            case OBJTokenizer.USEMTL:
+              currentMatName = run.name;
+              geomMatNames.add(currentMatName);
+              startNewGeomGroup(null, currentMatName);
+              break;
+            case OBJTokenizer.MTLLIB:
+              loadMtlLib(run.name);
+              break;
+            case OBJTokenizer.OBJECT:
+            case OBJTokenizer.GROUP:
+              startNewGeomGroup(run.name, currentMatName);
+              break;
+          }
+          if (run.nFaces > 0) {
+            if (geomGroups.size() == 0) startNewGeomGroup(null, null);
+            GeomGroup group = geomGroups.get(geomGroups.size()-1);
+            group.faces.addAll(chunk.faces.array(), run.faceStart, run.faceEnd - run.faceStart);
+            group.nFaces += run.nFaces;
+            group.nTriangles += run.nTriangles;
+            if (hasMaterial(currentMatName)){
+              group.materialName = currentMatName;
+            }
+          }
+        }
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void invokeAll(List<Callable<Void>> tasks) throws IOException {
+    TaskExecutor pool = Threads.cpu();
+    if (pool.isCurrentThread()) {
+      // Don't wait for cpu tasks from a cpu thread
+      for (Callable<Void> task : tasks) {
+        try {
+          task.call();
+        } catch (IOException | RuntimeException ex) {
+          throw ex;
+        } catch (Exception ex) {
+          throw new IOException("Error parsing OBJ", ex);
+        }
+      }
+      return;
+    }
+    List<Future<Void>> futures;
+    try {
+      futures = pool.invokeAll(tasks);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing OBJ", ex);
+    }
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while parsing OBJ", ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else {
+          throw new IOException("Error parsing OBJ", cause);
+        }
+      }
+    }
+  }
+
+  protected Geometry createGeometry(GeomGroup group, String matName) throws IOException{
+    if (group.nFaces == 0)
       throw new IOException("No geometry data to generate mesh");
 
     // Create mesh from the faces
-    boolean hasVertexColors = true;
-    for (Face face:faceList) {
-      for (Vertex v:face.vertices) {
-        if (v.vc == null) {
-          hasVertexColors = false;
-          break;
+    // Vertex colors are used for the default material only if all vertices have colors
+    boolean hasVertexColors = numVertColors() > 0;
+    if (hasVertexColors && numVertColors() < numVerts()) {
+      int[] faces = group.faces.array();
+      int end = group.faces.size();
+      for (int i = 0; i < end && hasVertexColors; ) {
+        int n = faces[i++];
+        for (int j = 0; j < n; j++, i += 3) {
+          if (faces[i] > numVertColors()) {
+            hasVertexColors = false;
+          }
         }
       }
     }
-    Mesh mesh = constructMesh(faceList);
+    Mesh mesh = constructMesh(group);
 
     Geometry geom = new Geometry(objName + "-geom-" + (geomIndex++), mesh);
 
@@ -535,10 +780,13 @@ public final class OBJLoader implements AssetLoader {
         material.setColor("Ambient", color);
         material.setFloat("Shininess", 64);
       }
-      if (mesh.getFloatBuffer(Type.Normal) == null) {
-        NormalGenerator ng = NormalGenerator.create();
-        ng.generateNormals(mesh);
-      }
+    }
+    if (mesh.getFloatBuffer(Type.Normal) == null) {
+      // No vn entries: generate smooth normals
+      NormalGenerator ng = NormalGenerator.create()
+          .setWeighting(NormalGenerator.Weighting.ANGLE)
+          .setCreaseAngle((float) Math.toRadians(normalCreaseAngle));
+      ng.generateNormals(mesh);
     }
     geom.setMaterial(material);
     if (material.isTransparent())
@@ -555,7 +803,7 @@ public final class OBJLoader implements AssetLoader {
     return geom;
   }
 
-  protected Mesh constructMesh(ArrayList<Face> faceList){
+  protected Mesh constructMesh(GeomGroup group){
     Mesh m = new Mesh();
     m.setMode(Mode.Triangles);
 
@@ -563,114 +811,117 @@ public final class OBJLoader implements AssetLoader {
     boolean hasNormals  = false;
     boolean hasColor  = false;
 
-    ArrayList<Face> newFaces = new ArrayList<Face>(faceList.size());
-    for (int i = 0; i < faceList.size(); i++){
-      Face f = faceList.get(i);
-
-      for (Vertex v : f.vertices){
-        findVertexIndex(v);
-
-        if (!hasTexCoord && v.vt != null)
+    // Assign mesh vertex indices to face corners (in order of first use) and triangulate quads
+    int[] faces = group.faces.array();
+    int end = group.faces.size();
+    IntArrayList triangles = new IntArrayList(group.nTriangles * 3);
+    int nVertColors = numVertColors();
+    faceCorners.clear();
+    for (int i = 0; i < end; ){
+      int n = faces[i++];
+      int c = i;
+      for (int j = 0; j < n; j++, i += 3){
+        int v = faces[i];
+        int vt = faces[i+1];
+        int vn = faces[i+2];
+        faceCorners.add(findVertexIndex(v, vt, vn));
+
+        if (!hasTexCoord && vt > 0)
           hasTexCoord = true;
-        if (!hasNormals && v.vn != null)
+        if (!hasNormals && vn > 0)
           hasNormals = true;
-        if (!hasColor && v.vc != null)
+        if (!hasColor && v <= nVertColors)
           hasColor = true;
       }
 
-      if (f.vertices.length == 4){
-        Face[] t = quadToTriangle(f);
-        newFaces.add(t[0]);
-        newFaces.add(t[1]);
+      if (n == 4){
+        quadToTriangle(faces[c], faces[c+3], faces[c+6], faces[c+9],
+            faceCorners.get(0), faceCorners.get(1), faceCorners.get(2), faceCorners.get(3), triangles);
       }else{
-        newFaces.add(f);
+        triangles.add(faceCorners.get(0), faceCorners.get(1), faceCorners.get(2));
       }
+      faceCorners.clear();
     }
 
-    FloatBuffer posBuf  = BufferUtils.createFloatBuffer(vertIndexMap.size() * 3);
+    int nVertices = indexVertCorners.size()/3;
+    FloatBuffer posBuf  = BufferUtils.createFloatBuffer(nVertices * 3);
     FloatBuffer normBuf = null;
     FloatBuffer tcBuf   = null;
     FloatBuffer colorBuf   = null;
 
     if (hasNormals){
-      normBuf = BufferUtils.createFloatBuffer(vertIndexMap.size() * 3);
+      normBuf = BufferUtils.createFloatBuffer(nVertices * 3);
       m.setBuffer(Type.Normal, 3, normBuf);
     }
     if (hasTexCoord){
-      tcBuf = BufferUtils.createFloatBuffer(vertIndexMap.size() * 2);
+      tcBuf = BufferUtils.createFloatBuffer(nVertices * 2);
       m.setBuffer(Type.TexCoord, 2, tcBuf);
     }
     if (hasColor) {
-      colorBuf = BufferUtils.createFloatBuffer(vertIndexMap.size() * 4);
+      colorBuf = BufferUtils.createFloatBuffer(nVertices * 4);
       m.setBuffer(Type.Color, 4, colorBuf);
     }
 
-    IndexBuffer indexBuf = null;
-    if (vertIndexMap.size() >= 65536){
-      // too many vertices: use intbuffer instead of shortbuffer
-      IntBuffer ib = BufferUtils.createIntBuffer(newFaces.size() * 3);
-      m.setBuffer(Type.Index, 3, ib);
-      indexBuf = new IndexIntBuffer(ib);
-    }else{
-      ShortBuffer sb = BufferUtils.createShortBuffer(newFaces.size() * 3);
-      m.setBuffer(Type.Index, 3, sb);
-      indexBuf = new IndexShortBuffer(sb);
-    }
-
-    int numFaces = newFaces.size();
-    for (int i = 0; i < numFaces; i++){
-      Face f = newFaces.get(i);
-      if (f.vertices.length != 3)
-        continue;
-
-      Vertex v0 = f.vertices[0];
-      Vertex v1 = f.vertices[1];
-      Vertex v2 = f.vertices[2];
+    // Fill vertex attributes in mesh vertex index order
+    float[] p = verts.array();
+    float[] vn = norms.array();
+    float[] vt = texCoords.array();
+    float[] vc = vertColors.array();
+    int[] corners = indexVertCorners.array();
+    for (int i = 0; i < nVertices; i++){
+      int v = corners[i*3];
+      int t = corners[i*3+1];
+      int n = corners[i*3+2];
 
-      posBuf.position(v0.index * 3);
-      posBuf.put(v0.v.x).put(v0.v.y).put(v0.v.z);
-      posBuf.position(v1.index * 3);
-      posBuf.put(v1.v.x).put(v1.v.y).put(v1.v.z);
-      posBuf.position(v2.index * 3);
-      posBuf.put(v2.v.x).put(v2.v.y).put(v2.v.z);
+      int pi = (v-1)*3;
+      posBuf.put(p[pi]).put(p[pi+1]).put(p[pi+2]);
 
       if (normBuf != null){
-        if (v0.vn != null){
-          normBuf.position(v0.index * 3);
-          normBuf.put(v0.vn.x).put(v0.vn.y).put(v0.vn.z);
-          normBuf.position(v1.index * 3);
-          normBuf.put(v1.vn.x).put(v1.vn.y).put(v1.vn.z);
-          normBuf.position(v2.index * 3);
-          normBuf.put(v2.vn.x).put(v2.vn.y).put(v2.vn.z);
+        if (n > 0){
+          int ni = (n-1)*3;
+          normBuf.put(vn[ni]).put(vn[ni+1]).put(vn[ni+2]);
+        } else {
+          normBuf.put(0).put(0).put(0);
         }
       }
 
       if (tcBuf != null){
-        if (v0.vt != null){
-          tcBuf.position(v0.index * 2);
-          tcBuf.put(v0.vt.x).put(v0.vt.y);
-          tcBuf.position(v1.index * 2);
-          tcBuf.put(v1.vt.x).put(v1.vt.y);
-          tcBuf.position(v2.index * 2);
-          tcBuf.put(v2.vt.x).put(v2.vt.y);
+        if (t > 0){
+          int ti = (t-1)*2;
+          tcBuf.put(vt[ti]).put(vt[ti+1]);
+        } else {
+          tcBuf.put(0).put(0);
         }
       }
 
       if (colorBuf != null){
-        if (v0.vc != null){
-          colorBuf.position(v0.index * 4);
-          colorBuf.put(v0.vc.x).put(v0.vc.y).put(v0.vc.z).put(v0.vc.w);
-          colorBuf.position(v1.index * 4);
-          colorBuf.put(v1.vc.x).put(v1.vc.y).put(v1.vc.z).put(v1.vc.w);
-          colorBuf.position(v2.index * 4);
-          colorBuf.put(v2.vc.x).put(v2.vc.y).put(v2.vc.z).put(v1.vc.w);
+        if (v <= nVertColors){
+          colorBuf.put(vc[pi]).put(vc[pi+1]).put(vc[pi+2]).put(1.0f);
+        } else {
+          colorBuf.put(0).put(0).put(0).put(0);
         }
       }
-
-      int index = i * 3; // current face * 3 = current index
-      indexBuf.put(index,   v0.index);
-      indexBuf.put(index+1, v1.index);
-      indexBuf.put(index+2, v2.index);
+    }
+    posBuf.rewind();
+    if (normBuf != null) normBuf.rewind();
+    if (tcBuf != null) tcBuf.rewind();
+    if (colorBuf != null) colorBuf.rewind();
+
+    int nIndices = triangles.size();
+    int[] indices = triangles.array();
+    if (nVertices >= 65536){
+      // too many vertices: use intbuffer instead of shortbuffer
+      IntBuffer ib = BufferUtils.createIntBuffer(nIndices);
+      ib.put(indices, 0, nIndices);
+      ib.rewind();
+      m.setBuffer(Type.Index, 3, ib);
+    }else{
+      ShortBuffer sb = BufferUtils.createShortBuffer(nIndices);
+      for (int i = 0; i < nIndices; i++){
+        sb.put((short) indices[i]);
+      }
+      sb.rewind();
+      m.setBuffer(Type.Index, 3, sb);
     }
 
     m.setBuffer(Type.Position, 3, posBuf);
@@ -683,13 +934,91 @@ public final class OBJLoader implements AssetLoader {
 
     // clear data generated face statements
     // to prepare for next mesh
-    vertIndexMap.clear();
-    indexVertMap.clear();
-    curIndex = 0;
+    vertIndexTable.clear();
+    indexVertCorners.clear();
 
     return m;
   }
 
+  /** Reads the faces (into geometry groups) and vertex attributes of the OBJ file */
+  protected void parse(AssetInfo info) throws IOException {
+    File file = (useTokenizer && parallelThreshold > 0)? OBJTokenizer.getFile(info) : null;
+    if (file != null && file.isFile() && file.length() >= parallelThreshold && file.length() < Integer.MAX_VALUE) {
+      readChunks(file);
+    } else if (useTokenizer) {
+      tokenizer = OBJTokenizer.create(info);
+      try {
+        while (readStatement());
+      } finally {
+        tokenizer.close();
+      }
+    } else {
+      InputStream in = null;
+      try {
+        in = info.openStream();
+
+        scan = new Scanner(in);
+        scan.useLocale(Locale.US);
+
+        while (readLine());
+      } finally {
+        if (in != null){
+          in.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes the statistics of the model that load would create:
+   *   number of triangles, mesh vertices, materials and the bounds of the mesh vertices
+   * Only the names of the materials are read and no meshes are created.
+   */
+  public MeshStats loadStats(AssetInfo info, MeshStats stats) throws IOException {
+    reset();
+    key = (ModelKey) info.getKey();
+    assetManager = info.getManager();
+    statsOnly = true;
+    try {
+      parse(info);
+
+      float[] p = verts.array();
+      Set<String> usedMatNames = new HashSet<String>();
+      for (GeomGroup group : geomGroups) {
+        if (group.nFaces == 0) continue;
+        String matName = group.materialName;
+        if (matName != null && hasMaterial(matName)) {
+          usedMatNames.add(matName);
+        } else {
+          // Each geometry gets its own default material
+          stats.nMaterials++;
+        }
+        stats.nFaces += group.nTriangles;
+        int[] faces = group.faces.array();
+        int end = group.faces.size();
+        for (int i = 0; i < end; ) {
+          int n = faces[i++];
+          for (int j = 0; j < n; j++, i += 3) {
+            int v = faces[i];
+            int size = vertIndexTable.size();
+            if (vertIndexTable.getOrAdd(v, faces[i+1], faces[i+2]) == size) {
+              // New mesh vertex
+              int pi = (v-1)*3;
+              stats.addPoint(p[pi], p[pi+1], p[pi+2]);
+            }
+          }
+        }
+        stats.nVertices += vertIndexTable.size();
+        vertIndexTable.clear();
+      }
+      stats.nMaterials += usedMatNames.size();
+    } finally {
+      statsOnly = false;
+      reset();
+    }
+    return stats;
+  }
+
   @SuppressWarnings("empty-statement")
   public Object load(AssetInfo info) throws IOException{
     // Clear memory
@@ -711,25 +1040,12 @@ public final class OBJLoader implements AssetLoader {
     if (!(info.getKey() instanceof ModelKey))
       throw new IllegalArgumentException("Model assets must be loaded using a ModelKey");
 
-    InputStream in = null;
-    try {
-      in = info.openStream();
-
-      scan = new Scanner(in);
-      scan.useLocale(Locale.US);
-
-      while (readLine());
-    } finally {
-      if (in != null){
-        in.close();
-      }
-    }
+    parse(info);
 
     if (geomGroups.size() > 0){
       Map<String, Integer> matGeomsCount = new HashMap<String, Integer>();
       for (int i = 0; i < geomGroups.size(); i++) {
         GeomGroup group = geomGroups.get(i);
-        ArrayList<Face> materialFaces = group.geomFaces;
         String matName = group.materialName;  //geomMatNames.get(i);
         if (matName != null) {
           Integer c = matGeomsCount.get(matName);
@@ -738,8 +1054,8 @@ public final class OBJLoader implements AssetLoader {
 //            for (Entry<String, ArrayList<Face>> entry : matFaces.entrySet()){
 //                ArrayList<Face> materialFaces = entry.getValue();
 //                String matName = entry.getKey();
-        if (materialFaces.size() > 0){
-          Geometry geom = createGeometry(materialFaces, matName);
+        if (group.nFaces > 0){
+          Geometry geom = createGeometry(group, matName);
           objNode.attachChild(geom);
         }
       }
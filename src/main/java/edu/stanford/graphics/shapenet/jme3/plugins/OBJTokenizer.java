@@ -0,0 +1,437 @@
+package edu.stanford.graphics.shapenet.jme3.plugins;
+
+import com.jme3.asset.AssetInfo;
+import edu.stanford.graphics.shapenet.jme3.asset.AssetInfoFile;
+import edu.stanford.graphics.shapenet.jme3.asset.CachedUrlAssetInfo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Byte level tokenizer for OBJ files.
+ * Reads through a reusable buffer (filled from a memory mapped file when possible)
+ *   and parses numbers directly from the bytes so no String is created per line.
+ * Whitespace, line and token semantics follow the Scanner based parsing in OBJLoader.
+ * @author Angel Chang
+ */
+public final class OBJTokenizer implements Closeable {
+  public static final int EOF = -1;
+  public static final int UNKNOWN = 0;
+  public static final int COMMENT = 1;
+  public static final int VERTEX = 2;
+  public static final int NORMAL = 3;
+  public static final int TEXCOORD = 4;
+  public static final int FACE = 5;
+  public static final int USEMTL = 6;
+  public static final int MTLLIB = 7;
+  public static final int OBJECT = 8;
+  public static final int GROUP = 9;
+  public static final int SMOOTH = 10;
+
+  private static final int BUFFER_SIZE = 65536;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final double[] POW10 = new double[23];
+  static {
+    POW10[0] = 1.0;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i-1] * 10.0;
+    }
+  }
+
+  private final InputStream in;
+  private final ByteBuffer mapped;
+  private final RandomAccessFile file;
+  private final byte[] buf;
+  private int pos = 0;
+  private int limit = 0;
+
+  // Scratch space for the current token
+  private byte[] token = new byte[64];
+  private int tokenLength = 0;
+
+  private OBJTokenizer(InputStream in, RandomAccessFile file, ByteBuffer mapped, int bufferSize) {
+    this.in = in;
+    this.file = file;
+    this.mapped = mapped;
+    this.buf = new byte[bufferSize];
+  }
+
+  public static OBJTokenizer create(InputStream in) {
+    return new OBJTokenizer(in, null, null, BUFFER_SIZE);
+  }
+
+  /** Memory maps the given file */
+  public static OBJTokenizer create(File f) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(f, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new OBJTokenizer(null, raf, mapped, BUFFER_SIZE);
+    } catch (IOException ex) {
+      raf.close();
+      throw ex;
+    }
+  }
+
+  /** Tokenizes the remaining bytes of the buffer (used for parsing chunks of a mapped file) */
+  public static OBJTokenizer create(ByteBuffer buffer) {
+    return new OBJTokenizer(null, null, buffer, BUFFER_SIZE);
+  }
+
+  /** Creates a tokenizer for the asset, memory mapping it if the asset is backed by an uncompressed file */
+  public static OBJTokenizer create(AssetInfo info) throws IOException {
+    File f = getFile(info);
+    if (f != null && f.isFile() && f.length() < Integer.MAX_VALUE) {
+      return create(f);
+    } else {
+      return create(info.openStream());
+    }
+  }
+
+  /** Returns the file backing the asset (null if the asset is not file backed) */
+  public static File getFile(AssetInfo info) {
+    if (info instanceof AssetInfoFile) {
+      return ((AssetInfoFile) info).file;
+    } else if (info instanceof CachedUrlAssetInfo) {
+      return ((CachedUrlAssetInfo) info).getFile();
+    } else {
+      return null;
+    }
+  }
+
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+    }
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if (pos < limit) return true;
+    pos = 0;
+    limit = 0;
+    if (mapped != null) {
+      int n = Math.min(buf.length, mapped.remaining());
+      if (n > 0) {
+        mapped.get(buf, 0, n);
+        limit = n;
+      }
+    } else {
+      int n = in.read(buf, 0, buf.length);
+      while (n == 0) {
+        n = in.read(buf, 0, buf.length);
+      }
+      if (n > 0) {
+        limit = n;
+      }
+    }
+    return limit > 0;
+  }
+
+  private static boolean isLineEnd(int c) {
+    return c == '\n' || c == '\r';
+  }
+
+  private static boolean isSpace(int c) {
+    // Same as regex \s minus the line terminators
+    return c == ' ' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return isSpace(c) || isLineEnd(c);
+  }
+
+  private int peek() throws IOException {
+    if (pos < limit || fill()) {
+      return buf[pos] & 0xff;
+    } else {
+      return EOF;
+    }
+  }
+
+  /** Skips all whitespace (including line terminators), returns false at end of input */
+  private boolean skipWhitespace() throws IOException {
+    while (true) {
+      if (pos >= limit && !fill()) return false;
+      if (!isWhitespace(buf[pos] & 0xff)) return true;
+      pos++;
+    }
+  }
+
+  /** Skips spaces and tabs on the current line */
+  private void skipSpaces() throws IOException {
+    while (true) {
+      if (pos >= limit && !fill()) return;
+      if (!isSpace(buf[pos] & 0xff)) return;
+      pos++;
+    }
+  }
+
+  /** Reads bytes up to the next whitespace (or slash if requested) into the token scratch space */
+  private void readToken(boolean stopAtSlash) throws IOException {
+    tokenLength = 0;
+    while (true) {
+      if (pos >= limit && !fill()) return;
+      int c = buf[pos] & 0xff;
+      if (isWhitespace(c) || (stopAtSlash && c == '/')) return;
+      if (tokenLength == token.length) {
+        byte[] newToken = new byte[token.length*2];
+        System.arraycopy(token, 0, newToken, 0, tokenLength);
+        token = newToken;
+      }
+      token[tokenLength++] = buf[pos++];
+    }
+  }
+
+  private boolean tokenEquals(String s) {
+    if (s.length() != tokenLength) return false;
+    for (int i = 0; i < tokenLength; i++) {
+      if (token[i] != s.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private String tokenString() {
+    return new String(token, 0, tokenLength, UTF8);
+  }
+
+  /**
+   * Reads the statement keyword at the start of the next statement
+   * @return One of the statement constants (EOF at end of input)
+   */
+  public int nextStatement() throws IOException {
+    if (!skipWhitespace()) return EOF;
+    readToken(false);
+    if (tokenLength > 0 && token[0] == '#') return COMMENT;
+    switch (tokenLength) {
+      case 1:
+        switch (token[0]) {
+          case 'v': return VERTEX;
+          case 'f': return FACE;
+          case 'o': return OBJECT;
+          case 'g': return GROUP;
+          case 's': return SMOOTH;
+        }
+        break;
+      case 2:
+        if (token[0] == 'v') {
+          if (token[1] == 'n') return NORMAL;
+          if (token[1] == 't') return TEXCOORD;
+        }
+        break;
+      case 6:
+        if (tokenEquals("usemtl")) return USEMTL;
+        if (tokenEquals("mtllib")) return MTLLIB;
+        break;
+    }
+    return UNKNOWN;
+  }
+
+  /** The last token read (only used for reporting unknown statements) */
+  public String lastToken() {
+    return tokenString();
+  }
+
+  /** Whether there are more tokens on the current line */
+  public boolean hasMoreOnLine() throws IOException {
+    skipSpaces();
+    int c = peek();
+    return c != EOF && !isLineEnd(c);
+  }
+
+  /** Consumes the given byte if it is next */
+  public boolean skipIf(char c) throws IOException {
+    if (peek() == c) {
+      pos++;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** Whether the given byte is next */
+  public boolean nextIs(char c) throws IOException {
+    return peek() == c;
+  }
+
+  /** Whether the next byte ends the current token */
+  public boolean atTokenEnd() throws IOException {
+    int c = peek();
+    return c == EOF || isWhitespace(c);
+  }
+
+  /** Skips the rest of the current line (including the line terminator) */
+  public void skipLine() throws IOException {
+    while (true) {
+      if (pos >= limit && !fill()) return;
+      int c = buf[pos++];
+      if (c == '\n') return;
+      if (c == '\r') {
+        if (peek() == '\n') pos++;
+        return;
+      }
+    }
+  }
+
+  /** Returns the rest of the current line with surrounding whitespace trimmed */
+  public String restOfLine() throws IOException {
+    skipSpaces();
+    tokenLength = 0;
+    while (true) {
+      if (pos >= limit && !fill()) break;
+      int c = buf[pos] & 0xff;
+      if (isLineEnd(c)) break;
+      if (tokenLength == token.length) {
+        byte[] newToken = new byte[token.length*2];
+        System.arraycopy(token, 0, newToken, 0, tokenLength);
+        token = newToken;
+      }
+      token[tokenLength++] = buf[pos++];
+    }
+    skipLine();
+    while (tokenLength > 0 && isSpace(token[tokenLength-1] & 0xff)) {
+      tokenLength--;
+    }
+    return tokenString();
+  }
+
+  /** Returns the next whitespace separated token (may be on the following line) */
+  public String nextToken() throws IOException {
+    if (!skipWhitespace()) {
+      throw new IOException("Unexpected end of OBJ file");
+    }
+    readToken(false);
+    return tokenString();
+  }
+
+  /** Skips the next token on the current line */
+  public void skipToken() throws IOException {
+    skipSpaces();
+    while (true) {
+      if (pos >= limit && !fill()) return;
+      if (isWhitespace(buf[pos] & 0xff)) return;
+      pos++;
+    }
+  }
+
+  /** Parses the next integer on the current line (stops at slashes) */
+  public int nextInt() throws IOException {
+    skipSpaces();
+    readToken(true);
+    return parseInt();
+  }
+
+  /** Parses the next float on the current line */
+  public float nextFloat() throws IOException {
+    skipSpaces();
+    readToken(false);
+    return parseFloat();
+  }
+
+  private int parseInt() throws IOException {
+    int i = 0;
+    boolean neg = false;
+    if (tokenLength > 0 && (token[0] == '-' || token[0] == '+')) {
+      neg = token[0] == '-';
+      i++;
+    }
+    if (i >= tokenLength || tokenLength - i > 9) {
+      // Empty or possibly overflowing, let Integer deal with it
+      return parseIntSlow();
+    }
+    int v = 0;
+    for (; i < tokenLength; i++) {
+      int d = token[i] - '0';
+      if (d < 0 || d > 9) return parseIntSlow();
+      v = v*10 + d;
+    }
+    return neg? -v : v;
+  }
+
+  private int parseIntSlow() throws IOException {
+    try {
+      return Integer.parseInt(tokenString());
+    } catch (NumberFormatException ex) {
+      throw new IOException("Invalid integer in OBJ: '" + tokenString() + "'", ex);
+    }
+  }
+
+  private float parseFloat() throws IOException {
+    int i = 0;
+    boolean neg = false;
+    if (tokenLength > 0 && (token[0] == '-' || token[0] == '+')) {
+      neg = token[0] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int nDigits = 0;
+    int exp10 = 0;
+    boolean hasDigits = false;
+    for (; i < tokenLength; i++) {
+      int d = token[i] - '0';
+      if (d < 0 || d > 9) break;
+      if (nDigits >= 18) return parseFloatSlow();
+      mantissa = mantissa*10 + d;
+      if (mantissa != 0) nDigits++;
+      hasDigits = true;
+    }
+    if (i < tokenLength && token[i] == '.') {
+      i++;
+      for (; i < tokenLength; i++) {
+        int d = token[i] - '0';
+        if (d < 0 || d > 9) break;
+        if (nDigits >= 18) return parseFloatSlow();
+        mantissa = mantissa*10 + d;
+        if (mantissa != 0) nDigits++;
+        exp10--;
+        hasDigits = true;
+      }
+    }
+    if (!hasDigits) return parseFloatSlow();
+    if (i < tokenLength && (token[i] == 'e' || token[i] == 'E')) {
+      i++;
+      boolean expNeg = false;
+      if (i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+        expNeg = token[i] == '-';
+        i++;
+      }
+      if (i >= tokenLength) return parseFloatSlow();
+      int e = 0;
+      for (; i < tokenLength; i++) {
+        int d = token[i] - '0';
+        if (d < 0 || d > 9 || e > 1000) return parseFloatSlow();
+        e = e*10 + d;
+      }
+      exp10 += expNeg? -e : e;
+    }
+    if (i != tokenLength) return parseFloatSlow();
+    if (mantissa == 0) return neg? -0.0f : 0.0f;
+    if (mantissa > (1L << 53) || exp10 < -22 || exp10 > 22) return parseFloatSlow();
+
+    // Both mantissa and power of ten are exact doubles so d is correctly rounded
+    double d = (exp10 >= 0)? mantissa * POW10[exp10] : mantissa / POW10[-exp10];
+    float f = (float) d;
+    if (f != d) {
+      // Rounding twice (to double then float) is only wrong when d lands exactly between two floats
+      float g = (d > f)? Math.nextUp(f) : Math.nextDown(f);
+      if (((double) f + (double) g)/2 == d) return parseFloatSlow();
+    }
+    return neg? -f : f;
+  }
+
+  private float parseFloatSlow() throws IOException {
+    try {
+      return Float.parseFloat(tokenString());
+    } catch (NumberFormatException ex) {
+      throw new IOException("Invalid float in OBJ: '" + tokenString() + "'", ex);
+    }
+  }
+}
@@ -0,0 +1,815 @@
+package edu.stanford.graphics.shapenet.jme3.plugins;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.scene.mesh.IndexIntBuffer;
+import com.jme3.scene.mesh.IndexShortBuffer;
+import com.jme3.util.BufferUtils;
+import edu.stanford.graphics.shapenet.jme3.loaders.MeshStats;
+import edu.stanford.graphics.shapenet.util.IntArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads binary (little or big endian) PLY files directly from a (memory mapped) buffer.
+ * Creates the same mesh as PLYLoader does through jply's NormalizingPlyReader
+ *   (polygons are split into triangle fans, normals are generated if not present),
+ *   but vertices are read with absolute gets at a fixed stride instead of creating an Element per record.
+ * Only handles the common layouts (see create), other files should be read through jply.
+ * Files without faces are read as point clouds.
+ * Also creates reduced level of detail meshes (see createLodMesh) without reading all vertices into memory.
+ * @author Angel Chang
+ */
+final class PLYBinaryReader {
+  private static final Logger logger = Logger.getLogger(PLYBinaryReader.class.getName());
+
+  // Data types (and their size in bytes)
+  static final int CHAR = 0;
+  static final int UCHAR = 1;
+  static final int SHORT = 2;
+  static final int USHORT = 3;
+  static final int INT = 4;
+  static final int UINT = 5;
+  static final int FLOAT = 6;
+  static final int DOUBLE = 7;
+  private static final int[] SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+  // Limits on the search for a grid with a given number of cells
+  private static final int MAX_GRID_PASSES = 6;
+  private static final double MAX_GRID_RESOLUTION = 1 << 20;
+
+  static final class Property {
+    final String name;
+    final int type;
+    // Type of the list count (-1 if not a list)
+    final int countType;
+    // Offset in the element record (-1 if after a list)
+    int offset = -1;
+
+    Property(String name, int type, int countType) {
+      this.name = name;
+      this.type = type;
+      this.countType = countType;
+    }
+
+    boolean isList() {
+      return countType >= 0;
+    }
+  }
+
+  static final class ElementType {
+    final String name;
+    final int count;
+    final List<Property> properties = new ArrayList<Property>();
+    // Size of a record (-1 if the records have lists)
+    int stride = 0;
+    // Position of the first record
+    int start;
+
+    ElementType(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+
+    Property getProperty(String name) {
+      for (Property p : properties) {
+        if (p.name.equals(name)) return p;
+      }
+      return null;
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final ElementType vertexType;
+  private final ElementType faceType;
+  private final Property faceIndices;
+  private final Property x;
+  private final Property y;
+  private final Property z;
+  private double[] bounds;
+
+  private PLYBinaryReader(ByteBuffer buffer, ElementType vertexType, ElementType faceType, Property faceIndices) {
+    this.buffer = buffer;
+    this.vertexType = vertexType;
+    this.faceType = faceType;
+    this.faceIndices = faceIndices;
+    this.x = vertexType.getProperty("x");
+    this.y = vertexType.getProperty("y");
+    this.z = vertexType.getProperty("z");
+  }
+
+  /**
+   * Parses the header of the PLY file in the buffer.
+   * Returns null if the file is not binary or has a layout that is not handled here:
+   *   vertices must have scalar x, y, z (and all or none of nx, ny, nz) and no lists,
+   *   faces (if any) must have a vertex_index (or vertex_indices) list.
+   */
+  static PLYBinaryReader create(ByteBuffer buffer) throws IOException {
+    buffer = buffer.duplicate();
+    ByteOrder order = null;
+    List<ElementType> elementTypes = new ArrayList<ElementType>();
+    ElementType elementType = null;
+    String line = readLine(buffer);
+    if (!"ply".equals(line)) {
+      throw new IOException("Invalid PLY file: missing ply header");
+    }
+    while (true) {
+      line = readLine(buffer);
+      if (line == null) {
+        throw new IOException("Invalid PLY file: missing end_header");
+      }
+      String[] fields = line.split("\\s+");
+      String keyword = fields[0];
+      if (keyword.equals("end_header")) {
+        break;
+      } else if (keyword.equals("format")) {
+        if (fields.length < 2) {
+          throw new IOException("Invalid PLY format: " + line);
+        }
+        if (fields[1].equals("binary_little_endian")) {
+          order = ByteOrder.LITTLE_ENDIAN;
+        } else if (fields[1].equals("binary_big_endian")) {
+          order = ByteOrder.BIG_ENDIAN;
+        } else {
+          // ascii
+          return null;
+        }
+      } else if (keyword.equals("element")) {
+        if (fields.length < 3) {
+          throw new IOException("Invalid PLY element: " + line);
+        }
+        elementType = new ElementType(fields[1], Integer.parseInt(fields[2]));
+        elementTypes.add(elementType);
+      } else if (keyword.equals("property")) {
+        if (elementType == null) {
+          throw new IOException("PLY property without element: " + line);
+        }
+        Property property;
+        if (fields.length >= 5 && fields[1].equals("list")) {
+          property = new Property(fields[4], parseType(fields[3]), parseType(fields[2]));
+        } else if (fields.length >= 3) {
+          property = new Property(fields[2], parseType(fields[1]), -1);
+        } else {
+          throw new IOException("Invalid PLY property: " + line);
+        }
+        if (property.type < 0 || (property.isList() && property.countType < 0)) {
+          logger.log(Level.FINE, "Unsupported PLY property type: {0}", line);
+          return null;
+        }
+        elementType.properties.add(property);
+      } else if (!keyword.equals("comment") && !keyword.equals("obj_info")) {
+        logger.log(Level.FINE, "Unsupported PLY header line: {0}", line);
+        return null;
+      }
+    }
+    if (order == null) {
+      throw new IOException("Invalid PLY file: missing format");
+    }
+
+    // Compute record layouts
+    for (ElementType type : elementTypes) {
+      int offset = 0;
+      for (Property p : type.properties) {
+        if (offset >= 0) {
+          p.offset = offset;
+        }
+        if (p.isList()) {
+          offset = -1;
+        } else if (offset >= 0) {
+          offset += SIZES[p.type];
+        }
+      }
+      type.stride = offset;
+    }
+
+    ElementType vertexType = null;
+    ElementType faceType = null;
+    for (ElementType type : elementTypes) {
+      if (type.name.equals("vertex")) vertexType = type;
+      else if (type.name.equals("face")) faceType = type;
+    }
+    if (vertexType == null || vertexType.stride < 0) {
+      return null;
+    }
+    for (String name : new String[]{ "x", "y", "z" }) {
+      if (vertexType.getProperty(name) == null) return null;
+    }
+    int nNormals = 0;
+    for (String name : new String[]{ "nx", "ny", "nz" }) {
+      if (vertexType.getProperty(name) != null) nNormals++;
+    }
+    if (nNormals > 0 && nNormals < 3) {
+      return null;
+    }
+    Property faceIndices = null;
+    if (faceType != null) {
+      faceIndices = faceType.getProperty("vertex_index");
+      if (faceIndices == null) {
+        faceIndices = faceType.getProperty("vertex_indices");
+      }
+      if (faceIndices == null || !faceIndices.isList()) {
+        return null;
+      }
+    }
+
+    // Find where the records of each element start
+    ByteBuffer data = buffer.slice().order(order);
+    int position = 0;
+    for (ElementType type : elementTypes) {
+      type.start = position;
+      if (type.stride >= 0) {
+        long end = position + (long) type.count * type.stride;
+        if (end > data.limit()) {
+          throw new IOException("Invalid PLY file: not enough data for " + type.count + " " + type.name);
+        }
+        position = (int) end;
+      } else {
+        for (int i = 0; i < type.count; i++) {
+          position = skipRecord(data, type, position);
+        }
+      }
+      if (position > data.limit()) {
+        throw new IOException("Invalid PLY file: not enough data for " + type.count + " " + type.name);
+      }
+    }
+    return new PLYBinaryReader(data, vertexType, faceType, faceIndices);
+  }
+
+  private static String readLine(ByteBuffer buffer) {
+    int start = buffer.position();
+    while (buffer.hasRemaining()) {
+      if (buffer.get() == '\n') {
+        byte[] bytes = new byte[buffer.position() - start - 1];
+        for (int i = 0; i < bytes.length; i++) {
+          bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+      }
+    }
+    return null;
+  }
+
+  private static int parseType(String name) {
+    if (name.equals("char") || name.equals("int8")) return CHAR;
+    if (name.equals("uchar") || name.equals("uint8")) return UCHAR;
+    if (name.equals("short") || name.equals("int16")) return SHORT;
+    if (name.equals("ushort") || name.equals("uint16")) return USHORT;
+    if (name.equals("int") || name.equals("int32")) return INT;
+    if (name.equals("uint") || name.equals("uint32")) return UINT;
+    if (name.equals("float") || name.equals("float32")) return FLOAT;
+    if (name.equals("double") || name.equals("float64")) return DOUBLE;
+    return -1;
+  }
+
+  private static int skipRecord(ByteBuffer data, ElementType type, int position) {
+    for (Property p : type.properties) {
+      if (p.isList()) {
+        int n = (int) getLong(data, p.countType, position);
+        position += SIZES[p.countType] + n * SIZES[p.type];
+      } else {
+        position += SIZES[p.type];
+      }
+    }
+    return position;
+  }
+
+  private static long getLong(ByteBuffer data, int type, int position) {
+    switch (type) {
+      case CHAR: return data.get(position);
+      case UCHAR: return data.get(position) & 0xff;
+      case SHORT: return data.getShort(position);
+      case USHORT: return data.getShort(position) & 0xffff;
+      case INT: return data.getInt(position);
+      case UINT: return data.getInt(position) & 0xffffffffL;
+      case FLOAT: return (long) data.getFloat(position);
+      default: return (long) data.getDouble(position);
+    }
+  }
+
+  private static double getDouble(ByteBuffer data, int type, int position) {
+    switch (type) {
+      case FLOAT: return data.getFloat(position);
+      case DOUBLE: return data.getDouble(position);
+      default: return getLong(data, type, position);
+    }
+  }
+
+  int getVertexCount() {
+    return vertexType.count;
+  }
+
+  boolean hasColor() {
+    return vertexType.getProperty("red") != null && vertexType.getProperty("green") != null
+        && vertexType.getProperty("blue") != null;
+  }
+
+  boolean hasNormals() {
+    return vertexType.getProperty("nx") != null;
+  }
+
+  /** Whether the file has faces (otherwise it is a point cloud) */
+  boolean hasFaces() {
+    return faceType != null && faceType.count > 0;
+  }
+
+  /**
+   * Adds the statistics of the mesh that createMesh would create
+   *   (number of triangles, vertices and materials, bounds of the vertices) without creating it
+   */
+  void addStats(MeshStats stats) throws IOException {
+    int n = getVertexCount();
+    double[] p = new double[3];
+    for (int v = 0; v < n; v++) {
+      readPosition(v, p, 0);
+      stats.addPoint((float) p[0], (float) p[1], (float) p[2]);
+    }
+    stats.nVertices += n;
+    stats.nMaterials += 1;
+    if (hasFaces()) {
+      stats.nFaces += countTriangles();
+    }
+  }
+
+  /** Copies three scalar properties of each vertex into the buffer */
+  private void readVector3(String xName, String yName, String zName, FloatBuffer out) {
+    Property px = vertexType.getProperty(xName);
+    Property py = vertexType.getProperty(yName);
+    Property pz = vertexType.getProperty(zName);
+    int stride = vertexType.stride;
+    int n = vertexType.count;
+    int position = vertexType.start;
+    if (px.type == FLOAT && py.type == FLOAT && pz.type == FLOAT) {
+      if (stride == 12 && px.offset == 0 && py.offset == 4 && pz.offset == 8) {
+        // Tightly packed: copy the whole block
+        ByteBuffer block = buffer.duplicate();
+        block.position(position);
+        block.limit(position + n*stride);
+        out.put(block.slice().order(buffer.order()).asFloatBuffer());
+      } else {
+        for (int i = 0; i < n; i++, position += stride) {
+          out.put(buffer.getFloat(position + px.offset))
+              .put(buffer.getFloat(position + py.offset))
+              .put(buffer.getFloat(position + pz.offset));
+        }
+      }
+    } else {
+      for (int i = 0; i < n; i++, position += stride) {
+        out.put((float) getDouble(buffer, px.type, position + px.offset))
+            .put((float) getDouble(buffer, py.type, position + py.offset))
+            .put((float) getDouble(buffer, pz.type, position + pz.offset));
+      }
+    }
+    out.rewind();
+  }
+
+  private void readColors(FloatBuffer out) {
+    float[] color = new float[4];
+    for (int i = 0; i < vertexType.count; i++) {
+      readColor(i, color, 0);
+      out.put(color);
+    }
+    out.rewind();
+  }
+
+  private void readColor(int v, float[] out, int offset) {
+    Property r = vertexType.getProperty("red");
+    Property g = vertexType.getProperty("green");
+    Property b = vertexType.getProperty("blue");
+    Property a = vertexType.getProperty("alpha");
+    int position = vertexType.start + v*vertexType.stride;
+    out[offset] = (float) (getDouble(buffer, r.type, position + r.offset) / 255.0);
+    out[offset+1] = (float) (getDouble(buffer, g.type, position + g.offset) / 255.0);
+    out[offset+2] = (float) (getDouble(buffer, b.type, position + b.offset) / 255.0);
+    out[offset+3] = (float) ((a != null)? getDouble(buffer, a.type, position + a.offset) / 255.0 : 1.0);
+  }
+
+  private void readNormal(int v, double[] out, int offset) {
+    Property nx = vertexType.getProperty("nx");
+    Property ny = vertexType.getProperty("ny");
+    Property nz = vertexType.getProperty("nz");
+    int position = vertexType.start + v*vertexType.stride;
+    out[offset] = getDouble(buffer, nx.type, position + nx.offset);
+    out[offset+1] = getDouble(buffer, ny.type, position + ny.offset);
+    out[offset+2] = getDouble(buffer, nz.type, position + nz.offset);
+  }
+
+  /** Visits the vertex index lists of the faces */
+  private interface FaceVisitor {
+    void visit(int position, int n, int indexType, int indexSize) throws IOException;
+  }
+
+  private void visitFaces(FaceVisitor visitor) throws IOException {
+    Property list = faceIndices;
+    int indexType = list.type;
+    int indexSize = SIZES[indexType];
+    int position = faceType.start;
+    for (int i = 0; i < faceType.count; i++) {
+      int listPosition = position + list.offset;
+      if (list.offset < 0) {
+        // There is another list before the vertex indices
+        listPosition = position;
+        for (Property p : faceType.properties) {
+          if (p == list) break;
+          if (p.isList()) {
+            listPosition += SIZES[p.countType] + (int) getLong(buffer, p.countType, listPosition) * SIZES[p.type];
+          } else {
+            listPosition += SIZES[p.type];
+          }
+        }
+      }
+      int n = (int) getLong(buffer, list.countType, listPosition);
+      visitor.visit(listPosition + SIZES[list.countType], n, indexType, indexSize);
+      position = (faceType.stride >= 0)? position + faceType.stride : skipRecord(buffer, faceType, position);
+    }
+  }
+
+  private int countTriangles() throws IOException {
+    final int[] nTriangles = { 0 };
+    visitFaces(new FaceVisitor() {
+      public void visit(int position, int n, int indexType, int indexSize) throws IOException {
+        if (n < 3) {
+          throw new IOException("face with less than three vertices.");
+        }
+        nTriangles[0] += n - 2;
+      }
+    });
+    return nTriangles[0];
+  }
+
+  /** Splits the faces into triangle fans */
+  private void readTriangles(final IndexBuffer out) throws IOException {
+    final int[] i = { 0 };
+    visitFaces(new FaceVisitor() {
+      public void visit(int position, int n, int indexType, int indexSize) {
+        int v0 = (int) getLong(buffer, indexType, position);
+        int v1 = (int) getLong(buffer, indexType, position + indexSize);
+        for (int j = 2; j < n; j++) {
+          int v2 = (int) getLong(buffer, indexType, position + j*indexSize);
+          out.put(i[0]++, v0);
+          out.put(i[0]++, v1);
+          out.put(i[0]++, v2);
+          v1 = v2;
+        }
+      }
+    });
+  }
+
+  /**
+   * Generates vertex normals the same way as jply (ADD_NORMALS_CCW):
+   *   for each triangle corner, the corner's face normal weighted by the corner angle is accumulated.
+   * The vertex positions are read from the file if positions is null.
+   */
+  private void generateNormals(IndexBuffer triangles, int nIndices, int n, double[] positions, FloatBuffer out) {
+    double[] normals = new double[n*3];
+    double[] p = new double[9];
+    int[] corners = new int[3];
+    for (int t = 0; t < nIndices; t += 3) {
+      corners[0] = triangles.get(t);
+      corners[1] = triangles.get(t+1);
+      corners[2] = triangles.get(t+2);
+      boolean valid = true;
+      for (int c = 0; c < 3 && valid; c++) {
+        valid = corners[c] >= 0 && corners[c] < n;
+      }
+      if (!valid) continue;
+      for (int c = 0; c < 3; c++) {
+        if (positions != null) {
+          System.arraycopy(positions, corners[c]*3, p, c*3, 3);
+        } else {
+          readPosition(corners[c], p, c*3);
+        }
+      }
+      for (int c = 0; c < 3; c++) {
+        accumulateNormal(p, c, (c+2) % 3, (c+1) % 3, normals, corners[c]*3);
+      }
+    }
+    for (int v = 0; v < n; v++) {
+      double nx = normals[v*3];
+      double ny = normals[v*3+1];
+      double nz = normals[v*3+2];
+      double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+      if (length > 0) {
+        out.put((float) (nx/length)).put((float) (ny/length)).put((float) (nz/length));
+      } else {
+        out.put(0).put(0).put(0);
+      }
+    }
+    out.rewind();
+  }
+
+  private void readPosition(int v, double[] p, int offset) {
+    int position = vertexType.start + v*vertexType.stride;
+    p[offset] = getDouble(buffer, x.type, position + x.offset);
+    p[offset+1] = getDouble(buffer, y.type, position + y.offset);
+    p[offset+2] = getDouble(buffer, z.type, position + z.offset);
+  }
+
+  private static void accumulateNormal(double[] p, int a, int prev, int next, double[] normals, int offset) {
+    double ax = p[a*3], ay = p[a*3+1], az = p[a*3+2];
+    double ux = p[next*3] - ax, uy = p[next*3+1] - ay, uz = p[next*3+2] - az;
+    double ulength = Math.sqrt(ux*ux + uy*uy + uz*uz);
+    if (ulength < 1e-6) return;
+    double vx = p[prev*3] - ax, vy = p[prev*3+1] - ay, vz = p[prev*3+2] - az;
+    double vlength = Math.sqrt(vx*vx + vy*vy + vz*vz);
+    if (vlength < 1e-6) return;
+    double nx = uy*vz - uz*vy;
+    double ny = uz*vx - ux*vz;
+    double nz = ux*vy - uy*vx;
+    double nlength = Math.sqrt(nx*nx + ny*ny + nz*nz);
+    if (nlength < 1e-6) return;
+    // Same angle as the asin based computation in jply, but much cheaper
+    double dot = ux*vx + uy*vy + uz*vz;
+    double angle = Math.atan2(nlength, dot);
+    double weight = angle / nlength;
+    normals[offset] += nx * weight;
+    normals[offset+1] += ny * weight;
+    normals[offset+2] += nz * weight;
+  }
+
+  private static IndexBuffer createIndexBuffer(Mesh m, int numberOfVertices, int nIndices) {
+    if (numberOfVertices >= 65536) {
+      // too many vertices: use intbuffer instead of shortbuffer
+      IntBuffer ib = BufferUtils.createIntBuffer(nIndices);
+      m.setBuffer(VertexBuffer.Type.Index, 3, ib);
+      return new IndexIntBuffer(ib);
+    } else {
+      ShortBuffer sb = BufferUtils.createShortBuffer(nIndices);
+      m.setBuffer(VertexBuffer.Type.Index, 3, sb);
+      return new IndexShortBuffer(sb);
+    }
+  }
+
+  /**
+   * Creates a triangle mesh with positions, normals and (if present) colors.
+   * Point clouds are created as a point mesh (with normals only if they are in the file).
+   */
+  Mesh createMesh() throws IOException {
+    int numberOfVertices = vertexType.count;
+    Mesh m = new Mesh();
+
+    FloatBuffer posBuf = BufferUtils.createFloatBuffer(numberOfVertices * 3);
+    readVector3("x", "y", "z", posBuf);
+
+    FloatBuffer normBuf = null;
+    if (hasFaces()) {
+      m.setMode(Mesh.Mode.Triangles);
+      int nIndices = countTriangles() * 3;
+      IndexBuffer indexBuf = createIndexBuffer(m, numberOfVertices, nIndices);
+      readTriangles(indexBuf);
+      if (!hasNormals()) {
+        normBuf = BufferUtils.createFloatBuffer(numberOfVertices * 3);
+        generateNormals(indexBuf, nIndices, numberOfVertices, null, normBuf);
+      }
+    } else {
+      m.setMode(Mesh.Mode.Points);
+    }
+    if (hasNormals()) {
+      normBuf = BufferUtils.createFloatBuffer(numberOfVertices * 3);
+      readVector3("nx", "ny", "nz", normBuf);
+    }
+    if (normBuf != null) {
+      m.setBuffer(VertexBuffer.Type.Normal, 3, normBuf);
+    }
+
+    if (hasColor()) {
+      FloatBuffer colorBuf = BufferUtils.createFloatBuffer(numberOfVertices * 4);
+      readColors(colorBuf);
+      m.setBuffer(VertexBuffer.Type.Color, 4, colorBuf);
+    }
+
+    m.setBuffer(VertexBuffer.Type.Position, 3, posBuf);
+    m.setStatic();
+    m.updateBound();
+    m.updateCounts();
+    return m;
+  }
+
+  /** Bounds (min x, y, z, max x, y, z) of the vertices */
+  private double[] getBounds() {
+    if (bounds == null) {
+      double[] b = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+          Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+      double[] p = new double[3];
+      for (int i = 0; i < vertexType.count; i++) {
+        readPosition(i, p, 0);
+        for (int d = 0; d < 3; d++) {
+          if (p[d] < b[d]) b[d] = p[d];
+          if (p[d] > b[d+3]) b[d+3] = p[d];
+        }
+      }
+      bounds = b;
+    }
+    return bounds;
+  }
+
+  /**
+   * Vertices merged by the cell of a uniform grid they fall in.
+   * Cells are numbered in the order their first vertex appears in the file.
+   */
+  private final class VoxelGrid {
+    final double cellSize;
+    final VertexIndexTable cells = new VertexIndexTable(4096);
+    private final double[] min;
+    private final double[] p = new double[3];
+
+    VoxelGrid(double cellSize) {
+      this.cellSize = cellSize;
+      this.min = getBounds();
+    }
+
+    /** Returns the cell of the vertex (adding it if it is new) */
+    int getCell(int v) {
+      readPosition(v, p, 0);
+      return cells.getOrAdd((int) ((p[0] - min[0]) / cellSize),
+          (int) ((p[1] - min[1]) / cellSize),
+          (int) ((p[2] - min[2]) / cellSize));
+    }
+
+    /** Adds the vertices to the grid, returns false if there are more than maxCells occupied cells */
+    boolean addVertices(int maxCells) {
+      for (int i = 0; i < vertexType.count; i++) {
+        getCell(i);
+        if (cells.size() > maxCells) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Finds a grid with at most (but close to) maxCells occupied cells.
+   * The number of occupied cells is estimated assuming the vertices lie on surfaces
+   *   and then corrected by counting the occupied cells for a few grid sizes.
+   */
+  private VoxelGrid createVoxelGrid(int maxCells) {
+    double[] b = getBounds();
+    double extent = Math.max(b[3] - b[0], Math.max(b[4] - b[1], b[5] - b[2]));
+    if (!(extent > 0)) {
+      extent = 1;
+    }
+    // Coarsest resolution that never has more than maxCells cells
+    double minResolution = Math.max(Math.floor(Math.cbrt(maxCells)) - 1, 1);
+    double resolution = Math.max(Math.sqrt(maxCells), minResolution);
+    double tooFine = Double.POSITIVE_INFINITY;
+    VoxelGrid best = null;
+    for (int pass = 0; pass < MAX_GRID_PASSES; pass++) {
+      VoxelGrid grid = new VoxelGrid(extent / Math.min(resolution, MAX_GRID_RESOLUTION));
+      if (grid.addVertices(maxCells)) {
+        best = grid;
+        if (grid.cells.size() >= maxCells / 2 || resolution >= MAX_GRID_RESOLUTION) break;
+        double next = resolution * Math.sqrt(maxCells / (double) Math.max(grid.cells.size(), 1)) * 0.9;
+        resolution = Math.min(next, (resolution + tooFine) / 2);
+      } else {
+        tooFine = resolution;
+        resolution = (best != null)? (extent / best.cellSize + resolution) / 2 : resolution * 0.6;
+      }
+      if (tooFine - resolution < 1) break;
+    }
+    if (best == null) {
+      best = new VoxelGrid(extent / minResolution);
+      best.addVertices(Integer.MAX_VALUE);
+    }
+    return best;
+  }
+
+  /**
+   * Creates a mesh with at most maxVertices vertices (for a file with more vertices than that).
+   * With useStride, every k-th vertex of a point cloud is kept.
+   * Otherwise the vertices are merged per cell of a uniform grid (averaging their attributes),
+   *   faces are mapped to the merged vertices and triangles that become degenerate are dropped.
+   * Only the reduced mesh is kept in memory.
+   */
+  Mesh createLodMesh(int maxVertices, boolean useStride) throws IOException {
+    int n = vertexType.count;
+    boolean hasNormals = hasNormals();
+    boolean hasColor = hasColor();
+    maxVertices = Math.max(maxVertices, 1);
+
+    // Map from file vertex to mesh vertex
+    VoxelGrid grid = null;
+    int stride = 1;
+    int nOut;
+    if (useStride && !hasFaces()) {
+      stride = (n + maxVertices - 1) / maxVertices;
+      nOut = (n + stride - 1) / stride;
+    } else {
+      grid = createVoxelGrid(maxVertices);
+      nOut = grid.cells.size();
+    }
+
+    // Average the vertex attributes
+    double[] positions = new double[nOut*3];
+    double[] normals = hasNormals? new double[nOut*3] : null;
+    float[] colors = hasColor? new float[nOut*4] : null;
+    int[] counts = new int[nOut];
+    double[] p = new double[3];
+    float[] c = new float[4];
+    for (int i = 0; i < n; i += stride) {
+      int v = (grid != null)? grid.getCell(i) : i / stride;
+      counts[v]++;
+      readPosition(i, p, 0);
+      for (int d = 0; d < 3; d++) positions[v*3+d] += p[d];
+      if (hasNormals) {
+        readNormal(i, p, 0);
+        for (int d = 0; d < 3; d++) normals[v*3+d] += p[d];
+      }
+      if (hasColor) {
+        readColor(i, c, 0);
+        for (int d = 0; d < 4; d++) colors[v*4+d] += c[d];
+      }
+    }
+
+    Mesh m = new Mesh();
+    FloatBuffer posBuf = BufferUtils.createFloatBuffer(nOut * 3);
+    FloatBuffer normBuf = (hasNormals || hasFaces())? BufferUtils.createFloatBuffer(nOut * 3) : null;
+    FloatBuffer colorBuf = hasColor? BufferUtils.createFloatBuffer(nOut * 4) : null;
+    for (int v = 0; v < nOut; v++) {
+      for (int d = 0; d < 3; d++) {
+        positions[v*3+d] /= counts[v];
+        posBuf.put((float) positions[v*3+d]);
+      }
+      if (hasNormals) {
+        double nx = normals[v*3], ny = normals[v*3+1], nz = normals[v*3+2];
+        double length = Math.sqrt(nx*nx + ny*ny + nz*nz);
+        if (length > 0) {
+          normBuf.put((float) (nx/length)).put((float) (ny/length)).put((float) (nz/length));
+        } else {
+          normBuf.put(0).put(0).put(0);
+        }
+      }
+      if (hasColor) {
+        for (int d = 0; d < 4; d++) colorBuf.put(colors[v*4+d] / counts[v]);
+      }
+    }
+    posBuf.rewind();
+    colors = null;
+    normals = null;
+
+    if (hasFaces()) {
+      m.setMode(Mesh.Mode.Triangles);
+      IntArrayList triangles = readMergedTriangles(grid);
+      IndexBuffer indexBuf = createIndexBuffer(m, nOut, triangles.size());
+      for (int i = 0; i < triangles.size(); i++) {
+        indexBuf.put(i, triangles.get(i));
+      }
+      if (!hasNormals) {
+        generateNormals(indexBuf, triangles.size(), nOut, positions, normBuf);
+      }
+    } else {
+      m.setMode(Mesh.Mode.Points);
+    }
+    if (normBuf != null) {
+      normBuf.rewind();
+      m.setBuffer(VertexBuffer.Type.Normal, 3, normBuf);
+    }
+    if (colorBuf != null) {
+      colorBuf.rewind();
+      m.setBuffer(VertexBuffer.Type.Color, 4, colorBuf);
+    }
+    m.setBuffer(VertexBuffer.Type.Position, 3, posBuf);
+    m.setStatic();
+    m.updateBound();
+    m.updateCounts();
+    return m;
+  }
+
+  /** Splits the faces into triangle fans over the cells of the grid (dropping degenerate triangles) */
+  private IntArrayList readMergedTriangles(final VoxelGrid grid) throws IOException {
+    final IntArrayList triangles = new IntArrayList();
+    visitFaces(new FaceVisitor() {
+      public void visit(int position, int n, int indexType, int indexSize) throws IOException {
+        if (n < 3) {
+          throw new IOException("face with less than three vertices.");
+        }
+        int v0 = getCell((int) getLong(buffer, indexType, position));
+        int v1 = getCell((int) getLong(buffer, indexType, position + indexSize));
+        for (int j = 2; j < n; j++) {
+          int v2 = getCell((int) getLong(buffer, indexType, position + j*indexSize));
+          if (v0 >= 0 && v1 >= 0 && v2 >= 0 && v0 != v1 && v1 != v2 && v2 != v0) {
+            triangles.add(v0);
+            triangles.add(v1);
+            triangles.add(v2);
+          }
+          v1 = v2;
+        }
+      }
+
+      private int getCell(int v) {
+        return (v >= 0 && v < vertexType.count)? grid.getCell(v) : -1;
+      }
+    });
+    return triangles;
+  }
+}
@@ -13,20 +13,31 @@ import com.jme3.scene.mesh.IndexBuffer;
 import com.jme3.scene.mesh.IndexIntBuffer;
 import com.jme3.scene.mesh.IndexShortBuffer;
 import com.jme3.util.BufferUtils;
+import edu.stanford.graphics.shapenet.jme3.loaders.MeshStats;
+import edu.stanford.graphics.shapenet.util.TaskExecutor;
+import edu.stanford.graphics.shapenet.util.Threads;
 import org.smurn.jply.*;
 import org.smurn.jply.util.NormalMode;
 import org.smurn.jply.util.NormalizingPlyReader;
 import org.smurn.jply.util.TesselationMode;
 import org.smurn.jply.util.TextureMode;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,12 +49,88 @@ import java.util.logging.Logger;
 public final class PLYLoader implements AssetLoader {
   private static final Logger logger = Logger.getLogger(PLYLoader.class.getName());
 
+  // Whether binary ply files are read with the PLYBinaryReader (instead of through jply)
+  private static boolean useBinaryReader = true;
+
+  public static void setUseBinaryReader(boolean flag) {
+    useBinaryReader = flag;
+  }
+
+  public static boolean getUseBinaryReader() {
+    return useBinaryReader;
+  }
+
+  /** How a reduced level of detail is created for large files */
+  public enum LodMode {
+    /** Always load the full model */
+    NONE,
+    /** Merge the vertices that fall in the same cell of a uniform grid */
+    VOXEL_GRID,
+    /** Keep every k-th point (for point clouds, meshes use VOXEL_GRID) */
+    STRIDE
+  }
+
+  // Binary ply files with more than lodCoarseVertices vertices are first shown with a coarse mesh
+  //   of at most lodCoarseVertices vertices, which is refined in the background
+  //   to a mesh of at most lodVertexBudget vertices (the full mesh if it is small enough)
+  private static LodMode lodMode = LodMode.NONE;
+  private static int lodCoarseVertices = 100000;
+  private static int lodVertexBudget = 4000000;
+
+  public static void setLodMode(LodMode mode) {
+    lodMode = (mode != null)? mode : LodMode.NONE;
+  }
+
+  public static LodMode getLodMode() {
+    return lodMode;
+  }
+
+  public static void setLodCoarseVertices(int n) {
+    lodCoarseVertices = n;
+  }
+
+  public static int getLodCoarseVertices() {
+    return lodCoarseVertices;
+  }
+
+  public static void setLodVertexBudget(int n) {
+    lodVertexBudget = n;
+  }
+
+  public static int getLodVertexBudget() {
+    return lodVertexBudget;
+  }
+
   public Object load(AssetInfo info) throws IOException {
+    String name = info.getKey().getName();
+    if (useBinaryReader) {
+      File file = OBJTokenizer.getFile(info);
+      if (file != null && file.isFile() && file.length() < Integer.MAX_VALUE) {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+          FileChannel channel = raf.getChannel();
+          PLYBinaryReader reader = PLYBinaryReader.create(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+          if (reader != null) {
+            return createGeometry(reader, name, info.getManager());
+          }
+        } finally {
+          raf.close();
+        }
+      } else if (file == null) {
+        // Not a local file: read it into memory (and use jply on the bytes if needed)
+        byte[] bytes = readBytes(info);
+        PLYBinaryReader reader = PLYBinaryReader.create(ByteBuffer.wrap(bytes));
+        if (reader != null) {
+          return createGeometry(reader, name, info.getManager());
+        }
+        return parse(new ByteArrayInputStream(bytes), name, info.getManager());
+      }
+    }
     Object obj = null;
     InputStream in = null;
     try {
       in = info.openStream();
-      Geometry geom = parse(in, info.getKey().getName(), info.getManager());
+      Geometry geom = parse(in, name, info.getManager());
       obj = geom;
     } finally {
       if (in != null) {
@@ -53,6 +140,93 @@ public final class PLYLoader implements AssetLoader {
     return obj;
   }
 
+  private static byte[] readBytes(AssetInfo info) throws IOException {
+    InputStream in = info.openStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[64*1024];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Computes the statistics of the geometry that load would create
+   *   (number of triangles, vertices and materials, bounds of the vertices)
+   *   without creating the mesh
+   */
+  public MeshStats loadStats(AssetInfo info, MeshStats stats) throws IOException {
+    if (useBinaryReader) {
+      File file = OBJTokenizer.getFile(info);
+      if (file != null && file.isFile() && file.length() < Integer.MAX_VALUE) {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+          FileChannel channel = raf.getChannel();
+          PLYBinaryReader reader = PLYBinaryReader.create(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+          if (reader != null) {
+            reader.addStats(stats);
+            return stats;
+          }
+        } finally {
+          raf.close();
+        }
+      } else if (file == null) {
+        byte[] bytes = readBytes(info);
+        PLYBinaryReader reader = PLYBinaryReader.create(ByteBuffer.wrap(bytes));
+        if (reader != null) {
+          reader.addStats(stats);
+          return stats;
+        }
+        return loadStats(new ByteArrayInputStream(bytes), stats);
+      }
+    }
+    InputStream in = null;
+    try {
+      in = info.openStream();
+      return loadStats(in, stats);
+    } finally {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  private MeshStats loadStats(InputStream in, MeshStats stats) throws IOException {
+    PlyReader ply = new PlyReaderFile(in);
+    stats.nVertices += ply.getElementCount("vertex");
+    stats.nMaterials += 1;
+    ElementReader reader = ply.nextElementReader();
+    while (reader != null) {
+      String typeName = reader.getElementType().getName();
+      if (typeName.equals("vertex")) {
+        Element element = reader.readElement();
+        while (element != null) {
+          stats.addPoint((float) element.getDouble("x"), (float) element.getDouble("y"), (float) element.getDouble("z"));
+          element = reader.readElement();
+        }
+      } else if (typeName.equals("face")) {
+        Element element = reader.readElement();
+        while (element != null) {
+          // Polygons are tesselated into fans
+          int n = element.getIntList("vertex_index").length;
+          if (n > 2) {
+            stats.nFaces += n - 2;
+          }
+          element = reader.readElement();
+        }
+      }
+      reader.close();
+      reader = ply.nextElementReader();
+    }
+    ply.close();
+    return stats;
+  }
+
   public Geometry parse(InputStream in, String name, AssetManager assetManager) throws IOException {
     PlyReader ply = new PlyReaderFile(in);
     // Normalize so we have triangles and normals
@@ -64,12 +238,42 @@ public final class PLYLoader implements AssetLoader {
     PlyInfo plyinfo = new PlyInfo();
     Mesh mesh = createMesh(ply, plyinfo);
     ply.close();
+    return createGeometry(mesh, plyinfo.hasColor, name, assetManager);
+  }
 
+  private Geometry createGeometry(final PLYBinaryReader reader, String name, AssetManager assetManager) throws IOException {
+    final int nVertices = reader.getVertexCount();
+    final int vertexBudget = lodVertexBudget;
+    final boolean useStride = (lodMode == LodMode.STRIDE);
+    if (lodMode == LodMode.NONE || nVertices <= lodCoarseVertices) {
+      return createGeometry(reader.createMesh(), reader.hasColor(), name, assetManager);
+    }
+    Mesh coarse = reader.createLodMesh(lodCoarseVertices, useStride);
+    logger.log(Level.INFO, "Created coarse mesh for {0} with {1} of {2} vertices",
+        new Object[]{ name, coarse.getVertexCount(), nVertices });
+    Geometry geom = createGeometry(coarse, reader.hasColor(), name, assetManager);
+    if (vertexBudget > lodCoarseVertices) {
+      // Refined as a batch task (after interactive work), the mapped file is kept (by the reader) until the refined mesh is created
+      Future<Mesh> refined = Threads.cpu().submit(new Callable<Mesh>() {
+        public Mesh call() throws IOException {
+          return (nVertices <= vertexBudget)? reader.createMesh() : reader.createLodMesh(vertexBudget, useStride);
+        }
+      }, TaskExecutor.Priority.BATCH);
+      geom.addControl(new MeshRefinementControl(refined));
+    }
+    return geom;
+  }
+
+  private Geometry createGeometry(Mesh mesh, boolean hasColor, String name, AssetManager assetManager) {
     Geometry geom = new Geometry(name, mesh);
     Material material = null;
     if (material == null){
       // create default material
-      if (plyinfo.hasColor) {
+      if (mesh.getMode() == Mesh.Mode.Points) {
+        // Point clouds are not lit
+        material = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+        material.setBoolean("VertexColor", hasColor);
+      } else if (hasColor) {
         material = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
         material.setBoolean("VertexColor", true);
       } else {
@@ -0,0 +1,112 @@
+package edu.stanford.graphics.shapenet.jme3.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from (v, vt, vn) index triples to mesh vertex indices.
+ * Keys are kept in primitive arrays: v and vt are packed into a long, vn is kept alongside.
+ * Mesh vertex indices are assigned in order of insertion (0, 1, 2, ...).
+ * @author Angel Chang
+ */
+public final class VertexIndexTable {
+  private static final int EMPTY = -1;
+
+  private long[] keys;
+  private int[] normalKeys;
+  private int[] values;
+  private int mask;
+  private int size = 0;
+
+  public VertexIndexTable() {
+    this(1024);
+  }
+
+  public VertexIndexTable(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+
+  private static int tableSizeFor(int expectedSize) {
+    // Keep load factor under 0.5
+    int n = 16;
+    while (n < expectedSize * 2 && n < (1 << 30)) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    normalKeys = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, EMPTY);
+    mask = capacity - 1;
+  }
+
+  private static long pack(int v, int vt) {
+    return ((long) v << 32) | (vt & 0xffffffffL);
+  }
+
+  private static int hash(long key, int vn) {
+    // murmur3 finalizer
+    long h = key ^ ((long) vn * 0x9E3779B97F4A7C15L);
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return (int) h;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the vertex index for the triple, assigning the next index if it is new
+   */
+  public int getOrAdd(int v, int vt, int vn) {
+    if (size * 2 >= values.length) {
+      rehash(values.length * 2);
+    }
+    long key = pack(v, vt);
+    int slot = hash(key, vn) & mask;
+    while (values[slot] != EMPTY) {
+      if (keys[slot] == key && normalKeys[slot] == vn) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    normalKeys[slot] = vn;
+    values[slot] = size;
+    return size++;
+  }
+
+  private void rehash(int newCapacity) {
+    long[] oldKeys = keys;
+    int[] oldNormalKeys = normalKeys;
+    int[] oldValues = values;
+    allocate(newCapacity);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != EMPTY) {
+        int slot = hash(oldKeys[i], oldNormalKeys[i]) & mask;
+        while (values[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        normalKeys[slot] = oldNormalKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  public void clear() {
+    if (values.length > 4096) {
+      // Don't keep (and refill) a big table around after a big mesh
+      allocate(tableSizeFor(1024));
+    } else {
+      Arrays.fill(values, EMPTY);
+    }
+    size = 0;
+  }
+}
@@ -0,0 +1,82 @@
+package edu.stanford.graphics.shapenet.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive floats
+ * @author Angel Chang
+ */
+public final class FloatArrayList {
+  private float[] data;
+  private int size = 0;
+
+  public FloatArrayList() {
+    this(16);
+  }
+
+  public FloatArrayList(int initialCapacity) {
+    data = new float[Math.max(initialCapacity, 1)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public float get(int i) {
+    return data[i];
+  }
+
+  public void set(int i, float v) {
+    data[i] = v;
+  }
+
+  public void add(float v) {
+    if (size == data.length) grow(size + 1);
+    data[size++] = v;
+  }
+
+  public void add(float v1, float v2) {
+    if (size + 2 > data.length) grow(size + 2);
+    data[size++] = v1;
+    data[size++] = v2;
+  }
+
+  public void add(float v1, float v2, float v3) {
+    if (size + 3 > data.length) grow(size + 3);
+    data[size++] = v1;
+    data[size++] = v2;
+    data[size++] = v3;
+  }
+
+  public void addAll(FloatArrayList other) {
+    if (size + other.size > data.length) grow(size + other.size);
+    System.arraycopy(other.data, 0, data, size, other.size);
+    size += other.size;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > data.length) grow(capacity);
+  }
+
+  private void grow(int minCapacity) {
+    int newCapacity = Math.max(data.length + (data.length >> 1), minCapacity);
+    data = Arrays.copyOf(data, newCapacity);
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /** Backing array (only the first size() elements are valid) */
+  public float[] array() {
+    return data;
+  }
+
+  public float[] toArray() {
+    return Arrays.copyOf(data, size);
+  }
+}
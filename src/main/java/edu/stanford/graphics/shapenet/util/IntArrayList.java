@@ -0,0 +1,88 @@
+package edu.stanford.graphics.shapenet.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints
+ * @author Angel Chang
+ */
+public final class IntArrayList {
+  private int[] data;
+  private int size = 0;
+
+  public IntArrayList() {
+    this(16);
+  }
+
+  public IntArrayList(int initialCapacity) {
+    data = new int[Math.max(initialCapacity, 1)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int get(int i) {
+    return data[i];
+  }
+
+  public void set(int i, int v) {
+    data[i] = v;
+  }
+
+  public void add(int v) {
+    if (size == data.length) grow(size + 1);
+    data[size++] = v;
+  }
+
+  public void add(int v1, int v2) {
+    if (size + 2 > data.length) grow(size + 2);
+    data[size++] = v1;
+    data[size++] = v2;
+  }
+
+  public void add(int v1, int v2, int v3) {
+    if (size + 3 > data.length) grow(size + 3);
+    data[size++] = v1;
+    data[size++] = v2;
+    data[size++] = v3;
+  }
+
+  public void addAll(IntArrayList other) {
+    if (size + other.size > data.length) grow(size + other.size);
+    System.arraycopy(other.data, 0, data, size, other.size);
+    size += other.size;
+  }
+
+  public void addAll(int[] values, int offset, int length) {
+    if (size + length > data.length) grow(size + length);
+    System.arraycopy(values, offset, data, size, length);
+    size += length;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > data.length) grow(capacity);
+  }
+
+  private void grow(int minCapacity) {
+    int newCapacity = Math.max(data.length + (data.length >> 1), minCapacity);
+    data = Arrays.copyOf(data, newCapacity);
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /** Backing array (only the first size() elements are valid) */
+  public int[] array() {
+    return data;
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(data, size);
+  }
+}
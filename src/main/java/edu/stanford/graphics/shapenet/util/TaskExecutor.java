@@ -0,0 +1,242 @@
+package edu.stanford.graphics.shapenet.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor with a bounded number of threads and a priority queue:
+ *   interactive tasks run before batch tasks, and tasks of the same priority run in the order they were submitted.
+ * Tasks submitted without a priority get the priority of the task that is submitting them
+ *   (so the parts of an interactive load are interactive too), or INTERACTIVE if not submitted from a task.
+ * Cancelled tasks are removed from the queue (tasks wrapped by another executor service, e.g. an ExecutorCompletionService,
+ *   cannot be found in the queue, use submit with a completion queue instead).
+ * executeOrRun runs the task on the calling thread when too many tasks are waiting (so producers are slowed down).
+ * Keeps statistics (see getStats): queue depth, active tasks, completed tasks and mean latency
+ *   (from submission to completion).
+ * Threads are daemon threads named after the executor, idle threads are let go after a minute.
+ * @author Angel Chang
+ */
+public class TaskExecutor extends ThreadPoolExecutor {
+  public enum Priority {
+    INTERACTIVE,
+    BATCH
+  }
+
+  // Priority of the task running on the current thread
+  private static final ThreadLocal<Priority> currentPriority = new ThreadLocal<Priority>();
+  // Executor the current thread belongs to
+  private static final ThreadLocal<TaskExecutor> currentExecutor = new ThreadLocal<TaskExecutor>();
+
+  private final String name;
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong cancelled = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+  private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+    final Priority priority;
+    final long seq = sequence.incrementAndGet();
+    final long submitted = System.nanoTime();
+    // Where the task is put once it is done (null if none)
+    BlockingQueue<Future<T>> completionQueue;
+
+    Task(Callable<T> callable, Priority priority) {
+      super(callable);
+      this.priority = priority;
+    }
+
+    Task(Runnable runnable, T result, Priority priority) {
+      super(runnable, result);
+      this.priority = priority;
+    }
+
+    @Override
+    protected void done() {
+      if (completionQueue != null) {
+        completionQueue.add(this);
+      }
+    }
+
+    public int compareTo(Task<?> other) {
+      int c = priority.compareTo(other.priority);
+      return (c != 0)? c : Long.compare(seq, other.seq);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean res = super.cancel(mayInterruptIfRunning);
+      if (res) {
+        cancelled.incrementAndGet();
+        remove(this);
+      }
+      return res;
+    }
+  }
+
+  /** Statistics of an executor */
+  public static class Stats {
+    public final String name;
+    public final int threads;
+    public final int queued;
+    public final int active;
+    public final long completed;
+    public final long cancelled;
+    public final double meanLatencyMillis;
+
+    Stats(String name, int threads, int queued, int active, long completed, long cancelled, double meanLatencyMillis) {
+      this.name = name;
+      this.threads = threads;
+      this.queued = queued;
+      this.active = active;
+      this.completed = completed;
+      this.cancelled = cancelled;
+      this.meanLatencyMillis = meanLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: threads=%d, queued=%d, active=%d, completed=%d, cancelled=%d, meanLatency=%.1fms",
+          name, threads, queued, active, completed, cancelled, meanLatencyMillis);
+    }
+  }
+
+  public TaskExecutor(final String name, int nThreads) {
+    super(Math.max(nThreads, 1), Math.max(nThreads, 1), 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.name = name;
+    allowCoreThreadTimeOut(true);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Priority given to tasks submitted from the current thread (without a priority) */
+  public static Priority getCurrentPriority() {
+    Priority priority = currentPriority.get();
+    return (priority != null)? priority : Priority.INTERACTIVE;
+  }
+
+  /**
+   * Sets the priority given to tasks submitted from the current thread
+   * @return Previous priority (to restore with setCurrentPriority)
+   */
+  public static Priority setCurrentPriority(Priority priority) {
+    Priority old = getCurrentPriority();
+    currentPriority.set(priority);
+    return old;
+  }
+
+  /** Checks if the current thread is one of the threads of this executor */
+  public boolean isCurrentThread() {
+    return currentExecutor.get() == this;
+  }
+
+  /** Sets the number of threads */
+  public void setPoolSize(int nThreads) {
+    int n = Math.max(nThreads, 1);
+    if (n > getMaximumPoolSize()) {
+      setMaximumPoolSize(n);
+      setCorePoolSize(n);
+    } else {
+      setCorePoolSize(n);
+      setMaximumPoolSize(n);
+    }
+  }
+
+  public <T> Future<T> submit(Callable<T> task, Priority priority) {
+    Task<T> ftask = new Task<T>(task, priority);
+    execute(ftask);
+    return ftask;
+  }
+
+  public Future<?> submit(Runnable task, Priority priority) {
+    Task<Object> ftask = new Task<Object>(task, null, priority);
+    execute(ftask);
+    return ftask;
+  }
+
+  /**
+   * Submits a task that is put in the completion queue once it is done (completed, failed or cancelled),
+   *   same as an ExecutorCompletionService but the task can still be removed from the queue when it is cancelled
+   */
+  public <T> Future<T> submit(Callable<T> task, Priority priority, BlockingQueue<Future<T>> completionQueue) {
+    Task<T> ftask = new Task<T>(task, priority);
+    ftask.completionQueue = completionQueue;
+    execute(ftask);
+    return ftask;
+  }
+
+  /**
+   * Runs the task on this executor, or on the calling thread if maxQueued tasks are already waiting
+   *   (backpressure for producers that can get ahead of the executor, e.g. images to encode)
+   */
+  public void executeOrRun(Runnable command, int maxQueued) {
+    if (getQueue().size() >= maxQueued) {
+      command.run();
+    } else {
+      execute(command);
+    }
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+    return new Task<T>(callable, getCurrentPriority());
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+    return new Task<T>(runnable, value, getCurrentPriority());
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    // The queue only takes our tasks (they are ordered by priority)
+    super.execute((command instanceof Task)? command : newTaskFor(command, null));
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    super.beforeExecute(t, r);
+    currentExecutor.set(this);
+    currentPriority.set(((Task<?>) r).priority);
+  }
+
+  @Override
+  protected void afterExecute(Runnable r, Throwable t) {
+    super.afterExecute(r, t);
+    currentPriority.remove();
+    Task<?> task = (Task<?>) r;
+    if (!task.isCancelled()) {
+      completed.incrementAndGet();
+      totalLatencyNanos.addAndGet(System.nanoTime() - task.submitted);
+    }
+  }
+
+  public Stats getStats() {
+    long n = completed.get();
+    double meanLatencyMillis = (n > 0)? totalLatencyNanos.get() / (n * 1.0e6) : 0.0;
+    return new Stats(name, getMaximumPoolSize(), getQueue().size(), getActiveCount(), n, cancelled.get(), meanLatencyMillis);
+  }
+
+  @Override
+  public String toString() {
+    return getStats().toString();
+  }
+}
@@ -0,0 +1,210 @@
+package jme3dae;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.TextureKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jme3dae.utilities.TextureBaseList;
+
+/**
+ * The state of the loading of one collada document: the registry of the elements with an id,
+ * the texture base directories and the resources (embedded images, entries of a kmz archive)
+ * that can only be seen by this document. Each load uses its own context, so several
+ * documents can be loaded at the same time.
+ * <p>
+ * While the document is loaded (between open and close), textures created with createTextureKey are
+ * located through the resources of the context first.
+ *
+ * @author Angel Chang
+ */
+public class ColladaContext {
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+  /**
+   * The contexts that are being loaded (by id)
+   */
+  private static final Map<String, ColladaContext> OPEN_CONTEXTS = new ConcurrentHashMap<String, ColladaContext>();
+
+  private final String id = "collada-context-" + COUNTER.incrementAndGet();
+  private final String source;
+  private final Map<String, DAENode> registry = new HashMap<String, DAENode>();
+  private final TextureBaseList textureBase = ColladaLoader.copyTextureBase();
+  private final Map<String, byte[]> resources = new ConcurrentHashMap<String, byte[]>();
+  private AssetLocator resourceLocator;
+
+  /**
+   * Creates a context for a document that is not loaded from an asset
+   */
+  public ColladaContext() {
+    this(null);
+  }
+
+  /**
+   * Creates a context for a document
+   *
+   * @param source the name of the asset the document is loaded from (for instance the kmz archive)
+   */
+  public ColladaContext(String source) {
+    this.source = source;
+  }
+
+  /**
+   * Returns the unique id of this context
+   *
+   * @return the id of this context
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Returns the name of the asset the document is loaded from
+   *
+   * @return the source of the document (null if unknown)
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * Publishes a collada element with a unique id
+   *
+   * @param elementId the id of the element
+   * @param node      the element
+   */
+  void register(String elementId, DAENode node) {
+    registry.put(elementId, node);
+  }
+
+  /**
+   * Returns the collada element with the given id
+   *
+   * @param elementId the id of the element
+   * @return the element or null if there is no element with that id
+   */
+  DAENode getNode(String elementId) {
+    return registry.get(elementId);
+  }
+
+  /**
+   * Returns the paths used to find textures that cannot be resolved otherwise
+   * (a copy of the paths added with ColladaLoader.addTextureBase when this context was created).
+   *
+   * @return the texture base directories
+   */
+  public TextureBaseList getTextureBase() {
+    return textureBase;
+  }
+
+  /**
+   * Adds a resource (for instance an image embedded in the document) visible only to this document
+   *
+   * @param name the name of the resource
+   * @param data the content of the resource
+   */
+  public void addResource(String name, byte[] data) {
+    resources.put(name, data);
+  }
+
+  /**
+   * Sets the locator used to find the resources of this document (for instance
+   * the entries of the kmz archive that contains the document)
+   *
+   * @param locator the locator (with its root path already set)
+   */
+  public void setResourceLocator(AssetLocator locator) {
+    this.resourceLocator = locator;
+  }
+
+  /**
+   * Checks if this context has its own resources
+   *
+   * @return true if some resources or a resource locator have been added to this context
+   */
+  public boolean hasResources() {
+    return resourceLocator != null || !resources.isEmpty();
+  }
+
+  /**
+   * Returns a key for a texture used by this document. If the context has its own resources,
+   * the key is located through them first (and is not shared with other documents in the asset cache).
+   * The key has the same settings as the one used by AssetManager.loadTexture(name).
+   *
+   * @param name the name of the texture
+   * @return a texture key
+   */
+  public TextureKey createTextureKey(String name) {
+    TextureKey key = hasResources() ? new ColladaTextureKey(name, id, source) : new TextureKey(name, true);
+    key.setGenerateMips(true);
+    return key;
+  }
+
+  /**
+   * Checks if the key is for a resource of this context (a key created by this context,
+   * or by another context for the same source)
+   *
+   * @param key the texture key
+   * @return true if the resource should be located through this context
+   */
+  boolean isOwnKey(ColladaTextureKey key) {
+    return id.equals(key.getContextId()) || (source != null && source.equals(key.getSource()));
+  }
+
+  /**
+   * Locates a resource of this context
+   *
+   * @param manager the asset manager
+   * @param key     the key of the resource
+   * @return the asset info or null if the context has no such resource
+   */
+  public AssetInfo locate(AssetManager manager, AssetKey<?> key) {
+    final byte[] data = resources.get(key.getName());
+    if (data != null) {
+      return new AssetInfo(manager, key) {
+        @Override
+        public InputStream openStream() {
+          return new ByteArrayInputStream(data);
+        }
+      };
+    }
+    return resourceLocator != null ? resourceLocator.locate(manager, key) : null;
+  }
+
+  /**
+   * Makes the resources of this context visible to the asset manager
+   *
+   * @param manager the asset manager used to load the document
+   */
+  public void open(AssetManager manager) {
+    OPEN_CONTEXTS.put(id, this);
+    manager.registerLocator(id, ColladaContextLocator.class);
+  }
+
+  /**
+   * Removes the resources of this context from the asset manager
+   *
+   * @param manager the asset manager used to load the document
+   */
+  public void close(AssetManager manager) {
+    manager.unregisterLocator(id, ColladaContextLocator.class);
+    OPEN_CONTEXTS.remove(id);
+  }
+
+  /**
+   * Returns the open context with the given id
+   *
+   * @param id the id of the context
+   * @return the context or null if no such context is being loaded
+   */
+  static ColladaContext getOpenContext(String id) {
+    return id != null ? OPEN_CONTEXTS.get(id) : null;
+  }
+}
@@ -0,0 +1,32 @@
+package jme3dae;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+
+/**
+ * Locates the resources of a collada context that is being loaded.
+ * The root path of the locator is the id of the context, and only the texture keys
+ * of that context are located (see ColladaContext.isOwnKey).
+ *
+ * @author Angel Chang
+ */
+public class ColladaContextLocator implements AssetLocator {
+  private String contextId;
+
+  public void setRootPath(String rootPath) {
+    this.contextId = rootPath;
+  }
+
+  @SuppressWarnings("rawtypes")
+  public AssetInfo locate(AssetManager manager, AssetKey key) {
+    if (key instanceof ColladaTextureKey) {
+      ColladaContext context = ColladaContext.getOpenContext(contextId);
+      if (context != null && context.isOwnKey((ColladaTextureKey) key)) {
+        return context.locate(manager, key);
+      }
+    }
+    return null;
+  }
+}
@@ -74,6 +74,10 @@ public class ColladaDocumentFactory {
     fxInfo = info;
   }
 
+  public static FXEnhancerInfo getFXEnhance() {
+    return fxInfo;
+  }
+
   private ColladaDocumentFactory() {
   }
 
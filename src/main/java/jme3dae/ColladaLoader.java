@@ -44,7 +44,7 @@ public class ColladaLoader implements AssetLoader {
   }
 
   /**
-   * Used to set the texture base directory
+   * Used to set the texture base directory (copied into the context of each load)
    */
   private static final TextureBaseList TEXTURE_BASE = new TextureBaseList();
 
@@ -59,11 +59,23 @@ public class ColladaLoader implements AssetLoader {
    * @param base an asset loader base path where textures might be stored.
    */
   public static void addTextureBase(String base) {
-    TEXTURE_BASE.add(base);
+    synchronized (TEXTURE_BASE) {
+      TEXTURE_BASE.add(base);
+    }
   }
 
   public static void removeTextureBase(String base) {
-    TEXTURE_BASE.remove(base);
+    synchronized (TEXTURE_BASE) {
+      TEXTURE_BASE.remove(base);
+    }
+  }
+
+  static TextureBaseList copyTextureBase() {
+    TextureBaseList copy = new TextureBaseList();
+    synchronized (TEXTURE_BASE) {
+      copy.addAll(TEXTURE_BASE);
+    }
+    return copy;
   }
 
   /**
@@ -80,14 +92,28 @@ public class ColladaLoader implements AssetLoader {
    * if some (logged) exception happens during the process.
    */
   public Node load(AssetInfo assetInfo) {
+    return load(assetInfo, new ColladaContext(assetInfo.getKey() != null ? assetInfo.getKey().getName() : null));
+  }
+
+  /**
+   * Load a collada document. Documents with different contexts can be loaded at the same time.
+   *
+   * @param assetInfo a pointer to a collada (dae) document.
+   * @param context   the context of the loading (registry of the collada elements, texture bases
+   *                  and resources of the document)
+   * @return a Node element wrapping the contents of the loaded document or null
+   * if some (logged) exception happens during the process.
+   */
+  public Node load(AssetInfo assetInfo, ColladaContext context) {
     InputStream in = assetInfo.openStream();
     Node node = null;
+    AssetManager assetManager = assetInfo.getManager();
+    if (assetManager != null) {
+      context.open(assetManager);
+    }
     try {
-      // Clear the DAENode registry so we get our memory back
-      DAENode.clearRegistry();
-      DAENode root = DAELoader.create().load(in); //generate the collada-xml root node
+      DAENode root = DAELoader.create().load(in, context); //generate the collada-xml root node
       root.setParsedData(ColladaInfo.create(assetInfo)); //stores the collada info into the root node
-      root.setParsedData(TEXTURE_BASE);
       Tuple2<DAENode, AssetManager> data = Tuple2.create(root, assetInfo.getManager());
 
       //Creates and applies the transformed that maps the entire collada document (via its root)
@@ -104,11 +130,12 @@ public class ColladaLoader implements AssetLoader {
           node.setUserData("unit", measuringUnit.getMeter());
         }
       }
-      // Clear the DAENode registry so we get our memory back
-      DAENode.clearRegistry();
     } catch (Exception ex) {
       Logger.getLogger(ColladaLoader.class.getName()).log(Level.SEVERE, null, ex);
     } finally {
+      if (assetManager != null) {
+        context.close(assetManager);
+      }
       try {
         in.close();
       } catch (IOException ex) {
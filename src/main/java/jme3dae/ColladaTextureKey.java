@@ -0,0 +1,83 @@
+package jme3dae;
+
+import com.jme3.asset.TextureKey;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+
+import java.io.IOException;
+
+/**
+ * A texture key that belongs to a collada document (see ColladaContext).
+ * Keys of different documents are never equal, so textures with the same name from
+ * different kmz archives are not mixed up in the asset cache.
+ * The document is identified by its source (the name of the asset the document was loaded from, which
+ * is saved with the key), or by the context that created the key if the document has no source.
+ *
+ * @author Angel Chang
+ */
+public class ColladaTextureKey extends TextureKey {
+  private String source;
+  private transient String contextId;
+
+  public ColladaTextureKey(String name, String contextId, String source) {
+    super(name, true);
+    this.contextId = contextId;
+    this.source = source;
+  }
+
+  /**
+   * For serialization only
+   */
+  public ColladaTextureKey() {
+  }
+
+  /**
+   * Returns the id of the collada context this key belongs to
+   *
+   * @return the id of the context (null if the key was deserialized)
+   */
+  public String getContextId() {
+    return contextId;
+  }
+
+  /**
+   * Returns the name of the asset the collada document was loaded from
+   *
+   * @return the source of the document (null if unknown)
+   */
+  public String getSource() {
+    return source;
+  }
+
+  private String getDocumentId() {
+    return source != null ? source : contextId;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    ex.getCapsule(this).write(source, "source", null);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    source = im.getCapsule(this).readString("source", null);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!super.equals(obj)) {
+      return false;
+    }
+    String documentId = getDocumentId();
+    String otherId = ((ColladaTextureKey) obj).getDocumentId();
+    return documentId == null ? otherId == null : documentId.equals(otherId);
+  }
+
+  @Override
+  public int hashCode() {
+    String documentId = getDocumentId();
+    return 31 * super.hashCode() + (documentId != null ? documentId.hashCode() : 0);
+  }
+}
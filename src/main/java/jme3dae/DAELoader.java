@@ -6,7 +6,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import jme3dae.collada14.ColladaSpec141.Names;
+import jme3dae.transformers.ValueTransformer.TransformedValue;
+import jme3dae.utilities.NumberListScanner;
+import jme3dae.utilities.TransformerPack;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -15,10 +23,26 @@ import org.w3c.dom.NodeList;
  * Loads a collada xml document. This loader wraps the xml nodes of the collada
  * document in DAENode elements. A DAENode is an extended xml node that provides some
  * utility methods related to the structure of collada xml nodes.
+ * <p>
+ * By default the document is read with a streaming (StAX) parser that creates only the
+ * element nodes (whitespace is dropped) and parses the contents of the number list
+ * elements (float_array, int_array, p, vcount, v) directly into float[] and int[].
+ * The DOM parser (which wraps every xml node) can be used instead with setUseStreamingParser(false).
+ * The document read by the streaming parser takes about half the heap of the wrapped DOM, but the
+ * time and peak heap of a whole load are dominated by the number arrays and the meshes built from them.
  *
  * @author pgi
  */
 public class DAELoader {
+  private static boolean useStreamingParser = true;
+
+  public static void setUseStreamingParser(boolean flag) {
+    useStreamingParser = flag;
+  }
+
+  public static boolean getUseStreamingParser() {
+    return useStreamingParser;
+  }
 
   /**
    * Instance creator. Creates a new DAELoader. The loader is stateless.
@@ -41,12 +65,29 @@ public class DAELoader {
    * null if parsing fails for any (logged) reason.
    */
   public DAENode load(InputStream in) {
+    return load(in, new ColladaContext());
+  }
+
+  /**
+   * Load the collada document from the given input stream. Closes the stream
+   * after loading.
+   *
+   * @param in      the input stream of the collada document
+   * @param context the context of the document (where the elements with an id are registered)
+   * @return a DAENode wrapping the COLLADA element of the dae document. Returns
+   * null if parsing fails for any (logged) reason.
+   */
+  public DAENode load(InputStream in, ColladaContext context) {
     DAENode root = null;
     try {
-      DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-      DocumentBuilder bui = fac.newDocumentBuilder();
-      Document doc = bui.parse(in);
-      root = wrap(null, doc.getDocumentElement());
+      if (useStreamingParser) {
+        root = read(in, context);
+      } else {
+        DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
+        DocumentBuilder bui = fac.newDocumentBuilder();
+        Document doc = bui.parse(in);
+        root = wrap(context, null, doc.getDocumentElement());
+      }
     } catch (Exception ex) {
       Logger.getLogger(getClass().getName()).log(Level.SEVERE, "", ex);
     } finally {
@@ -65,18 +106,218 @@ public class DAELoader {
    * Wraps the a tree of xml nodes into a tree of DAENode nodes. This method is
    * called recursively.
    *
-   * @param parent the DAENode parent of the wrapping node produced by this
-   *               method
-   * @param node   the xml node to wrap
+   * @param context the context of the document
+   * @param parent  the DAENode parent of the wrapping node produced by this
+   *                method
+   * @param node    the xml node to wrap
    * @return the root of the tree of DAENodes
    */
-  private DAENode wrap(DAENode parent, Node node) {
-    DAENode dae = DAENode.create(parent, node);
+  private DAENode wrap(ColladaContext context, DAENode parent, Node node) {
+    DAENode dae = DAENode.create(context, parent, node);
     NodeList children = node.getChildNodes();
     for (int i = 0; i < children.getLength(); i++) {
       Node child = children.item(i);
-      dae.addChild(wrap(dae, child));
+      dae.addChild(wrap(context, dae, child));
     }
     return dae;
   }
+
+  /**
+   * Reads the tree of DAENodes from a stream of xml events.
+   *
+   * @param in      the input stream of the collada document
+   * @param context the context of the document
+   * @return the root of the tree of DAENodes
+   * @throws XMLStreamException if the document is not well formed
+   */
+  private DAENode read(InputStream in, ColladaContext context) throws XMLStreamException {
+    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+    DAENode root = null;
+    DAENode current = null;
+    StringBuilder text = new StringBuilder();
+    NumberList numbers = null;
+    try {
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT: {
+            if (current != null) {
+              flushText(current, text);
+            }
+            String name = getName(reader.getPrefix(), reader.getLocalName());
+            String[] attributes = new String[2 * reader.getAttributeCount()];
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+              attributes[2 * i] = getName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+              attributes[2 * i + 1] = reader.getAttributeValue(i);
+            }
+            DAENode node = DAENode.create(context, current, name, attributes);
+            if (current == null) {
+              root = node;
+            } else {
+              current.addChild(node);
+            }
+            current = node;
+            numbers = NumberList.create(current.getParent().isDefined() ? current.getParent() : null, name, attributes);
+            break;
+          }
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            if (numbers != null) {
+              numbers.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (current != null) {
+              text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if (numbers != null) {
+              current.setValues(numbers.toArray());
+              numbers = null;
+            } else {
+              flushText(current, text);
+            }
+            current = current.getParent().isDefined() ? current.getParent() : null;
+            break;
+          default:
+            break;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return root;
+  }
+
+  private static String getName(String prefix, String localName) {
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+  }
+
+  /**
+   * Moves the accumulated text to the given node, whitespace only text is dropped.
+   */
+  private static void flushText(DAENode node, StringBuilder text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (!NumberListScanner.isWhitespace(text.charAt(i))) {
+        node.appendText(text.toString());
+        break;
+      }
+    }
+    text.setLength(0);
+  }
+
+  /**
+   * Parses the whitespace separated numbers of a number list element as the text arrives.
+   */
+  private static class NumberList {
+    private static final Logger logger = Logger.getLogger(NumberList.class.getName());
+
+    /**
+     * Returns a NumberList for the elements whose content is a list of numbers
+     *
+     * @param parent     the parent of the element (null for the root)
+     * @param name       the name of the element
+     * @param attributes the attributes of the element, as name/value pairs
+     * @return a new NumberList or null if the element is not a number list
+     */
+    static NumberList create(DAENode parent, String name, String[] attributes) {
+      if (Names.FLOAT_ARRAY.equals(name)) {
+        return new NumberList(NumberListScanner.forFloats(getCount(attributes)), true);
+      } else if (Names.INT_ARRAY.equals(name)) {
+        return new NumberList(NumberListScanner.forInts(getCount(attributes)), false);
+      } else if (Names.P.equals(name) || Names.VCOUNT.equals(name) || Names.V.equals(name)) {
+        return new NumberList(NumberListScanner.forInts(getCapacity(parent, name)), false);
+      } else {
+        return null;
+      }
+    }
+
+    private static int getCount(String[] attributes) {
+      for (int i = 0; i < attributes.length; i += 2) {
+        if (Names.COUNT.equals(attributes[i])) {
+          try {
+            return Integer.parseInt(attributes[i + 1].trim());
+          } catch (NumberFormatException ex) {
+            return 0;
+          }
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Returns the expected number of indices of a p, vcount or v element, from the
+     * count and inputs of the parent (and the vcount already parsed for a p or v element).
+     * This is only a hint for the initial capacity (the NumberListScanner caps it), so
+     * it is computed in long and clamped instead of overflowing.
+     */
+    private static int getCapacity(DAENode parent, String name) {
+      if (parent == null) {
+        return 0;
+      }
+      TransformedValue<Integer> count = parent.getAttribute(Names.COUNT, TransformerPack.INTEGER);
+      if (!count.isDefined()) {
+        return 0;
+      } else if (Names.VCOUNT.equals(name)) {
+        return count.get();
+      }
+      int stride = 0;
+      for (DAENode input : parent.getChildren(Names.INPUT)) {
+        TransformedValue<Integer> offset = input.getAttribute(Names.OFFSET, TransformerPack.INTEGER);
+        stride = Math.max(stride, offset.isDefined() ? offset.get() + 1 : 1);
+      }
+      TransformedValue<int[]> vcount = parent.getChild(Names.VCOUNT).getContent(TransformerPack.INTEGER_LIST);
+      if (vcount.isDefined()) {
+        long vertices = 0;
+        for (int n : vcount.get()) {
+          vertices += n;
+        }
+        return clamp(vertices * stride);
+      } else if (parent.hasName(Names.TRIANGLES) && Names.P.equals(name)) {
+        return clamp(3L * count.get() * stride);
+      } else {
+        return 0;
+      }
+    }
+
+    private static int clamp(long capacity) {
+      return (int) Math.max(0, Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    private final NumberListScanner scanner;
+    private final boolean floats;
+    private boolean failed;
+
+    private NumberList(NumberListScanner scanner, boolean floats) {
+      this.scanner = scanner;
+      this.floats = floats;
+    }
+
+    void append(char[] chars, int start, int length) {
+      if (failed) {
+        return;
+      }
+      try {
+        scanner.scan(chars, start, length);
+      } catch (NumberFormatException ex) {
+        logger.log(Level.SEVERE, "", ex);
+        failed = true;
+      }
+    }
+
+    /**
+     * Returns the parsed numbers
+     *
+     * @return a float[] or int[] with the numbers or null if parsing failed
+     */
+    Object toArray() {
+      if (failed) {
+        return null;
+      }
+      try {
+        return floats ? scanner.toFloatArray() : scanner.toIntArray();
+      } catch (NumberFormatException ex) {
+        logger.log(Level.SEVERE, "", ex);
+        return null;
+      }
+    }
+  }
 }
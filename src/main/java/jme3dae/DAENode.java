@@ -1,74 +1,119 @@
 package jme3dae;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Comment;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Map;
 
 import jme3dae.transformers.ValueTransformer;
 import jme3dae.transformers.ValueTransformer.TransformedValue;
+import jme3dae.utilities.FloatListTransformer;
+import jme3dae.utilities.IntegerListTransformer;
 import jme3dae.utilities.PlainTextTransformer;
 import org.w3c.dom.Element;
 
 /**
  * Wraps a xml node and offers a few utility functions to operate on collada elements.
+ * The node keeps a copy of the name, attributes and text of the xml node
+ * (the xml document is not referenced once it has been wrapped).
  *
  * @author pgi
  */
 public class DAENode {
 
-  /**
-   * This is where collada elements with a unique id are published
-  */
-  private static final Map<Object, DAENode> DOCUMENT_REGISTRY = new HashMap<Object, DAENode>();
   /**
    * Represents the null value for DAENode objects.
    */
   public static final DAENode NONE = new DAENode();
 
-  public static void clearRegistry() {
-    DOCUMENT_REGISTRY.clear();
-  }
-
   /**
    * Returns a new DAENode instance
    *
    * @param parent the DAENode parent of the new node
    * @param node   the xml node to wrap
-   * @return a new DAENode child of parent, wrapping node
+   * @return a new DAENode child of parent, wrapping node (in a new context if parent is null)
    */
   public static DAENode create(DAENode parent, Node node) {
+    return create(parent != null ? parent.context : new ColladaContext(), parent, node);
+  }
+
+  /**
+   * Returns a new DAENode instance
+   *
+   * @param context the context of the document the node belongs to
+   * @param parent  the DAENode parent of the new node
+   * @param node    the xml node to wrap
+   * @return a new DAENode child of parent, wrapping node
+   */
+  public static DAENode create(ColladaContext context, DAENode parent, Node node) {
+    if (node == null) {
+      throw new IllegalArgumentException("DAENode xml node cannot be null.");
+    }
+    String[] attributes = null;
+    if (node instanceof Element) {
+      NamedNodeMap map = node.getAttributes();
+      attributes = new String[2 * map.getLength()];
+      for (int i = 0; i < map.getLength(); i++) {
+        Node attr = map.item(i);
+        attributes[2 * i] = attr.getNodeName();
+        attributes[2 * i + 1] = attr.getNodeValue();
+      }
+    }
+    DAENode n = create(context, parent, node.getNodeName(), attributes);
+    if (node instanceof CharacterData && !(node instanceof Comment)) {
+      n.text = node.getNodeValue();
+    }
+    return n;
+  }
+
+  /**
+   * Returns a new DAENode instance for an xml element
+   *
+   * @param context    the context of the document the node belongs to
+   * @param parent     the DAENode parent of the new node
+   * @param name       the name of the element
+   * @param attributes the attributes of the element as a sequence of name, value pairs
+   *                   (null if the node is not an element)
+   * @return a new DAENode child of parent
+   */
+  static DAENode create(ColladaContext context, DAENode parent, String name, String[] attributes) {
     ProgressListener listener = ColladaDocumentFactory.getProgressListener();
     if (listener != null) {
       listener.onProgress(1);
     }
-    DAENode n = new DAENode(parent, node);
-    if (node instanceof Element) {
-      String id = ((Element) node).getAttribute("id");
-      if (id.length() > 0) {
-        DOCUMENT_REGISTRY.put(id, n);
-      }
+    DAENode n = new DAENode(context, parent, name, attributes);
+    String id = n.getAttributeValue("id");
+    if (id.length() > 0) {
+      context.register(id, n);
     }
     return n;
   }
 
+  private final ColladaContext context;
   private final DAENode parent;
-  private final Node node;
-  private final List<DAENode> children = new LinkedList<DAENode>();
+  private final String name;
+  private final String[] attributes;
+  // Text of this node, and the numbers of a number list element if they were parsed while loading
+  private String text;
+  private Object values;
+  private final List<DAENode> children = new ArrayList<DAENode>(2);
   private final List<Object> parsedData = new LinkedList<Object>();
 
   /**
    * Used for the instantiation of NONE
    */
   private DAENode() {
+    context = null;
     parent = null;
-    node = null;
+    name = null;
+    attributes = null;
   }
 
   /**
@@ -131,17 +176,30 @@ public class DAENode {
   /**
    * Initializes a new DAENode
    *
-   * @param parent the parent of this node, maybe null (the node will be the
-   *               root of a tree)
-   * @param node   the wrapped xml node, cannot be null
-   * @throws IllegalArgumentException if node is null
+   * @param context    the context of the document this node belongs to
+   * @param parent     the parent of this node, maybe null (the node will be the
+   *                   root of a tree)
+   * @param name       the name of the wrapped xml node, cannot be null
+   * @param attributes the attributes of the wrapped xml node as name, value pairs
+   * @throws IllegalArgumentException if name is null
    */
-  private DAENode(DAENode parent, Node node) {
-    if (node == null) {
-      throw new IllegalArgumentException("DAENode xml node cannot be null.");
+  private DAENode(ColladaContext context, DAENode parent, String name, String[] attributes) {
+    if (name == null) {
+      throw new IllegalArgumentException("DAENode xml node name cannot be null.");
     }
+    this.context = context;
     this.parent = parent;
-    this.node = node;
+    this.name = name;
+    this.attributes = attributes;
+  }
+
+  /**
+   * Returns the context of the document this node belongs to
+   *
+   * @return the context of the document or null if this node is undefined (aka DAENode.NONE)
+   */
+  public ColladaContext getContext() {
+    return context;
   }
 
   /**
@@ -161,12 +219,9 @@ public class DAENode {
    */
   public DAENode getLinkedSource() {
     DAENode r = NONE;
-    if (node instanceof Element) {
-      Element e = (Element) node;
-      String att = e.getAttribute("source");
-      if (att.length() > 0) {
-        return getLinkedNode(att);
-      }
+    String att = getAttributeValue("source");
+    if (att.length() > 0) {
+      return getLinkedNode(att);
     }
     return r;
   }
@@ -179,12 +234,9 @@ public class DAENode {
    */
   public DAENode getLinkedURL() {
     DAENode r = NONE;
-    if (node instanceof Element) {
-      Element e = (Element) node;
-      String att = e.getAttribute("url");
-      if (att.length() > 0) {
-        return getLinkedNode(att);
-      }
+    String att = getAttributeValue("url");
+    if (att.length() > 0) {
+      return getLinkedNode(att);
     }
     return r;
   }
@@ -199,16 +251,31 @@ public class DAENode {
    * @return the result of the application of parser to the named attribute
    */
   public <R> TransformedValue<R> getAttribute(String name, ValueTransformer<String, R> parser) {
-    String value = "";
-    if (node instanceof Element) {
-      value = ((Element) node).getAttribute(name);
+    return parser.transform(getAttributeValue(name));
+  }
+
+  /**
+   * Returns the value of a named attribute of this node (same as the attribute of a org.w3c.dom.Element).
+   *
+   * @param name the name of the attribute
+   * @return the value of the attribute or the empty string if this node has no such attribute
+   */
+  private String getAttributeValue(String name) {
+    if (attributes != null) {
+      for (int i = 0; i < attributes.length; i += 2) {
+        if (attributes[i].equals(name)) {
+          return attributes[i + 1];
+        }
+      }
     }
-    return parser.transform(value);
+    return "";
   }
 
   /**
    * Returns the text content of this node as transformed by the given parser.
    * Same as <code>parseContent(parser).get();</code>
+   * If the numbers of the node were parsed while loading, a FloatListTransformer or
+   * IntegerListTransformer returns them directly (the array is shared, do not modify it).
    *
    * @param <R>    the type of the parsed value
    * @param parser the parser that will transform the text content of this
@@ -216,7 +283,67 @@ public class DAENode {
    * @return the transformed value of the text content of this node
    */
   public <R> TransformedValue<R> getContent(ValueTransformer<String, R> parser) {
-    return node == null ? TransformedValue.<R>create(null) : parser.transform(node.getTextContent());
+    if (!isDefined()) {
+      return TransformedValue.<R>create(null);
+    }
+    if ((values instanceof float[] && parser instanceof FloatListTransformer)
+        || (values instanceof int[] && parser instanceof IntegerListTransformer)) {
+      @SuppressWarnings("unchecked")
+      R r = (R) values;
+      return TransformedValue.create(r);
+    }
+    return parser.transform(getTextContent());
+  }
+
+  /**
+   * Returns the text content of this node (same as org.w3c.dom.Node.getTextContent)
+   *
+   * @return the text of this node and of its descendants
+   */
+  private String getTextContent() {
+    if (values == null && children.isEmpty()) {
+      return text != null ? text : "";
+    }
+    StringBuilder sb = new StringBuilder();
+    appendTextContent(sb);
+    return sb.toString();
+  }
+
+  private void appendTextContent(StringBuilder sb) {
+    if (values instanceof float[]) {
+      for (float v : (float[]) values) {
+        sb.append(v).append(' ');
+      }
+    } else if (values instanceof int[]) {
+      for (int v : (int[]) values) {
+        sb.append(v).append(' ');
+      }
+    }
+    if (text != null) {
+      sb.append(text);
+    }
+    for (DAENode child : children) {
+      child.appendTextContent(sb);
+    }
+  }
+
+  /**
+   * Appends text to the content of this node. Used during the loading of a xml document.
+   *
+   * @param value the text to append
+   */
+  void appendText(String value) {
+    text = text == null ? value : text + value;
+  }
+
+  /**
+   * Sets the numbers (float[] or int[]) parsed from the text of this node. Used during the loading
+   * of a xml document.
+   *
+   * @param values the parsed numbers
+   */
+  void setValues(Object values) {
+    this.values = values;
   }
 
   /**
@@ -230,7 +357,7 @@ public class DAENode {
     if (value == null || (value.length() == 0) || !isDefined()) {
       return false;
     } else {
-      return node.getNodeName().equals(value);
+      return name.equals(value);
     }
   }
 
@@ -245,7 +372,7 @@ public class DAENode {
    * never null.
    */
   public List<DAENode> getChildren(String... names) {
-    if (node == null || names == null) {
+    if (!isDefined() || names == null) {
       return Collections.<DAENode>emptyList();
     }
 
@@ -269,7 +396,7 @@ public class DAENode {
    * @return the name of the wrapped node or null.
    */
   private String getNodeName() {
-    return node != null ? node.getNodeName() : null;
+    return name;
   }
 
   /**
@@ -299,9 +426,8 @@ public class DAENode {
    */
   public DAENode getChild(String name, String attribute, String value) {
     for (DAENode e : children) {
-      if (e.hasName(name) && e.node instanceof Element) {
-        Element m = (Element) e.node;
-        if (value.equals(m.getAttribute(attribute))) {
+      if (e.hasName(name) && e.attributes != null) {
+        if (value.equals(e.getAttributeValue(attribute))) {
           return e;
         }
       }
@@ -383,8 +509,8 @@ public class DAENode {
 
       e = e.getParent();
     }
-    if ((!e.isDefined()) && DOCUMENT_REGISTRY.containsKey(url)) {
-      e = DOCUMENT_REGISTRY.get(url);
+    if ((!e.isDefined()) && context != null && context.getNode(url) != null) {
+      e = context.getNode(url);
     }
     return e;
   }
@@ -396,15 +522,13 @@ public class DAENode {
    */
   @Override
   public String toString() {
-    if (node == null) return "NONE";
+    if (!isDefined()) return "NONE";
     StringBuilder sb = new StringBuilder();
     // Create pretty string version of the node with just the attributes
-    sb.append("<").append(node.getNodeName());
-    NamedNodeMap attributes = node.getAttributes();
+    sb.append("<").append(name);
     if (attributes != null) {
-      for (int i = 0; i < attributes.getLength(); i++) {
-        Node attr = attributes.item(i);
-        sb.append(" ").append(attr.getNodeName()).append("=\"").append(attr.getNodeValue()).append("\"");
+      for (int i = 0; i < attributes.length; i += 2) {
+        sb.append(" ").append(attributes[i]).append("=\"").append(attributes[i + 1]).append("\"");
       }
       sb.append("/>");
     }
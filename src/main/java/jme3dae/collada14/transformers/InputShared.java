@@ -127,8 +127,7 @@ public class InputShared {
     int polygon = 0;
     while (index < indices.length && polygon < polygons.length) {
       for (int i = 0; i < polygons[polygon].getVertexCount() & index < indices.length; i++) {
-        float[] vdata = getFloatSet(floatBuffer, stride, indices[index]);
-        polygons[polygon].pushVertex(set, indices[index], vdata);
+        polygons[polygon].pushVertex(set, indices[index], floatBuffer, indices[index] * stride, stride);
         index++;
       }
       polygon++;
@@ -140,8 +139,7 @@ public class InputShared {
     int polygon = 0;
     while (index < indices.length && polygon < polygons.length) {
       for (int i = 0; i < polygons[polygon].getVertexCount() & index < indices.length; i++) {
-        float[] vdata = getFloatSet(floatBuffer, stride, indices[index]);
-        polygons[polygon].pushNormal(set, vdata);
+        polygons[polygon].pushNormal(set, floatBuffer, indices[index] * stride, stride);
         index++;
       }
       polygon++;
@@ -153,8 +151,7 @@ public class InputShared {
     int polygon = 0;
     while (index < indices.length && polygon < polygons.length) {
       for (int i = 0; i < polygons[polygon].getVertexCount() & index < indices.length; i++) {
-        float[] vdata = getFloatSet(floatBuffer, stride, indices[index]);
-        polygons[polygon].pushBinormal(set, vdata);
+        polygons[polygon].pushBinormal(set, floatBuffer, indices[index] * stride, stride);
         index++;
       }
       polygon++;
@@ -166,8 +163,7 @@ public class InputShared {
     int polygon = 0;
     while (index < indices.length && polygon < polygons.length) {
       for (int i = 0; i < polygons[polygon].getVertexCount() & index < indices.length; i++) {
-        float[] vdata = getFloatSet(floatBuffer, stride, indices[index]);
-        polygons[polygon].pushTexcoord(set, vdata);
+        polygons[polygon].pushTexcoord(set, floatBuffer, indices[index] * stride, stride);
         index++;
       }
       polygon++;
@@ -179,17 +175,10 @@ public class InputShared {
     int polygon = 0;
     while (index < indices.length && polygon < polygons.length) {
       for (int i = 0; i < polygons[polygon].getVertexCount() & index < indices.length; i++) {
-        float[] vdata = getFloatSet(floatBuffer, stride, indices[index]);
-        polygons[polygon].pushTangent(set, vdata);
+        polygons[polygon].pushTangent(set, floatBuffer, indices[index] * stride, stride);
         index++;
       }
       polygon++;
     }
   }
-
-  private float[] getFloatSet(float[] floatBuffer, int stride, int i) {
-    float[] buffer = new float[stride];
-    System.arraycopy(floatBuffer, i * stride, buffer, 0, stride);
-    return buffer;
-  }
 }
@@ -4,19 +4,20 @@ import com.jme3.asset.AssetInfo;
 import com.jme3.asset.AssetManager;
 import com.jme3.asset.TextureKey;
 import com.jme3.texture.Texture;
+import edu.stanford.graphics.shapenet.jme3.asset.TextureCache;
 
 import java.io.File;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jme3dae.ColladaContext;
 import jme3dae.ColladaInfo;
 import jme3dae.DAENode;
 import jme3dae.collada14.ColladaSpec141.Names;
 import jme3dae.utilities.FileType;
 import jme3dae.utilities.FileTypeFinder;
 import jme3dae.utilities.HexSequenceTransformer;
-import jme3dae.utilities.MEMAssetLocator;
 import jme3dae.utilities.TextureBaseList;
 import jme3dae.utilities.Todo;
 import jme3dae.utilities.TransformerPack;
@@ -77,6 +78,18 @@ public class LibraryImagesTransformer implements TransformerPack<Tuple2<DAENode,
       Todo.task("implement parsing of effect list");
     }
     List<DAENode> imageList = libraryImagesNode.getChildren(Names.IMAGE);
+    if (imageList.size() > 1) {
+      // Start decoding the image files in parallel
+      for (DAENode imageNode : imageList) {
+        TransformedValue<String> initFrom = imageNode.getChild(Names.INIT_FROM).getContent(TEXT);
+        if (initFrom.isDefined()) {
+          TextureKey texkey = locateTexture(imageNode, assetManager, initFrom.get());
+          if (texkey != null) {
+            TextureCache.prefetchTexture(assetManager, texkey, Texture.WrapMode.Repeat);
+          }
+        }
+      }
+    }
     for (DAENode imageNode : imageList) {
       parseImageNode(imageNode, assetManager);
     }
@@ -86,6 +99,7 @@ public class LibraryImagesTransformer implements TransformerPack<Tuple2<DAENode,
     TransformedValue<byte[]> imageData = imageNode.getChild(Names.DATA).getContent(HEX_SEQUENCE);
     TransformedValue<String> initFrom = imageNode.getChild(Names.INIT_FROM).getContent(TEXT);
     String id = imageNode.getAttribute(Names.ID, TEXT).get();
+    ColladaContext context = imageNode.getContext();
     Texture texture = null;
     if (imageData.isDefined()) {
 
@@ -99,59 +113,25 @@ public class LibraryImagesTransformer implements TransformerPack<Tuple2<DAENode,
         id = null;
       }
       if (id != null) {
-        assetManager.registerLocator("mem://", MEMAssetLocator.class);
-        texture = assetManager.loadTexture(id);
+        // The image data is only visible to this document
+        context.addResource(id, imageData.get());
+        texture = assetManager.loadTexture(context.createTextureKey(id));
       }
     }
     if (initFrom.isDefined()) {
-      DAENode collada = imageNode.getRootNode();
-      ColladaInfo colladaInfo = collada.getParsedData(ColladaInfo.class);
-      String name = colladaInfo.getInfo().getKey().getName();
-      String folder = colladaInfo.getInfo().getKey().getFolder();
-      String location = initFrom.get();
-      File f = new File(location);
-
-
-      /**
-       *  Added by larynx 2011.03.19
-       *  Try to load the texture in this order:
-       *  original image <init_from> from the collada file
-       *  path of collada file + "/" + original
-       *  path of collada file + "/" + file name
-       *  file name alone
-       */
-
-      TextureKey texkey = new TextureKey(location);
-      AssetInfo texinfo = assetManager.locateAsset(texkey);
-      if (texinfo == null) {
-        location = combinePaths(folder, location);
-        texkey = new TextureKey(location);
-        texinfo = assetManager.locateAsset(texkey);
-        if (texinfo == null) {
-          f = new File(location);
-          location = combinePaths(folder, f.getName());
-          texkey = new TextureKey(location);
-          texinfo = assetManager.locateAsset(texkey);
-
-          if (texinfo == null) {
-            location = f.getName();
-            texkey = new TextureKey(location);
-            texinfo = assetManager.locateAsset(texkey);
-          }
-        }
-      }
-
-      if (texinfo != null) {
+      File f = new File(initFrom.get());
+      TextureKey texkey = locateTexture(imageNode, assetManager, initFrom.get());
+      if (texkey != null) {
         try {
-          texture = assetManager.loadTexture(location);
+          texture = TextureCache.loadTexture(assetManager, texkey, Texture.WrapMode.Repeat);
         } catch (Exception ex) {
-          Logger.getLogger(getClass().getName()).log(Level.INFO, "Exception while loading texture " + location);
+          Logger.getLogger(getClass().getName()).log(Level.INFO, "Exception while loading texture " + texkey.getName());
         }
       }
 
 
       if (texture == null) {
-        texture = scanTextureBase(assetManager, imageNode.getRootNode(), f.getName());
+        texture = scanTextureBase(assetManager, context, f.getName());
       }
 
       if (texture != null) {
@@ -168,12 +148,56 @@ public class LibraryImagesTransformer implements TransformerPack<Tuple2<DAENode,
     }
   }
 
-  private Texture scanTextureBase(AssetManager assetManager, DAENode rootNode, String name) {
-    TextureBaseList base = rootNode.getParsedData(TextureBaseList.class);
+  /**
+   * Finds the key of the texture referenced by an image node
+   *
+   * @return the key of the texture or null if the texture cannot be located
+   */
+  private TextureKey locateTexture(DAENode imageNode, AssetManager assetManager, String location) {
+    ColladaContext context = imageNode.getContext();
+    DAENode collada = imageNode.getRootNode();
+    ColladaInfo colladaInfo = collada.getParsedData(ColladaInfo.class);
+    String folder = colladaInfo.getInfo().getKey().getFolder();
+    File f = new File(location);
+
+
+    /**
+     *  Added by larynx 2011.03.19
+     *  Try to load the texture in this order:
+     *  original image <init_from> from the collada file
+     *  path of collada file + "/" + original
+     *  path of collada file + "/" + file name
+     *  file name alone
+     */
+
+    TextureKey texkey = context.createTextureKey(location);
+    AssetInfo texinfo = assetManager.locateAsset(texkey);
+    if (texinfo == null) {
+      location = combinePaths(folder, location);
+      texkey = context.createTextureKey(location);
+      texinfo = assetManager.locateAsset(texkey);
+      if (texinfo == null) {
+        f = new File(location);
+        location = combinePaths(folder, f.getName());
+        texkey = context.createTextureKey(location);
+        texinfo = assetManager.locateAsset(texkey);
+
+        if (texinfo == null) {
+          location = f.getName();
+          texkey = context.createTextureKey(location);
+          texinfo = assetManager.locateAsset(texkey);
+        }
+      }
+    }
+    return (texinfo != null) ? texkey : null;
+  }
+
+  private Texture scanTextureBase(AssetManager assetManager, ColladaContext context, String name) {
+    TextureBaseList base = context.getTextureBase();
     if (base != null) {
       for (String b : base) {
         try {
-          return assetManager.loadTexture(b + name);
+          return TextureCache.loadTexture(assetManager, b + name, Texture.WrapMode.Repeat);
         } catch (Exception ex) {
           Logger.getLogger(getClass().getName()).log(Level.INFO, "Texture " + name + " not in " + b);
         }
@@ -3,21 +3,19 @@ package jme3dae.collada14.transformers;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import jme3dae.utilities.Todo;
 import jme3dae.utilities.Tuple2;
-import jme3dae.utilities.Vertex;
 import jme3dae.utilities.VertexSkinningData;
 
 /**
  * A progressive polygon. The polygon defines a number of vertices and waits to be
  * "filled" with data. The polygon supports multiple data sets and a variety of
  * values. It also supports a very cheap triangulation form (fanning).
+ * The values of each set are stored in a float array (one per set, stride values per vertex).
  *
  * @author pgi
  */
@@ -36,12 +34,15 @@ public class PolygonData {
   }
 
   private final int vertexCount;
-  private Map<Integer, List<Vertex>> vsets = new HashMap<Integer, List<Vertex>>();
-  private Map<Integer, List<float[]>> nsets = new HashMap<Integer, List<float[]>>();
-  private Map<Integer, List<float[]>> tsets = new HashMap<Integer, List<float[]>>();
-  private Map<Integer, List<float[]>> bnsets = new HashMap<Integer, List<float[]>>();
-  private Map<Integer, List<float[]>> tansets = new HashMap<Integer, List<float[]>>();
-  private Map<Vertex, List<Tuple2<Integer, Float>>> influences = new HashMap<Vertex, List<Tuple2<Integer, Float>>>();//3 beacause this will most likely be called for triangle
+  private static final int VERTEX = 0;
+  private static final int NORMAL = 1;
+  private static final int TEXCOORD = 2;
+  private static final int BINORMAL = 3;
+  private static final int TANGENT = 4;
+  private static final DataSet[] NO_SETS = new DataSet[0];
+
+  private final DataSet[][] sets = {NO_SETS, NO_SETS, NO_SETS, NO_SETS, NO_SETS};
+  private List<Tuple2<Integer, Float>>[] influences;
 
   private PolygonData(int vertexCount) {
     this.vertexCount = vertexCount;
@@ -54,7 +55,7 @@ public class PolygonData {
    * can be empty.
    */
   public Set<Integer> getVertexSets() {
-    return new TreeSet<Integer>(vsets.keySet());
+    return getSetIndices(sets[VERTEX]);
   }
 
   /**
@@ -64,7 +65,7 @@ public class PolygonData {
    * be empty.
    */
   public Set<Integer> getNormalSets() {
-    return new TreeSet<Integer>(nsets.keySet());
+    return getSetIndices(sets[NORMAL]);
   }
 
   /**
@@ -74,7 +75,7 @@ public class PolygonData {
    * empty.
    */
   public Set<Integer> getTexcoordSets() {
-    return new TreeSet<Integer>(tsets.keySet());
+    return getSetIndices(sets[TEXCOORD]);
   }
 
   /*
@@ -83,7 +84,7 @@ public class PolygonData {
    * empty.
    */
   public Set<Integer> getBinormalSets() {
-    return new TreeSet<Integer>(bnsets.keySet());
+    return getSetIndices(sets[BINORMAL]);
   }
 
   /*
@@ -92,7 +93,7 @@ public class PolygonData {
    * empty.
    */
   public Set<Integer> getTangentSets() {
-    return new TreeSet<Integer>(tansets.keySet());
+    return getSetIndices(sets[TANGENT]);
   }
 
 
@@ -109,37 +110,11 @@ public class PolygonData {
     } else {
       int tricount = vertexCount - 2;
       PolygonData[] tris = new PolygonData[tricount];
-      int tri = 0;
       int vindex = 1;
       for (int i = 0; i < tricount; i++, vindex++) {
         PolygonData p = PolygonData.create(3);
-        for (Map.Entry<Integer, List<Vertex>> entry : vsets.entrySet()) {
-          Vertex v0 = entry.getValue().get(0);
-          Vertex v1 = entry.getValue().get(vindex);
-          Vertex v2 = entry.getValue().get(vindex + 1);
-          p.pushVertex(entry.getKey(), v0.getIndex(), v0.getData());
-          p.pushVertex(entry.getKey(), v1.getIndex(), v1.getData());
-          p.pushVertex(entry.getKey(), v2.getIndex(), v2.getData());
-        }
-        for (Map.Entry<Integer, List<float[]>> entry : nsets.entrySet()) {
-          p.pushNormal(entry.getKey(), entry.getValue().get(0));
-          p.pushNormal(entry.getKey(), entry.getValue().get(vindex));
-          p.pushNormal(entry.getKey(), entry.getValue().get(vindex + 1));
-        }
-        for (Map.Entry<Integer, List<float[]>> entry : tsets.entrySet()) {
-          p.pushTexcoord(entry.getKey(), entry.getValue().get(0));
-          p.pushTexcoord(entry.getKey(), entry.getValue().get(vindex));
-          p.pushTexcoord(entry.getKey(), entry.getValue().get(vindex + 1));
-        }
-        for (Map.Entry<Integer, List<float[]>> entry : bnsets.entrySet()) {
-          p.pushBinormal(entry.getKey(), entry.getValue().get(0));
-          p.pushBinormal(entry.getKey(), entry.getValue().get(vindex));
-          p.pushBinormal(entry.getKey(), entry.getValue().get(vindex + 1));
-        }
-        for (Map.Entry<Integer, List<float[]>> entry : tansets.entrySet()) {
-          p.pushTangent(entry.getKey(), entry.getValue().get(0));
-          p.pushTangent(entry.getKey(), entry.getValue().get(vindex));
-          p.pushTangent(entry.getKey(), entry.getValue().get(vindex + 1));
+        for (int kind = 0; kind < sets.length; kind++) {
+          p.sets[kind] = triangulate(sets[kind], vindex);
         }
         tris[i] = p;
       }
@@ -147,6 +122,19 @@ public class PolygonData {
     }
   }
 
+  private static DataSet[] triangulate(DataSet[] polygonSets, int vindex) {
+    DataSet[] triangleSets = polygonSets.length == 0 ? NO_SETS : new DataSet[polygonSets.length];
+    for (int i = 0; i < polygonSets.length; i++) {
+      DataSet source = polygonSets[i];
+      DataSet triangle = new DataSet(source.set, source.stride, 3, source.indices != null);
+      triangle.push(source, 0);
+      triangle.push(source, vindex);
+      triangle.push(source, vindex + 1);
+      triangleSets[i] = triangle;
+    }
+    return triangleSets;
+  }
+
   /**
    * Returns the number of vertices of this polygon. Eg if 3 then this is a
    * triangle.
@@ -165,9 +153,20 @@ public class PolygonData {
    * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
    */
   public void pushTangent(int set, float[] tandata) throws IllegalStateException {
-    List<float[]> list = getTangentSet(set);
-    checkSize(list);
-    list.add(tandata);
+    pushTangent(set, tandata, 0, tandata.length);
+  }
+
+  /**
+   * Add a tangent to the given tangent set, copying it from a source array.
+   *
+   * @param set    the tangent set to fill
+   * @param source the array that contains the tangent
+   * @param offset the position of the tangent in the source array
+   * @param stride the number of components of the tangent
+   * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
+   */
+  public void pushTangent(int set, float[] source, int offset, int stride) throws IllegalStateException {
+    getDataSet(TANGENT, set, stride).push(source, offset);
   }
 
   /**
@@ -178,9 +177,20 @@ public class PolygonData {
    * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
    */
   public void pushTexcoord(int set, float[] tdata) throws IllegalStateException {
-    List<float[]> tset = getTexcoordSet(set);
-    checkSize(tset);
-    tset.add(tdata);
+    pushTexcoord(set, tdata, 0, tdata.length);
+  }
+
+  /**
+   * Add a texcoord to the given texcoord set, copying it from a source array.
+   *
+   * @param set    the texcoord set to fill
+   * @param source the array that contains the texcoord
+   * @param offset the position of the texcoord in the source array
+   * @param stride the number of components of the texcoord
+   * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
+   */
+  public void pushTexcoord(int set, float[] source, int offset, int stride) throws IllegalStateException {
+    getDataSet(TEXCOORD, set, stride).push(source, offset);
   }
 
   /**
@@ -191,9 +201,20 @@ public class PolygonData {
    * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
    */
   public void pushNormal(int set, float[] vdata) throws IllegalStateException {
-    List<float[]> nset = getNormalSet(set);
-    checkSize(nset);
-    nset.add(vdata);
+    pushNormal(set, vdata, 0, vdata.length);
+  }
+
+  /**
+   * Add a normal to the given normal set, copying it from a source array.
+   *
+   * @param set    the normal set to fill
+   * @param source the array that contains the normal
+   * @param offset the position of the normal in the source array
+   * @param stride the number of components of the normal
+   * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
+   */
+  public void pushNormal(int set, float[] source, int offset, int stride) throws IllegalStateException {
+    getDataSet(NORMAL, set, stride).push(source, offset);
   }
 
   /**
@@ -204,9 +225,20 @@ public class PolygonData {
    * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
    */
   public void pushBinormal(int set, float[] bndata) throws IllegalStateException {
-    List<float[]> list = getBinormalSet(set);
-    checkSize(list);
-    list.add(bndata);
+    pushBinormal(set, bndata, 0, bndata.length);
+  }
+
+  /**
+   * Add a binormal to the given binormal set, copying it from a source array.
+   *
+   * @param set    the binormal set to fill
+   * @param source the array that contains the binormal
+   * @param offset the position of the binormal in the source array
+   * @param stride the number of components of the binormal
+   * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
+   */
+  public void pushBinormal(int set, float[] source, int offset, int stride) throws IllegalStateException {
+    getDataSet(BINORMAL, set, stride).push(source, offset);
   }
 
   /**
@@ -220,10 +252,23 @@ public class PolygonData {
    * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
    */
   public void pushVertex(int set, int originalIndex, float[] vdata) throws IllegalStateException {
-    List<Vertex> vset = getVertexSet(set);
-    checkSize(vset);
-    Vertex v = Vertex.create(originalIndex, vdata);
-    vset.add(v);
+    pushVertex(set, originalIndex, vdata, 0, vdata.length);
+  }
+
+  /**
+   * Add a vertex to the given vertex set, copying it from a source array.
+   *
+   * @param set           the vertex set to fill
+   * @param originalIndex the index of the vertex in the collada vertex buffer (see pushVertex(int, int, float[]))
+   * @param source        the array that contains the vertex
+   * @param offset        the position of the vertex in the source array
+   * @param stride        the number of components of the vertex
+   * @throws IllegalStateException if the given set has already <code>getVertexCount()</code> values stored.
+   */
+  public void pushVertex(int set, int originalIndex, float[] source, int offset, int stride) throws IllegalStateException {
+    DataSet vset = getDataSet(VERTEX, set, stride);
+    vset.push(source, offset);
+    vset.indices[vset.size - 1] = originalIndex;
   }
 
   /**
@@ -234,9 +279,7 @@ public class PolygonData {
    *               buffer position.
    */
   public void popTexcoordSet(int set, FloatBuffer buffer) {
-    for (float[] fs : tsets.get(set)) {
-      buffer.put(fs);
-    }
+    findDataSet(sets[TEXCOORD], set).pop(buffer);
   }
 
   /**
@@ -247,9 +290,7 @@ public class PolygonData {
    *               buffer position.
    */
   public void popNormalSet(int set, FloatBuffer buffer) {
-    for (float[] fs : nsets.get(set)) {
-      buffer.put(fs);
-    }
+    findDataSet(sets[NORMAL], set).pop(buffer);
   }
 
   /**
@@ -260,9 +301,7 @@ public class PolygonData {
    *               buffer position.
    */
   public void popBinormalSet(int set, FloatBuffer buffer) {
-    for (float[] fs : bnsets.get(set)) {
-      buffer.put(fs);
-    }
+    findDataSet(sets[BINORMAL], set).pop(buffer);
   }
 
   /**
@@ -273,9 +312,7 @@ public class PolygonData {
    *               buffer position.
    */
   public void popVertexSet(int set, FloatBuffer buffer) {
-    for (Vertex vertex : vsets.get(set)) {
-      buffer.put(vertex.getData());
-    }
+    findDataSet(sets[VERTEX], set).pop(buffer);
   }
 
   /**
@@ -286,9 +323,7 @@ public class PolygonData {
    *               buffer position
    */
   public void popTangentSet(int set, FloatBuffer buffer) {
-    for (float[] fs : tansets.get(set)) {
-      buffer.put(fs);
-    }
+    findDataSet(sets[TANGENT], set).pop(buffer);
   }
 
   /**
@@ -299,7 +334,7 @@ public class PolygonData {
    * @return the number of components of a texture coordinate element
    */
   public int getTexcoordStride(int set) {
-    return tsets.get(set).get(0).length;
+    return findDataSet(sets[TEXCOORD], set).stride;
   }
 
   /**
@@ -310,7 +345,7 @@ public class PolygonData {
    * @return the number of components of a normal value in the given set
    */
   public int getNormalStride(int set) {
-    return nsets.get(set).get(0).length;
+    return findDataSet(sets[NORMAL], set).stride;
   }
 
   /**
@@ -320,7 +355,7 @@ public class PolygonData {
    * @return the number of components of a binormal value in the given set
    */
   public int getBinormalStride(int set) {
-    return bnsets.get(set).get(0).length;
+    return findDataSet(sets[BINORMAL], set).stride;
   }
 
   /**
@@ -341,44 +376,34 @@ public class PolygonData {
    * @return the number of components of a tangent value if the given set.
    */
   public int getTangentStride(int set) {
-    return tansets.get(set).get(0).length;
+    return findDataSet(sets[TANGENT], set).stride;
   }
 
-
-  private void checkSize(List<?> list) {
-    if (list.size() == vertexCount) throw new IllegalStateException("Polygon is full");
-  }
-
-  private List<float[]> getTangentSet(int set) {
-    List<float[]> list = tansets.get(set);
-    if (list == null) tansets.put(set, new ArrayList<float[]>(vertexCount));
-    return list;
-  }
-
-  private List<float[]> getBinormalSet(int set) {
-    List<float[]> list = bnsets.get(set);
-    if (list == null) bnsets.put(set, list = new ArrayList<float[]>(vertexCount));
-    return list;
-  }
-
-  private List<float[]> getTexcoordSet(int set) {
-    List<float[]> list = tsets.get(set);
-    if (list == null) tsets.put(set, list = new ArrayList<float[]>(vertexCount));
-    return list;
+  private static Set<Integer> getSetIndices(DataSet[] dataSets) {
+    Set<Integer> indices = new TreeSet<Integer>();
+    for (DataSet dataSet : dataSets) {
+      indices.add(dataSet.set);
+    }
+    return indices;
   }
 
-  private List<float[]> getNormalSet(int set) {
-    List<float[]> list = nsets.get(set);
-    if (list == null) nsets.put(set, list = new ArrayList<float[]>(vertexCount));
-    return list;
+  private static DataSet findDataSet(DataSet[] dataSets, int set) {
+    for (DataSet dataSet : dataSets) {
+      if (dataSet.set == set) {
+        return dataSet;
+      }
+    }
+    return null;
   }
 
-  private List<Vertex> getVertexSet(int set) {
-    List<Vertex> list = vsets.get(set);
-    if (list == null) {
-      vsets.put(set, list = new ArrayList<Vertex>(vertexCount));
+  private DataSet getDataSet(int kind, int set, int stride) {
+    DataSet dataSet = findDataSet(sets[kind], set);
+    if (dataSet == null) {
+      dataSet = new DataSet(set, stride, vertexCount, kind == VERTEX);
+      sets[kind] = Arrays.copyOf(sets[kind], sets[kind].length + 1);
+      sets[kind][sets[kind].length - 1] = dataSet;
     }
-    return list;
+    return dataSet;
   }
 
   /**
@@ -390,10 +415,12 @@ public class PolygonData {
   public String toString() {
     StringBuilder buffer = new StringBuilder();
     buffer.append("Polygon(").append(vertexCount).append(")");
-    for (Map.Entry<Integer, List<Vertex>> entry : vsets.entrySet()) {
-      buffer.append("VSET(").append(entry.getKey()).append(")");
-      for (Vertex vertex : entry.getValue()) {
-        buffer.append(vertex);
+    for (DataSet vset : sets[VERTEX]) {
+      buffer.append("VSET(").append(vset.set).append(")");
+      for (int i = 0; i < vset.size; i++) {
+        int offset = i * vset.stride;
+        buffer.append("(").append(vset.data[offset]).append(",").append(vset.data[offset + 1])
+          .append(",").append(vset.data[offset + 2]).append(")");
       }
     }
     return buffer.toString();
@@ -407,10 +434,10 @@ public class PolygonData {
    *                the new vertex.
    */
   public void pushVertexSkinningData(List<VertexSkinningData> vsdList) {
-    List<Vertex> defaultVertexSet = vsets.get(0);
-    for (Vertex vertex : defaultVertexSet) {
-      List<Tuple2<Integer, Float>> inf = getInfluenceData(vertex);
-      VertexSkinningData skin = getSkinData(vertex, vsdList);
+    DataSet defaultVertexSet = findDataSet(sets[VERTEX], 0);
+    for (int i = 0; i < defaultVertexSet.size; i++) {
+      List<Tuple2<Integer, Float>> inf = getInfluenceData(i);
+      VertexSkinningData skin = getSkinData(defaultVertexSet.indices[i], vsdList);
       if (skin != null) {
         Tuple2<Integer, Float> t = Tuple2.create(skin.getBoneIndex(), skin.getWeight());
         inf.add(t);
@@ -425,8 +452,9 @@ public class PolygonData {
    * @param boneWeightData  the bone weight buffer (4 elements per vertex)
    */
   public void popVertexSkinningData(ByteBuffer boneIndicesData, FloatBuffer boneWeightData) {
-    for (Vertex v : this.vsets.get(0)) {
-      List<Tuple2<Integer, Float>> data = getInfluenceData(v);
+    DataSet defaultVertexSet = findDataSet(sets[VERTEX], 0);
+    for (int i = 0; i < defaultVertexSet.size; i++) {
+      List<Tuple2<Integer, Float>> data = getInfluenceData(i);
       byte[] bones = new byte[4];
       float[] weights = new float[4];
       popInfluenceData(data, bones, weights);
@@ -435,19 +463,23 @@ public class PolygonData {
     }
   }
 
-  private VertexSkinningData getSkinData(Vertex vertex, List<VertexSkinningData> vsdList) {
+  private VertexSkinningData getSkinData(int vertexIndex, List<VertexSkinningData> vsdList) {
     for (VertexSkinningData vertexSkinningData : vsdList) {
-      if (vertexSkinningData.getVertexIndex() == vertex.getIndex()) {
+      if (vertexSkinningData.getVertexIndex() == vertexIndex) {
         return vertexSkinningData;
       }
     }
     return null;
   }
 
-  private List<Tuple2<Integer, Float>> getInfluenceData(Vertex vertex) {
-    List<Tuple2<Integer, Float>> list = influences.get(vertex);
+  @SuppressWarnings("unchecked")
+  private List<Tuple2<Integer, Float>> getInfluenceData(int vertex) {
+    if (influences == null) {
+      influences = (List<Tuple2<Integer, Float>>[]) new List<?>[vertexCount];
+    }
+    List<Tuple2<Integer, Float>> list = influences[vertex];
     if (list == null) {
-      influences.put(vertex, list = new ArrayList<Tuple2<Integer, Float>>(4));
+      influences[vertex] = list = new ArrayList<Tuple2<Integer, Float>>(4);
     }
     return list;
   }
@@ -478,4 +510,48 @@ public class PolygonData {
       }
     }
   }
+
+  /**
+   * The values of one set (stride floats per vertex) and, for a vertex set, the original
+   * index of each vertex.
+   */
+  private static final class DataSet {
+    private final int set;
+    private final int stride;
+    private final float[] data;
+    private final int[] indices;
+    private final int capacity;
+    private int size;
+
+    DataSet(int set, int stride, int vertexCount, boolean withIndices) {
+      this.set = set;
+      this.stride = stride;
+      this.capacity = vertexCount;
+      this.data = new float[vertexCount * stride];
+      this.indices = withIndices ? new int[vertexCount] : null;
+    }
+
+    void push(float[] source, int offset) {
+      if (size == capacity) {
+        throw new IllegalStateException("Polygon is full");
+      }
+      System.arraycopy(source, offset, data, size * stride, stride);
+      size++;
+    }
+
+    void push(DataSet source, int vertex) {
+      if (vertex >= source.size) {
+        throw new IndexOutOfBoundsException("Index: " + vertex + ", Size: " + source.size);
+      }
+      if (indices != null) {
+        indices[size] = source.indices[vertex];
+      }
+      System.arraycopy(source.data, vertex * stride, data, size * stride, stride);
+      size++;
+    }
+
+    void pop(FloatBuffer buffer) {
+      buffer.put(data, 0, size * stride);
+    }
+  }
 }
@@ -1,13 +1,7 @@
 package jme3dae.utilities;
 
-import java.util.ListIterator;
-import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import jme3dae.transformers.ValueTransformer;
 
@@ -30,16 +24,6 @@ public class FloatListTransformer implements ValueTransformer<String, float[]> {
   private FloatListTransformer() {
   }
 
-  private static final Collector<Float, ?, float[]> toFloatArray =
-    Collectors.collectingAndThen(Collectors.toList(), floatList -> {
-      float[] array = new float[floatList.size()];
-      for (ListIterator<Float> iterator = floatList.listIterator(); iterator.hasNext(); ) {
-        array[iterator.nextIndex()] = iterator.next();
-      }
-      return array;
-    });
-
-  private static final Pattern whitespacePattern = Pattern.compile("\\s+");
   /**
    * Transforms a string in a float array
    *
@@ -49,9 +33,9 @@ public class FloatListTransformer implements ValueTransformer<String, float[]> {
   public TransformedValue<float[]> transform(String value) {
     float[] result;
     try {
-      Function<String,Float> mapper = token -> Float.parseFloat(token);
-      Stream<String> stream = whitespacePattern.splitAsStream(value);
-      result = stream.filter( s -> !s.isEmpty()).map(mapper).collect(toFloatArray);
+      NumberListScanner scanner = NumberListScanner.forFloats(NumberListScanner.getMaxCount(value));
+      scanner.scan(value);
+      result = scanner.toFloatArray();
     } catch (NumberFormatException ex) {
       Logger.getLogger(getClass().getName()).log(Level.SEVERE, "", ex);
       result = null;
@@ -1,10 +1,7 @@
 package jme3dae.utilities;
 
-import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import jme3dae.transformers.ValueTransformer;
 
@@ -28,7 +25,6 @@ public class IntegerListTransformer implements ValueTransformer<String, int[]> {
   private IntegerListTransformer() {
   }
 
-  private static final Pattern whitespacePattern = Pattern.compile("\\s+");
   /**
    * Transforms a string in a sequence of integers
    *
@@ -38,9 +34,9 @@ public class IntegerListTransformer implements ValueTransformer<String, int[]> {
   public TransformedValue<int[]> transform(String value) {
     int[] result;
     try {
-      ToIntFunction<String> mapper = token -> Integer.parseInt(token);
-      Stream<String> stream = whitespacePattern.splitAsStream(value);
-      result = stream.filter( s -> !s.isEmpty()).mapToInt(mapper).toArray();
+      NumberListScanner scanner = NumberListScanner.forInts(NumberListScanner.getMaxCount(value));
+      scanner.scan(value);
+      result = scanner.toIntArray();
     } catch (NumberFormatException ex) {
       Logger.getLogger(getClass().getName()).log(Level.SEVERE, "", ex);
       result = null;
@@ -1,65 +1,340 @@
 package jme3dae.utilities;
 
-import com.jme3.math.Triangle;
-import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.Mesh.Mode;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.mesh.IndexBuffer;
 import com.jme3.util.BufferUtils;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Generates smooth vertex normals for a triangle mesh. The face normals of the triangles
+ * that share a vertex are accumulated in one pass over the index buffer, so the cost is
+ * linear in the number of vertices and triangles.
+ * <p>
+ * The face normals can be weighted by the triangle area or the angle of the triangle at the vertex.
+ * If a crease angle is set, the triangles around a vertex are grouped so that faces meeting at a sharper
+ * angle are not smoothed together, and the vertex is split (one copy per group).
+ *
+ * @author Angel Chang
+ */
 public class NormalGenerator {
 
+  /**
+   * How much each face normal contributes to the normal of a vertex
+   */
+  public enum Weighting {
+    /**
+     * All faces contribute the same
+     */
+    EQUAL,
+    /**
+     * Faces contribute by their area
+     */
+    AREA,
+    /**
+     * Faces contribute by their angle at the vertex
+     */
+    ANGLE
+  }
+
   public static NormalGenerator create() {
     return new NormalGenerator();
   }
 
+  private Weighting weighting = Weighting.EQUAL;
+  private float creaseAngle = 0;
+
+  /**
+   * Sets how the face normals are weighted (EQUAL by default)
+   *
+   * @param weighting the weighting of the face normals
+   * @return this generator
+   */
+  public NormalGenerator setWeighting(Weighting weighting) {
+    this.weighting = weighting;
+    return this;
+  }
+
+  public Weighting getWeighting() {
+    return weighting;
+  }
+
+  /**
+   * Sets the crease angle: faces meeting at a larger angle are not smoothed together.
+   *
+   * @param creaseAngle the crease angle in radians (0 or less for smooth normals everywhere)
+   * @return this generator
+   */
+  public NormalGenerator setCreaseAngle(float creaseAngle) {
+    this.creaseAngle = creaseAngle;
+    return this;
+  }
+
+  public float getCreaseAngle() {
+    return creaseAngle;
+  }
+
   public void generateNormals(Mesh mesh) {
     VertexBuffer positionBuffer = mesh.getBuffer(Type.Position);
-    if (positionBuffer != null && positionBuffer.getData() instanceof FloatBuffer) {
-      FloatBuffer buffer = (FloatBuffer) positionBuffer.getData();
-      FloatBuffer normals = generateNormals(buffer, mesh);
-      if (normals != null) {
-        mesh.setBuffer(Type.Normal, 3, normals);
+    Mode mode = mesh.getMode();
+    if (positionBuffer == null || !(positionBuffer.getData() instanceof FloatBuffer)
+      || (mode != Mode.Triangles && mode != Mode.TriangleStrip && mode != Mode.TriangleFan)) {
+      return;
+    }
+    FloatBuffer positions = (FloatBuffer) positionBuffer.getData();
+    int vertexCount = positions.limit() / 3;
+    IndexBuffer indexBuffer = mesh.getIndicesAsList();
+    int[] corners = new int[indexBuffer.size() / 3 * 3];
+    for (int i = 0; i < corners.length; i++) {
+      corners[i] = indexBuffer.get(i);
+    }
+
+    float[] faceNormals = new float[corners.length];
+    float[] weights = new float[corners.length];
+    computeFaceNormals(positions, vertexCount, corners, faceNormals, weights);
+
+    if (creaseAngle <= 0) {
+      float[] normals = new float[vertexCount * 3];
+      for (int c = 0; c < corners.length; c++) {
+        if (weights[c] > 0) {
+          int f = c - c % 3;
+          int v = corners[c] * 3;
+          normals[v] += weights[c] * faceNormals[f];
+          normals[v + 1] += weights[c] * faceNormals[f + 1];
+          normals[v + 2] += weights[c] * faceNormals[f + 2];
+        }
+      }
+      setNormals(mesh, normals, vertexCount);
+    } else {
+      generateCreasedNormals(mesh, vertexCount, corners, faceNormals, weights);
+    }
+  }
+
+  /**
+   * Computes the unit normal of each triangle (stored at the first corner of the triangle)
+   * and the weight of each corner. Degenerate triangles and triangles with invalid indices get a zero weight.
+   */
+  private void computeFaceNormals(FloatBuffer positions, int vertexCount, int[] corners, float[] faceNormals, float[] weights) {
+    float[] p = new float[9];
+    for (int f = 0; f < corners.length; f += 3) {
+      boolean valid = true;
+      for (int c = 0; c < 3 && valid; c++) {
+        int v = corners[f + c];
+        valid = v >= 0 && v < vertexCount;
+        if (valid) {
+          p[c * 3] = positions.get(v * 3);
+          p[c * 3 + 1] = positions.get(v * 3 + 1);
+          p[c * 3 + 2] = positions.get(v * 3 + 2);
+        }
+      }
+      if (!valid) {
+        continue;
+      }
+      float e1x = p[3] - p[0], e1y = p[4] - p[1], e1z = p[5] - p[2];
+      float e2x = p[6] - p[0], e2y = p[7] - p[1], e2z = p[8] - p[2];
+      float nx = e1y * e2z - e1z * e2y;
+      float ny = e1z * e2x - e1x * e2z;
+      float nz = e1x * e2y - e1y * e2x;
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length == 0 || Float.isNaN(length)) {
+        continue;
+      }
+      faceNormals[f] = nx / length;
+      faceNormals[f + 1] = ny / length;
+      faceNormals[f + 2] = nz / length;
+      for (int c = 0; c < 3; c++) {
+        switch (weighting) {
+          case AREA:
+            weights[f + c] = length / 2;
+            break;
+          case ANGLE:
+            weights[f + c] = getAngle(p, c, (c + 1) % 3, (c + 2) % 3);
+            break;
+          default:
+            weights[f + c] = 1;
+        }
+      }
+    }
+  }
+
+  private static float getAngle(float[] p, int a, int b, int c) {
+    float ux = p[b * 3] - p[a * 3], uy = p[b * 3 + 1] - p[a * 3 + 1], uz = p[b * 3 + 2] - p[a * 3 + 2];
+    float vx = p[c * 3] - p[a * 3], vy = p[c * 3 + 1] - p[a * 3 + 1], vz = p[c * 3 + 2] - p[a * 3 + 2];
+    double lengths = Math.sqrt((ux * ux + uy * uy + uz * uz) * (double) (vx * vx + vy * vy + vz * vz));
+    if (lengths == 0) {
+      return 0;
+    }
+    double cos = (ux * vx + uy * vy + uz * vz) / lengths;
+    return (float) Math.acos(Math.max(-1, Math.min(1, cos)));
+  }
+
+  /**
+   * Groups the corners around each vertex by their face normal: a corner joins the first group whose
+   * first face normal is within the crease angle. The first group keeps the vertex, the other groups
+   * get a copy of the vertex appended to the vertex buffers.
+   */
+  private void generateCreasedNormals(Mesh mesh, int vertexCount, int[] corners, float[] faceNormals, float[] weights) {
+    float cosCrease = (float) Math.cos(creaseAngle);
+    // Corners of each vertex: cornersOfVertex[start[v]] to cornersOfVertex[start[v + 1] - 1]
+    int[] start = new int[vertexCount + 1];
+    for (int c = 0; c < corners.length; c++) {
+      if (corners[c] >= 0 && corners[c] < vertexCount) {
+        start[corners[c] + 1]++;
+      }
+    }
+    for (int v = 0; v < vertexCount; v++) {
+      start[v + 1] += start[v];
+    }
+    int[] cornersOfVertex = new int[start[vertexCount]];
+    int[] next = Arrays.copyOf(start, vertexCount);
+    for (int c = 0; c < corners.length; c++) {
+      if (corners[c] >= 0 && corners[c] < vertexCount) {
+        cornersOfVertex[next[corners[c]]++] = c;
+      }
+    }
+
+    int[] cornerVertex = Arrays.copyOf(corners, corners.length);
+    int[] cornerGroup = new int[corners.length];
+    float[] normals = new float[vertexCount * 3];
+    int newVertexCount = vertexCount;
+    int[] copiedVertices = new int[16];
+    float[] groupNormals = new float[4 * 3];
+    int[] groupSeeds = new int[4];
+    for (int v = 0; v < vertexCount; v++) {
+      int groups = 0;
+      for (int i = start[v]; i < start[v + 1]; i++) {
+        int c = cornersOfVertex[i];
+        int f = c - c % 3;
+        if (weights[c] == 0) {
+          // Degenerate triangles go with the first group
+          cornerGroup[c] = 0;
+          continue;
+        }
+        int group = 0;
+        for (; group < groups; group++) {
+          int seed = groupSeeds[group];
+          if (faceNormals[f] * faceNormals[seed] + faceNormals[f + 1] * faceNormals[seed + 1]
+            + faceNormals[f + 2] * faceNormals[seed + 2] >= cosCrease) {
+            break;
+          }
+        }
+        if (group == groups) {
+          if (groups == groupSeeds.length) {
+            groupSeeds = Arrays.copyOf(groupSeeds, 2 * groups);
+            groupNormals = Arrays.copyOf(groupNormals, 2 * groups * 3);
+          }
+          groupSeeds[group] = f;
+          groupNormals[group * 3] = groupNormals[group * 3 + 1] = groupNormals[group * 3 + 2] = 0;
+          groups++;
+        }
+        cornerGroup[c] = group;
+        groupNormals[group * 3] += weights[c] * faceNormals[f];
+        groupNormals[group * 3 + 1] += weights[c] * faceNormals[f + 1];
+        groupNormals[group * 3 + 2] += weights[c] * faceNormals[f + 2];
+      }
+      if (groups == 0) {
+        continue;
+      }
+      int firstCopy = newVertexCount;
+      if (groups > 1) {
+        int needed = newVertexCount - vertexCount + groups - 1;
+        if (needed > copiedVertices.length) {
+          copiedVertices = Arrays.copyOf(copiedVertices, Math.max(needed, 2 * copiedVertices.length));
+        }
+        if ((newVertexCount + groups - 1) * 3 > normals.length) {
+          normals = Arrays.copyOf(normals, Math.max((newVertexCount + groups - 1) * 3, 2 * normals.length));
+        }
+        for (int group = 1; group < groups; group++) {
+          copiedVertices[newVertexCount - vertexCount] = v;
+          newVertexCount++;
+        }
+      }
+      System.arraycopy(groupNormals, 0, normals, v * 3, 3);
+      if (groups > 1) {
+        System.arraycopy(groupNormals, 3, normals, firstCopy * 3, (groups - 1) * 3);
+        for (int i = start[v]; i < start[v + 1]; i++) {
+          int c = cornersOfVertex[i];
+          if (cornerGroup[c] > 0) {
+            cornerVertex[c] = firstCopy + cornerGroup[c] - 1;
+          }
+        }
+      }
+    }
+
+    if (newVertexCount > vertexCount) {
+      copyVertices(mesh, vertexCount, Arrays.copyOf(copiedVertices, newVertexCount - vertexCount));
+      setIndices(mesh, cornerVertex, newVertexCount);
+    }
+    setNormals(mesh, normals, newVertexCount);
+  }
+
+  /**
+   * Appends copies of the given vertices to all the vertex buffers of the mesh
+   */
+  private static void copyVertices(Mesh mesh, int vertexCount, int[] copiedVertices) {
+    List<VertexBuffer> buffers = new ArrayList<VertexBuffer>();
+    for (VertexBuffer vb : mesh.getBufferList()) {
+      if (vb.getBufferType() != Type.Index && vb.getBufferType() != Type.Normal
+        && vb.getData() != null && vb.getNumElements() == vertexCount) {
+        buffers.add(vb);
+      }
+    }
+    int newVertexCount = vertexCount + copiedVertices.length;
+    for (VertexBuffer vb : buffers) {
+      VertexBuffer copy = new VertexBuffer(vb.getBufferType());
+      Buffer data = VertexBuffer.createBuffer(vb.getFormat(), vb.getNumComponents(), newVertexCount);
+      copy.setupData(vb.getUsage(), vb.getNumComponents(), vb.getFormat(), data);
+      copy.setNormalized(vb.isNormalized());
+      vb.copyElements(0, copy, 0, vertexCount);
+      for (int i = 0; i < copiedVertices.length; i++) {
+        vb.copyElement(copiedVertices[i], copy, vertexCount + i);
       }
+      mesh.clearBuffer(vb.getBufferType());
+      mesh.setBuffer(copy);
     }
   }
 
-  private FloatBuffer generateNormals(FloatBuffer positions, Mesh mesh) {
-    FloatBuffer normals = BufferUtils.createFloatBuffer(positions.capacity());
-    for (int i = 0; i < positions.capacity(); i += 3) {
-      float x = positions.get(i);
-      float y = positions.get(i + 1);
-      float z = positions.get(i + 2);
-      Vector3f n = new Vector3f();
-      List<Triangle> triangles = getTrianglesSharingIndex(i / 3, mesh);
-
-      for (Triangle t : triangles) {
-        t.calculateNormal();
-        n.addLocal(t.getNormal());
+  private static void setIndices(Mesh mesh, int[] corners, int vertexCount) {
+    mesh.clearBuffer(Type.Index);
+    mesh.setMode(Mode.Triangles);
+    if (vertexCount >= 65536) {
+      IntBuffer indices = BufferUtils.createIntBuffer(corners);
+      mesh.setBuffer(Type.Index, 3, indices);
+    } else {
+      ShortBuffer indices = BufferUtils.createShortBuffer(corners.length);
+      for (int corner : corners) {
+        indices.put((short) corner);
       }
-      n.normalizeLocal();
-      normals.put(n.x).put(n.y).put(n.z);
-//	    normals.put(0).put(0).put(0);
+      indices.flip();
+      mesh.setBuffer(Type.Index, 3, indices);
     }
-    normals.flip();
-    return normals;
   }
 
-  private List<Triangle> getTrianglesSharingIndex(int index, Mesh mesh) {
-    List<Triangle> result = new LinkedList<Triangle>();
-    int[] buffer = new int[3];
-    for (int i = 0; i < mesh.getTriangleCount(); i++) {
-      mesh.getTriangle(i, buffer);
-      if (buffer[0] == index || buffer[1] == index || buffer[2] == index) {
-        Triangle t = new Triangle(new Vector3f(), new Vector3f(), new Vector3f());
-        mesh.getTriangle(i, t);
-        result.add(t);
+  private static void setNormals(Mesh mesh, float[] normals, int vertexCount) {
+    FloatBuffer buffer = BufferUtils.createFloatBuffer(vertexCount * 3);
+    for (int v = 0; v < vertexCount; v++) {
+      float nx = normals[v * 3];
+      float ny = normals[v * 3 + 1];
+      float nz = normals[v * 3 + 2];
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length > 0) {
+        buffer.put(nx / length).put(ny / length).put(nz / length);
+      } else {
+        buffer.put(0).put(0).put(0);
       }
     }
-    return result;
+    buffer.flip();
+    mesh.clearBuffer(Type.Normal);
+    mesh.setBuffer(Type.Normal, 3, buffer);
+    mesh.updateCounts();
   }
 }
@@ -0,0 +1,311 @@
+package jme3dae.utilities;
+
+import java.util.Arrays;
+
+/**
+ * Parses a list of white space separated numbers into a float or int array without
+ * creating an object per number. The text can be given in pieces (as it is read from the document),
+ * a number can span two pieces.
+ * <p>
+ * Floats are parsed with a fast path that gives the same value as Float.parseFloat
+ * (numbers with many digits, large exponents or special values fall back to Float.parseFloat).
+ *
+ * @author Angel Chang
+ */
+public class NumberListScanner {
+
+  /**
+   * Instance creator.
+   *
+   * @param capacity the expected number of values (eg the count attribute of a float_array)
+   *                 this is only a hint, the values array starts at most at MAX_INITIAL_CAPACITY and grows as needed
+   * @return a new NumberListScanner that parses floats
+   */
+  public static NumberListScanner forFloats(int capacity) {
+    return new NumberListScanner(true, capacity);
+  }
+
+  /**
+   * Instance creator.
+   *
+   * @param capacity the expected number of values (eg the count attribute of an int_array)
+   *                 this is only a hint, the values array starts at most at MAX_INITIAL_CAPACITY and grows as needed
+   * @return a new NumberListScanner that parses ints
+   */
+  public static NumberListScanner forInts(int capacity) {
+    return new NumberListScanner(false, capacity);
+  }
+
+  /**
+   * Returns the largest number of values in a text (the numbers need a separator)
+   *
+   * @param text the text to parse
+   * @return the largest number of values
+   */
+  public static int getMaxCount(CharSequence text) {
+    return (text.length() + 1) / 2;
+  }
+
+  /**
+   * Largest initial size of the values array, so that a wrong count doesn't allocate a huge array
+   */
+  public static final int MAX_INITIAL_CAPACITY = 1 << 22;
+  // Largest array size the vm can allocate
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private static final double[] POWERS_OF_TEN = new double[23];
+  // Integers up to 2^53 are exact in a double
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final boolean floats;
+  private float[] floatValues;
+  private int[] intValues;
+  private int size;
+  private char[] token = new char[32];
+  private int tokenLength;
+
+  private NumberListScanner(boolean floats, int capacity) {
+    this.floats = floats;
+    capacity = Math.min(Math.max(capacity, 0), MAX_INITIAL_CAPACITY);
+    if (floats) {
+      floatValues = new float[capacity];
+    } else {
+      intValues = new int[capacity];
+    }
+  }
+
+  /**
+   * Same as \s in a regular expression
+   */
+  public static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+  }
+
+  /**
+   * Parses a piece of the text
+   *
+   * @param chars  the characters
+   * @param start  the first character to parse
+   * @param length the number of characters to parse
+   * @throws NumberFormatException if a value is not a number
+   */
+  public void scan(char[] chars, int start, int length) throws NumberFormatException {
+    int end = start + length;
+    int i = start;
+    if (tokenLength > 0) {
+      // Finish the number that started in the previous piece
+      while (i < end && !isWhitespace(chars[i])) {
+        appendToken(chars[i++]);
+      }
+      if (i == end) {
+        return;
+      }
+      endToken();
+    }
+    while (i < end) {
+      while (i < end && isWhitespace(chars[i])) {
+        i++;
+      }
+      int tokenStart = i;
+      while (i < end && !isWhitespace(chars[i])) {
+        i++;
+      }
+      if (i == end) {
+        // The number may continue in the next piece
+        for (int j = tokenStart; j < end; j++) {
+          appendToken(chars[j]);
+        }
+      } else {
+        addValue(chars, tokenStart, i - tokenStart);
+      }
+    }
+  }
+
+  /**
+   * Parses a piece of the text
+   *
+   * @param text the text to parse
+   * @throws NumberFormatException if a value is not a number
+   */
+  public void scan(CharSequence text) throws NumberFormatException {
+    int n = text.length();
+    for (int i = 0; i < n; i++) {
+      char c = text.charAt(i);
+      if (isWhitespace(c)) {
+        endToken();
+      } else {
+        appendToken(c);
+      }
+    }
+  }
+
+  /**
+   * Returns the parsed floats (the array is not copied if the capacity matched the number of values)
+   *
+   * @return the parsed values
+   * @throws NumberFormatException if the last value is not a number
+   */
+  public float[] toFloatArray() throws NumberFormatException {
+    endToken();
+    return size == floatValues.length ? floatValues : Arrays.copyOf(floatValues, size);
+  }
+
+  /**
+   * Returns the parsed ints (the array is not copied if the capacity matched the number of values)
+   *
+   * @return the parsed values
+   * @throws NumberFormatException if the last value is not a number
+   */
+  public int[] toIntArray() throws NumberFormatException {
+    endToken();
+    return size == intValues.length ? intValues : Arrays.copyOf(intValues, size);
+  }
+
+  private void appendToken(char c) {
+    if (tokenLength == token.length) {
+      token = Arrays.copyOf(token, 2 * token.length);
+    }
+    token[tokenLength++] = c;
+  }
+
+  private void endToken() {
+    if (tokenLength == 0) {
+      return;
+    }
+    int length = tokenLength;
+    tokenLength = 0;
+    addValue(token, 0, length);
+  }
+
+  private void addValue(char[] chars, int offset, int length) {
+    if (floats) {
+      if (size == floatValues.length) {
+        floatValues = Arrays.copyOf(floatValues, grow(size));
+      }
+      floatValues[size++] = parseFloat(chars, offset, length);
+    } else {
+      if (size == intValues.length) {
+        intValues = Arrays.copyOf(intValues, grow(size));
+      }
+      intValues[size++] = parseInt(chars, offset, length);
+    }
+  }
+
+  private static int grow(int capacity) {
+    if (capacity == MAX_CAPACITY) {
+      throw new OutOfMemoryError("Too many values");
+    }
+    return (int) Math.min(Math.max(2L * capacity, 16), MAX_CAPACITY);
+  }
+
+  private static int parseInt(char[] chars, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    boolean negative = false;
+    if (chars[offset] == '-' || chars[offset] == '+') {
+      negative = chars[offset] == '-';
+      i++;
+    }
+    if (i == end) {
+      throw numberFormatException(chars, offset, length);
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+        throw numberFormatException(chars, offset, length);
+      }
+      value = 10 * value + digit;
+    }
+    value = negative ? -value : value;
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw numberFormatException(chars, offset, length);
+    }
+    return (int) value;
+  }
+
+  private static float parseFloat(char[] chars, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    boolean negative = false;
+    if (chars[offset] == '-' || chars[offset] == '+') {
+      negative = chars[offset] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int exponent = 0;
+    int digits = 0;
+    boolean exact = true;
+    for (; i < end; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9) break;
+      digits++;
+      if (mantissa < MAX_EXACT_MANTISSA) {
+        mantissa = 10 * mantissa + digit;
+      } else {
+        exact = false;
+      }
+    }
+    if (i < end && chars[i] == '.') {
+      for (i++; i < end; i++) {
+        int digit = chars[i] - '0';
+        if (digit < 0 || digit > 9) break;
+        digits++;
+        if (mantissa < MAX_EXACT_MANTISSA) {
+          mantissa = 10 * mantissa + digit;
+          exponent--;
+        } else {
+          exact = false;
+        }
+      }
+    }
+    if (digits > 0 && i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+        negativeExponent = chars[i] == '-';
+        i++;
+      }
+      int e = 0;
+      int start = i;
+      for (; i < end; i++) {
+        int digit = chars[i] - '0';
+        if (digit < 0 || digit > 9 || e > 1000) break;
+        e = 10 * e + digit;
+      }
+      if (i == start) {
+        exact = false;
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+    if (exact && digits > 0 && i == end && mantissa < MAX_EXACT_MANTISSA) {
+      if (mantissa == 0) {
+        return negative ? -0f : 0f;
+      }
+      if (exponent >= -22 && exponent <= 22) {
+        // A single rounding to the nearest double
+        double d = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        if (d >= Float.MIN_NORMAL && d <= Float.MAX_VALUE) {
+          float f = (float) d;
+          // The nearest double rounds to the nearest float unless it is exactly halfway between two floats
+          float other = Math.nextAfter(f, d);
+          if (other == f || ((double) f + (double) other) / 2 != d) {
+            return negative ? -f : f;
+          }
+        }
+      }
+    }
+    return Float.parseFloat(new String(chars, offset, length));
+  }
+
+  private static NumberFormatException numberFormatException(char[] chars, int offset, int length) {
+    return new NumberFormatException("For input string: \"" + new String(chars, offset, length) + "\"");
+  }
+}
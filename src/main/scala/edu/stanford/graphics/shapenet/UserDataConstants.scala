@@ -9,6 +9,8 @@ object UserDataConstants {
   val PART_INDEX = "partIndex"
   val NODE_ID = "id"
   val MODEL_FORMAT = "modelFormat"
+  // Number of materials of a model as loaded (before identical materials are shared)
+  val NUM_MATERIALS = "nMaterials"
 
   // For saving and reverting materials
   val ORIG_MATERIALS = "origMaterials"
@@ -0,0 +1,70 @@
+package edu.stanford.graphics.shapenet.apps
+
+import java.io.File
+
+import com.jme3.asset.{DesktopAssetManager, ModelKey}
+import com.jme3.scene.{Geometry, Spatial}
+import edu.stanford.graphics.shapenet.jme3.Jme
+import edu.stanford.graphics.shapenet.jme3.plugins.OBJLoader
+import edu.stanford.graphics.shapenet.util.ConfigHelper
+
+/**
+  * Program to compare serial and parallel (chunked) parsing of obj files
+  *   input: comma separated list of obj files
+  *   nIters: number of timed loads per file and mode
+  *   nWarmup: number of untimed loads per file and mode
+  *
+  * @author Angel Chang
+  */
+object BenchmarkObjLoader extends App {
+  val configFile = ConfigHelper.fromOptions(args:_*)
+  val inputs = ConfigHelper.getString("input")(configFile).split(",").map( x => new File(x.trim).getAbsolutePath )
+  val nIters = ConfigHelper.getInt("nIters", 5)(configFile)
+  val nWarmup = ConfigHelper.getInt("nWarmup", 2)(configFile)
+
+  val assetManager = new DesktopAssetManager(true)
+  Jme.initAssetManager(assetManager, useCustomObjLoader = true)
+
+  def load(file: String): Spatial = {
+    // Don't let the asset cache hide the parsing
+    assetManager.clearCache()
+    assetManager.loadModel(new ModelKey(file))
+  }
+
+  def countTriangles(s: Spatial): Int = {
+    s match {
+      case g: Geometry => g.getMesh.getTriangleCount
+      case n: com.jme3.scene.Node => {
+        var t = 0
+        for (i <- 0 until n.getQuantity) t += countTriangles(n.getChild(i))
+        t
+      }
+      case _ => 0
+    }
+  }
+
+  def time(file: String, threshold: Long): (Double, Int) = {
+    OBJLoader.setParallelThreshold(threshold)
+    for (i <- 0 until nWarmup) load(file)
+    var triangles = 0
+    val start = System.nanoTime()
+    for (i <- 0 until nIters) {
+      triangles = countTriangles(load(file))
+    }
+    val ms = (System.nanoTime() - start) / 1.0e6 / math.max(nIters, 1)
+    (ms, triangles)
+  }
+
+  val origThreshold = OBJLoader.getParallelThreshold
+  println("file\tsize\ttriangles\tserialMs\tparallelMs\tspeedup")
+  for (file <- inputs) {
+    val (serialMs, serialTriangles) = time(file, 0)
+    val (parallelMs, parallelTriangles) = time(file, 1)
+    if (serialTriangles != parallelTriangles) {
+      println("Triangle count mismatch for " + file + ": " + serialTriangles + " vs " + parallelTriangles)
+    }
+    println(Seq(file, new File(file).length, serialTriangles,
+      "%.1f".format(serialMs), "%.1f".format(parallelMs), "%.2f".format(serialMs / parallelMs)).mkString("\t"))
+  }
+  OBJLoader.setParallelThreshold(origThreshold)
+}
@@ -0,0 +1,165 @@
+package edu.stanford.graphics.shapenet.jme3
+
+import com.jme3.bounding.BoundingVolume
+import com.jme3.collision.{Collidable, CollisionResults}
+import com.jme3.material.Material
+import com.jme3.renderer.queue.RenderQueue.Bucket
+import com.jme3.scene.Spatial.BatchHint
+import com.jme3.scene.instancing.{InstancedGeometry, InstancedNode}
+import com.jme3.scene.{Geometry, Node, SceneGraphVisitorAdapter, Spatial}
+import com.jme3.util.clone.Cloner
+import edu.stanford.graphics.shapenet.common.ModelInstance
+
+/**
+ * Scene node that draws the models repeated in a scene with hardware instancing
+ *   (one draw call for all the instances of a mesh and material, see the jme InstancedNode).
+ * Geometries are instanced if their material has UseInstancing set (see instanceModels).
+ * The instanced geometries stay where they are in the scene graph (so picking, bounding boxes,
+ *   and the transform and model index of each object are as before), only the drawing is done by the
+ *   InstancedGeometry children of this node (which are left out of the bounds and collisions of the scene).
+ * Setting a material without instancing on an instanced geometry (e.g. for false coloring or highlighting)
+ *   takes the geometry out of its group, it goes back into a group once it has an instancing material again.
+ * Geometries detached from this node are taken out of their groups (use ungroup before detaching a spatial
+ *   from a node below this one).
+ * @author Angel Chang
+ */
+class InstancedSceneNode(name: String) extends InstancedNode(name) {
+  // Geometries taken out of their group because they were given a material without instancing
+  private var ungrouped = new java.util.IdentityHashMap[Geometry, java.lang.Boolean]()
+  setRequiresUpdates(true)
+
+  def this() = this(null)
+
+  /**
+   * Instances the geometries of the models used by at least minCount of the model instances
+   *   (transparent geometries and materials that don't support instancing are not instanced)
+   * @return Number of instanced geometries
+   */
+  def instanceModels(modelInstances: Seq[ModelInstance[Node]], minCount: Int): Int = {
+    val instancingMaterials = new java.util.IdentityHashMap[Material, Material]()
+    var n = 0
+    val instancesByModel = modelInstances.filter( x => x != null && x.model != null ).groupBy( x => x.model )
+    for ((model, instances) <- instancesByModel if instances.size >= math.max(minCount, 1); modelInst <- instances) {
+      // Only the geometries of the model itself (and not of the model instances it supports)
+      modelInst.nodeSelf.depthFirstTraversal(new SceneGraphVisitorAdapter {
+        override def visit(geom: Geometry) {
+          val material = geom.getMaterial
+          if (InstancedSceneNode.canInstance(geom)) {
+            var m = instancingMaterials.get(material)
+            if (m == null) {
+              m = material.clone()
+              m.setBoolean("UseInstancing", true)
+              instancingMaterials.put(material, m)
+            }
+            geom.setMaterial(m)
+            n += 1
+          }
+        }
+      })
+    }
+    instanceGeometries()
+    n
+  }
+
+  /** Groups the geometries under this node that have an instancing material and are not grouped yet */
+  def instanceGeometries(): Unit = {
+    // The jme InstancedNode expects all the geometries it visits to have an instancing material
+    depthFirstTraversal(new SceneGraphVisitorAdapter {
+      override def visit(geom: Geometry) {
+        if (!geom.isInstanceOf[InstancedGeometry] && !geom.isGrouped) {
+          geom.setBatchHint(if (InstancedSceneNode.isInstanced(geom.getMaterial)) BatchHint.Inherit else BatchHint.Never)
+        }
+      }
+    })
+    instance()
+    val iter = ungrouped.keySet.iterator
+    while (iter.hasNext) {
+      val geom = iter.next()
+      if (geom.isGrouped || !geom.hasAncestor(this)) iter.remove()
+    }
+  }
+
+  /** Takes the geometries under the spatial out of their groups (so they are no longer drawn by this node) */
+  def ungroup(spatial: Spatial): Unit = {
+    spatial.depthFirstTraversal(new SceneGraphVisitorAdapter {
+      override def visit(geom: Geometry) {
+        if (geom.isGrouped) geom.unassociateFromGroupNode()
+        ungrouped.remove(geom)
+      }
+    })
+  }
+
+  override def detachChildAt(index: Int): Spatial = {
+    // The jme InstancedNode skips a detached geometry, and fails on the grouped geometries of a detached node
+    //   (getGeometryStartIndex of an ungrouped geometry), so the geometries are taken out of their groups first
+    if (index >= 0 && index < children.size) ungroup(children.get(index))
+    super.detachChildAt(index)
+  }
+
+  override def onMaterialChange(geom: Geometry): Unit = {
+    if (InstancedSceneNode.isInstanced(geom.getMaterial)) {
+      super.onMaterialChange(geom)
+    } else {
+      geom.unassociateFromGroupNode()
+      ungrouped.put(geom, true)
+    }
+  }
+
+  override def updateLogicalState(tpf: Float): Unit = {
+    super.updateLogicalState(tpf)
+    if (!ungrouped.isEmpty) {
+      val iter = ungrouped.keySet.iterator
+      var regroup = false
+      while (iter.hasNext && !regroup) {
+        regroup = InstancedSceneNode.isInstanced(iter.next().getMaterial)
+      }
+      if (regroup) instanceGeometries()
+    }
+  }
+
+  override def collideWith(other: Collidable, results: CollisionResults): Int = {
+    // Collide with the geometries and not the instances drawing them
+    var total = 0
+    for (child <- children.getArray if !child.isInstanceOf[InstancedGeometry]) {
+      total += child.collideWith(other, results)
+    }
+    total
+  }
+
+  override protected def updateWorldBound(): Unit = {
+    super.updateWorldBound()
+    var bound: BoundingVolume = null
+    for (child <- children.getArray if !child.isInstanceOf[InstancedGeometry] && child.getWorldBound != null) {
+      bound = if (bound == null) child.getWorldBound.clone(worldBound) else bound.mergeLocal(child.getWorldBound)
+    }
+    worldBound = bound
+  }
+
+  override def cloneFields(cloner: Cloner, original: AnyRef): Unit = {
+    super.cloneFields(cloner, original)
+    val orig = ungrouped
+    ungrouped = new java.util.IdentityHashMap[Geometry, java.lang.Boolean]()
+    val iter = orig.keySet.iterator
+    while (iter.hasNext) {
+      ungrouped.put(cloner.clone(iter.next()), true)
+    }
+  }
+}
+
+object InstancedSceneNode {
+  def isInstanced(material: Material): Boolean = {
+    val param = if (material != null) material.getParam("UseInstancing") else null
+    param != null && java.lang.Boolean.TRUE.equals(param.getValue)
+  }
+
+  def supportsInstancing(material: Material): Boolean = {
+    material != null && material.getMaterialDef.getMaterialParam("UseInstancing") != null
+  }
+
+  /** Can the geometry be drawn with instancing (transparent geometries need to be sorted so they are not instanced) */
+  def canInstance(geom: Geometry): Boolean = {
+    val material = geom.getMaterial
+    supportsInstancing(material) && !material.isTransparent && geom.getQueueBucket != Bucket.Transparent &&
+      geom.getMesh != null && geom.getMesh.getNumLodLevels == 0
+  }
+}
@@ -7,9 +7,9 @@ import edu.stanford.graphics.shapenet.data.DataManager
 import edu.stanford.graphics.shapenet.{UserDataConstants, Constants}
 import edu.stanford.graphics.shapenet.common._
 import edu.stanford.graphics.shapenet.colors._
-import edu.stanford.graphics.shapenet.jme3.asset.{MyUrlLocator, MyFileLocator}
+import edu.stanford.graphics.shapenet.jme3.asset.{AssetCachePolicy, MyUrlLocator, MyFileLocator}
 import edu.stanford.graphics.shapenet.jme3.geom.BoundingBoxUtils
-import edu.stanford.graphics.shapenet.jme3.loaders.{AssetLoader, LoadProgress, LoadProgressListener, LoadFormat}
+import edu.stanford.graphics.shapenet.jme3.loaders.{AssetLoader, LoadProgress, LoadProgressListener, LoadFormat, SMeshCache, SceneCache}
 import edu.stanford.graphics.shapenet.jme3.viewer.{FalseColorGenerator, BasicCameraPositioner}
 import edu.stanford.graphics.shapenet.util.ConversionUtils._
 import edu.stanford.graphics.shapenet.util.Loggable
@@ -24,6 +24,7 @@ import com.jme3.renderer.Camera
 import com.jme3.scene._
 import com.jme3.scene.debug.{Arrow, WireBox}
 import com.jme3.scene.shape.{Sphere, Box}
+import com.jme3.scene.instancing.InstancedGeometry
 import com.jme3.scene.Spatial.CullHint
 import com.jme3.system.{AppSettings, JmeSystem}
 import com.jme3.util.BufferUtils
@@ -58,12 +59,28 @@ class Jme(val assetManager: AssetManager,
           val dataManager: DataManager,
           modelCacheSize: Option[Int] = None,
           var defaultLoadFormat: Option[LoadFormat.Value] = None,
-          val alwaysClearCache: Boolean = true) extends JmeUtils with Loggable {
-  lazy val assetCreator = new JmeAssetCreator(assetManager)
-  lazy val assetLoader = new AssetLoader(assetCreator,
-    dataManager = dataManager,
-    modelCacheSize = modelCacheSize,
-    defaultLoadFormat = defaultLoadFormat)
+          val alwaysClearCache: Boolean = true,
+          meshCacheDir: Option[String] = None,
+          sceneCacheDir: Option[String] = None) extends JmeUtils with Loggable {
+  // Keeps engine assets (material definitions, shaders) in the asset manager cache when the cache is cleared
+  val assetCachePolicy: AssetCachePolicy = assetManager match {
+    case dam: DesktopAssetManager => new AssetCachePolicy(dam)
+    case _ => null
+  }
+  lazy val assetCreator = {
+    val creator = new JmeAssetCreator(assetManager)
+    creator.meshCache = meshCacheDir.map( dir => new SMeshCache(new File(dir)) ).orNull
+    creator.assetCachePolicy = assetCachePolicy
+    creator
+  }
+  lazy val assetLoader = {
+    val loader = new AssetLoader(assetCreator,
+      dataManager = dataManager,
+      modelCacheSize = modelCacheSize,
+      defaultLoadFormat = defaultLoadFormat)
+    loader.sceneCache = sceneCacheDir.map( dir => new SceneCache(new File(dir)) ).orNull
+    loader
+  }
   lazy val userData = assetCreator.userData
   lazy val cameraPositioner = new BasicCameraPositioner(worldUp, userData)
 
@@ -75,18 +92,30 @@ class Jme(val assetManager: AssetManager,
     override def onDone(result: assetLoader.assetCreator.SCENE) {
       listener.onDone(result.asInstanceOf[GeometricScene[Node]])
     }
+    override def onPartLoaded(progress: LoadProgress[assetLoader.assetCreator.SCENE], name: String, part: AnyRef) {
+      listener.onPartLoaded(progress.asInstanceOf[LoadProgress[GeometricScene[Node]]], name, part)
+    }
   }
   implicit def scene3DLoadProgressListenerConvert(in: LoadProgressListener[GeometricScene[Node]]) =
     if (in != null) new SceneLoadProgressListener(in) else null
 
   def clearCache(clearAssetCache: Boolean = false) {
-    if (assetManager.isInstanceOf[DesktopAssetManager] && alwaysClearCache) {
-      assetManager.asInstanceOf[DesktopAssetManager].clearCache()
+    if (assetCachePolicy != null && alwaysClearCache) {
+      // Only remove model assets (all of them, or the least recently used ones over the budget)
+      if (clearAssetCache) assetCachePolicy.clear() else assetCachePolicy.trim()
     }
     if (clearAssetCache) {
       assetLoader.clearCache()
     }
   }
+  /** Stops tracking the assets loaded by the asset manager (when this Jme is no longer used) */
+  def dispose() {
+    if (assetCachePolicy != null) assetCachePolicy.dispose()
+  }
+  /** Removes the assets (model, textures) loaded for a model from the asset manager cache */
+  def dropModelAssets(modelId: String): Int = {
+    if (assetCachePolicy != null) assetCachePolicy.dropAssets(FullId(modelId).fullid) else 0
+  }
   def loadModel(modelId: String) = assetLoader.loadModel(modelId).asInstanceOf[Model[Node]]
   def loadModelAsScene(modelId: String, transformMatrix: Matrix4f = null, listener: LoadProgressListener[GeometricScene[Node]] = null) = {
     clearCache()
@@ -397,6 +426,8 @@ trait JmeUtils {
  // Returns scene graph visitor that will do something for geometry nodes up to the maximum depth
  def getGeomVisitor(geomVisitor: Geometry => _, maxDepth: Int = -1)(s: Spatial, depth: Int): Boolean = {
    s match {
+     // Instances drawn by an InstancedSceneNode (the geometries they draw are visited where they are in the scene)
+     case g:InstancedGeometry => false
      case g:Geometry => { geomVisitor(g); true }
      case n:Node => {
        if (maxDepth > 0 && depth > maxDepth) false
@@ -1203,7 +1234,40 @@ trait JmeUtils {
   def setWireframeMode(spatial: Spatial, wireframeMode: Boolean = true) {
     spatial.setUserData("wireframeMode", wireframeMode)
     val geos = getGeometries(spatial)
-    geos.foreach(g => g.getMaterial.getAdditionalRenderState.setWireframe(wireframeMode))
+    modifyOwnMaterials(geos)( m => m.getAdditionalRenderState.setWireframe(wireframeMode) )
+  }
+
+  /**
+   * Modifies the materials of the geometries, without changing the materials of other geometries
+   *  (materials of loaded models are shared between geometries and model instances).
+   * Each distinct material is cloned and modified once, and the clone is shared by the given geometries that had it.
+   */
+  def modifyOwnMaterials(geoms: Iterable[Geometry])(modify: Material => Unit) {
+    val clones = new java.util.IdentityHashMap[Material, Material]()
+    for (g <- geoms) {
+      var material = clones.get(g.getMaterial)
+      if (material == null) {
+        material = g.getMaterial.clone()
+        clones.put(g.getMaterial, material)
+        modify(material)
+      }
+      g.setMaterial(material)
+    }
+  }
+
+  /** Modifies the materials of all geometries under the spatial (see modifyOwnMaterials) */
+  def modifyOwnMaterials(spatial: Spatial)(modify: Material => Unit) {
+    val geoms = new mutable.ArrayBuffer[Geometry]()
+    val visitor = new SceneGraphVisitor() {
+      def visit(s: Spatial) {
+        s match {
+          case g:Geometry => { geoms.append(g) }
+          case _ => {}
+        }
+      }
+    }
+    spatial.depthFirstTraversal(visitor)
+    modifyOwnMaterials(geoms)(modify)
   }
 
   def getMaterialColor(material: Material, key: String): ColorRGBA = {
@@ -1233,15 +1297,7 @@ trait JmeUtils {
   }
 
   def makeTransparent(spatial: Spatial, alpha: Float = 0.1f) {
-    val visitor = new SceneGraphVisitor() {
-      def visit(s: Spatial) {
-        s match {
-          case g:Geometry => { makeTransparent(g.getMaterial, alpha) }
-          case _ => {}
-        }
-      }
-    }
-    spatial.depthFirstTraversal(visitor)
+    modifyOwnMaterials(spatial)( m => makeTransparent(m, alpha) )
     spatial.setQueueBucket(Bucket.Transparent)
   }
 
@@ -1250,15 +1306,7 @@ trait JmeUtils {
   }
 
   def makeDoubleSided(spatial: Spatial) {
-    val visitor = new SceneGraphVisitor() {
-      def visit(s: Spatial) {
-        s match {
-          case g:Geometry => { makeDoubleSided(g.getMaterial) }
-          case _ => {}
-        }
-      }
-    }
-    spatial.depthFirstTraversal(visitor)
+    modifyOwnMaterials(spatial)( m => makeDoubleSided(m) )
   }
 
   def setPolyOffset(material: Material, v: Float) {
@@ -1266,15 +1314,7 @@ trait JmeUtils {
   }
 
   def setPolyOffset(spatial: Spatial, v: Float) {
-    val visitor = new SceneGraphVisitor() {
-      def visit(s: Spatial) {
-        s match {
-          case g:Geometry => { setPolyOffset(g.getMaterial, v) }
-          case _ => {}
-        }
-      }
-    }
-    spatial.depthFirstTraversal(visitor)
+    modifyOwnMaterials(spatial)( m => setPolyOffset(m, v) )
   }
 
   def setVisible(spatial: Spatial, visible: Boolean = true) {
@@ -1636,12 +1676,16 @@ object Jme extends Loggable {
   }
   def apply(config: JmeConfig): Jme = {
     val assetManager = getDefaultAssetManager()
-    new Jme(assetManager, DataManager(), config.modelCacheSize, config.defaultLoadFormat)
+    new Jme(assetManager, DataManager(), config.modelCacheSize, config.defaultLoadFormat,
+      meshCacheDir = config.meshCacheDir, sceneCacheDir = config.sceneCacheDir)
   }
   def apply(assetManager: AssetManager = getDefaultAssetManager(),
             modelCacheSize: Option[Int] = None,
             defaultLoadFormat: Option[LoadFormat.Value] = None,
-            alwaysClearCache: Boolean = true): Jme = new Jme(assetManager, DataManager(), modelCacheSize, defaultLoadFormat, alwaysClearCache)
+            alwaysClearCache: Boolean = true,
+            meshCacheDir: Option[String] = None,
+            sceneCacheDir: Option[String] = None): Jme =
+    new Jme(assetManager, DataManager(), modelCacheSize, defaultLoadFormat, alwaysClearCache, meshCacheDir, sceneCacheDir)
   private def createAssetManager(settings: AppSettings = null) = {
     var asm: AssetManager = null
     if (settings != null) {
@@ -2,8 +2,9 @@ package edu.stanford.graphics.shapenet.jme3
 
 import edu.stanford.graphics.shapenet.{jme3, UserDataConstants}
 import edu.stanford.graphics.shapenet.common.{ModelInstance, GeometricScene, Model, MaterialInfo}
-import edu.stanford.graphics.shapenet.jme3.asset.{EnhancedModelKey, CompressedAssetKey}
-import edu.stanford.graphics.shapenet.jme3.loaders.{ModelLoadOptions, UTF8Decoder, AssetCreator}
+import edu.stanford.graphics.shapenet.jme3.asset.{AssetCachePolicy, TextureCache, EnhancedModelKey, CompressedAssetKey, ZipArchive, ZipArchiveLocator}
+import edu.stanford.graphics.shapenet.jme3.loaders.{SMeshCache, ModelLoadOptions, UTF8Decoder, AssetCreator}
+import edu.stanford.graphics.shapenet.jme3.plugins.{MeshRefinementControl, OBJLoader, PLYLoader}
 import edu.stanford.graphics.shapenet.util.Loggable
 import com.jme3.asset.{ModelKey, AssetManager}
 import com.jme3.bounding.BoundingVolume
@@ -16,6 +17,10 @@ import com.jme3.scene.Mesh.Mode
 import com.jme3.texture.Texture
 import com.jme3.texture.Texture.WrapMode
 import jme3tools.optimize.GeometryBatchFactory
+import jme3dae.{ColladaContext, ColladaDocumentFactory}
+
+import java.io.File
+import java.security.MessageDigest
 
 /**
  * Creates assets with JMonkeyEngine
@@ -34,6 +39,14 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
   val defaultAmbient = ColorRGBA.LightGray
   val defaultSpecular = ColorRGBA.DarkGray
   val optimize = false
+  // Compiled binary cache of loaded models (not used if null)
+  var meshCache: SMeshCache = null
+  // Tracks the assets loaded for each model (not used if null)
+  var assetCachePolicy: AssetCachePolicy = null
+  // Draw models that are repeated in a scene with hardware instancing (see InstancedSceneNode)
+  var instancing = false
+  // Minimum number of instances of a model in a scene for the model to be instanced
+  var instancingMinCount = 2
 
   def getColor(v: Array[Double], default: ColorRGBA): ColorRGBA = {
     if (v != null) {
@@ -48,9 +61,7 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
   def getTexture(path: String): Texture = {
     try {
       if (path != null) {
-        val texture = assetManager.loadTexture(path)
-        texture.setWrap(WrapMode.Repeat)
-        texture
+        TextureCache.loadTexture(assetManager, path, WrapMode.Repeat)
       } else null
     } catch {
       case e: Exception => {
@@ -108,27 +119,110 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
   }
 
   override def createScene(name: String) = {
-    val node = new Node(name)
+    val node = if (instancing) new InstancedSceneNode(name) else new Node(name)
     val scene = new JmeScene(node)
     scene
   }
 
   override def finalizeModel(model: Model[Node], options: ModelLoadOptions = null) {
+    // Geometries with identical materials share one material (the stats count the materials as loaded)
+    model.node.setUserData(UserDataConstants.NUM_MATERIALS, Int.box(JmeAssetCreator.countMaterials(model.node)))
+    new MaterialInterner().intern(model.node)
     if (optimize) {
       GeometryBatchFactory.optimize(model.node)
     }
   }
 
   override def finalizeScene(scene: GeometricScene[Node]) {
+    // Share identical materials across the models of the scene
+    val interner = new MaterialInterner()
+    interner.intern(scene.node)
+    logger.info("Scene " + scene.node.getName + ": " + interner.geometries + " geometries, " + interner.size
+      + " materials (" + interner.deduplicated + " deduplicated)")
+    scene.node match {
+      case n: InstancedSceneNode => {
+        val nInstanced = n.instanceModels(scene.modelInstances, instancingMinCount)
+        logger.info("Scene " + scene.node.getName + ": " + nInstanced + " instanced geometries")
+      }
+      case _ => {}
+    }
     scene.node.updateGeometricState()
     scene.node.updateModelBound()
   }
 
-  def loadModel(name: String, inpath: String, options: ModelLoadOptions = null) = {
+  def loadModel(name: String, inpath: String, options: ModelLoadOptions = null) = withAssetOwner(name) {
     // Replace \ with / so JME ModelKey will have correct folder (JME AssetKey looks for char 47 '/' as folder separator)
     val path = inpath.replaceAll("\\\\", "/")
-    logger.info("load model " + name + " from " + path)
     val node = new Node(name)
+    val cacheFile = if (meshCache != null) meshCache.getFile(name, getMeshCacheHash(path, options)) else null
+    val cached = if (cacheFile != null) {
+      withArchiveContext(path) { meshCache.load(cacheFile, assetManager) }
+    } else null
+    if (cached != null) {
+      logger.info("load model " + name + " from " + cacheFile)
+      node.attachChild(cached)
+    } else {
+      logger.info("load model " + name + " from " + path)
+      val spatial = loadModelSpatial(name, path, options)
+      node.attachChild(spatial)
+      // Don't cache coarse meshes that are still being refined
+      if (cacheFile != null && !MeshRefinementControl.isRefining(spatial)) {
+        withArchiveContext(path) { meshCache.save(cacheFile, spatial, assetManager) }
+      }
+    }
+    val model = new Model[Node](node)
+    finalizeModel(model, options)
+    model
+  }
+
+  /** Hash of the path, the load options and the loader settings that affect the loaded model */
+  def getMeshCacheHash(path: String, options: ModelLoadOptions): String = {
+    val file = new File(path)
+    val fileStamp = if (file.isFile) Seq(file.length(), file.lastModified()) else Seq()
+    val parts = Seq(SMeshCache.VERSION, path) ++ fileStamp ++ (if (options != null) {
+      Seq(options.format, options.unit, options.up, options.front, options.geometryPath, options.materialsPath,
+        options.loadMaterials, options.doubleSided, options.normalizeRGB, options.ignoreZeroRGBs, options.invertTransparency,
+        Option(options.defaultColor).map( x => x.mkString(",") ), options.compressionExt)
+    } else Seq()) ++ getLoaderSettings
+    val digest = MessageDigest.getInstance("MD5").digest(parts.mkString("\n").getBytes("UTF-8"))
+    digest.take(8).map( b => "%02x".format(b) ).mkString
+  }
+
+  /** Global loader settings that change the loaded meshes (the settings that only change how a file is read are left out) */
+  private def getLoaderSettings: Seq[Any] = {
+    val fx = ColladaDocumentFactory.getFXEnhance
+    Seq(OBJLoader.getNormalCreaseAngle,
+      PLYLoader.getLodMode, PLYLoader.getLodCoarseVertices, PLYLoader.getLodVertexBudget,
+      fx.getAutoBump, fx.getTwoSided, fx.getIgnoreMeasuringUnit, fx.getIgnoreLights, fx.getUseJME3Materials)
+  }
+
+  /** Assets loaded by f belong to the model (so they can be dropped from the asset manager cache) */
+  private def withAssetOwner[T](name: String)(f: => T): T = {
+    if (assetCachePolicy != null) {
+      assetCachePolicy.beginLoad(name)
+      try { f } finally { assetCachePolicy.endLoad() }
+    } else f
+  }
+
+  /**
+   * Textures in kmz archives are located through a collada context for the archive (same as the KMZLoader),
+   *   the context only locates the texture keys of its archive so several models can be loaded at the same time
+   */
+  private def withArchiveContext[T](path: String)(f: => T): T = {
+    val file = new File(path)
+    if (path.toLowerCase.endsWith(".kmz") && file.isFile) {
+      val archive = ZipArchive.open(file)
+      val context = new ColladaContext(new ModelKey(path).getName)
+      context.setResourceLocator(new ZipArchiveLocator(archive))
+      context.open(assetManager)
+      try { f } finally {
+        context.close(assetManager)
+        archive.close()
+      }
+    } else f
+  }
+
+  private def loadModelSpatial(name: String, path: String, options: ModelLoadOptions): Spatial = {
     val modelKey = if (options.geometryPath.isDefined || options.materialsPath.isDefined) {
       new EnhancedModelKey(path, options.geometryPath.getOrElse(null), options.materialsPath.getOrElse(null))
     } else new ModelKey(path)
@@ -138,7 +232,6 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
     } else {
       assetManager.loadAsset(modelKey)
     }
-    node.attachChild(spatial)
 
     val defaultColor = if (options != null) getColor(options.defaultColor, defaultDiffuse) else defaultDiffuse
     // Fix our materials and number our meshes
@@ -211,9 +304,11 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
       }
     }
     spatial.depthFirstTraversal(geomVisitor)
+    spatial
+  }
 
-    val model = new Model[Node](node)
-    model
+  override def getModelSize(model: Model[Node]): Long = {
+    AssetCachePolicy.estimateSize(model.node)
   }
 
   override def createModel(name: String) = {
@@ -263,7 +358,8 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
   def getInverse(t: TRANSFORM): TRANSFORM = jme3.getInverse(t)
 
   def cloneNode(node: NODE, skipChildren: Boolean) = {
-    val res = node.clone().asInstanceOf[NODE]
+    // Clones share the materials of the node (the materials of loaded models are not modified in place)
+    val res = node.clone(false).asInstanceOf[NODE]
     if (skipChildren) {
       // remove children from clone
       val children = new scala.collection.mutable.ArrayBuffer[Spatial]()
@@ -287,6 +383,8 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
     node
   }
 
+  def getParent(node: NODE): NODE = node.getParent
+
   def attachMesh(node: NODE, child: MESH) = {
     node.attachChild(child)
     node
@@ -314,6 +412,7 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
     mesh.setMode(Mode.Triangles)
     geometry.setMesh(mesh)
 
+    // The decoded buffers are direct buffers that can be used as is
     mesh.setBuffer(VertexBuffer.Type.Index, 3, decodedMesh.getIndices)
     mesh.setBuffer(VertexBuffer.Type.Position, 3, decodedMesh.getVertices)
     mesh.setBuffer(VertexBuffer.Type.Normal, 3, decodedMesh.getNormals)
@@ -326,3 +425,20 @@ class JmeAssetCreator(val assetManager: AssetManager, val nolights: Boolean = fa
     geometry
   }
 }
+
+object JmeAssetCreator {
+  /** Number of materials of the model as loaded (see UserDataConstants.NUM_MATERIALS) */
+  def getNumMaterials(node: Spatial): Int = {
+    val n: Integer = node.getUserData(UserDataConstants.NUM_MATERIALS)
+    if (n != null) n else countMaterials(node)
+  }
+
+  /** Number of distinct (by identity) materials of the geometries */
+  def countMaterials(node: Spatial): Int = {
+    val materials = new java.util.IdentityHashMap[Material, Boolean]()
+    node.depthFirstTraversal(new SceneGraphVisitorAdapter {
+      override def visit(geom: Geometry): Unit = materials.put(geom.getMaterial, true)
+    })
+    materials.size
+  }
+}
@@ -10,7 +10,9 @@ import scala.collection.JavaConversions._
  * @author Angel Chang
  */
 class JmeConfig(val modelCacheSize: Option[Int] = None,
-                val defaultLoadFormat: Option[LoadFormat.Value] = None) {
+                val defaultLoadFormat: Option[LoadFormat.Value] = None,
+                val meshCacheDir: Option[String] = None,
+                val sceneCacheDir: Option[String] = None) {
 }
 
 object JmeConfig {
@@ -25,7 +27,9 @@ object JmeConfig {
     val configHelper = new ConfigHelper(config)
     new JmeConfig(
       modelCacheSize = configHelper.getIntOption(name + ".modelCacheSize"),
-      defaultLoadFormat = configHelper.getStringOption(name + ".defaultLoadFormat").map( s => LoadFormat.withName(s))
+      defaultLoadFormat = configHelper.getStringOption(name + ".defaultLoadFormat").map( s => LoadFormat.withName(s)),
+      meshCacheDir = configHelper.getStringOption(name + ".meshCacheDir"),
+      sceneCacheDir = configHelper.getStringOption(name + ".sceneCacheDir")
     )
   }
 }
@@ -0,0 +1,76 @@
+package edu.stanford.graphics.shapenet.jme3
+
+import com.jme3.material.Material
+import com.jme3.scene.{Geometry, SceneGraphVisitorAdapter, Spatial}
+
+import scala.collection.mutable
+
+/**
+ * Shares one material between geometries whose materials have the same content
+ *   (material definition, colors, shininess, textures and render state such as transparency and double sidedness),
+ *   so the renderer doesn't switch between identical materials.
+ * Shared materials should not be modified in place (clone them first).
+ * @author Angel Chang
+ */
+class MaterialInterner {
+  private val materials = new mutable.HashMap[MaterialInterner.Key, Material]()
+  // Materials given to the interner (by identity)
+  private val seen = new java.util.IdentityHashMap[Material, Material]()
+  private var nGeometries = 0
+
+  /** Returns the shared material with the same content as the given material */
+  def intern(material: Material): Material = synchronized {
+    if (material == null) return null
+    val shared = seen.get(material)
+    if (shared != null) {
+      shared
+    } else {
+      val s = materials.getOrElseUpdate(new MaterialInterner.Key(material), material)
+      seen.put(material, s)
+      s
+    }
+  }
+
+  /** Replaces the materials of the geometries of the spatial with shared materials */
+  def intern(spatial: Spatial): Unit = {
+    val visitor = new SceneGraphVisitorAdapter {
+      override def visit(geom: Geometry) {
+        val material = geom.getMaterial
+        val shared = intern(material)
+        nGeometries += 1
+        if (shared ne material) {
+          geom.setMaterial(shared)
+        }
+      }
+    }
+    spatial.depthFirstTraversal(visitor)
+  }
+
+  /** Number of distinct materials */
+  def size: Int = synchronized { materials.size }
+
+  /** Number of distinct materials that were replaced by a shared material */
+  def deduplicated: Int = synchronized { seen.size - materials.size }
+
+  /** Number of geometries visited */
+  def geometries: Int = synchronized { nGeometries }
+
+  def clear(): Unit = synchronized {
+    materials.clear()
+    seen.clear()
+    nGeometries = 0
+  }
+}
+
+object MaterialInterner {
+  /** Compares materials by content (the material name is ignored) */
+  class Key(val material: Material) {
+    private val hash = 31 * material.contentHashCode() + (if (material.isTransparent) 1 else 0)
+    override def hashCode(): Int = hash
+    override def equals(other: Any): Boolean = other match {
+      case k: Key => (k.material eq material) ||
+        (k.hash == hash && material.isTransparent == k.material.isTransparent && material.contentEquals(k.material))
+      case _ => false
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package edu.stanford.graphics.shapenet.jme3.loaders
 
 import java.io.File
+import java.util.concurrent._
 
 import com.jme3.math.Vector3f
 import edu.stanford.graphics.shapenet.{jme3, Constants, UserDataConstants}
@@ -22,7 +23,11 @@ class AssetLoader(val assetCreator: AssetCreator,
                   val modelCacheSize: Option[Int] = None,
                   var defaultLoadFormat: Option[LoadFormat.Value]) extends Loggable {
   val utf8Loader = new UTF8Loader(this)
-  val modelCache = new SoftLRUCache[String,assetCreator.MODEL](modelCacheSize.getOrElse(16))
+  // Loaded models, up to modelCacheMaxBytes of mesh and texture buffers (and at most modelCacheSize models if specified)
+  val modelCache = new WeightedLRUCache[String,assetCreator.MODEL](AssetLoader.defaultModelCacheMaxBytes,
+    (m: assetCreator.MODEL) => assetCreator.getModelSize(m), modelCacheSize.getOrElse(-1))
+  // On disk cache of assembled scenes (not used if null)
+  var sceneCache: SceneCache = null
   private implicit val dm: DataManager = dataManager
 
   def clearCache(): Unit = {
@@ -112,9 +117,20 @@ class AssetLoader(val assetCreator: AssetCreator,
     }
 
     try {
-      val gscene = if (useSupportHierarchy)
-        loadSceneWithSupportHierarchy(scene, listener)(progress)
-      else loadSceneWithoutSupportHierarchy(scene, listener)(progress)
+      // Scenes with just one object (e.g. from loadModelAsScene) have nothing to assemble
+      val cacheFile = if (sceneCache != null && scene.objects.length > 1) sceneCache.getFile(scene, useSupportHierarchy) else null
+      val cached = if (cacheFile != null) sceneCache.load(cacheFile) else null
+      val models = loadSceneModels(scene, listener)(progress)
+      val cachedScene = if (cached != null) loadCachedScene(scene, cached, useSupportHierarchy, models) else null
+      val gscene = if (cachedScene != null) {
+        logger.info("Loaded scene " + scene.sceneId + " from " + cacheFile)
+        cachedScene
+      } else if (useSupportHierarchy)
+        loadSceneWithSupportHierarchy(scene, models, listener)
+      else loadSceneWithoutSupportHierarchy(scene, models)
+      if (cacheFile != null && cachedScene == null && gscene != null) {
+        saveCachedScene(cacheFile, gscene)
+      }
 
       assetCreator.finalizeScene(gscene)
       if (listener != null) {
@@ -127,7 +143,11 @@ class AssetLoader(val assetCreator: AssetCreator,
     } catch {
       case ex:Exception => {
         // Error!!!!
-        logger.warn("Error loading scene " + scene.sceneId, ex)
+        if (Thread.currentThread().isInterrupted) {
+          logger.info("Stopped loading scene " + scene.sceneId)
+        } else {
+          logger.warn("Error loading scene " + scene.sceneId, ex)
+        }
         if (listener != null) {
           listener.onDone(null)
         }
@@ -136,8 +156,69 @@ class AssetLoader(val assetCreator: AssetCreator,
     }
   }
 
-  private def loadModelInstance(i: Int, mi: SceneObject): assetCreator.MODEL_INSTANCE = {
-    val model = loadModel(mi.modelID)
+  /**
+   * Loads the distinct models of the scene (in parallel on the io executor if there are several),
+   *   each model is loaded once no matter how many objects use it.
+   * Progress is reported from this thread as the models arrive (each model is also given to listener.onPartLoaded),
+   *   objects whose model could not be loaded are reported as failures.
+   * @return Loaded model for each model id of the scene (null if the model could not be loaded)
+   */
+  private def loadSceneModels(scene: Scene, listener: LoadProgressListener[assetCreator.SCENE])
+                             (progress: LoadProgress[assetCreator.SCENE] = null): Map[String, assetCreator.MODEL] = {
+    val modelIds = scene.objects.map( mi => mi.modelID ).distinct
+    val objectsByModel = scene.objects.zipWithIndex.groupBy( x => x._1.modelID )
+    val models = new mutable.HashMap[String, assetCreator.MODEL]()
+    def load(modelId: String): (String, assetCreator.MODEL, Throwable) = {
+      try {
+        (modelId, loadModel(modelId), null)
+      } catch {
+        case ex: Exception => (modelId, null.asInstanceOf[assetCreator.MODEL], ex)
+      }
+    }
+    def loaded(res: (String, assetCreator.MODEL, Throwable)): Unit = {
+      val (modelId, model, error) = res
+      models.put(modelId, model)
+      if (model == null) {
+        logger.warn("Error loading model " + modelId, error)
+      }
+      if (listener != null) {
+        for ((mi,i) <- objectsByModel(modelId)) {
+          if (model != null) progress.incLoaded()
+          else progress.addFailure(LoadFailure(i, mi.modelID, error))
+        }
+        if (model != null) listener.onPartLoaded(progress, modelId, model)
+        listener.onProgress(progress)
+      }
+    }
+    // Don't wait for io tasks from an io thread
+    if (modelIds.size <= 1 || Threads.io.getMaximumPoolSize <= 1 || Threads.io.isCurrentThread) {
+      modelIds.foreach( modelId => loaded(load(modelId)) )
+    } else {
+      // Loaded models are handled as they complete (the tasks are not wrapped, so cancelled ones leave the io queue)
+      val completed = new LinkedBlockingQueue[Future[(String, assetCreator.MODEL, Throwable)]]()
+      val futures = modelIds.map( modelId => Threads.io.submit(new Callable[(String, assetCreator.MODEL, Throwable)] {
+        override def call() = load(modelId)
+      }, TaskExecutor.getCurrentPriority, completed))
+      try {
+        for (_ <- futures) {
+          loaded(completed.take().get())
+        }
+      } catch {
+        case ex: ExecutionException => throw ex.getCause
+        case ex: InterruptedException => {
+          // Keep the interrupt for whoever is loading the scene
+          Thread.currentThread().interrupt()
+          throw ex
+        }
+      } finally {
+        // Don't keep loading models for a scene that failed (or was interrupted)
+        futures.foreach( f => f.cancel(false) )
+      }
+    }
+    models.toMap
+  }
+
+  private def loadModelInstance(i: Int, mi: SceneObject, model: assetCreator.MODEL): assetCreator.MODEL_INSTANCE = {
     if (model != null) {
       val modelInst = assetCreator.createModelInstance(i.toString, i, mi.transform)
       modelInst.model = model
@@ -155,39 +236,114 @@ class AssetLoader(val assetCreator: AssetCreator,
         // Don't scale or transform nodeSelf
         assetCreator.setTransform( modelInst.nodeSelf, Transform() )
       }
-      assetCreator.attachChild(modelInst.node, modelInst.nodeSelf)
-      assetCreator.userData.set(modelInst.node, UserDataConstants.MODEL_INDEX, i)
-      assetCreator.userData.set(modelInst.node, UserDataConstants.MODEL, mi)
-      modelInst
+      attachModel(i, mi, modelInst)
     } else {
-      logger.warn("Error loading model " + mi.modelID)
       null.asInstanceOf[assetCreator.MODEL_INSTANCE]
     }
   }
 
-  private def loadSceneWithoutSupportHierarchy(scene: Scene,
-                                               listener: LoadProgressListener[assetCreator.SCENE])(progress: LoadProgress[assetCreator.SCENE] = null): assetCreator.SCENE = {
+  private def attachModel(i: Int, mi: SceneObject, modelInst: assetCreator.MODEL_INSTANCE): assetCreator.MODEL_INSTANCE = {
+    assetCreator.attachChild(modelInst.node, modelInst.nodeSelf)
+    assetCreator.userData.set(modelInst.node, UserDataConstants.MODEL_INDEX, i)
+    assetCreator.userData.set(modelInst.node, UserDataConstants.MODEL, mi)
+    modelInst
+  }
+
+  /**
+   * Puts the scene together as it was cached (without going through the support hierarchy again)
+   * Returns null if the cached scene no longer matches the models (so the scene is assembled from scratch)
+   */
+  private def loadCachedScene(scene: Scene, cached: SceneCache.AssembledScene, useSupportHierarchy: Boolean,
+                              models: Map[String, assetCreator.MODEL]): assetCreator.SCENE = {
+    if (cached.objects.length != scene.objects.length) return null
+    val modelInstances = new mutable.ArrayBuffer[assetCreator.MODEL_INSTANCE]()
+    for ((mi,i) <- scene.objects.zipWithIndex) {
+      val obj = cached.objects(i)
+      val modelInst = if (obj.modelIndex >= 0) {
+        val cachedModel = cached.models(obj.modelIndex)
+        val model = models(mi.modelID)
+        // The up and front of the model determine the transforms of the object
+        if (model == null || cachedModel.modelId != FullId(mi.modelID).fullid ||
+          !model.up.equals(cachedModel.up) || !model.front.equals(cachedModel.front)) {
+          logger.info("Cached scene " + scene.sceneId + " is out of date")
+          return null
+        }
+        val modelInst = assetCreator.createModelInstance(i.toString, i, assetCreator.arrayToTransform(obj.transform))
+        modelInst.model = model
+        modelInst.nodeSelf = assetCreator.cloneNode(model.node)
+        assetCreator.setTransform(modelInst.nodeSelf, assetCreator.arrayToTransform(obj.modelTransform))
+        attachModel(i, mi, modelInst)
+      } else null.asInstanceOf[assetCreator.MODEL_INSTANCE]
+      modelInstances += modelInst
+    }
+
+    val s = assetCreator.createScene(scene.sceneId)
+    s.scene = scene
+    for ((mi,i) <- scene.objects.zipWithIndex) {
+      if (useSupportHierarchy && mi.supportParentIndex >= 0) {
+        scene.objects(mi.supportParentIndex).addChildIndex(i)
+      }
+      val modelInst = modelInstances(i)
+      if (modelInst != null) {
+        val parentIndex = cached.objects(i).parentIndex
+        val parent = if (parentIndex >= 0) modelInstances(parentIndex).node else s.node
+        assetCreator.attachChild(parent, modelInst.node)
+      }
+    }
+    s.modelInstances = modelInstances
+    s
+  }
+
+  /**
+   * Saves how the scene was assembled (scenes with objects that failed to load are not saved)
+   * The file is written on the encode executor.
+   */
+  private def saveCachedScene(file: File, gscene: assetCreator.SCENE): Unit = {
+    val modelInstances = gscene.modelInstances
+    if (modelInstances.exists( x => x == null || x.model == null )) return
+    val nodeIndices = new java.util.IdentityHashMap[assetCreator.NODE, Int]()
+    for ((modelInst,i) <- modelInstances.zipWithIndex) {
+      nodeIndices.put(modelInst.node, i)
+    }
+    val modelIndices = new mutable.LinkedHashMap[String, Int]()
+    val models = new mutable.ArrayBuffer[SceneCache.CachedModel]()
+    val objects = for ((modelInst,i) <- modelInstances.zipWithIndex) yield {
+      val model = modelInst.model
+      val modelId = FullId(gscene.scene.objects(i).modelID).fullid
+      val modelIndex = modelIndices.getOrElseUpdate(modelId, {
+        models += SceneCache.CachedModel(modelId, model.up, model.front)
+        models.size - 1
+      })
+      val parent = assetCreator.getParent(modelInst.node)
+      val parentIndex = if (parent != null && nodeIndices.containsKey(parent)) nodeIndices.get(parent) else -1
+      SceneCache.CachedObject(modelIndex, parentIndex,
+        assetCreator.transformToArray(assetCreator.getLocalTransform(modelInst.node)),
+        assetCreator.transformToArray(assetCreator.getLocalTransform(modelInst.nodeSelf)))
+    }
+    val assembled = SceneCache.AssembledScene(models.toArray, objects.toArray)
+    Threads.encode.submit(new Runnable {
+      override def run(): Unit = sceneCache.save(file, assembled)
+    })
+  }
+
+  private def loadSceneWithoutSupportHierarchy(scene: Scene, models: Map[String, assetCreator.MODEL]): assetCreator.SCENE = {
     // Convert to scene and make appropriate transforms
     val s = assetCreator.createScene(scene.sceneId)
     val modelInstances = new mutable.ArrayBuffer[assetCreator.MODEL_INSTANCE]()
     s.scene = scene
     for ((mi,i) <- scene.objects.zipWithIndex) {
-      val modelInst = loadModelInstance(i, mi)
+      val modelInst = loadModelInstance(i, mi, models(mi.modelID))
       if (modelInst != null) {
         assetCreator.attachChild(s.node, modelInst.node)
       }
       modelInstances += modelInst
-      // TODO: Some of these are failed to load....
-      if (listener != null) {
-        progress.incLoaded()
-        listener.onProgress(progress)
-      }
     }
     s.modelInstances = modelInstances
     s
   }
 
-  private def loadSceneWithSupportHierarchy(scene: Scene, listener: LoadProgressListener[assetCreator.SCENE])(progress: LoadProgress[assetCreator.SCENE] = null): assetCreator.SCENE = {
+  private def loadSceneWithSupportHierarchy(scene: Scene, models: Map[String, assetCreator.MODEL],
+                                            listener: LoadProgressListener[assetCreator.SCENE]): assetCreator.SCENE = {
     // Convert to scene and make appropriate transforms
     val s = assetCreator.createScene(scene.sceneId)
     s.scene = scene
@@ -196,7 +352,7 @@ class AssetLoader(val assetCreator: AssetCreator,
     val roots = new ArrayBuffer[Int]()
     for ((mi,i) <- scene.objects.zipWithIndex) {
       val modelInst: assetCreator.MODEL_INSTANCE = try {
-        loadModelInstance(i, mi)
+        loadModelInstance(i, mi, models(mi.modelID))
       } catch {
         case ex:Exception => {
           // Error!!!!
@@ -215,11 +371,6 @@ class AssetLoader(val assetCreator: AssetCreator,
         transforms += null.asInstanceOf[assetCreator.TRANSFORM]
       }
       modelInstances += modelInst
-      // TODO: Some of these are failed to load....
-      if (listener != null) {
-        progress.incLoaded()
-        listener.onProgress(progress)
-      }
 
       if (mi.supportParentIndex >= 0) {
         val parent: SceneObject = scene.objects(mi.supportParentIndex)
@@ -285,6 +436,11 @@ class AssetLoader(val assetCreator: AssetCreator,
 }
 
 object AssetLoader {
+  // Fraction of the maximum heap used for the model cache by default
+  //  (the mesh buffers are direct buffers, limited by default to the maximum heap size as well)
+  val defaultModelCacheMemoryFraction = 0.25
+  val defaultModelCacheMaxBytes = (Runtime.getRuntime.maxMemory * defaultModelCacheMemoryFraction).toLong
+
   def getSceneFileBase(fullId: FullId, dir: String, usePerSceneDir: Boolean = false): String = {
     val separator = if (IOUtils.isWebFile(dir)) "/" else File.separator
     if (usePerSceneDir)
@@ -311,6 +467,8 @@ trait AssetCreator {
 
   def loadModel(name: String, path: String, options: ModelLoadOptions = null): MODEL
   def createModel(name: String): MODEL
+  /** Estimated memory used by the model (in bytes) */
+  def getModelSize(model: MODEL): Long = 0
   def finalizeModel(model: MODEL, options: ModelLoadOptions = null) {}
 
   def createModelInstance(name: String, index: Int): MODEL_INSTANCE = createModelInstance(name, index, null.asInstanceOf[TRANSFORM])
@@ -331,6 +489,7 @@ trait AssetCreator {
   def createMaterial(mi: MaterialInfo): MATERIAL
   def createMesh(params: Map[String,Any]): MESH
   def attachChild(node: NODE, child: NODE): NODE
+  def getParent(node: NODE): NODE
   def attachMesh(node: NODE, child: MESH): NODE
   def cloneNode(node: NODE, skipChildren: Boolean = false): NODE
 
@@ -230,11 +230,25 @@ case class LoadProgress[T >: Null](name: String,
       this.loaded = this.loaded + 1
     }
   }
+  // Parts that could not be loaded
+  val failures = new scala.collection.mutable.ArrayBuffer[LoadFailure]()
+  def addFailure(failure: LoadFailure) {
+    this.synchronized {
+      this.failures += failure
+      this.loaded = this.loaded + 1
+    }
+  }
 }
 
+/** Part (e.g. object of a scene) that could not be loaded */
+case class LoadFailure(index: Int, name: String, error: Throwable)
+
 trait LoadProgressListener[T >: Null] {
   def onProgress(progress: LoadProgress[T])
   def onDone(result: T)
+  // Called (from the loading thread) as each part is loaded, before the whole result is done
+  //   (e.g. the model for the objects of a scene, see AssetLoader.loadScene)
+  def onPartLoaded(progress: LoadProgress[T], name: String, part: AnyRef) {}
 }
 
 class PartLoadProgressListener[T >: Null,C >: Null](val parent: LoadProgress[T],
@@ -0,0 +1,165 @@
+package edu.stanford.graphics.shapenet.jme3.loaders
+
+import java.io._
+import java.nio.{ByteOrder, ByteBuffer}
+import java.nio.charset.Charset
+import java.nio.file.{StandardCopyOption, Files}
+import java.security.MessageDigest
+
+import com.jme3.math.Vector3f
+import edu.stanford.graphics.shapenet.Constants
+import edu.stanford.graphics.shapenet.common.Scene
+import edu.stanford.graphics.shapenet.util.Loggable
+
+/**
+ * On disk cache of assembled scenes (.sscene)
+ * For each scene, we keep how its objects were put together by AssetLoader.loadScene:
+ *   the table of models used by the scene (with the up and front the models had when the scene was assembled),
+ *   and for each object, the index of its model, the object it is attached to (support hierarchy),
+ *   and the local transforms of the object node and of the model node under it.
+ * The geometry is not stored here, models are loaded by id (from the model cache or the compiled .smesh cache).
+ * Scenes are keyed by a hash of their definition (objects, transforms, support parents and load options),
+ *   so an edited scene just misses the cache.
+ * The file is little endian:
+ *   magic, version, number of models, models (id, up, front), number of objects,
+ *   objects (model index, parent index, 16 floats for the object transform, 16 floats for the model transform)
+ * @author Angel Chang
+ */
+class SceneCache(val dir: File) extends Loggable {
+  import SceneCache._
+
+  /** Returns the cache file for the scene and hash of the scene definition */
+  def getFile(sceneId: String, hash: String): File = {
+    val name = Option(sceneId).getOrElse("scene").replaceAll("[^A-Za-z0-9._-]", "_")
+    new File(new File(dir, hash.substring(0, 2)), name + "-" + hash + "." + EXTENSION)
+  }
+
+  /** Returns the cache file for the scene (as it would be loaded by AssetLoader.loadScene) */
+  def getFile(scene: Scene, useSupportHierarchy: Boolean): File = {
+    getFile(scene.sceneId, getHash(scene, useSupportHierarchy))
+  }
+
+  /**
+   * Loads the assembled scene from the cache file
+   * @return The assembled scene or null if there is no (valid) cached file
+   */
+  def load(file: File): AssembledScene = {
+    if (!file.isFile) return null
+    try {
+      val bb = ByteBuffer.wrap(Files.readAllBytes(file.toPath)).order(ByteOrder.LITTLE_ENDIAN)
+      if (bb.remaining() < 8 || bb.getInt() != MAGIC) {
+        throw new IOException("Not a " + EXTENSION + " file")
+      }
+      val version = bb.getInt()
+      if (version != VERSION) {
+        throw new IOException("Unsupported " + EXTENSION + " version " + version)
+      }
+      val models = Array.fill(bb.getInt()) {
+        val bytes = Array.ofDim[Byte](bb.getInt())
+        bb.get(bytes)
+        CachedModel(new String(bytes, UTF8), getVector(bb), getVector(bb))
+      }
+      val objects = Array.fill(bb.getInt()) {
+        CachedObject(bb.getInt(), bb.getInt(), getFloats(bb, 16), getFloats(bb, 16))
+      }
+      AssembledScene(models, objects)
+    } catch {
+      case ex: Exception =>
+        logger.warn("Error loading " + file, ex)
+        null
+    }
+  }
+
+  /** Saves the assembled scene to the cache file */
+  def save(file: File, scene: AssembledScene): Boolean = {
+    try {
+      val parent = file.getAbsoluteFile.getParentFile
+      if (parent != null && !parent.isDirectory && !parent.mkdirs() && !parent.isDirectory) {
+        throw new IOException("Cannot create directory " + parent)
+      }
+      val modelIds = scene.models.map( m => m.modelId.getBytes(UTF8) )
+      val size = 16 + modelIds.map( b => 4 + b.length + 24 ).sum + scene.objects.length * (8 + 2*16*4)
+      val bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+      bb.putInt(MAGIC).putInt(VERSION)
+      bb.putInt(scene.models.length)
+      for ((m,id) <- scene.models.zip(modelIds)) {
+        bb.putInt(id.length).put(id)
+        putVector(bb, m.up)
+        putVector(bb, m.front)
+      }
+      bb.putInt(scene.objects.length)
+      for (obj <- scene.objects) {
+        bb.putInt(obj.modelIndex).putInt(obj.parentIndex)
+        obj.transform.foreach( x => bb.putFloat(x) )
+        obj.modelTransform.foreach( x => bb.putFloat(x) )
+      }
+      // Write to a temporary file and move into place so readers never see a partial file
+      val tmpFile = File.createTempFile(file.getName, ".tmp", parent)
+      try {
+        Files.write(tmpFile.toPath, bb.array())
+        try {
+          Files.move(tmpFile.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch {
+          case ex: IOException => Files.move(tmpFile.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+        }
+      } finally {
+        if (tmpFile.exists()) tmpFile.delete()
+      }
+      true
+    } catch {
+      case ex: Exception =>
+        logger.warn("Error saving " + file, ex)
+        false
+    }
+  }
+}
+
+object SceneCache {
+  val EXTENSION = "sscene"
+  val VERSION = 1
+  private val MAGIC = 0x4E435353 // SSCN
+  private val UTF8 = Charset.forName("UTF-8")
+
+  /** Model used by a cached scene */
+  case class CachedModel(modelId: String, up: Vector3f, front: Vector3f)
+  /**
+   * Object of a cached scene
+   * @param modelIndex Index of the model in the models of the scene (-1 if the object was not loaded)
+   * @param parentIndex Index of the object this object is attached to (-1 if attached to the scene node)
+   * @param transform Local transform of the object node (column major)
+   * @param modelTransform Local transform of the model node under the object node (column major)
+   */
+  case class CachedObject(modelIndex: Int, parentIndex: Int, transform: Array[Float], modelTransform: Array[Float])
+  case class AssembledScene(models: Array[CachedModel], objects: Array[CachedObject])
+
+  /** Hash of the scene definition and the options that affect how the scene is assembled */
+  def getHash(scene: Scene, useSupportHierarchy: Boolean): String = {
+    val md = MessageDigest.getInstance("MD5")
+    val out = new DataOutputStream(new OutputStream {
+      override def write(b: Int) { md.update(b.toByte) }
+      override def write(b: Array[Byte], off: Int, len: Int) { md.update(b, off, len) }
+    })
+    out.writeInt(VERSION)
+    out.writeBoolean(useSupportHierarchy)
+    out.writeBoolean(Constants.useSemanticCoordFront)
+    out.writeInt(scene.objects.length)
+    for (obj <- scene.objects) {
+      out.writeUTF(obj.modelID)
+      out.writeInt(obj.supportParentIndex)
+      obj.transform.toArray().foreach( x => out.writeDouble(x) )
+    }
+    out.flush()
+    md.digest().take(8).map( b => "%02x".format(b) ).mkString
+  }
+
+  private def getVector(bb: ByteBuffer): Vector3f = new Vector3f(bb.getFloat(), bb.getFloat(), bb.getFloat())
+
+  private def putVector(bb: ByteBuffer, v: Vector3f): Unit = bb.putFloat(v.x).putFloat(v.y).putFloat(v.z)
+
+  private def getFloats(bb: ByteBuffer, n: Int): Array[Float] = {
+    val array = Array.ofDim[Float](n)
+    bb.asFloatBuffer().get(array)
+    bb.position(bb.position() + 4*n)
+    array
+  }
+}
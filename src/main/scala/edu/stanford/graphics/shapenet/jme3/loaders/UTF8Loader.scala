@@ -1,12 +1,16 @@
 package edu.stanford.graphics.shapenet.jme3.loaders
 
+import java.util.concurrent.{Callable, ExecutionException}
+
 import edu.stanford.graphics.shapenet.common.{MaterialInfo, Model}
-import edu.stanford.graphics.shapenet.util.IOUtils
+import edu.stanford.graphics.shapenet.util.{IOUtils, Threads}
 import org.json.simple.JSONObject
 import scala.collection.JavaConversions._
 
 /**
  * Loads model from UTF8 json format
+ * The meshes of a model are decoded in parallel (on the cpu executor, see Threads),
+ *   and then added to the model in order (by url and then by position in the url)
  * @author Angel Chang
  */
 class UTF8Loader(val assetLoader: AssetLoader)  {
@@ -115,18 +119,17 @@ class UTF8Loader(val assetLoader: AssetLoader)  {
       val decodeParams = new UTF8Decoder.DecodeParams(decodeOffsets.toArray, decodeScales.toArray)
       val model = assetCreator.createModel(modelName)
       var meshNum = 0
-      // FIXME: The urls are from a map so they may not be ordered
-      // For consistent ordering, we should order by something....
-      // Okay for now since there is only one url per model....
-      for ((url, urlmmis) <- urls) {
+      // The urls are from a map, order them so the mesh numbering is consistent
+      for ((url, urlmmis) <- urls.toSeq.sortBy( x => x._1 )) {
         // Fetch geometries
         val geomBytes = assetLoader.loadBytes(url, options.geometryPath.getOrElse(base) )
         if (geomBytes != null) {
-          val geomStr = new String(geomBytes,"UTF-8")
+          val geomInput = new UTF8Decoder.Input(geomBytes)
+          val decodedMeshes = decodeMeshes(geomInput, url, urlmmis, decodeParams)
           for (idx <- 0 until urlmmis.length) {
-            val name = url + "." + idx  // TODO: Get unique name
             val urlmmi = urlmmis(idx)
-            val decodedMesh = decoder.decode(geomStr, urlmmi, decodeParams, name, idx)
+            val decodedMesh = decodedMeshes(idx)
+            // Materials are created (once per material name) on this thread as the meshes are added
             val material = if (options.loadMaterials) {
               val mi = materialInfos.get(urlmmi.material)
               mi.map( x => x.material ).getOrElse(null)
@@ -150,6 +153,32 @@ class UTF8Loader(val assetLoader: AssetLoader)  {
     }
   }
 
+  /** Decodes the meshes of one url (in parallel if there are several meshes) */
+  private def decodeMeshes(input: UTF8Decoder.Input, url: String,
+                           meshParams: Array[UTF8Decoder.MeshParams],
+                           decodeParams: UTF8Decoder.DecodeParams): IndexedSeq[UTF8Decoder.Mesh] = {
+    def decode(idx: Int) = {
+      val name = url + "." + idx  // TODO: Get unique name
+      decoder.decode(input, meshParams(idx), decodeParams, name, idx)
+    }
+    // Don't wait for cpu tasks from a cpu thread
+    if (meshParams.length <= 1 || Threads.cpu.getMaximumPoolSize <= 1 || Threads.cpu.isCurrentThread) {
+      meshParams.indices.map( idx => decode(idx) )
+    } else {
+      val pool = Threads.cpu
+      val futures = meshParams.indices.map( idx => pool.submit(new Callable[UTF8Decoder.Mesh] {
+        override def call(): UTF8Decoder.Mesh = decode(idx)
+      }))
+      try {
+        futures.map( f => f.get() )
+      } catch {
+        case ex: ExecutionException => throw ex.getCause
+      } finally {
+        futures.foreach( f => f.cancel(false) )
+      }
+    }
+  }
+
 }
 
 object Conversions {
@@ -4,7 +4,7 @@ import java.io.File
 
 import edu.stanford.graphics.shapenet.Constants
 import edu.stanford.graphics.shapenet.common.CategoryUtils
-import edu.stanford.graphics.shapenet.util.{ConfigHelper, IOUtils}
+import edu.stanford.graphics.shapenet.util.{ConfigHelper, IOUtils, Threads}
 import de.lessvoid.nifty.controls.{ConsoleCommands, Console}
 import de.lessvoid.nifty.controls.ConsoleCommands.ConsoleCommand
 
@@ -176,12 +176,13 @@ class CommandConsole(val controller: ViewerController,
     override def description = "Print information"
     override def aliases = Seq("p")
     override def registerArgs = Seq("hierarchy", "objects",
-      "info model", "info selected")
+      "info model", "info selected", "threads")
     override def extendedDescription =
       "print hierarchy - Print scene hierarchy\n" +
       "print objects - Print information about objects in the scene\n" +
       "print info model <modelId> - Print information about the specified modelId\n" +
-      "print info selected - Print information about the selected object"
+      "print info selected - Print information about the selected object\n" +
+      "print threads - Print the queues and latencies of the background executors"
 
     override def executeImpl(args: Array[String]) {
       args match {
@@ -194,6 +195,9 @@ class CommandConsole(val controller: ViewerController,
             console.output("No scene is loaded")
           }
         }
+        case Array(_, "threads") => {
+          console.output(Threads.getStats.mkString("\n"))
+        }
         case Array(_, "objects") => {
           val scene = viewer.scene
           if (scene != null) {
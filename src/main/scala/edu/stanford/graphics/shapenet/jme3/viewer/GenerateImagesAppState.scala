@@ -8,7 +8,7 @@ import com.jme3.math.Transform
 import edu.stanford.graphics.shapenet.common._
 import edu.stanford.graphics.shapenet.jme3.geom.BoundingBoxUtils
 import edu.stanford.graphics.shapenet.util.ConversionUtils._
-import edu.stanford.graphics.shapenet.util.IOUtils
+import edu.stanford.graphics.shapenet.util.{IOUtils, TaskExecutor, Threads}
 
 import scala.concurrent.{Promise,Future}
 
@@ -252,15 +252,30 @@ class GenerateImagesAppState(val viewer: Viewer,
     screenshotQueue.synchronized {
       if (screenshotQueue.nonEmpty) {
         val item = screenshotQueue.head
+        if (item.sceneId != null && item.state != ScreenShotState.INIT && item.state != ScreenShotState.OPTIMIZE_VIEW
+          && !viewer.isSceneLoaded(item.sceneId)) {
+          // Another load (e.g. an interactive one that finished after ours) replaced the scene
+          if (item.nSceneLoads < 2) {
+            println("Scene " + item.sceneId + " is not loaded, loading it again for " + item.filename)
+            item.state = ScreenShotState.INIT
+          } else {
+            println("Skipping screen shot " + item.filename + ", scene " + item.sceneId + " is not loaded")
+            item.state = ScreenShotState.DONE
+          }
+        }
         item.state match {
           case ScreenShotState.INIT => {
             println("Loading scene for " + item.filename)
             if (!viewer.isSceneLoaded(item.sceneId)) {
-              if (item.scene != null) {
-                // Constructed scene... TODO: need to make sure we have unique scene Ids
-                viewer.loadScene(item.scene, async = true)
-              } else {
-                viewer.loadScene(item.sceneId, async = true)
+              // Screenshots are batch work too
+              item.nSceneLoads += 1
+              Threads.withPriority(TaskExecutor.Priority.BATCH) {
+                if (item.scene != null) {
+                  // Constructed scene... TODO: need to make sure we have unique scene Ids
+                  viewer.loadScene(item.scene, async = true)
+                } else {
+                  viewer.loadScene(item.sceneId, async = true)
+                }
               }
             }
             item.state = ScreenShotState.LOAD_SCENE
@@ -332,6 +347,10 @@ class GenerateImagesAppState(val viewer: Viewer,
               println("Finished processing screen shots")
             }
           }
+          case ScreenShotState.DONE => {
+            // Skipped
+            screenshotQueue.dequeue()
+          }
         }
         processed = true
       }
@@ -358,21 +377,24 @@ class GenerateImagesAppState(val viewer: Viewer,
                 if (action.state == ActionStates.FORCE_LOAD) {
                   action.state = ActionStates.EMPTY
                 }
-                if (sceneState != null) {
-                  // Constructed scene... TODO: need to make sure we have unique scene Ids
-                  viewer.loadSceneState(sceneState, async = true, onerror = () => {
-                    // need to move on error
-                    actionQueue.synchronized {
-                      actionQueue.dequeueFirst( a => a == action )
-                    }
-                  })
-                } else {
-                  viewer.load(sceneId, async = true, onerror = () => {
-                    // need to move on error
-                    actionQueue.synchronized {
-                      actionQueue.dequeueFirst( a => a == action )
-                    }
-                  })
+                // Image generation is batch work (interactive loads go first)
+                Threads.withPriority(TaskExecutor.Priority.BATCH) {
+                  if (sceneState != null) {
+                    // Constructed scene... TODO: need to make sure we have unique scene Ids
+                    viewer.loadSceneState(sceneState, async = true, onerror = () => {
+                      // need to move on error
+                      actionQueue.synchronized {
+                        actionQueue.dequeueFirst( a => a == action )
+                      }
+                    })
+                  } else {
+                    viewer.load(sceneId, async = true, onerror = () => {
+                      // need to move on error
+                      actionQueue.synchronized {
+                        actionQueue.dequeueFirst( a => a == action )
+                      }
+                    })
+                  }
                 }
               } else if (action.state.length < 2) {
                 // Make sure there is a frame where the scene is loaded before proceeding
@@ -533,7 +555,10 @@ class ScreenShotInfo(val id: String, // Unique id for this screen shot
                      var camera: CameraState = null,
                      var scene: Scene = null, // Scene associated with the screen shot info
                      val optimizeView: Boolean = false // Should the view be automatically optimized?
-                      )
+                      ) {
+  // Number of times the scene was asked to load for this screen shot
+  var nSceneLoads = 0
+}
 
 
 
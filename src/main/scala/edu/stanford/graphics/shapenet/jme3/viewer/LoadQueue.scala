@@ -0,0 +1,82 @@
+package edu.stanford.graphics.shapenet.jme3.viewer
+
+import java.util.concurrent.Future
+
+import edu.stanford.graphics.shapenet.util.TaskExecutor.Priority
+import edu.stanford.graphics.shapenet.util.{Loggable, TaskExecutor, Threads}
+
+import scala.collection.mutable
+
+/**
+ * Load of a model or scene asked for by the viewer (see LoadQueue)
+ * @author Angel Chang
+ */
+class LoadRequest(val name: String, val priority: Priority) {
+  @volatile private[viewer] var superseded = false
+  private[viewer] var future: Future[_] = null
+  /** Is the load still wanted (not superseded by a newer load) */
+  def isCurrent: Boolean = !superseded
+  override def toString = name
+}
+
+/**
+ * Loads (of models and scenes) asked for by the viewer, run on the tasks executor
+ * A new interactive load supersedes the pending interactive loads: loads that have not started are dropped,
+ *   and loads that are running are interrupted (parsing stops where it can be interrupted,
+ *   models that were already loaded stay in the model cache, and a model the interrupted load was
+ *   also loading for a newer load is loaded again by the newer load, see WeightedLRUCache).
+ * Batch loads (e.g. for generating images) don't supersede other loads and are not superseded
+ *   (whoever asked for them waits for them, and checks that its scene is the one shown once they are done).
+ * Asking for a load that is already pending does nothing.
+ * @author Angel Chang
+ */
+class LoadQueue extends Loggable {
+  private val pending = new mutable.ArrayBuffer[LoadRequest]()
+
+  /**
+   * Adds a load (superseding the pending loads if it is interactive)
+   * @return Request for the load (to submit), or null if the same load is already pending
+   */
+  def request(name: String, priority: Priority = TaskExecutor.getCurrentPriority): LoadRequest = synchronized {
+    if (pending.exists( r => r.name == name )) {
+      logger.info("Already loading " + name)
+      null
+    } else {
+      if (priority == Priority.INTERACTIVE) {
+        val superseded = pending.filter( r => r.priority == Priority.INTERACTIVE )
+        superseded.foreach( r => supersede(r) )
+        pending --= superseded
+      }
+      val request = new LoadRequest(name, priority)
+      pending.append(request)
+      request
+    }
+  }
+
+  /** Runs the load for the request (unless it was superseded in the meantime) */
+  def submit(request: LoadRequest, runnable: Runnable): Unit = synchronized {
+    if (request.isCurrent) {
+      request.future = Threads.execute(runnable, logger, "load " + request.name, request.priority)
+    }
+  }
+
+  /**
+   * Removes the request once its load is done
+   * @return If the request was pending (false if it was superseded or already done)
+   */
+  def done(request: LoadRequest): Boolean = synchronized {
+    val i = pending.indexOf(request)
+    if (i >= 0) pending.remove(i)
+    i >= 0
+  }
+
+  def isLoading: Boolean = synchronized { pending.nonEmpty }
+
+  private def supersede(request: LoadRequest): Unit = {
+    logger.info("Superseded load " + request.name)
+    request.superseded = true
+    if (request.future != null) {
+      request.future.cancel(true)
+    }
+  }
+}
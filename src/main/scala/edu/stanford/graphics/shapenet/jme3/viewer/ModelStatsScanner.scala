@@ -0,0 +1,140 @@
+package edu.stanford.graphics.shapenet.jme3.viewer
+
+import java.util.concurrent.{Callable, ExecutionException, Future, LinkedBlockingQueue}
+
+import com.jme3.asset.{AssetKey, ModelKey}
+import com.jme3.scene.VertexBuffer
+import edu.stanford.graphics.shapenet.Constants
+import edu.stanford.graphics.shapenet.common.FullId
+import edu.stanford.graphics.shapenet.jme3.{Jme, JmeAssetCreator}
+import edu.stanford.graphics.shapenet.jme3.asset.{CompressedAssetKey, EnhancedModelKey}
+import edu.stanford.graphics.shapenet.jme3.loaders.{LoadFormat, MeshStats, ModelLoadOptions}
+import edu.stanford.graphics.shapenet.jme3.plugins.{OBJLoader, PLYLoader}
+import edu.stanford.graphics.shapenet.util.TaskExecutor.Priority
+import edu.stanford.graphics.shapenet.util.{Loggable, Threads}
+
+import scala.collection.mutable
+
+/**
+ * Computes model statistics (number of faces, vertices, materials and bounding boxes)
+ *   without loading the models into a scene.
+ * obj and ply files are scanned directly (no meshes are created),
+ *   other formats are loaded (one at a time) but not aligned or attached to a scene.
+ * The aligned bounding box is for the model aligned and scaled the same way as Jme.loadModelAsAlignedScene.
+ * Models are scanned as batch tasks on the io executor, at most nThreads at a time.
+ * @author Angel Chang
+ */
+class ModelStatsScanner(val jme: Jme,
+                        val nThreads: Int = Runtime.getRuntime.availableProcessors()) extends Loggable {
+  private val dataManager = jme.dataManager
+  private val assetManager = jme.assetManager
+  // Models loaded through the asset loader are loaded one at a time
+  private val loadLock = new Object
+
+  def getModelStats(modelId: String): Map[String,_] = {
+    val fullId = FullId(modelId)
+    val modelInfo = dataManager.getModelInfo(fullId.fullid).getOrElse(null)
+    val loadFormat = jme.assetLoader.defaultLoadFormat.map( x => LoadFormat.shortName(x)).getOrElse(null)
+    val loadOpts = dataManager.getModelLoadOptions(fullId, loadFormat)
+    val loadPath = loadOpts.path.getOrElse( loadOpts.modelIdToPath(fullId.id) ).replaceAll("\\\\", "/")
+
+    // Same up, front and unit as the scene created by loadModelAsScene
+    val sceneUp = loadOpts.up.getOrElse( if (modelInfo != null) modelInfo.up else Constants.DEFAULT_SCENE_UP )
+    val sceneFront = loadOpts.front.getOrElse( if (modelInfo != null) modelInfo.front else Constants.DEFAULT_SCENE_FRONT )
+    val sceneUnit = loadOpts.unit.getOrElse( if (modelInfo != null) modelInfo.unit else Constants.DEFAULT_SCENE_UNIT )
+    val alignment = jme.getAlignToUpFrontAxesMatrix3f(sceneUp, sceneFront, jme.worldUp, jme.worldFront)
+    alignment.multLocal((sceneUnit * jme.metersToVirtualUnit).toFloat)
+
+    val stats = new MeshStats(alignment)
+    loadOpts.format match {
+      case "obj" => new OBJLoader().loadStats(locateModel(loadPath, loadOpts), stats)
+      case "ply" => new PLYLoader().loadStats(locateModel(loadPath, loadOpts), stats)
+      case _ => addLoadedModelStats(modelId, stats)
+    }
+    if (!stats.hasPoints) {
+      throw new IllegalArgumentException("No vertices for model " + modelId)
+    }
+    Map(
+      "id" -> modelId,
+      "category" -> (if (modelInfo != null) modelInfo.category else null),
+      "unit" -> (if (modelInfo != null) modelInfo.unit else null),
+      "up" -> (if (modelInfo != null && modelInfo.up != null) modelInfo.up else Constants.DEFAULT_MODEL_UP),
+      "front" -> (if (modelInfo != null && modelInfo.front != null) modelInfo.front else Constants.DEFAULT_MODEL_FRONT),
+      "nfaces" -> stats.nFaces,
+      "nvertices" -> stats.nVertices,
+      "nMaterials" -> stats.nMaterials,
+      "minPoint" -> stats.getMin,
+      "maxPoint" -> stats.getMax,
+      "aligned.minPoint" -> stats.getAlignedMin,
+      "aligned.maxPoint" -> stats.getAlignedMax,
+      "aligned.dims" -> stats.getAlignedDims
+    ).filter( x => x._2 != null )
+  }
+
+  /** Locates the model file the same way as JmeAssetCreator.loadModel */
+  private def locateModel(path: String, options: ModelLoadOptions) = {
+    val modelKey = if (options.geometryPath.isDefined || options.materialsPath.isDefined) {
+      new EnhancedModelKey(path, options.geometryPath.getOrElse(null), options.materialsPath.getOrElse(null))
+    } else new ModelKey(path)
+    val key: AssetKey[_] = if (options.compressionExt != null) {
+      new CompressedAssetKey(modelKey, options.compressionExt)
+    } else modelKey
+    val info = assetManager.locateAsset(key)
+    if (info == null) {
+      throw new IllegalArgumentException("Cannot locate model " + path)
+    }
+    info
+  }
+
+  private def addLoadedModelStats(modelId: String, stats: MeshStats): Unit = {
+    val node = loadLock.synchronized { jme.loadModel(modelId).node }
+    node.updateGeometricState()
+    val geoms = jme.getGeometriesUnordered(node)
+    for (geom <- geoms) {
+      stats.nFaces += geom.getTriangleCount
+      stats.nVertices += geom.getVertexCount
+      val pb = geom.getMesh.getBuffer(VertexBuffer.Type.Position)
+      if (pb != null) {
+        stats.addPoints(pb.getData.asInstanceOf[java.nio.FloatBuffer], geom.getWorldMatrix)
+      }
+    }
+    stats.nMaterials += JmeAssetCreator.getNumMaterials(node)
+  }
+
+  def saveModelStats(modelIds: Iterable[String], filename: String, appendToExisting: Boolean = false): Unit = {
+    val output = new ModelStatsWriter(filename, appendToExisting)
+    val remaining = output.remaining(modelIds).toIterator
+    // Rows are written as the scans complete (so a partial file has the rows of all the scans that completed)
+    val completed = new LinkedBlockingQueue[Future[Map[String,_]]]()
+    val pending = new mutable.HashMap[Future[Map[String,_]], String]()
+    def submitNext(): Unit = {
+      if (remaining.hasNext) {
+        val modelId = remaining.next()
+        val future = Threads.io.submit(new Callable[Map[String,_]] {
+          override def call(): Map[String,_] = getModelStats(modelId)
+        }, Priority.BATCH, completed)
+        pending.put(future, modelId)
+      }
+    }
+    try {
+      for (i <- 0 until math.max(nThreads, 1)) {
+        submitNext()
+      }
+      while (pending.nonEmpty) {
+        val future = completed.take()
+        val modelId = pending.remove(future).get
+        try {
+          output.write(future.get())
+        } catch {
+          case ex: ExecutionException => {
+            logger.warn("Error getting statistics for " + modelId, ex.getCause)
+          }
+        }
+        submitNext()
+      }
+    } finally {
+      pending.keys.foreach( f => f.cancel(false) )
+      output.close()
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package edu.stanford.graphics.shapenet.jme3.viewer
+
+import au.com.bytecode.opencsv.CSVWriter
+import com.jme3.math.Vector3f
+import edu.stanford.graphics.shapenet.util.{CSVFile, IOUtils, Loggable}
+
+/**
+ * Writes model statistics to a csv file (one row per model, with the columns in ModelStatsWriter.statNames)
+ * When appending to an existing file, the models already in the file are skipped (see remaining).
+ * @author Angel Chang
+ */
+class ModelStatsWriter(val filename: String, appendToExisting: Boolean = false) extends Loggable {
+  private val append = appendToExisting && IOUtils.isReadableFileWithData(filename)
+  private val doneIds: Set[String] = if (append) {
+    // Read existing file to find the modelIds that are already done
+    val csvreader = new CSVFile(filename, includesHeader = true)
+    val iFullId = csvreader.index("id")
+    (for (row <- csvreader) yield {
+      row(iFullId)
+    }).toSet
+  } else Set()
+  private val output = new CSVWriter(IOUtils.filePrintWriter(filename, append))
+  if (!append) {
+    output.writeNext(ModelStatsWriter.statNames.toArray)
+  }
+
+  /** Model ids that are not in the file yet */
+  def remaining(modelIds: Iterable[String]): Iterable[String] = {
+    if (append) {
+      val todoModelIds = modelIds.filter( x => !doneIds.contains(x) )
+      logger.info("Skipping " + doneIds.size + " done ids, processing " + todoModelIds.size)
+      todoModelIds
+    } else modelIds
+  }
+
+  def write(stats: Map[String,_]): Unit = {
+    val row = ModelStatsWriter.statNames.map(x => stats.get(x).map(stat => ModelStatsWriter.toString(stat)).getOrElse(""))
+    output.writeNext(row.toArray)
+  }
+
+  def close(): Unit = {
+    output.close()
+    logger.info("Saved " + filename)
+  }
+}
+
+object ModelStatsWriter {
+  // nMaterials is the number of materials of the model as loaded, before identical materials are shared
+  //   (a material used by several geometries counts once, a default material is created for each geometry without one)
+  val statNames = Seq("id", "category", "unit", "up", "front", "nfaces", "nvertices", "nMaterials", "minPoint", "maxPoint",
+    "aligned.minPoint", "aligned.maxPoint", "aligned.dims")
+
+  def toString(value: Any): String = {
+    value match {
+      case v: Array[_] => v.map( x => toString(x) ).mkString(",")
+      case v: Vector3f => "[" + v.getX + "," + v.getY + "," + v.getZ + "]"
+      case _ => value.toString
+    }
+  }
+}
@@ -1,7 +1,7 @@
 package edu.stanford.graphics.shapenet.jme3.viewer
 
 import edu.stanford.graphics.shapenet.common.CameraState
-import edu.stanford.graphics.shapenet.util.{IOUtils, ImageWriter, Loggable}
+import edu.stanford.graphics.shapenet.util.{IOUtils, ImageWriter, Loggable, Threads}
 import com.jme3.math.{ColorRGBA, Transform, Vector3f}
 import com.jme3.post.SceneProcessor
 import com.jme3.renderer.{Camera, RenderManager}
@@ -84,10 +84,17 @@ class OffscreenView(val renderManager: RenderManager,
     val outBuf = BufferUtils.createByteBuffer(width * height * 4)
     renderManager.getRenderer.readFrameBuffer(framebuffer, outBuf)
     val file = new File(filename)
-    var outStream: OutputStream = null
     logger.info("Saving offscreen view to: {0}", file.getAbsolutePath())
+    // Encode on the encode executor (outBuf is not reused), or here if too many images are waiting
+    Threads.encodeOrRun(new Runnable {
+      override def run(): Unit = writeImage(file, imageFormat, outBuf)
+    })
+  }
+
+  private def writeImage(file: File, imageFormat: String, outBuf: java.nio.ByteBuffer) {
+    var outStream: OutputStream = null
     try {
-      outStream = IOUtils.fileOutputStream(filename)
+      outStream = IOUtils.fileOutputStream(file.getPath)
       ImageWriter.writeImageFile(outStream, imageFormat, outBuf, width, height)
     } catch {
       case ex: IOException => {
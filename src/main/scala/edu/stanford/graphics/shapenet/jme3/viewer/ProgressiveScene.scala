@@ -0,0 +1,64 @@
+package edu.stanford.graphics.shapenet.jme3.viewer
+
+import com.jme3.bounding.BoundingBox
+import com.jme3.math.{ColorRGBA, Transform}
+import com.jme3.scene.{Node, Spatial}
+import edu.stanford.graphics.shapenet.common.{FullId, GeometricScene, Model, Scene}
+import edu.stanford.graphics.shapenet.jme3.{Jme, JmeScene}
+import edu.stanford.graphics.shapenet.util.Loggable
+
+/**
+ * Shows a scene while its models are being loaded
+ * Each object starts out as a proxy (a box for the bounding box of its model from the model info,
+ *   placed with the transform of the object in the scene) and the proxy is swapped for the model
+ *   once the model is loaded (setModel, on the jme thread).
+ * This is only for display, when the whole scene is loaded it replaces the progressive scene
+ *   (so the final scene graph is the same as without progressive loading).
+ * @author Angel Chang
+ */
+class ProgressiveScene(val jme: Jme, val scene: Scene, val proxyColor: ColorRGBA = ProgressiveScene.defaultProxyColor) extends Loggable {
+  val node = new Node(scene.sceneId + "-progressive")
+  val geometricScene: GeometricScene[Node] = {
+    val s = new JmeScene(node)
+    s.scene = scene
+    s
+  }
+  // Node for each object (with the object transform) and what is shown for the object (proxy or model)
+  private val objectNodes = Array.ofDim[Node](scene.objects.length)
+  private val shown = Array.ofDim[Spatial](scene.objects.length)
+  private var nModels = 0
+
+  for ((obj,i) <- scene.objects.zipWithIndex) {
+    val objectNode = new Node("Object-" + i)
+    objectNode.setLocalTransform(jme.assetCreator.arrayToTransform(obj.transform.toFloatArray()))
+    val modelInfo = jme.dataManager.getModelInfo(FullId(obj.modelID).fullid).getOrElse(null)
+    if (modelInfo != null && modelInfo.minPoint != null && modelInfo.maxPoint != null) {
+      shown(i) = jme.bbToSpatial(new BoundingBox(modelInfo.minPoint, modelInfo.maxPoint), color = proxyColor)
+      objectNode.attachChild(shown(i))
+    }
+    objectNodes(i) = objectNode
+    node.attachChild(objectNode)
+  }
+
+  /** Replaces the proxies of the objects using the model with the model (call on the jme thread) */
+  def setModel(modelId: String, model: Model[Node]): Unit = {
+    val fullId = FullId(modelId).fullid
+    for ((obj,i) <- scene.objects.zipWithIndex if FullId(obj.modelID).fullid == fullId) {
+      if (shown(i) != null) {
+        shown(i).removeFromParent()
+      }
+      // Models are shown in their own coordinates under the object node (as in the loaded scene)
+      shown(i) = jme.assetCreator.cloneNode(model.node)
+      shown(i).setLocalTransform(Transform.IDENTITY)
+      objectNodes(i).attachChild(shown(i))
+      nModels += 1
+    }
+  }
+
+  /** Number of objects shown with their model (instead of a proxy) */
+  def modelsShown: Int = nModels
+}
+
+object ProgressiveScene {
+  val defaultProxyColor = new ColorRGBA(0.7f, 0.7f, 0.7f, 1.0f)
+}
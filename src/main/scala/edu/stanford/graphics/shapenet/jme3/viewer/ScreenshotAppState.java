@@ -49,6 +49,7 @@ import com.jme3.system.JmeSystem;
 import com.jme3.texture.FrameBuffer;
 import com.jme3.util.BufferUtils;
 import edu.stanford.graphics.shapenet.util.ImageWriter;
+import edu.stanford.graphics.shapenet.util.Threads;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -186,7 +187,7 @@ public class ScreenshotAppState extends AbstractAppState implements ActionListen
       renderer.readFrameBuffer(out, outBuf);
       renderer.setViewPort(viewX, viewY, viewWidth, viewHeight);
 
-      File file;
+      final File file;
       if (tempFilename != null) {
         file = new File(tempFilename);
         tempFilename = null;
@@ -199,20 +200,37 @@ public class ScreenshotAppState extends AbstractAppState implements ActionListen
       }
       logger.log(Level.INFO, "Saving ScreenShot to: " + file.getAbsolutePath());
 
-      OutputStream outStream = null;
-      try {
-        outStream = new FileOutputStream(file);
-        ImageWriter.writeImageFile(outStream, imageFormat, outBuf, width, height);
-        logger.log(Level.INFO, "Saved ScreenShot to: " + file.getAbsolutePath());
-      } catch (IOException ex) {
-        logger.log(Level.SEVERE, "Error while saving screenshot", ex);
-      } finally {
-        if (outStream != null){
-          try {
-            outStream.close();
-          } catch (IOException ex) {
-            logger.log(Level.SEVERE, "Error while saving screenshot", ex);
-          }
+      // Encode on the encode executor (with a copy of the frame, the buffer is reused for the next screenshot),
+      //   or here if too many screenshots are waiting
+      final ByteBuffer imageData = ByteBuffer.allocate(outBuf.capacity());
+      outBuf.clear();
+      imageData.put(outBuf).clear();
+      outBuf.clear();
+      final String format = imageFormat;
+      final int w = width;
+      final int h = height;
+      Threads.encodeOrRun(new Runnable() {
+        public void run() {
+          writeImage(file, format, imageData, w, h);
+        }
+      });
+    }
+  }
+
+  private static void writeImage(File file, String format, ByteBuffer imageData, int width, int height) {
+    OutputStream outStream = null;
+    try {
+      outStream = new FileOutputStream(file);
+      ImageWriter.writeImageFile(outStream, format, imageData, width, height);
+      logger.log(Level.INFO, "Saved ScreenShot to: " + file.getAbsolutePath());
+    } catch (IOException ex) {
+      logger.log(Level.SEVERE, "Error while saving screenshot", ex);
+    } finally {
+      if (outStream != null){
+        try {
+          outStream.close();
+        } catch (IOException ex) {
+          logger.log(Level.SEVERE, "Error while saving screenshot", ex);
         }
       }
     }
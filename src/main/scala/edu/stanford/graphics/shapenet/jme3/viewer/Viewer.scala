@@ -4,7 +4,6 @@ import java.io.File
 import java.util.concurrent.Callable
 import javax.swing.tree.DefaultMutableTreeNode
 
-import au.com.bytecode.opencsv.CSVWriter
 import com.jme3.app.SimpleApplication
 import com.jme3.bounding.BoundingBox
 import com.jme3.collision.CollisionResults
@@ -17,7 +16,7 @@ import com.jme3.niftygui.NiftyJmeDisplay
 import com.jme3.post.filters.CartoonEdgeFilter
 import com.jme3.post.ssao.SSAOFilter
 import com.jme3.post.{Filter, FilterPostProcessor}
-import com.jme3.renderer.Camera
+import com.jme3.renderer.{Caps, Camera}
 import com.jme3.renderer.queue.RenderQueue.ShadowMode
 import com.jme3.scene.shape.{Box, Cylinder}
 import com.jme3.scene.{Geometry, Node, Spatial}
@@ -27,8 +26,11 @@ import edu.stanford.graphics.shapenet.{Constants, UserDataConstants}
 import edu.stanford.graphics.shapenet.common._
 import edu.stanford.graphics.shapenet.gui.{MeshTreePanel, SceneTreePanel, TreeNodeInfo}
 import edu.stanford.graphics.shapenet.jme3.app.ModelInfoAppState
+import edu.stanford.graphics.shapenet.jme3.asset.TextureCache
 import edu.stanford.graphics.shapenet.jme3.geom.BoundingBoxUtils
 import edu.stanford.graphics.shapenet.jme3.loaders.{LoadFormat, LoadProgress, LoadProgressListener}
+import edu.stanford.graphics.shapenet.jme3.plugins.{OBJLoader, PLYLoader}
+import jme3dae.DAELoader
 import edu.stanford.graphics.shapenet.jme3._
 import edu.stanford.graphics.shapenet.jme3.{Jme, JmeUtils}
 import edu.stanford.graphics.shapenet.util.ConversionUtils._
@@ -119,6 +121,10 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
   var falseBkMaterial: Material = null
   val falseMaterials = new mutable.ArrayBuffer[Material]()
   var scene: GeometricScene[Node] = null
+  // Scene shown while the models of a scene are loading (with progressive loading)
+  private var progressiveScene: ProgressiveScene = null
+  // Loads asked for (a new interactive load supersedes the ones before it)
+  private val loadQueue = new LoadQueue()
 
   var modelInfoAppState: ModelInfoAppState = null
 
@@ -571,9 +577,12 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
     }
   }
 
-  class SceneLoadProgressListener(val distanceScale: Float, onloaded: () => _ = null, onerror: () => _ = null)
+  /** Reports the progress of a load (nothing is reported once the load is superseded) */
+  class SceneLoadProgressListener(val request: LoadRequest, val distanceScale: Float,
+                                  onloaded: () => _ = null, onerror: () => _ = null)
     extends LoadProgressListener[GeometricScene[Node]]() {
     override def onProgress(progress: LoadProgress[GeometricScene[Node]]) {
+      if (!request.isCurrent) return
       // Enqueue progress for update loop
       enqueue(new Callable[Unit]() {
         override def call() {
@@ -586,12 +595,27 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
         }
       })
     }
+    override def onPartLoaded(progress: LoadProgress[GeometricScene[Node]], name: String, part: AnyRef) {
+      val ps = progressiveScene
+      if (ps != null && request.isCurrent) {
+        // Swap in the model on the update loop (if we are still showing the same scene)
+        enqueue(new Callable[Unit]() {
+          override def call() {
+            if (progressiveScene eq ps) {
+              ps.setModel(name, part.asInstanceOf[Model[Node]])
+            }
+          }
+        })
+      }
+    }
     override def onDone(result: GeometricScene[Node]) {
       // Enqueue changes for update loop
       enqueue(new Callable[Unit]() {
         override def call() {
-          logger.debug("Scene loaded")
-          onSceneLoaded(result, distanceScale, onloaded, onerror)
+          if (loadQueue.done(request)) {
+            logger.debug("Scene loaded")
+            onSceneLoaded(result, distanceScale, onloaded, onerror)
+          }
         }
       })
     }
@@ -602,13 +626,44 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
       onSceneLoadedSuccess(scene, distanceScale, onloaded)
     } else {
       // Error
+      if (progressiveScene != null) {
+        progressiveScene.node.removeFromParent()
+        progressiveScene = null
+      }
       if (onerror != null) {
         onerror()
       }
       niftyController.showError("Error loading scene")
     }
-    logger.debug("Viewer is now ready")
-    state = ViewerState.READY
+    updateLoadState()
+  }
+
+  /** Viewer is ready once there are no more loads */
+  private def updateLoadState(): Unit = {
+    if (loadQueue.isLoading) {
+      state = ViewerState.LOAD
+    } else {
+      logger.debug("Viewer is now ready")
+      state = ViewerState.READY
+    }
+  }
+
+  /** Runs the load for the request (on the tasks executor) */
+  private def submitLoad(request: LoadRequest, load: => Unit): Unit = {
+    loadQueue.submit(request, new Runnable() {
+      override def run() {
+        try {
+          load
+        } finally {
+          // In case the load stopped without telling the listener it was done
+          enqueue(new Callable[Unit]() {
+            override def call() {
+              if (loadQueue.done(request)) updateLoadState()
+            }
+          })
+        }
+      }
+    })
   }
 
   def finalizeScene(scene: GeometricScene[Node]): Unit = {
@@ -621,6 +676,46 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
     if (this.modelInfoAppState != null) {
       this.modelInfoAppState.setScene(scene)
     }
+    // Keep the camera from when the scene was shown progressively (it may have been moved since)
+    val shownProgressively = progressiveScene != null && (progressiveScene.scene eq scene.scene)
+    progressiveScene = null
+    showSceneNode(scene)
+
+    // Position the camera.
+    if (!shownProgressively) {
+      positionSceneCamera(scene, distanceScale)
+    }
+    if (scene.scene.cameras.isEmpty) {
+      // NOTE: convert from world to scene
+      logger.debug("Save current camera as initial camera")
+      val worldCamInfo = getCurrentCameraInfo(CameraInfo.INITIAL)
+      val camInfo = jme.transformCameraInfoFromWorldToScene(worldCamInfo, scene.scene)
+      scene.scene.addCamera( camInfo )
+    }
+    adjustFlyCamSpeed()
+    val directionalLight = jme.addDefaultLights(rootSceneNode, scene.node, getCamera, config.lightColor)
+    selections.clear()
+    saveCameraState()
+
+    toggleHighlightMode(highlightMode)
+    // Add floor if not already added
+    if (needFloor && floor == null) {
+      addFloor(jme.getFastBoundingBox(scene.node))
+    }
+    // Make sure our debug node also have lights
+    for (light <- rootSceneNode.getLocalLightList) {
+      debugVisualizer.debugNode.addLight(light)
+    }
+    // Setup view processors for scene (otherwise, sometimes there is lingering shadows from previous scene)
+    setupViewProcessors(directionalLight)
+
+    niftyController.hideMenu()
+
+    if (onloaded != null) onloaded()
+  }
+
+  /** Replaces what is shown with the scene (aligned and scaled if autoAlign) */
+  private def showSceneNode(scene: GeometricScene[Node]): Unit = {
     if (autoAlign) {
       jme.alignScene(scene)
       jme.scaleScene(scene)
@@ -639,8 +734,9 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
     rootSceneNode.attachChild(scene.node)
     rootNode.attachChild(debugVisualizer.debugNode)
     jme.updateScene(scene)
+  }
 
-    // Position the camera.
+  private def positionSceneCamera(scene: GeometricScene[Node], distanceScale: Float): Unit = {
     jme.cameraPositioner.positionCamera(getCamera, Seq(scene.node), distanceScale,
       camHeightRatio = None,
       camAngleFromHorizontal = None, //Option((Math.PI/4).toFloat),
@@ -653,54 +749,34 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
       logger.debug("Using initial camera to set camera")
       jme.cameraPositioner.positionCamera(getCamera, worldCamInfo)
     }
-    if (scene.scene.cameras.isEmpty) {
-      // NOTE: convert from world to scene
-      logger.debug("Save current camera as initial camera")
-      val worldCamInfo = getCurrentCameraInfo(CameraInfo.INITIAL)
-      val camInfo = jme.transformCameraInfoFromWorldToScene(worldCamInfo, scene.scene)
-      scene.scene.addCamera( camInfo )
-    }
-    adjustFlyCamSpeed()
-    val directionalLight = jme.addDefaultLights(rootSceneNode, scene.node, getCamera, config.lightColor)
-    selections.clear()
-    saveCameraState()
-
-    toggleHighlightMode(highlightMode)
-    // Add floor if not already added
-    if (needFloor && floor == null) {
-      addFloor(jme.getFastBoundingBox(scene.node))
-    }
-    // Make sure our debug node also have lights
-    for (light <- rootSceneNode.getLocalLightList) {
-      debugVisualizer.debugNode.addLight(light)
-    }
-    // Setup view processors for scene (otherwise, sometimes there is lingering shadows from previous scene)
-    setupViewProcessors(directionalLight)
+  }
 
+  /**
+   * Shows proxies for the objects of the scene right away (the models are swapped in as they are loaded),
+   *   the loaded scene replaces them when it is done
+   */
+  private def showProgressiveScene(s: Scene, distanceScale: Float): Unit = {
+    val ps = new ProgressiveScene(jme, s)
+    progressiveScene = ps
+    showSceneNode(ps.geometricScene)
+    positionSceneCamera(ps.geometricScene, distanceScale)
+    jme.addDefaultLights(rootSceneNode, ps.node, getCamera, config.lightColor)
     niftyController.hideMenu()
-
-    if (onloaded != null) onloaded()
   }
 
   def loadModel(id: String, async: Boolean = asyncLoading, onloaded: () => _ = null, onerror: () => _ = null,  transform: Matrix4f = null) {
     if (async) {
-      if (state == ViewerState.READY) {
-        val listener = new SceneLoadProgressListener(defaultModelDistanceScale, onloaded, onerror)
-        val runnable = new Runnable() {
-          override def run() {
-            jme.loadModelAsScene(id, transform, listener = listener)
-          }
+      if (state != ViewerState.INIT) {
+        val request = loadQueue.request("model " + id)
+        if (request != null) {
+          val listener = new SceneLoadProgressListener(request, defaultModelDistanceScale, onloaded, onerror)
+          state = ViewerState.LOAD
+          niftyController.setProgress(0, "Loading model: " + id)
+          niftyController.showLoadingMenu()
+          submitLoad(request, jme.loadModelAsScene(id, transform, listener = listener))
         }
-        state = ViewerState.LOAD
-        niftyController.setProgress(0, "Loading model: " + id)
-        niftyController.showLoadingMenu()
-        Threads.execute(runnable, logger, "loadModel")
       } else {
-        if (state == ViewerState.LOAD) {
-          logger.warn("Loading already in progress....")
-        } else {
-          logger.warn("Something is happening....")
-        }
+        logger.warn("Something is happening....")
       }
     } else {
       val scene = jme.loadModelAsScene(id, transform)
@@ -711,27 +787,26 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
   def loadScene(s: (String or Scene), async: Boolean = asyncLoading, onloaded: () => _ = null, onerror: () => _ = null) {
     val useSupportHierarchy = true
     if (async) {
-      if (state == ViewerState.READY) {
-        val listener = new SceneLoadProgressListener(defaultSceneDistanceScale, onloaded, onerror)
-        val runnable = new Runnable() {
-          override def run() {
-            jme.loadScene(s, listener = listener, useSupportHierarchy = useSupportHierarchy)
-          }
-        }
-        state = ViewerState.LOAD
+      if (state != ViewerState.INIT) {
         val name = s match {
           case Left(id) => id
           case Right(scene) => scene.sceneId
         }
-        niftyController.setProgress(0, "Loading scene: " + name)
-        niftyController.showLoadingMenu()
-        Threads.execute(runnable, logger, "loadScene")
-      } else {
-        if (state == ViewerState.LOAD) {
-          logger.warn("Loading already in progress....")
-        } else {
-          logger.warn("Something is happening....")
+        val request = loadQueue.request("scene " + name)
+        if (request != null) {
+          val listener = new SceneLoadProgressListener(request, defaultSceneDistanceScale, onloaded, onerror)
+          state = ViewerState.LOAD
+          niftyController.setProgress(0, "Loading scene: " + name)
+          niftyController.showLoadingMenu()
+          s match {
+            case Right(scene) if config.progressiveLoading && scene.objects.length > 1 =>
+              showProgressiveScene(scene, defaultSceneDistanceScale)
+            case _ => {}
+          }
+          submitLoad(request, jme.loadScene(s, listener = listener, useSupportHierarchy = useSupportHierarchy))
         }
+      } else {
+        logger.warn("Something is happening....")
       }
     } else {
       val scene = jme.loadScene(s, useSupportHierarchy = useSupportHierarchy)
@@ -903,44 +978,22 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
   }
 
   def saveModelStats(modelIds: Iterable[String], filename: String, appendToExisting: Boolean = false): Unit = {
-    def toString(value: Any): String = {
-      value match {
-        case v: Array[_] => v.map( x => toString(x) ).mkString(",")
-        case v: Vector3f => "[" + v.getX + "," + v.getY + "," + v.getZ + "]"
-        case _ => value.toString
-      }
+    if (config.headlessModelStats) {
+      val scanner = new ModelStatsScanner(jme, config.modelStatsThreads.getOrElse(Runtime.getRuntime.availableProcessors()))
+      scanner.saveModelStats(modelIds, filename, appendToExisting)
+      return
     }
-    val append = appendToExisting && IOUtils.isReadableFileWithData(filename)
-    var todoModelIds = modelIds
-    if (append) {
-      // Read existing file and update the remaining modelIds that we still have to do
-      val csvreader = new CSVFile(filename, includesHeader = true)
-      val iFullId = csvreader.index("id")
-      val doneIds = (for (row <- csvreader) yield {
-        row(iFullId)
-      }).toSet
-      todoModelIds = modelIds.filter( x => !doneIds.contains(x) )
-      logger.info("Skipping " + doneIds.size + " done ids, processing " + todoModelIds.size)
-    }
-    val output = new CSVWriter(IOUtils.filePrintWriter(filename, append))
-    val statNames = Seq("id", "category", "unit", "up", "front", "nfaces", "nvertices", "nMaterials", "minPoint", "maxPoint",
-      "aligned.minPoint", "aligned.maxPoint", "aligned.dims")
-    if (!append) {
-      output.writeNext(statNames.toArray)
-    }
-    for (modelId <- todoModelIds) {
+    val output = new ModelStatsWriter(filename, appendToExisting)
+    for (modelId <- output.remaining(modelIds)) {
       try {
-        val stats = getModelStats(modelId)
-        val row = statNames.map(x => stats.get(x).map(stat => toString(stat)).getOrElse(""))
-        output.writeNext(row.toArray)
+        output.write(getModelStats(modelId))
       } catch {
         case ex: Exception => {
           logger.warn("Error getting statistics for " + modelId, ex)
         }
       }
     }
-    output.close
-    logger.info("Saved " + filename)
+    output.close()
   }
 
   def getModelStats(modelId: String): Map[String,_] = {
@@ -955,7 +1008,7 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
     val geoms = jme.getGeometriesUnordered(modelNode)
     val nFaces = geoms.map( g => g.getTriangleCount ).sum
     val nVertices = geoms.map( g => g.getVertexCount ).sum
-    val nMaterials = geoms.map( g => g.getMaterial ).distinct.size
+    val nMaterials = JmeAssetCreator.getNumMaterials(modelNode)
     val category = model.modelInfo.category
     val map = Map(
       "id" -> modelId,
@@ -978,6 +1031,8 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
   override def destroy() {
     super.destroy()
     // do shutdown stuff here
+    if (jme != null) jme.dispose()
+    Threads.shutdown()
     if (exitOnStop) {
       sys.exit()
     }
@@ -1017,8 +1072,29 @@ class Viewer(val config: ViewerConfig = ViewerConfig()) extends SimpleApplicatio
     this.viewPort.setBackgroundColor(new ColorRGBA(1.0f, 1.0f, 1.0f, 0.0f))
 
     Jme.initAssetManager(assetManager, useViewerAssets = true, useDataDir = Constants.USE_LOCAL_DATA, useCustomObjLoader = useCustomObjLoader)
-    jme = Jme(assetManager, config.modelCacheSize, config.loadFormat)
+    config.plyLodMode.foreach( x => PLYLoader.setLodMode(x) )
+    config.plyLodCoarseVertices.foreach( x => PLYLoader.setLodCoarseVertices(x) )
+    config.plyLodVertexBudget.foreach( x => PLYLoader.setLodVertexBudget(x) )
+    DAELoader.setUseStreamingParser(config.daeStreamingParser)
+    config.objNormalCreaseAngle.foreach( x => OBJLoader.setNormalCreaseAngle(x) )
+    config.textureCacheSize.foreach( x => TextureCache.setMaxBytes(x.toLong*1024*1024) )
+    config.maxTextureSize.foreach( x => TextureCache.setMaxTextureSize(x) )
+    config.ioThreads.foreach( x => Threads.io.setPoolSize(x) )
+    config.cpuThreads.foreach( x => Threads.cpu.setPoolSize(x) )
+    config.encodeThreads.foreach( x => Threads.encode.setPoolSize(x) )
+    jme = Jme(assetManager, config.modelCacheSize, config.loadFormat, meshCacheDir = config.meshCacheDir,
+      sceneCacheDir = config.sceneCacheDir)
     Jme.setDefault(jme)
+    config.modelCacheMemory.foreach( x => jme.assetLoader.modelCache.setMaxWeight(x.toLong*1024*1024) )
+    config.assetCacheSize.foreach( x => if (jme.assetCachePolicy != null) jme.assetCachePolicy.setMaxBytes(x.toLong*1024*1024) )
+    if (config.instancing) {
+      if (renderer.getCaps.contains(Caps.MeshInstancing)) {
+        jme.assetCreator.instancing = true
+        config.instancingMinCount.foreach( x => jme.assetCreator.instancingMinCount = x )
+      } else {
+        logger.warn("Mesh instancing is not supported by the renderer, scenes will be drawn without instancing")
+      }
+    }
     if (config.shapeNetCoreDir != null) {
       try {
         jme.dataManager.registerShapeNetCore(config.shapeNetCoreDir)
@@ -5,6 +5,7 @@ import com.typesafe.config.{ConfigFactory, Config}
 import scala.collection.JavaConversions._
 import edu.stanford.graphics.shapenet.util.ConfigManager
 import edu.stanford.graphics.shapenet.jme3.loaders.LoadFormat
+import edu.stanford.graphics.shapenet.jme3.plugins.PLYLoader
 
 /**
  * Configuration for the viewer
@@ -23,8 +24,44 @@ class ViewerConfig(config: Config) extends ConfigManager(config) {
   var highlightMode = getStringOption("viewer.highlightMode").map( x => HighlightMode.withName(x) )
     .getOrElse(HighlightMode.HighlightSelectedFalseBkOrig)
 
+  // Maximum number of loaded models that are cached (no limit if not specified)
   val modelCacheSize = getIntOption("viewer.modelCacheSize")
+  // Size (in MB) of the mesh and texture buffers of the cached models (a quarter of the maximum heap if not specified)
+  val modelCacheMemory = getIntOption("viewer.modelCacheMemory")
+  // Size (in MB) of the model assets (models, textures) kept in the asset manager cache between loads
+  //   (material definitions and shaders are always kept)
+  val assetCacheSize = getIntOption("viewer.assetCacheSize")
+  // Directory for compiled (.smesh) copies of loaded models (not used if not specified)
+  val meshCacheDir = getStringOption("viewer.meshCacheDir")
+  // Directory for assembled scenes (object transforms and support hierarchy) so they are not put together again
+  val sceneCacheDir = getStringOption("viewer.sceneCacheDir")
+  // Number of threads for loading models (io), parsing and decoding meshes and textures (cpu),
+  //  and writing images and cached scenes (encode)
+  val ioThreads = getIntOption("viewer.ioThreads")
+  val cpuThreads = getIntOption("viewer.cpuThreads")
+  val encodeThreads = getIntOption("viewer.encodeThreads")
+  // Draw models repeated in a scene (at least instancingMinCount times) with hardware instancing
+  val instancing = getBoolean("viewer.instancing", false)
+  val instancingMinCount = getIntOption("viewer.instancingMinCount")
+  // Show scenes while they load (boxes for the objects, replaced by the models as they are loaded)
+  val progressiveLoading = getBoolean("viewer.progressiveLoading", false)
   val offscreenMode = getBoolean("viewer.offscreen", false)
+  // Compute model statistics by scanning the model files (instead of loading and aligning the scene)
+  val headlessModelStats = getBoolean("viewer.headlessModelStats", true)
+  val modelStatsThreads = getIntOption("viewer.modelStatsThreads")
+  // Level of detail for large (binary) ply files: NONE, VOXEL_GRID or STRIDE
+  //   a coarse mesh (plyLodCoarseVertices) is shown first and refined in the background (up to plyLodVertexBudget vertices)
+  val plyLodMode = getStringOption("viewer.plyLodMode").map( x => PLYLoader.LodMode.valueOf(x.toUpperCase) )
+  val plyLodCoarseVertices = getIntOption("viewer.plyLodCoarseVertices")
+  val plyLodVertexBudget = getIntOption("viewer.plyLodVertexBudget")
+  // Read collada (dae/kmz) files with the streaming parser (instead of the DOM parser)
+  val daeStreamingParser = getBoolean("viewer.daeStreamingParser", true)
+  // Crease angle (in degrees) for the normals generated for obj meshes without normals (0 for smooth normals)
+  val objNormalCreaseAngle = getFloatOption("viewer.objNormalCreaseAngle")
+  // Size (in MB) of the cache of decoded textures shared by all loaded models
+  val textureCacheSize = getIntOption("viewer.textureCacheSize")
+  // Maximum size (in pixels) of the largest edge of a texture (larger images are downscaled when they are decoded)
+  val maxTextureSize = getIntOption("viewer.maxTextureSize")
   //val commandsFile = config.getString("viewer.commands.file")
   //val commands = Seq("load random")
   val commands = getStringList("viewer.commands", Seq()).toIndexedSeq
@@ -1,6 +1,11 @@
 package edu.stanford.graphics.shapenet.util
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap
+import java.io.InterruptedIOException
+import java.nio.channels.ClosedByInterruptException
+import java.util.concurrent.{Callable, ConcurrentHashMap, ExecutionException, FutureTask}
+import java.util.concurrent.atomic.AtomicLong
+
+import com.googlecode.concurrentlinkedhashmap.{EvictionListener, Weigher, ConcurrentLinkedHashMap}
 import scala.ref.SoftReference
 
 // Simple LRU - wrapper around concurrentlinkedhashmap (can use spray-caching in future)
@@ -57,3 +62,172 @@ case class SoftLRUCache[A,B <: AnyRef](maxCapacity: Int, initialCapacity: Int =
   def clear() = lruCache.clear()
 }
 
+
+/**
+ * LRU cache bounded by the total weight (e.g. size in bytes) of its values (and optionally the number of entries).
+ * Concurrent getOrElse for the same missing key share one load.
+ * If the thread running the shared load is interrupted (e.g. its load was superseded),
+ *   the other threads waiting for it load the value again instead of getting the interrupted result.
+ * @author Angel Chang
+ */
+class WeightedLRUCache[A, B <: AnyRef](maxWeight: Long, val weigher: B => Long, var maxEntries: Int = -1, initialCapacity: Int = 16)
+{
+  private case class Entry(value: B, weight: Long)
+
+  /** Load shared by the threads asking for the same key */
+  private class Load(key: A, fn: => B) extends Callable[B] {
+    val task = new FutureTask[B](this)
+    // Was the thread running the load interrupted (the result is then not the value)
+    @volatile var interrupted = false
+
+    override def call(): B = {
+      // Loaded by another thread since we checked
+      val entry = cache.get(key)
+      if (entry != null) {
+        entry.value
+      } else {
+        val result = try {
+          fn
+        } catch {
+          case ex: Throwable => {
+            interrupted = isInterrupted(ex)
+            throw ex
+          }
+        }
+        // Loaders that log errors return null
+        if (result == null) interrupted = isInterrupted(null)
+        result
+      }
+    }
+  }
+
+  private def isInterrupted(ex: Throwable): Boolean = {
+    Thread.currentThread().isInterrupted || ex.isInstanceOf[InterruptedException] ||
+      ex.isInstanceOf[InterruptedIOException] || ex.isInstanceOf[ClosedByInterruptException]
+  }
+
+  // The map counts weights in KB (weights are ints)
+  private val cache = new ConcurrentLinkedHashMap.Builder[A, Entry]
+    .initialCapacity(initialCapacity)
+    .maximumWeightedCapacity(toKB(maxWeight))
+    .weigher(new Weigher[Entry] {
+      override def weightOf(entry: Entry): Int = math.min(toKB(entry.weight), Int.MaxValue).toInt
+    })
+    .listener(new EvictionListener[A, Entry] {
+      override def onEviction(key: A, entry: Entry): Unit = {
+        evictions.incrementAndGet()
+        weight.addAndGet(-entry.weight)
+      }
+    })
+    .build()
+  // Loads in progress
+  private val pending = new ConcurrentHashMap[A, Load]()
+  private val hits = new AtomicLong()
+  private val misses = new AtomicLong()
+  private val evictions = new AtomicLong()
+  private val weight = new AtomicLong()
+
+  private def toKB(w: Long): Long = if (w >= Long.MaxValue - 1023) Long.MaxValue/1024 else math.max(1, (w + 1023)/1024)
+
+  def setMaxWeight(w: Long): Unit = cache.setCapacity(toKB(w))
+
+  def getMaxWeight: Long = cache.capacity()*1024
+
+  /** Returns the cached value, or loads it (only once if several threads ask for the same key) */
+  def getOrElse(key: A)(fn: => B): B = {
+    val entry = cache.get(key)
+    if (entry != null) {
+      hits.incrementAndGet()
+      entry.value
+    } else {
+      val load = new Load(key, fn)
+      val existing = pending.putIfAbsent(key, load)
+      if (existing != null) {
+        // Another thread is loading it
+        val result = try {
+          existing.task.get()
+        } catch {
+          case ex: ExecutionException if !existing.interrupted => throw ex.getCause
+          case ex: ExecutionException => null.asInstanceOf[B]
+        }
+        if (existing.interrupted && !Thread.currentThread().isInterrupted) {
+          // Its load was interrupted, load it again (unless another thread already is)
+          pending.remove(key, existing)
+          getOrElse(key)(fn)
+        } else {
+          hits.incrementAndGet()
+          result
+        }
+      } else {
+        misses.incrementAndGet()
+        try {
+          load.task.run()
+          val result = await(load.task)
+          if (result != null && !cache.containsKey(key)) {
+            put(key, result)
+          }
+          result
+        } finally {
+          pending.remove(key, load)
+        }
+      }
+    }
+  }
+
+  private def await(task: FutureTask[B]): B = {
+    try {
+      task.get()
+    } catch {
+      case ex: ExecutionException => throw ex.getCause
+    }
+  }
+
+  def get(key: A): Option[B] = Option(cache.get(key)).map( x => x.value )
+
+  def put(key: A, value: B): Unit = {
+    val w = weigher(value)
+    weight.addAndGet(w)
+    val old = cache.put(key, Entry(value, w))
+    if (old != null) {
+      weight.addAndGet(-old.weight)
+    }
+    if (maxEntries >= 0) {
+      while (cache.size() > maxEntries) {
+        val lru = cache.ascendingKeySetWithLimit(1)
+        if (!lru.isEmpty) {
+          val removed = cache.remove(lru.iterator().next())
+          if (removed != null) {
+            evictions.incrementAndGet()
+            weight.addAndGet(-removed.weight)
+          }
+        }
+      }
+    }
+  }
+
+  def remove(key: A): Option[B] = {
+    val removed = cache.remove(key)
+    if (removed != null) {
+      weight.addAndGet(-removed.weight)
+    }
+    Option(removed).map( x => x.value )
+  }
+
+  def clear(): Unit = {
+    for (key <- cache.keySet().toArray) {
+      remove(key.asInstanceOf[A])
+    }
+  }
+
+  def size: Int = cache.size()
+  def getHits: Long = hits.get()
+  def getMisses: Long = misses.get()
+  def getEvictions: Long = evictions.get()
+  /** Total weight of the cached values */
+  def getWeight: Long = weight.get()
+
+  def stats: String = {
+    size + " entries, " + (getWeight/(1024*1024)) + "/" + (getMaxWeight/(1024*1024)) + "MB, " +
+      getHits + " hits, " + getMisses + " misses, " + getEvictions + " evictions"
+  }
+}
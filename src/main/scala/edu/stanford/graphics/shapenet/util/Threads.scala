@@ -1,12 +1,60 @@
 package edu.stanford.graphics.shapenet.util
 
-import java.util.concurrent.{Future, Executors}
+import java.util.concurrent.{TimeUnit, Future}
 
+import edu.stanford.graphics.shapenet.util.TaskExecutor.Priority
+
+/**
+ * Shared executors for background work (each with a bounded number of threads and its own queue, see TaskExecutor)
+ *   - tasks: top level jobs (e.g. loading the model or scene asked for in the viewer)
+ *   - io: fetching and loading models (e.g. the models of a scene)
+ *   - cpu: parsing and decoding (obj chunks, utf8 meshes, textures, refined ply meshes)
+ *   - encode: encoding and writing files (screenshots, scene cache)
+ * A task can wait for the tasks of the executors after its own (tasks, then io, then cpu and encode)
+ *   but should not wait for tasks of its own executor (all its threads could be waiting).
+ * Interactive tasks run before batch tasks (Threads.withPriority sets the priority of the tasks submitted by a block).
+ */
 object Threads extends Loggable {
-  lazy val threadPool = Executors.newCachedThreadPool()
-  def execute(runnable: Runnable, logger: org.slf4j.Logger = this.logger, desc: String = ""): Future[_] = {
+  private val nProcessors = Runtime.getRuntime.availableProcessors()
+  lazy val tasks = new TaskExecutor("tasks", 2)
+  lazy val io = new TaskExecutor("io", nProcessors)
+  lazy val cpu = new TaskExecutor("cpu", nProcessors)
+  lazy val encode = new TaskExecutor("encode", 1)
+  // Files waiting to be encoded before the next one is encoded on the thread asking for it
+  //   (each one holds a whole image, so a renderer faster than the encoder doesn't fill the memory)
+  @volatile var maxPendingEncodes = 4
+
+  def executors = Seq(tasks, io, cpu, encode)
+
+  def execute(runnable: Runnable, logger: org.slf4j.Logger = this.logger, desc: String = "",
+              priority: Priority = TaskExecutor.getCurrentPriority): Future[_] = {
     val wrappedRunnable = new RunnableWithLogging(runnable, logger, desc)
-    threadPool.submit(wrappedRunnable)
+    tasks.submit(wrappedRunnable, priority)
+  }
+
+  /** Encodes (and writes) on the encode executor, or on this thread if there are already maxPendingEncodes waiting */
+  def encodeOrRun(runnable: Runnable): Unit = {
+    encode.executeOrRun(runnable, maxPendingEncodes)
+  }
+
+  /** Runs the block with tasks submitted from this thread getting the given priority */
+  def withPriority[T](priority: Priority)(f: => T): T = {
+    val old = TaskExecutor.setCurrentPriority(priority)
+    try {
+      f
+    } finally {
+      TaskExecutor.setCurrentPriority(old)
+    }
+  }
+
+  def getStats: Seq[TaskExecutor.Stats] = executors.map( x => x.getStats )
+
+  /** Stops the executors, waiting (up to timeout) for the files being written */
+  def shutdown(timeout: Long = 1, unit: TimeUnit = TimeUnit.MINUTES): Unit = {
+    executors.foreach( x => x.shutdown() )
+    if (!encode.awaitTermination(timeout, unit)) {
+      logger.warn("Timed out waiting for " + encode)
+    }
   }
 }
 
@@ -0,0 +1,61 @@
+package edu.stanford.graphics.shapenet.jme3.asset
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+import java.nio.charset.{Charset, StandardCharsets}
+import java.util.zip.{ZipEntry, ZipException, ZipOutputStream}
+
+import org.scalatest.FunSuite
+
+import scala.collection.JavaConverters._
+import scala.io.Source
+
+/**
+ * Tests for ZipArchive (read from the bytes of an archive)
+ * @author Angel Chang
+ */
+class ZipArchiveTest extends FunSuite {
+
+  private def zip(charset: Charset, entries: (String, String)*): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream()
+    val out = new ZipOutputStream(bytes, charset)
+    for ((name, content) <- entries) {
+      out.putNextEntry(new ZipEntry(name))
+      out.write(content.getBytes(StandardCharsets.UTF_8))
+      out.closeEntry()
+    }
+    out.close()
+    bytes.toByteArray
+  }
+
+  private def read(bytes: Array[Byte]) = ZipArchive.read(new ByteArrayInputStream(bytes))
+
+  private def content(archive: ZipArchive, name: String): String = {
+    val in = archive.openEntry(name)
+    try Source.fromInputStream(in, "UTF-8").mkString finally in.close()
+  }
+
+  test("reads the entries") {
+    val archive = read(zip(StandardCharsets.UTF_8, "doc.kml" -> "<kml/>", "files/tex.png" -> "png"))
+    assert(archive.getEntryNames.asScala === Seq("doc.kml", "files/tex.png"))
+    assert(content(archive, "files/tex.png") === "png")
+    assert(archive.openEntry("missing") === null)
+  }
+
+  test("decodes names flagged as UTF-8 and CP437 names") {
+    val utf8 = read(zip(StandardCharsets.UTF_8, "café/é.png" -> "a"))
+    assert(utf8.hasEntry("café/é.png"))
+    val cp437 = read(zip(Charset.forName("IBM437"), "café/é.png" -> "a"))
+    assert(cp437.hasEntry("café/é.png"))
+    assert(content(cp437, "café/é.png") === "a")
+  }
+
+  test("rejects a truncated central directory") {
+    val bytes = zip(StandardCharsets.UTF_8, "doc.kml" -> "<kml/>")
+    // Name length of the (only) central directory entry past the end of the archive
+    val central = bytes.indexOfSlice(Seq[Byte](0x50, 0x4b, 0x01, 0x02))
+    bytes(central + 28) = 0xff.toByte
+    bytes(central + 29) = 0xff.toByte
+    intercept[ZipException] { read(bytes) }
+    intercept[ZipException] { read(bytes.take(bytes.length / 2)) }
+  }
+}
@@ -0,0 +1,47 @@
+package edu.stanford.graphics.shapenet.jme3.loaders
+
+import java.nio.charset.StandardCharsets
+
+import org.scalatest.FunSuite
+
+/**
+ * Tests for UTF8Decoder.Input (chars decoded from the bytes)
+ * @author Angel Chang
+ */
+class UTF8DecoderTest extends FunSuite {
+
+  private def decode(input: UTF8Decoder.Input): Seq[Int] = {
+    val cursor = input.cursor(0)
+    (0 until input.length()).map( i => cursor.next() )
+  }
+
+  /** Checks that seeking to each char gives the same char as reading from the start */
+  private def checkSeek(input: UTF8Decoder.Input): Unit = {
+    val chars = decode(input)
+    for (i <- 0 until input.length()) {
+      assert(input.cursor(i).next() === chars(i), "char " + i)
+    }
+  }
+
+  test("decodes chars like a String") {
+    val text = ("aé€😀z" * 500) + "𐀀"
+    val input = new UTF8Decoder.Input(text.getBytes(StandardCharsets.UTF_8))
+    assert(input.length() === text.length)
+    assert(decode(input) === text.map( c => c.toInt ))
+    checkSeek(input)
+  }
+
+  test("decodes a malformed sequence as one replacement char") {
+    val bytes = Array[Byte]('a', 0xf0.toByte, 0x9f.toByte, 'b', 0x80.toByte, 0x80.toByte, 'c', 0xe2.toByte)
+    val input = new UTF8Decoder.Input(bytes)
+    assert(decode(input) === Seq('a'.toInt, 0xfffd, 'b'.toInt, 0xfffd, 'c'.toInt, 0xfffd))
+  }
+
+  test("seeks to the right char after malformed sequences") {
+    val piece = Array[Byte]('x', 0xf0.toByte, 0x9f.toByte, 0x98.toByte, 'y', 0xc3.toByte, 0xa9.toByte, 0x80.toByte) ++
+      "😀".getBytes(StandardCharsets.UTF_8)
+    val input = new UTF8Decoder.Input(Array.fill(1000)(piece).flatten)
+    assert(input.length() === 1000 * 7)
+    checkSeek(input)
+  }
+}
@@ -0,0 +1,121 @@
+package edu.stanford.graphics.shapenet.jme3.viewer
+
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import edu.stanford.graphics.shapenet.util.TaskExecutor.Priority
+import org.scalatest.FunSuite
+
+/**
+ * Tests for LoadQueue
+ * @author Angel Chang
+ */
+class LoadQueueTest extends FunSuite {
+
+  /** Load that waits until released (or interrupted) */
+  private class BlockingLoad extends Runnable {
+    val started = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    val finished = new CountDownLatch(1)
+    @volatile var interrupted = false
+
+    override def run(): Unit = {
+      started.countDown()
+      try {
+        release.await(10, TimeUnit.SECONDS)
+      } catch {
+        case ex: InterruptedException => interrupted = true
+      } finally {
+        finished.countDown()
+      }
+    }
+  }
+
+  test("does nothing for a load that is already pending") {
+    val queue = new LoadQueue()
+    val request = queue.request("model a", Priority.INTERACTIVE)
+    assert(request != null)
+    assert(queue.request("model a", Priority.INTERACTIVE) === null)
+    assert(queue.request("model a", Priority.BATCH) === null)
+    assert(queue.done(request))
+    assert(queue.request("model a", Priority.INTERACTIVE) != null)
+  }
+
+  test("is loading until all pending loads are done") {
+    val queue = new LoadQueue()
+    assert(!queue.isLoading)
+    val a = queue.request("model a", Priority.BATCH)
+    val b = queue.request("model b", Priority.BATCH)
+    assert(queue.isLoading)
+    assert(queue.done(a))
+    assert(!queue.done(a))
+    assert(queue.isLoading)
+    assert(queue.done(b))
+    assert(!queue.isLoading)
+  }
+
+  test("an interactive load supersedes the pending interactive loads and interrupts the running ones") {
+    val queue = new LoadQueue()
+    val a = queue.request("model a", Priority.INTERACTIVE)
+    val load = new BlockingLoad()
+    queue.submit(a, load)
+    assert(load.started.await(10, TimeUnit.SECONDS))
+    val b = queue.request("model b", Priority.INTERACTIVE)
+    val c = queue.request("model c", Priority.INTERACTIVE)
+    assert(!a.isCurrent)
+    assert(!b.isCurrent)
+    assert(c.isCurrent)
+    assert(load.finished.await(10, TimeUnit.SECONDS))
+    assert(load.interrupted)
+    // Superseded loads are no longer pending
+    assert(!queue.done(a))
+    assert(!queue.done(b))
+    assert(queue.isLoading)
+    assert(queue.done(c))
+    assert(!queue.isLoading)
+  }
+
+  test("an interactive load doesn't supersede batch loads") {
+    val queue = new LoadQueue()
+    val a = queue.request("scene a", Priority.BATCH)
+    val load = new BlockingLoad()
+    queue.submit(a, load)
+    assert(load.started.await(10, TimeUnit.SECONDS))
+    val b = queue.request("scene b", Priority.BATCH)
+    val c = queue.request("model c", Priority.INTERACTIVE)
+    assert(a.isCurrent && b.isCurrent && c.isCurrent)
+    assert(queue.done(c))
+    // The batch loads are still pending (and running)
+    assert(queue.isLoading)
+    assert(!load.finished.await(100, TimeUnit.MILLISECONDS))
+    load.release.countDown()
+    assert(load.finished.await(10, TimeUnit.SECONDS))
+    assert(!load.interrupted)
+    assert(queue.done(a) && queue.done(b))
+    assert(!queue.isLoading)
+  }
+
+  test("a superseded load is not run") {
+    val queue = new LoadQueue()
+    val a = queue.request("model a", Priority.INTERACTIVE)
+    queue.request("model b", Priority.INTERACTIVE)
+    val load = new BlockingLoad()
+    queue.submit(a, load)
+    assert(!load.started.await(100, TimeUnit.MILLISECONDS))
+  }
+
+  test("batch loads don't supersede other loads") {
+    val queue = new LoadQueue()
+    val a = queue.request("model a", Priority.INTERACTIVE)
+    val load = new BlockingLoad()
+    queue.submit(a, load)
+    assert(load.started.await(10, TimeUnit.SECONDS))
+    val b = queue.request("scene b", Priority.BATCH)
+    val c = queue.request("scene c", Priority.BATCH)
+    assert(a.isCurrent && b.isCurrent && c.isCurrent)
+    load.release.countDown()
+    assert(load.finished.await(10, TimeUnit.SECONDS))
+    assert(!load.interrupted)
+    assert(queue.done(a) && queue.done(b) && queue.done(c))
+    assert(!queue.isLoading)
+  }
+}
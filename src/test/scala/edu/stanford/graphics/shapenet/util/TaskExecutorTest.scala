@@ -0,0 +1,148 @@
+package edu.stanford.graphics.shapenet.util
+
+import java.util.concurrent.{Callable, CopyOnWriteArrayList, CountDownLatch, Future, LinkedBlockingQueue, TimeUnit}
+
+import edu.stanford.graphics.shapenet.util.TaskExecutor.Priority
+import org.scalatest.concurrent.Eventually
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.{BeforeAndAfter, FunSuite}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Tests for TaskExecutor (and Threads.withPriority)
+ * @author Angel Chang
+ */
+class TaskExecutorTest extends FunSuite with BeforeAndAfter with Eventually {
+  private var executor: TaskExecutor = null
+  private var release: CountDownLatch = null
+
+  before {
+    executor = new TaskExecutor("test", 1)
+    release = new CountDownLatch(1)
+  }
+
+  after {
+    release.countDown()
+    executor.shutdownNow()
+    executor.awaitTermination(10, TimeUnit.SECONDS)
+  }
+
+  private def runnable(f: => Unit) = new Runnable {
+    override def run(): Unit = f
+  }
+
+  private def callable[T](f: => T) = new Callable[T] {
+    override def call(): T = f
+  }
+
+  /** Keeps the (only) thread of the executor busy until release */
+  private def block(): Unit = {
+    val started = new CountDownLatch(1)
+    executor.execute(runnable { started.countDown(); release.await() })
+    assert(started.await(10, TimeUnit.SECONDS))
+  }
+
+  private def await(future: Future[_]): Unit = future.get(10, TimeUnit.SECONDS)
+
+  test("runs interactive tasks before batch tasks, in the order they were submitted") {
+    block()
+    val order = new CopyOnWriteArrayList[String]()
+    val futures = Seq(("batch1", Priority.BATCH), ("interactive1", Priority.INTERACTIVE),
+      ("batch2", Priority.BATCH), ("interactive2", Priority.INTERACTIVE)).map {
+      case (name, priority) => executor.submit(runnable { order.add(name) }, priority)
+    }
+    assert(executor.getQueue.size === 4)
+    release.countDown()
+    futures.foreach( f => await(f) )
+    assert(order.asScala === Seq("interactive1", "interactive2", "batch1", "batch2"))
+  }
+
+  test("tasks get the priority of the task submitting them") {
+    val other = new TaskExecutor("other", 1)
+    try {
+      val batch = executor.submit(callable {
+        // Submitted without a priority
+        other.submit(callable { TaskExecutor.getCurrentPriority }).get()
+      }, Priority.BATCH)
+      assert(batch.get(10, TimeUnit.SECONDS) === Priority.BATCH)
+      val interactive = executor.submit(callable {
+        other.submit(callable { TaskExecutor.getCurrentPriority }).get()
+      }, Priority.INTERACTIVE)
+      assert(interactive.get(10, TimeUnit.SECONDS) === Priority.INTERACTIVE)
+    } finally {
+      other.shutdownNow()
+    }
+  }
+
+  test("tasks submitted outside of a task are interactive unless set with withPriority") {
+    assert(TaskExecutor.getCurrentPriority === Priority.INTERACTIVE)
+    val batch = Threads.withPriority(Priority.BATCH) {
+      executor.submit(callable { TaskExecutor.getCurrentPriority })
+    }
+    assert(TaskExecutor.getCurrentPriority === Priority.INTERACTIVE)
+    assert(batch.get(10, TimeUnit.SECONDS) === Priority.BATCH)
+    assert(executor.submit(callable { TaskExecutor.getCurrentPriority }).get(10, TimeUnit.SECONDS) === Priority.INTERACTIVE)
+  }
+
+  test("cancelled tasks are removed from the queue") {
+    block()
+    @volatile var ran = false
+    val future = executor.submit(runnable { ran = true }, Priority.INTERACTIVE)
+    val other = executor.submit(callable { 1 })
+    assert(executor.getQueue.size === 2)
+    assert(future.cancel(false))
+    assert(executor.getQueue.size === 1)
+    assert(executor.getStats.cancelled === 1)
+    release.countDown()
+    await(other)
+    assert(!ran)
+    // Tasks are counted once they are done running (after their future is done)
+    eventually(timeout(Span(10, Seconds))) {
+      assert(executor.getStats.completed === 2)
+    }
+  }
+
+  test("knows if the current thread is one of its threads") {
+    assert(!executor.isCurrentThread)
+    assert(executor.submit(callable { executor.isCurrentThread }).get(10, TimeUnit.SECONDS))
+    val other = new TaskExecutor("other", 1)
+    try {
+      assert(!other.submit(callable { executor.isCurrentThread }).get(10, TimeUnit.SECONDS))
+    } finally {
+      other.shutdownNow()
+    }
+  }
+
+  test("puts tasks in the completion queue as they are done") {
+    block()
+    val completed = new LinkedBlockingQueue[Future[String]]()
+    val first = executor.submit(callable { "first" }, Priority.BATCH, completed)
+    val second = executor.submit(callable { "second" }, Priority.INTERACTIVE, completed)
+    val third = executor.submit(callable { "third" }, Priority.BATCH, completed)
+    assert(third.cancel(false))
+    assert(completed.poll(10, TimeUnit.SECONDS) eq third)
+    // The cancelled task left the queue
+    assert(executor.getQueue.size === 2)
+    release.countDown()
+    assert(completed.poll(10, TimeUnit.SECONDS) eq second)
+    assert(completed.poll(10, TimeUnit.SECONDS).get() === "first")
+    assert(first.isDone)
+  }
+
+  test("runs the task on the calling thread when too many tasks are waiting") {
+    block()
+    val threads = new CopyOnWriteArrayList[Thread]()
+    executor.executeOrRun(runnable { threads.add(Thread.currentThread()) }, 1)
+    assert(executor.getQueue.size === 1)
+    assert(threads.isEmpty)
+    executor.executeOrRun(runnable { threads.add(Thread.currentThread()) }, 1)
+    assert(executor.getQueue.size === 1)
+    assert(threads.asScala === Seq(Thread.currentThread()))
+    release.countDown()
+    executor.shutdown()
+    assert(executor.awaitTermination(10, TimeUnit.SECONDS))
+    assert(threads.size === 2)
+    assert(threads.get(1).getName.startsWith("test-"))
+  }
+}
@@ -0,0 +1,102 @@
+package edu.stanford.graphics.shapenet.util
+
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.scalatest.FunSuite
+
+/**
+ * Tests for WeightedLRUCache
+ * @author Angel Chang
+ */
+class WeightedLRUCacheTest extends FunSuite {
+
+  private def newCache() = new WeightedLRUCache[String, String](1024 * 1024, x => x.length.toLong)
+
+  /** Runs the getOrElse on another thread (keeping the result or the error) */
+  private class Getter(cache: WeightedLRUCache[String, String], key: String)(fn: => String) extends Thread {
+    @volatile var result: String = null
+    @volatile var error: Throwable = null
+
+    override def run(): Unit = {
+      try {
+        result = cache.getOrElse(key)(fn)
+      } catch {
+        case ex: Throwable => error = ex
+      }
+    }
+
+    /** Waits until this thread is waiting for the load of another thread */
+    def awaitWaiting(): Unit = {
+      val end = System.currentTimeMillis() + 10000
+      while (getState != Thread.State.WAITING && System.currentTimeMillis() < end) {
+        Thread.sleep(1)
+      }
+      assert(getState === Thread.State.WAITING)
+    }
+  }
+
+  test("loads a missing value once") {
+    val cache = newCache()
+    assert(cache.getOrElse("a")("value") === "value")
+    assert(cache.getOrElse("a")(fail("loaded twice")) === "value")
+    assert(cache.getMisses === 1)
+    assert(cache.getHits === 1)
+    assert(cache.getWeight === 5)
+  }
+
+  test("threads asking for the same key share the load and its error") {
+    val cache = newCache()
+    val started = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    val owner = new Getter(cache, "a")({ started.countDown(); release.await(); throw new IllegalStateException("failed") })
+    owner.start()
+    assert(started.await(10, TimeUnit.SECONDS))
+    val waiter = new Getter(cache, "a")(fail("loaded twice"))
+    waiter.start()
+    waiter.awaitWaiting()
+    release.countDown()
+    owner.join(10000)
+    waiter.join(10000)
+    assert(owner.error.isInstanceOf[IllegalStateException])
+    assert(waiter.error.isInstanceOf[IllegalStateException])
+  }
+
+  test("threads waiting for an interrupted load load the value again") {
+    val cache = newCache()
+    val started = new CountDownLatch(1)
+    val owner = new Getter(cache, "a")({ started.countDown(); Thread.sleep(10000); "owner" })
+    owner.start()
+    assert(started.await(10, TimeUnit.SECONDS))
+    val waiter = new Getter(cache, "a")("waiter")
+    waiter.start()
+    waiter.awaitWaiting()
+    owner.interrupt()
+    owner.join(10000)
+    waiter.join(10000)
+    assert(owner.error.isInstanceOf[InterruptedException])
+    assert(waiter.error === null)
+    assert(waiter.result === "waiter")
+    assert(cache.get("a") === Some("waiter"))
+  }
+
+  test("threads waiting for a load that was interrupted and returned null load the value again") {
+    val cache = newCache()
+    val started = new CountDownLatch(1)
+    val owner = new Getter(cache, "a")({
+      started.countDown()
+      // Like a loader that logs the error and returns null
+      try { Thread.sleep(10000) } catch { case ex: InterruptedException => Thread.currentThread().interrupt() }
+      null
+    })
+    owner.start()
+    assert(started.await(10, TimeUnit.SECONDS))
+    val waiter = new Getter(cache, "a")("waiter")
+    waiter.start()
+    waiter.awaitWaiting()
+    owner.interrupt()
+    owner.join(10000)
+    waiter.join(10000)
+    assert(owner.result === null)
+    assert(waiter.result === "waiter")
+  }
+}
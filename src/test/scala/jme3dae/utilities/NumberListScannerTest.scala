@@ -0,0 +1,104 @@
+package jme3dae.utilities
+
+import org.scalatest.FunSuite
+
+/**
+ * Tests for NumberListScanner
+ * @author Angel Chang
+ */
+class NumberListScannerTest extends FunSuite {
+
+  private def floats(text: String, capacity: Int = 0): Array[Float] = {
+    val scanner = NumberListScanner.forFloats(capacity)
+    scanner.scan(text)
+    scanner.toFloatArray()
+  }
+
+  private def ints(text: String, capacity: Int = 0): Array[Int] = {
+    val scanner = NumberListScanner.forInts(capacity)
+    scanner.scan(text)
+    scanner.toIntArray()
+  }
+
+  /** Parses the text given in pieces of the given size (as the streaming parser hands them over) */
+  private def floatsInPieces(text: String, pieceSize: Int): Array[Float] = {
+    val scanner = NumberListScanner.forFloats(0)
+    val chars = ("xx" + text + "xx").toCharArray
+    for (start <- 0 until text.length by pieceSize) {
+      scanner.scan(chars, start + 2, math.min(pieceSize, text.length - start))
+    }
+    scanner.toFloatArray()
+  }
+
+  test("parses ints") {
+    assert(ints("1 -2 +3 0 2147483647 -2147483648").toSeq === Seq(1, -2, 3, 0, Int.MaxValue, Int.MinValue))
+  }
+
+  test("rejects ints that are not numbers or overflow") {
+    intercept[NumberFormatException] { ints("1 2.5") }
+    intercept[NumberFormatException] { ints("1 -") }
+    intercept[NumberFormatException] { ints("2147483648") }
+    intercept[NumberFormatException] { ints("-2147483649") }
+  }
+
+  test("parses floats like Float.parseFloat") {
+    val values = Seq("0", "-0", "1", "-1.5", "0.1", "3.14159", ".5", "5.", "-78.1023", "1e3", "1E-3", "-2.5e+10",
+      "1.17549435E-38", "3.4028235E38", "1.4E-45", "123456789012345678901234567890", "0.30000000000000004",
+      "16777217", "1e-50", "1e50")
+    val parsed = floats(values.mkString(" "))
+    for ((text, value) <- values.zip(parsed)) {
+      assert(java.lang.Float.floatToIntBits(value) === java.lang.Float.floatToIntBits(text.toFloat), text)
+    }
+  }
+
+  test("parses NaN and infinities") {
+    val parsed = floats("NaN Infinity -Infinity")
+    assert(parsed(0).isNaN)
+    assert(parsed(1) === Float.PositiveInfinity)
+    assert(parsed(2) === Float.NegativeInfinity)
+  }
+
+  test("rejects floats that are not numbers") {
+    intercept[NumberFormatException] { floats("1 abc") }
+    intercept[NumberFormatException] { floats("1e") }
+    intercept[NumberFormatException] { floats("-") }
+  }
+
+  test("ignores stray whitespace") {
+    assert(ints(" \n\t1  2\r\n3\t ").toSeq === Seq(1, 2, 3))
+    assert(floats("\n  1.5 \t\t -2 \r\n").toSeq === Seq(1.5f, -2f))
+    assert(ints("   ").isEmpty)
+    assert(floats("").isEmpty)
+  }
+
+  test("parses numbers that span pieces") {
+    val text = (0 until 200).map( i => (i * 1.37f - 50).toString ).mkString(" \n")
+    val expected = floats(text)
+    for (pieceSize <- Seq(1, 2, 3, 7, 64, text.length)) {
+      assert(floatsInPieces(text, pieceSize).toSeq === expected.toSeq, "piece size " + pieceSize)
+    }
+  }
+
+  test("grows when the capacity is lower than the number of values") {
+    val text = (1 to 1000).mkString(" ")
+    assert(ints(text, 10).toSeq === (1 to 1000))
+    assert(floats(text, 1).toSeq === (1 to 1000).map(_.toFloat))
+  }
+
+  test("trims when the capacity is higher than the number of values") {
+    assert(ints("1 2 3", 100).toSeq === Seq(1, 2, 3))
+    assert(floats("1 2 3", 100).length === 3)
+  }
+
+  test("caps a huge capacity") {
+    assert(ints("1 2", Int.MaxValue).toSeq === Seq(1, 2))
+    assert(floats("1", -5).toSeq === Seq(1f))
+  }
+
+  test("gives the largest number of values of a text") {
+    assert(NumberListScanner.getMaxCount("") === 0)
+    assert(NumberListScanner.getMaxCount("1") === 1)
+    assert(NumberListScanner.getMaxCount("1 2 3") === 3)
+    assert(ints("1 2 3", NumberListScanner.getMaxCount("1 2 3")).toSeq === Seq(1, 2, 3))
+  }
+}